@@ -0,0 +1,81 @@
+package com.vinaysshenoy.poirot.gradle;
+
+import com.vinaysshenoy.poirot.Poirot;
+import com.vinaysshenoy.poirot.PoirotDefinition;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+
+/**
+ * Work item that loads a {@link PoirotDefinition} and generates its schemas. It runs in a classloader created from the
+ * classpath of the definition, so the Poirot classes referenced here are the ones the definition was compiled against.
+ */
+public abstract class GenerateAction implements WorkAction<GenerateAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+
+        Property<String> getDefinitionClass();
+
+        DirectoryProperty getCurrentOutputDirectory();
+
+        DirectoryProperty getOlderOutputDirectory();
+
+        DirectoryProperty getTemplateAssetsDirectory();
+    }
+
+    @Override
+    public void execute() {
+
+        final String definitionClass = getParameters().getDefinitionClass().get();
+        final PoirotDefinition definition;
+        try {
+            definition = Class.forName(definitionClass, true, GenerateAction.class.getClassLoader())
+                    .asSubclass(PoirotDefinition.class)
+                    .getConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Could not create Poirot definition " + definitionClass, e);
+        }
+
+        final File currentOutputDirectory = getParameters().getCurrentOutputDirectory().get().getAsFile();
+        final File olderOutputDirectory = getParameters().getOlderOutputDirectory().get().getAsFile();
+        final File templateAssetsDirectory = getParameters().getTemplateAssetsDirectory().get().getAsFile();
+
+        //Remove the files of entities and schemas that no longer exist
+        deleteContents(currentOutputDirectory);
+        deleteContents(olderOutputDirectory);
+
+        try {
+            final Poirot poirot = definition.define();
+
+            //The template is written into the output directory of the task, so that Gradle tracks and caches it
+            final String templateAssetName = poirot.getDatabaseTemplateAssetName();
+            if (templateAssetName != null) {
+                poirot.setDatabaseTemplate(templateAssetsDirectory.getAbsolutePath(), templateAssetName);
+            }
+            poirot.generate(currentOutputDirectory.getAbsolutePath(), olderOutputDirectory.getAbsolutePath());
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not generate schemas of " + definitionClass, e);
+        }
+    }
+
+    private static void deleteContents(File directory) {
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                throw new IllegalStateException("Could not delete " + file);
+            }
+        }
+    }
+}
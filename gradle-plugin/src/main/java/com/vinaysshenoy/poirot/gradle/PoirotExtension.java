@@ -0,0 +1,84 @@
+package com.vinaysshenoy.poirot.gradle;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * The {@code poirot} block of a project that applies {@link PoirotPlugin}
+ * <pre>
+ * dependencies {
+ *     poirot project(':schemas')
+ * }
+ *
+ * poirot {
+ *     definitionClass = 'com.example.db.Schemas'
+ * }
+ * </pre>
+ * The output directories must be inside the build directory, since their contents are deleted every time the schemas
+ * are generated.
+ */
+public class PoirotExtension {
+
+    private final Property<String> mDefinitionClass;
+
+    private final ConfigurableFileCollection mClasspath;
+
+    private final DirectoryProperty mCurrentOutputDirectory;
+
+    private final DirectoryProperty mOlderOutputDirectory;
+
+    private final DirectoryProperty mTemplateAssetsDirectory;
+
+    public PoirotExtension(Project project) {
+        mDefinitionClass = project.getObjects().property(String.class);
+        mClasspath = project.files();
+        mCurrentOutputDirectory = project.getObjects().directoryProperty();
+        mCurrentOutputDirectory.set(project.getLayout().getBuildDirectory().dir("generated/poirot/cur"));
+        mOlderOutputDirectory = project.getObjects().directoryProperty();
+        mOlderOutputDirectory.set(project.getLayout().getBuildDirectory().dir("generated/poirot/old"));
+        mTemplateAssetsDirectory = project.getObjects().directoryProperty();
+        mTemplateAssetsDirectory.set(project.getLayout().getBuildDirectory().dir("generated/poirot/assets"));
+    }
+
+    /**
+     * @return The fully qualified name of the {@code PoirotDefinition} implementation that creates the schemas
+     */
+    public Property<String> getDefinitionClass() {
+        return mDefinitionClass;
+    }
+
+    /**
+     * @return The classpath to load the definition and Poirot from. This is the {@code poirot} configuration of the
+     * project by default.
+     */
+    public ConfigurableFileCollection getClasspath() {
+        return mClasspath;
+    }
+
+    /**
+     * @return The directory to generate the DAO objects and the helper for the current schema into. The contents of
+     * the directory are replaced every time the schemas are generated, so it must be inside the build directory.
+     */
+    public DirectoryProperty getCurrentOutputDirectory() {
+        return mCurrentOutputDirectory;
+    }
+
+    /**
+     * @return The directory to generate the DAO objects for the older schemas into. The contents of the directory are
+     * replaced every time the schemas are generated, so it must be inside the build directory.
+     */
+    public DirectoryProperty getOlderOutputDirectory() {
+        return mOlderOutputDirectory;
+    }
+
+    /**
+     * @return The assets directory to write the database template into, if the definition sets one. It replaces the
+     * assets directory passed to {@code setDatabaseTemplate()}, so that the template is an output of the task, and must
+     * be added to the assets of the app.
+     */
+    public DirectoryProperty getTemplateAssetsDirectory() {
+        return mTemplateAssetsDirectory;
+    }
+}
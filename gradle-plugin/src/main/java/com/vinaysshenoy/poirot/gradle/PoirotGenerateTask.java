@@ -0,0 +1,112 @@
+package com.vinaysshenoy.poirot.gradle;
+
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.workers.ClassLoaderWorkerSpec;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Task that generates the schemas of a {@code PoirotDefinition}.
+ * <p/>
+ * The compiled definition (and the version of Poirot it depends on) is the only input, so the task is up to date, or
+ * loaded from the build cache, unless the schemas have changed. Generation runs in a worker with an isolated
+ * classloader, which lets other tasks, including other {@link PoirotGenerateTask}s, run at the same time.
+ */
+@CacheableTask
+public class PoirotGenerateTask extends DefaultTask {
+
+    private final WorkerExecutor mWorkerExecutor;
+
+    private final Property<String> mDefinitionClass;
+
+    private final ConfigurableFileCollection mClasspath;
+
+    private final DirectoryProperty mCurrentOutputDirectory;
+
+    private final DirectoryProperty mOlderOutputDirectory;
+
+    private final DirectoryProperty mTemplateAssetsDirectory;
+
+    @Inject
+    public PoirotGenerateTask(WorkerExecutor workerExecutor) {
+        mWorkerExecutor = workerExecutor;
+        mDefinitionClass = getProject().getObjects().property(String.class);
+        mClasspath = getProject().files();
+        mCurrentOutputDirectory = getProject().getObjects().directoryProperty();
+        mOlderOutputDirectory = getProject().getObjects().directoryProperty();
+        mTemplateAssetsDirectory = getProject().getObjects().directoryProperty();
+    }
+
+    @Input
+    public Property<String> getDefinitionClass() {
+        return mDefinitionClass;
+    }
+
+    @Classpath
+    public ConfigurableFileCollection getClasspath() {
+        return mClasspath;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getCurrentOutputDirectory() {
+        return mCurrentOutputDirectory;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getOlderOutputDirectory() {
+        return mOlderOutputDirectory;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getTemplateAssetsDirectory() {
+        return mTemplateAssetsDirectory;
+    }
+
+    @TaskAction
+    public void generate() {
+
+        final File buildDirectory = getProject().getLayout().getBuildDirectory().get().getAsFile();
+        checkInsideBuildDirectory(mCurrentOutputDirectory, buildDirectory);
+        checkInsideBuildDirectory(mOlderOutputDirectory, buildDirectory);
+
+        final WorkQueue workQueue = mWorkerExecutor.classLoaderIsolation(new Action<ClassLoaderWorkerSpec>() {
+            @Override
+            public void execute(ClassLoaderWorkerSpec spec) {
+                spec.getClasspath().from(mClasspath);
+            }
+        });
+
+        workQueue.submit(GenerateAction.class, new Action<GenerateAction.Parameters>() {
+            @Override
+            public void execute(GenerateAction.Parameters parameters) {
+                parameters.getDefinitionClass().set(mDefinitionClass);
+                parameters.getCurrentOutputDirectory().set(mCurrentOutputDirectory);
+                parameters.getOlderOutputDirectory().set(mOlderOutputDirectory);
+                parameters.getTemplateAssetsDirectory().set(mTemplateAssetsDirectory);
+            }
+        });
+    }
+
+    /**
+     * The contents of the output directories are deleted before generating, so directories outside of the build
+     * directory, such as source directories, are refused instead of being wiped
+     */
+    private static void checkInsideBuildDirectory(DirectoryProperty outputDirectory, File buildDirectory) {
+
+        final Path output = outputDirectory.get().getAsFile().toPath().toAbsolutePath().normalize();
+        final Path build = buildDirectory.toPath().toAbsolutePath().normalize();
+        if (!output.startsWith(build) || output.equals(build)) {
+            throw new IllegalStateException("Output directory " + output + " must be inside the build directory " + build
+                    + ", since its contents are deleted every time the schemas are generated");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.vinaysshenoy.poirot.gradle;
+
+import org.gradle.api.Action;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+
+/**
+ * Plugin that adds a {@code generatePoirot} task to a project, which generates the schemas described by the
+ * {@code poirot} extension
+ */
+public class PoirotPlugin implements Plugin<Project> {
+
+    public static final String EXTENSION_NAME = "poirot";
+
+    public static final String TASK_NAME = "generatePoirot";
+
+    public static final String CONFIGURATION_NAME = "poirot";
+
+    @Override
+    public void apply(final Project project) {
+
+        final PoirotExtension extension = project.getExtensions().create(EXTENSION_NAME, PoirotExtension.class, project);
+
+        //The definition cannot be loaded from the main source set, since that is compiled with the generated sources
+        final Configuration configuration = project.getConfigurations().create(CONFIGURATION_NAME);
+        configuration.setDescription("The Poirot definition and its dependencies, to generate the schemas with");
+        configuration.setVisible(false);
+        configuration.setCanBeConsumed(false);
+        extension.getClasspath().from(configuration);
+
+        project.getTasks().register(TASK_NAME, PoirotGenerateTask.class, new Action<PoirotGenerateTask>() {
+            @Override
+            public void execute(PoirotGenerateTask task) {
+                task.setGroup("poirot");
+                task.setDescription("Generates the DAO objects and migrations for the schemas of the Poirot definition");
+                task.getDefinitionClass().set(extension.getDefinitionClass());
+                task.getClasspath().from(extension.getClasspath());
+                task.getCurrentOutputDirectory().set(extension.getCurrentOutputDirectory());
+                task.getOlderOutputDirectory().set(extension.getOlderOutputDirectory());
+                task.getTemplateAssetsDirectory().set(extension.getTemplateAssetsDirectory());
+            }
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package com.vinaysshenoy.poirot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that is used to describe how newly added properties of a schema should be populated from the existing data
+ * <p/>
+ * Every backfill is a SQL expression that is evaluated against the row being updated, for example
+ * {@code "LOWER(EMAIL)"}. Poirot generates a {@code PoirotBackfill} task that applies the expression in bounded
+ * chunks of rows after the upgrade has completed, instead of updating the whole table inside the migration.
+ */
+public class BackfillDesc {
+
+    private int mVersion;
+
+    private final List<Backfill> mBackfills;
+
+    private BackfillDesc(Builder builder) {
+        mBackfills = Collections.unmodifiableList(new ArrayList<>(builder.backfills));
+    }
+
+    /*package*/ void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @return The version of the schema in which the backfilled properties were added
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public List<Backfill> getBackfills() {
+        return mBackfills;
+    }
+
+    /**
+     * Get the backfill declared for a property
+     *
+     * @param entityName   The name of the entity the property belongs to
+     * @param propertyName The name of the property
+     * @return The backfill, or {@code null} if none has been declared for the property
+     */
+    public Backfill getBackfill(String entityName, String propertyName) {
+
+        for (Backfill backfill : mBackfills) {
+            if (backfill.getEntityName().equals(entityName) && backfill.getPropertyName().equals(propertyName)) {
+                return backfill;
+            }
+        }
+        return null;
+    }
+
+    public static final class Backfill {
+
+        private final String mEntityName;
+
+        private final String mPropertyName;
+
+        private final String mExpression;
+
+        private Backfill(String entityName, String propertyName, String expression) {
+            mEntityName = entityName;
+            mPropertyName = propertyName;
+            mExpression = expression;
+        }
+
+        public String getEntityName() {
+            return mEntityName;
+        }
+
+        public String getPropertyName() {
+            return mPropertyName;
+        }
+
+        public String getExpression() {
+            return mExpression;
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Backfill> backfills;
+
+        public Builder() {
+            backfills = new ArrayList<>();
+        }
+
+        /**
+         * Declare a backfill for a property that is added in the schema this descriptor is attached to
+         *
+         * @param entityName    The name of the entity the property belongs to
+         * @param propertyName  The name of the added property
+         * @param sqlExpression The SQL expression used to compute the value of the column for existing rows
+         */
+        public Builder backfill(String entityName, String propertyName, String sqlExpression) {
+            if (entityName == null || propertyName == null || sqlExpression == null) {
+                throw new IllegalArgumentException("Entity name, property name and expression cannot be null");
+            }
+            backfills.add(new Backfill(entityName, propertyName, sqlExpression));
+            return this;
+        }
+
+        public BackfillDesc build() {
+
+            return new BackfillDesc(this);
+        }
+
+        public Builder reset() {
+            backfills.clear();
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,459 @@
+package com.vinaysshenoy.poirot;
+
+import com.squareup.javapoet.*;
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Property;
+import de.greenrobot.daogenerator.Schema;
+
+import javax.lang.model.element.Modifier;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+import static com.vinaysshenoy.poirot.Utils.resolveEntityRenameDescription;
+
+/**
+ * Generates the {@code PoirotBackfill} task, which populates properties that were added with a {@link BackfillDesc}
+ * in bounded chunks of rows once the upgrade has completed
+ */
+class BackfillGenerator {
+
+    /**
+     * The table in which the progress of every registered backfill is tracked
+     */
+    public static final String BACKFILL_TABLE = "POIROT_BACKFILL";
+
+    private final List<Schema> mSchemas;
+
+    private final List<EntityRenameDesc> mEntityRenameDescList;
+
+    private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+    private final List<BackfillDesc> mBackfillDescList;
+
+    public BackfillGenerator(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<PropertyRenameDesc> propertyRenameDescs, List<BackfillDesc> backfillDescs) {
+        this.mSchemas = schemas;
+        this.mEntityRenameDescList = entityRenameDescs;
+        this.mPropertyRenameDescList = propertyRenameDescs;
+        this.mBackfillDescList = backfillDescs;
+    }
+
+    /**
+     * Generates the name under which a backfill is tracked in {@link #BACKFILL_TABLE}
+     *
+     * @param version  The version of the schema in which the property was added
+     * @param backfill The backfill
+     * @return The name of the backfill
+     */
+    public static String backfillName(int version, BackfillDesc.Backfill backfill) {
+        return String.format(Locale.US, "v%d.%s.%s", version, backfill.getEntityName(), backfill.getPropertyName());
+    }
+
+    /**
+     * Creates the SQL statements that register a backfill while migrating, so that the backfill only touches the rows
+     * that existed when the column was added
+     *
+     * @param version  The version of the schema in which the property was added
+     * @param entity   The entity, as it is in the schema in which the property was added
+     * @param backfill The backfill to register
+     * @return The list of SQL statements
+     */
+    public static List<String> registrationSql(int version, Entity entity, BackfillDesc.Backfill backfill) {
+        return Arrays.asList(
+                String.format(Locale.US, "CREATE TABLE IF NOT EXISTS %s (NAME TEXT PRIMARY KEY NOT NULL, LAST_ROW_ID INTEGER NOT NULL, MAX_ROW_ID INTEGER NOT NULL, DONE INTEGER NOT NULL DEFAULT 0)", BACKFILL_TABLE),
+                String.format(Locale.US, "INSERT OR REPLACE INTO %s (NAME, LAST_ROW_ID, MAX_ROW_ID) SELECT '%s', 0, IFNULL(MAX(rowid), 0) FROM \"%s\"", BACKFILL_TABLE, backfillName(version, backfill), entity.getTableName())
+        );
+    }
+
+    /**
+     * Creates the SQL statements that remove the backfills registered for a schema version, when a database is
+     * downgraded to the version before it. A database that was created at the version does not have the table yet.
+     *
+     * @param version The version of the schema in which the properties were added
+     * @return The list of SQL statements
+     */
+    public static List<String> unregistrationSql(int version) {
+        return Arrays.asList(
+                String.format(Locale.US, "CREATE TABLE IF NOT EXISTS %s (NAME TEXT PRIMARY KEY NOT NULL, LAST_ROW_ID INTEGER NOT NULL, MAX_ROW_ID INTEGER NOT NULL, DONE INTEGER NOT NULL DEFAULT 0)", BACKFILL_TABLE),
+                String.format(Locale.US, "DELETE FROM %s WHERE NAME LIKE 'v%d.%%'", BACKFILL_TABLE, version)
+        );
+    }
+
+    /**
+     * Creates the SQL statements that remove the registration of a backfill whose property no longer exists after a
+     * migration, so that it is not left pending. A database that was created after the backfill was registered does not
+     * have the table yet.
+     *
+     * @param version  The version of the schema in which the property was added
+     * @param backfill The backfill to remove
+     * @return The list of SQL statements
+     */
+    public static List<String> removalSql(int version, BackfillDesc.Backfill backfill) {
+        return Arrays.asList(
+                String.format(Locale.US, "CREATE TABLE IF NOT EXISTS %s (NAME TEXT PRIMARY KEY NOT NULL, LAST_ROW_ID INTEGER NOT NULL, MAX_ROW_ID INTEGER NOT NULL, DONE INTEGER NOT NULL DEFAULT 0)", BACKFILL_TABLE),
+                String.format(Locale.US, "DELETE FROM %s WHERE NAME = '%s'", BACKFILL_TABLE, backfillName(version, backfill))
+        );
+    }
+
+    /**
+     * Follow a backfilled property through the entity and property renames of the schemas after the one it was added
+     * in, and rename the columns of its expression along with it
+     *
+     * @param schemas             The schemas, in ascending order
+     * @param entityRenameDescs   How entities were renamed from one schema to the next
+     * @param propertyRenameDescs How properties were renamed from one schema to the next
+     * @param version             The version of the schema in which the property was added
+     * @param backfill            The backfill
+     * @param toIndex             The index of the schema to follow the property to
+     * @return The backfill as it is in that schema, or {@code null} if the property does not exist in it
+     */
+    public static ResolvedBackfill resolve(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<PropertyRenameDesc> propertyRenameDescs,
+                                           int version, BackfillDesc.Backfill backfill, int toIndex) {
+
+        int schemaIndex = -1;
+        for (int i = 0; i < schemas.size(); i++) {
+            if (schemas.get(i).getVersion() == version) {
+                schemaIndex = i;
+                break;
+            }
+        }
+        if (schemaIndex < 0 || schemaIndex > toIndex) {
+            return null;
+        }
+
+        Entity entity = Utils.entityMapFromSchema(schemas.get(schemaIndex)).get(backfill.getEntityName());
+        Property property = entity == null ? null : Utils.propertyMapFromEntity(entity).get(backfill.getPropertyName());
+        String expression = backfill.getExpression();
+        for (int i = schemaIndex + 1; i <= toIndex && property != null; i++) {
+            final Entity next = Utils.succeeding(entity, schemas.get(i), resolveEntityRenameDescription(schemas.get(i - 1), schemas.get(i), entityRenameDescs));
+            if (next == null) {
+                return null;
+            }
+            final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(schemas.get(i), propertyRenameDescs);
+            final Map<String, String> renamedColumns = new HashMap<>();
+            for (Map.Entry<Property, Property> renamedColumn : Utils.getRenamedColumns(entity, next, propertyRenameDesc).entrySet()) {
+                renamedColumns.put(renamedColumn.getKey().getColumnName().toUpperCase(Locale.US), renamedColumn.getValue().getColumnName());
+            }
+            property = Utils.getCommonPropertiesAsMap(entity, next, propertyRenameDesc).get(property);
+            expression = renameColumns(expression, renamedColumns);
+            entity = next;
+        }
+        return property == null ? null : new ResolvedBackfill(entity, property, expression);
+    }
+
+    /**
+     * Rename the columns that an SQL expression refers to. String literals and function names are left as they are
+     *
+     * @param renamedColumns The new names of the renamed columns, by their previous names in upper case
+     */
+    /*package*/ static String renameColumns(String expression, Map<String, String> renamedColumns) {
+
+        if (renamedColumns.isEmpty()) {
+            return expression;
+        }
+
+        final StringBuilder renamed = new StringBuilder(expression.length());
+        int i = 0;
+        while (i < expression.length()) {
+            final char c = expression.charAt(i);
+            int end = i + 1;
+            if (c == '\'') {
+                //Quotes inside a literal are escaped by doubling them
+                while (end < expression.length() && (expression.charAt(end) != '\'' || (end + 1 < expression.length() && expression.charAt(end + 1) == '\''))) {
+                    end += expression.charAt(end) == '\'' ? 2 : 1;
+                }
+                end = Math.min(end + 1, expression.length());
+                renamed.append(expression, i, end);
+            } else if (c == '"' || c == '`' || c == '[') {
+                final char close = c == '[' ? ']' : c;
+                while (end < expression.length() && expression.charAt(end) != close) {
+                    end++;
+                }
+                final String column = renamedColumns.get(expression.substring(i + 1, end).toUpperCase(Locale.US));
+                end = Math.min(end + 1, expression.length());
+                renamed.append(column == null ? expression.substring(i, end) : '"' + column + '"');
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                while (end < expression.length() && (Character.isLetterOrDigit(expression.charAt(end)) || expression.charAt(end) == '_')) {
+                    end++;
+                }
+                int next = end;
+                while (next < expression.length() && Character.isWhitespace(expression.charAt(next))) {
+                    next++;
+                }
+                final boolean function = next < expression.length() && expression.charAt(next) == '(';
+                final String column = Character.isDigit(c) || function ? null : renamedColumns.get(expression.substring(i, end).toUpperCase(Locale.US));
+                renamed.append(column == null ? expression.substring(i, end) : '"' + column + '"');
+            } else {
+                renamed.append(c);
+            }
+            i = end;
+        }
+        return renamed.toString();
+    }
+
+    /**
+     * @return {@code true} if any backfills have been declared, {@code false} otherwise
+     */
+    public boolean hasBackfills() {
+        for (BackfillDesc backfillDesc : mBackfillDescList) {
+            if (!backfillDesc.getBackfills().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public JavaFile createBackfillFile(Schema currentSchema) {
+
+        final ClassName dbClassName = ClassName.get("android.database.sqlite", "SQLiteDatabase");
+        final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        final ClassName databaseUtilsClassName = ClassName.get("android.database", "DatabaseUtils");
+        final String packageName = currentSchema.getDefaultJavaPackage() + ".helper";
+        final ClassName backfillClassName = ClassName.get(packageName, "PoirotBackfill");
+        final ClassName listenerClassName = backfillClassName.nestedClass("ProgressListener");
+
+        final ParameterSpec dbParamSpec = ParameterSpec.builder(dbClassName, "db").build();
+        final ParameterSpec chunkSizeParamSpec = ParameterSpec.builder(int.class, "chunkSize").build();
+        final ParameterSpec listenerParamSpec = ParameterSpec.builder(listenerClassName, "listener").build();
+        final ParameterSpec nameParamSpec = ParameterSpec.builder(String.class, "name").build();
+        final ParameterSpec updateSqlParamSpec = ParameterSpec.builder(String.class, "updateSql").build();
+
+        final CodeBlock.Builder tasksInitializerBuilder = CodeBlock.builder().add("{\n$>");
+        for (String[] task : resolveTasks()) {
+            tasksInitializerBuilder.add("{$S, $S},\n", task[0], task[1]);
+        }
+        tasksInitializerBuilder.add("$<}");
+
+        final FieldSpec defaultChunkSizeFieldSpec = FieldSpec.builder(int.class, "DEFAULT_CHUNK_SIZE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", 1000)
+                .build();
+
+        final FieldSpec tasksFieldSpec = FieldSpec.builder(String[][].class, "TASKS", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addJavadoc("The name and chunked update statement of every backfill\n")
+                .initializer(tasksInitializerBuilder.build())
+                .build();
+
+        final FieldSpec dbFieldSpec = FieldSpec.builder(dbClassName, "mDb", Modifier.PRIVATE, Modifier.FINAL).build();
+        final FieldSpec chunkSizeFieldSpec = FieldSpec.builder(int.class, "mChunkSize", Modifier.PRIVATE, Modifier.FINAL).build();
+        final FieldSpec listenerFieldSpec = FieldSpec.builder(listenerClassName, "mListener", Modifier.PRIVATE, Modifier.FINAL).build();
+
+        final MethodSpec constructorSpec = MethodSpec.constructorBuilder()
+                .addJavadoc("@param $L The upgraded database\n" +
+                        "@param $L The maximum number of rows updated in a single transaction\n" +
+                        "@param $L An optional listener that is notified as chunks are completed\n", dbParamSpec.name, chunkSizeParamSpec.name, listenerParamSpec.name)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameters(Arrays.asList(dbParamSpec, chunkSizeParamSpec, listenerParamSpec))
+                .beginControlFlow("if($L < 1)", chunkSizeParamSpec.name)
+                .addStatement("throw new $T($S)", IllegalArgumentException.class, "Chunk size must be > 0")
+                .endControlFlow()
+                .addStatement("$N = $L", dbFieldSpec, dbParamSpec.name)
+                .addStatement("$N = $L", chunkSizeFieldSpec, chunkSizeParamSpec.name)
+                .addStatement("$N = $L", listenerFieldSpec, listenerParamSpec.name)
+                .build();
+
+        final MethodSpec hasPendingSpec = MethodSpec.methodBuilder("hasPending")
+                .addJavadoc("@return {@code true} if any backfill registered by a migration has not completed yet\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(boolean.class)
+                .addParameter(dbParamSpec)
+                .beginControlFlow("if($T.longForQuery($L, $S, null) == 0)", databaseUtilsClassName, dbParamSpec.name,
+                        String.format(Locale.US, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '%s'", BACKFILL_TABLE))
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("return $T.longForQuery($L, $S, null) > 0", databaseUtilsClassName, dbParamSpec.name,
+                        String.format(Locale.US, "SELECT COUNT(*) FROM %s WHERE DONE = 0", BACKFILL_TABLE))
+                .build();
+
+        final MethodSpec runTaskSpec = MethodSpec.methodBuilder("runTask")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameters(Arrays.asList(nameParamSpec, updateSqlParamSpec))
+                .addStatement("long lastRowId, maxRowId")
+                .addStatement("final $T cursor = $N.rawQuery($S, new String[]{$L})", cursorClassName, dbFieldSpec,
+                        String.format(Locale.US, "SELECT LAST_ROW_ID, MAX_ROW_ID FROM %s WHERE NAME = ? AND DONE = 0", BACKFILL_TABLE), nameParamSpec.name)
+                .beginControlFlow("try")
+                .beginControlFlow("if(!cursor.moveToFirst())")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("lastRowId = cursor.getLong(0)")
+                .addStatement("maxRowId = cursor.getLong(1)")
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .beginControlFlow("while(lastRowId < maxRowId)")
+                .addStatement("final long upTo = Math.min(lastRowId + $N, maxRowId)", chunkSizeFieldSpec)
+                .addStatement("$N.beginTransaction()", dbFieldSpec)
+                .beginControlFlow("try")
+                .addStatement("$N.execSQL($L, new Object[]{lastRowId, upTo})", dbFieldSpec, updateSqlParamSpec.name)
+                .addStatement("$N.execSQL($S, new Object[]{upTo, $L})", dbFieldSpec,
+                        String.format(Locale.US, "UPDATE %s SET LAST_ROW_ID = ? WHERE NAME = ?", BACKFILL_TABLE), nameParamSpec.name)
+                .addStatement("$N.setTransactionSuccessful()", dbFieldSpec)
+                .nextControlFlow("finally")
+                .addStatement("$N.endTransaction()", dbFieldSpec)
+                .endControlFlow()
+                .addStatement("lastRowId = upTo")
+                .beginControlFlow("if($N != null)", listenerFieldSpec)
+                .addStatement("$N.onProgress($L, lastRowId, maxRowId)", listenerFieldSpec, nameParamSpec.name)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("$N.execSQL($S, new Object[]{$L})", dbFieldSpec,
+                        String.format(Locale.US, "UPDATE %s SET DONE = 1 WHERE NAME = ?", BACKFILL_TABLE), nameParamSpec.name)
+                .beginControlFlow("if($N != null)", listenerFieldSpec)
+                .addStatement("$N.onComplete($L)", listenerFieldSpec, nameParamSpec.name)
+                .endControlFlow()
+                .build();
+
+        final MethodSpec runSpec = MethodSpec.methodBuilder("run")
+                .addJavadoc("Run every pending backfill, resuming each one from the last chunk that was committed\n")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .beginControlFlow("if(!$N($N))", hasPendingSpec, dbFieldSpec)
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("for(String[] task : $N)", tasksFieldSpec)
+                .addStatement("$N(task[0], task[1])", runTaskSpec)
+                .endControlFlow()
+                .build();
+
+        final TypeSpec listenerSpec = TypeSpec.interfaceBuilder(listenerClassName.simpleName())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addMethod(MethodSpec.methodBuilder("onProgress")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addParameters(Arrays.asList(
+                                nameParamSpec,
+                                ParameterSpec.builder(long.class, "lastRowId").build(),
+                                ParameterSpec.builder(long.class, "maxRowId").build()))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("onComplete")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addParameter(nameParamSpec)
+                        .build())
+                .build();
+
+        final TypeSpec backfillSpec = TypeSpec.classBuilder(backfillClassName.simpleName())
+                .addJavadoc("Populates properties that were added by a migration from the existing rows, a chunk of rows per\n" +
+                        "transaction. Progress is stored in the database, so the task can be interrupted and run again later.\n" +
+                        "Run it on a background thread once the database has been opened.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(Runnable.class)
+                .addField(defaultChunkSizeFieldSpec)
+                .addField(tasksFieldSpec)
+                .addField(dbFieldSpec)
+                .addField(chunkSizeFieldSpec)
+                .addField(listenerFieldSpec)
+                .addMethod(constructorSpec)
+                .addMethod(hasPendingSpec)
+                .addMethod(runSpec)
+                .addMethod(runTaskSpec)
+                .addType(listenerSpec)
+                .build();
+
+        return JavaFile.builder(packageName, backfillSpec)
+                .addFileComment(Poirot.GENERATED_FILE)
+                .build();
+    }
+
+    /**
+     * Resolves every declared backfill against the current schema, since the task runs after the upgrade has completed.
+     * Backfills whose property was removed are skipped, and the migration that removed it removes their registration
+     *
+     * @return The name and chunked update statement for every backfill whose property still exists in the current schema
+     * @throws IllegalStateException If the update statement of a backfill does not compile against the current schema
+     */
+    /*package*/ List<String[]> resolveTasks() {
+
+        final Schema currentSchema = mSchemas.get(mSchemas.size() - 1);
+        final List<String[]> tasks = new ArrayList<>();
+        for (BackfillDesc backfillDesc : mBackfillDescList) {
+            for (BackfillDesc.Backfill backfill : backfillDesc.getBackfills()) {
+
+                final ResolvedBackfill resolved = resolve(mSchemas, mEntityRenameDescList, mPropertyRenameDescList, backfillDesc.getVersion(), backfill, mSchemas.size() - 1);
+                if (resolved == null) {
+                    System.out.println(String.format(Locale.US, "Skipping backfill %s since the property does not exist in the current schema", backfillName(backfillDesc.getVersion(), backfill)));
+                    continue;
+                }
+
+                tasks.add(new String[]{
+                        backfillName(backfillDesc.getVersion(), backfill),
+                        String.format(Locale.US, "UPDATE \"%s\" SET \"%s\" = (%s) WHERE rowid > ? AND rowid <= ?",
+                                resolved.getEntity().getTableName(), resolved.getProperty().getColumnName(), resolved.getExpression())
+                });
+            }
+        }
+
+        if (!tasks.isEmpty()) {
+            compileTasks(currentSchema, tasks);
+        }
+        return tasks;
+    }
+
+    /**
+     * Prepare the update statement of every task against an empty database of the current schema, so that an
+     * expression that refers to a column that does not exist fails the generation instead of the task on the device
+     */
+    private static void compileTasks(Schema currentSchema, List<String[]> tasks) {
+
+        final Connection connection;
+        try {
+            connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Backfills require an SQLite JDBC driver, such as org.xerial:sqlite-jdbc, on the classpath", e);
+        }
+
+        try {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SchemaHistoryGenerator.createStatements(currentSchema)) {
+                    statement.execute(sql);
+                }
+            }
+            for (String[] task : tasks) {
+                try {
+                    connection.prepareStatement(task[1]).close();
+                } catch (SQLException e) {
+                    throw new IllegalStateException(String.format(Locale.US, "Backfill %s does not compile against the current schema: %s", task[0], task[1]), e);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create the current schema to compile backfills against", e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A backfill as it is in a later schema than the one in which its property was added
+     */
+    public static final class ResolvedBackfill {
+
+        private final Entity mEntity;
+
+        private final Property mProperty;
+
+        private final String mExpression;
+
+        private ResolvedBackfill(Entity entity, Property property, String expression) {
+            mEntity = entity;
+            mProperty = property;
+            mExpression = expression;
+        }
+
+        public Entity getEntity() {
+            return mEntity;
+        }
+
+        public Property getProperty() {
+            return mProperty;
+        }
+
+        /**
+         * @return The expression, with the columns it refers to renamed as they were in the later schemas
+         */
+        public String getExpression() {
+            return mExpression;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * What the generated helper does with a database whose version is older than the baseline version, since no
+ * migrations are generated from the versions before it
+ *
+ * @see Poirot#baseline(int, BaselineFallback)
+ */
+public enum BaselineFallback {
+
+    /**
+     * Drop every table in the database and create the tables of the current schema. Any data in the database is lost
+     */
+    RECREATE,
+
+    /**
+     * Throw an {@link IllegalStateException} when the database is opened
+     */
+    FAIL
+}
@@ -0,0 +1,145 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.*;
+
+import java.util.*;
+
+/**
+ * The references between the entities of a schema, as described by their {@link ToOne} and {@link ToManyBase}
+ * relations. greenDAO does not declare them as foreign keys in the tables, so they are used to order the migration
+ * steps and to check the references that a step could have broken.
+ */
+class EntityRelations {
+
+    /**
+     * A column of one entity that holds a key of another
+     */
+    public static final class Reference {
+
+        private final Entity mChild;
+
+        private final Property mColumn;
+
+        private final Entity mParent;
+
+        private final Property mParentColumn;
+
+        private Reference(Entity child, Property column, Entity parent, Property parentColumn) {
+            mChild = child;
+            mColumn = column;
+            mParent = parent;
+            mParentColumn = parentColumn;
+        }
+
+        public Entity getChild() {
+            return mChild;
+        }
+
+        /**
+         * @return The property of the child that holds the key
+         */
+        public Property getColumn() {
+            return mColumn;
+        }
+
+        public Entity getParent() {
+            return mParent;
+        }
+
+        /**
+         * @return A query that returns the first row of the child whose reference does not match a row of the parent
+         */
+        public String getOrphanQuery() {
+            return String.format(Locale.US, "SELECT \"%s\" FROM \"%s\" WHERE \"%s\" IS NOT NULL AND \"%s\" NOT IN (SELECT \"%s\" FROM \"%s\") LIMIT 1",
+                    mColumn.getColumnName(), mChild.getTableName(), mColumn.getColumnName(), mColumn.getColumnName(), mParentColumn.getColumnName(), mParent.getTableName());
+        }
+    }
+
+    private final List<Reference> mReferences;
+
+    public EntityRelations(Schema schema) {
+
+        mReferences = new ArrayList<>();
+        for (Entity entity : schema.getEntities()) {
+            for (ToOne toOne : entity.getToOneRelations()) {
+                if (toOne.getFkProperties() != null && toOne.getFkProperties().length == 1) {
+                    addReference(entity, toOne.getFkProperties()[0], toOne.getTargetEntity(), toOne.getTargetEntity().getPkProperty());
+                }
+            }
+            for (ToManyBase toManyBase : entity.getToManyRelations()) {
+                if (toManyBase instanceof ToMany) {
+                    final ToMany toMany = (ToMany) toManyBase;
+                    if (toMany.getTargetProperties().length == 1) {
+                        addReference(toMany.getTargetEntity(), toMany.getTargetProperties()[0], entity,
+                                toMany.getSourceProperties() == null ? entity.getPkProperty() : toMany.getSourceProperties()[0]);
+                    }
+                } else if (toManyBase instanceof ToManyWithJoinEntity) {
+                    final ToManyWithJoinEntity toMany = (ToManyWithJoinEntity) toManyBase;
+                    addReference(toMany.getJoinEntity(), toMany.getSourceProperty(), entity, entity.getPkProperty());
+                    addReference(toMany.getJoinEntity(), toMany.getTargetProperty(), toMany.getTargetEntity(), toMany.getTargetEntity().getPkProperty());
+                }
+            }
+        }
+    }
+
+    private void addReference(Entity child, Property column, Entity parent, Property parentColumn) {
+        //An entity referring to itself does not constrain the order of the steps, and keys are only checked in other tables
+        if (column == null || parentColumn == null || child.getClassName().equals(parent.getClassName())) {
+            return;
+        }
+        //A to-one relation and the to-many relation on the other side of it describe the same reference
+        for (Reference reference : mReferences) {
+            if (reference.mChild == child && reference.mColumn == column && reference.mParent == parent) {
+                return;
+            }
+        }
+        mReferences.add(new Reference(child, column, parent, parentColumn));
+    }
+
+    public List<Reference> getReferences() {
+        return mReferences;
+    }
+
+    /**
+     * Order entities so that every entity comes after the entities it refers to. Entities that do not depend on each
+     * other are ordered by their class name, so that the order does not depend on the order of a {@link HashMap}.
+     * Entities that refer to each other in a cycle are placed at the end, by their class name.
+     *
+     * @param entities The entities to order, from this schema or any other. They are matched by their class name
+     * @return The ordered entities, with the referenced entities first
+     */
+    public List<Entity> order(Collection<Entity> entities) {
+
+        final Map<String, Entity> remaining = new TreeMap<>();
+        for (Entity entity : entities) {
+            remaining.put(entity.getClassName(), entity);
+        }
+
+        final List<Entity> ordered = new ArrayList<>(remaining.size());
+        boolean progress = true;
+        while (!remaining.isEmpty() && progress) {
+            progress = false;
+            for (Iterator<Entity> iterator = remaining.values().iterator(); iterator.hasNext(); ) {
+                final Entity entity = iterator.next();
+                if (!refersToAny(entity, remaining.keySet())) {
+                    ordered.add(entity);
+                    iterator.remove();
+                    progress = true;
+                    break;
+                }
+            }
+        }
+        ordered.addAll(remaining.values());
+        return ordered;
+    }
+
+    private boolean refersToAny(Entity entity, Set<String> classNames) {
+
+        for (Reference reference : mReferences) {
+            if (reference.mChild.getClassName().equals(entity.getClassName()) && classNames.contains(reference.mParent.getClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link VerificationRule} that checks an entity which is present in two successive schemas. {@link EntityVerifier}
+ * evaluates it separately, and concurrently, for every such pair of entities.
+ */
+public abstract class EntityVerificationRule implements VerificationRule {
+
+    @Override
+    public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+        final List<VerificationFinding> findings = new ArrayList<>();
+        if (from == null) {
+            return findings;
+        }
+
+        for (Map.Entry<Entity, Entity> entityEntry : Utils.getCommonEntitiesAsMap(from, to, entityRenameDesc).entrySet()) {
+            findings.addAll(verify(from, to, entityEntry.getKey(), entityEntry.getValue()));
+        }
+        return findings;
+    }
+
+    /**
+     * Verify the change to an entity from one schema to the next
+     *
+     * @param from The schema being migrated from
+     * @param to   The schema being migrated to
+     * @param prev The entity in {@code from}
+     * @param cur  The same entity in {@code to}
+     * @return The problems found, or an empty list if there are none
+     */
+    public abstract List<VerificationFinding> verify(Schema from, Schema to, Entity prev, Entity cur);
+}
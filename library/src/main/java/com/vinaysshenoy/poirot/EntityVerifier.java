@@ -1,17 +1,19 @@
 package com.vinaysshenoy.poirot;
 
 import de.greenrobot.daogenerator.Entity;
-import de.greenrobot.daogenerator.Property;
 import de.greenrobot.daogenerator.Schema;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.vinaysshenoy.poirot.Utils.resolveEntityRenameDescription;
 
 /**
- * Class that verifies entities and checks whether there are any problems
+ * Class that verifies entities and checks whether there are any problems.
+ * <p/>
+ * The checks are {@link VerificationRule}s, which are evaluated concurrently for every pair of successive schemas (and
+ * for every common entity, in the case of an {@link EntityVerificationRule}). All findings are collected before
+ * reporting, so a single run lists every problem in the schemas instead of stopping at the first one.
  * Created by vinaysshenoy on 21/01/16.
  */
 public class EntityVerifier {
@@ -20,49 +22,167 @@ public class EntityVerifier {
 
     private final List<EntityRenameDesc> mEntityRenameDescList;
 
+    private final List<VerificationRule> mRules;
+
     public EntityVerifier(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs) {
+        this(schemas, entityRenameDescs, Collections.<BackfillDesc>emptyList());
+    }
+
+    public EntityVerifier(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<BackfillDesc> backfillDescs) {
+        this(schemas, entityRenameDescs, Collections.<PropertyRenameDesc>emptyList(), backfillDescs);
+    }
+
+    public EntityVerifier(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<PropertyRenameDesc> propertyRenameDescs, List<BackfillDesc> backfillDescs) {
         this.mSchemas = schemas;
         this.mEntityRenameDescList = entityRenameDescs;
+        this.mRules = new ArrayList<>(VerificationRules.defaults(backfillDescs, propertyRenameDescs));
     }
 
-    public void verify() throws VerificationFailedException {
-
-        verifyPropertiesNotChanged();
+    /**
+     * Add a rule to run in addition to the {@link VerificationRules#defaults(List, List) default rules}
+     *
+     * @param rule The rule to add
+     */
+    public EntityVerifier addRule(VerificationRule rule) {
+        if (rule == null) {
+            throw new IllegalArgumentException("Rule cannot be null");
+        }
+        mRules.add(rule);
+        return this;
     }
 
     /**
-     * Since SQLite does not support changing column constraints, this method verifies that
-     * a property's constraints are not changing in succeeding schemas
+     * Verify the schemas, printing any warnings
+     *
+     * @throws VerificationFailedException If any rule reports an error. The message lists every error found.
      */
-    private void verifyPropertiesNotChanged() throws VerificationFailedException {
-
-        Schema from, to;
-        Map<Entity, Entity> commonEntities;
-        Map<Property, Property> commonProperties;
-        for (int i = 0; i < mSchemas.size(); i++) {
-            if (i == 0) {
-                //No need to check for the 1st schema
-                continue;
+    public void verify() throws VerificationFailedException {
+
+        final StringBuilder errors = new StringBuilder();
+        int errorCount = 0;
+        for (VerificationFinding finding : check()) {
+            if (finding.getSeverity() == VerificationFinding.Severity.ERROR) {
+                errors.append(String.format(Locale.US, "%n")).append(finding);
+                errorCount++;
+            } else {
+                System.out.println(finding);
             }
+        }
+
+        if (errorCount > 0) {
+            throw new VerificationFailedException(String.format(Locale.US, "Verification failed with %d error(s):", errorCount) + errors);
+        }
+    }
 
-            to = mSchemas.get(i);
-            from = mSchemas.get(i - 1);
-            commonEntities = Utils.getCommonEntitiesAsMap(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
-            for (Map.Entry<Entity, Entity> entityEntry : commonEntities.entrySet()) {
-                commonProperties = Utils.getCommonPropertiesAsMap(entityEntry.getKey(), entityEntry.getValue());
-                for (Map.Entry<Property, Property> propertyEntry : commonProperties.entrySet()) {
-                    if (!Utils.areEquivalent(propertyEntry.getKey(), propertyEntry.getValue())) {
-                        throw new VerificationFailedException(
-                                String.format(Locale.US,
-                                        "Property '%s' on Entity '%s' constraints changed when going from schema %d to schema %d",
-                                        propertyEntry.getKey().getPropertyName(), entityEntry.getValue().getClassName(), from.getVersion(), to.getVersion()
-                                )
-                        );
+    /**
+     * Run every rule and collect the findings, without failing
+     *
+     * @return The findings of all the rules, ordered by schema, rule and entity
+     */
+    public List<VerificationFinding> check() {
+
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            //Futures are collected in submission order so that the findings are the same on every run
+            final List<Future<List<VerificationFinding>>> futures = new ArrayList<>();
+            Schema from, to;
+            for (int i = 0; i < mSchemas.size(); i++) {
+
+                from = i == 0 ? null : mSchemas.get(i - 1);
+                to = mSchemas.get(i);
+                final EntityRenameDesc entityRenameDesc = from == null ? null : resolveEntityRenameDescription(from, to, mEntityRenameDescList);
+                for (VerificationRule rule : mRules) {
+                    if (rule instanceof EntityVerificationRule && from != null) {
+                        for (Map.Entry<Entity, Entity> entityEntry : sortedCommonEntities(from, to, entityRenameDesc)) {
+                            futures.add(executor.submit(new EntityRuleTask((EntityVerificationRule) rule, from, to, entityEntry.getKey(), entityEntry.getValue())));
+                        }
+                    } else {
+                        futures.add(executor.submit(new RuleTask(rule, from, to, entityRenameDesc)));
                     }
                 }
+            }
 
+            final List<VerificationFinding> findings = new ArrayList<>();
+            for (Future<List<VerificationFinding>> future : futures) {
+                findings.addAll(future.get());
             }
+            return findings;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VerificationFailedException("Interrupted while verifying schemas", e);
+        } catch (ExecutionException e) {
+            throw new VerificationFailedException("A verification rule failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Map.Entry<Entity, Entity>> sortedCommonEntities(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+        final List<Map.Entry<Entity, Entity>> entityEntries = new ArrayList<>();
+        for (Map.Entry<Entity, Entity> entityEntry : Utils.getCommonEntitiesAsMap(from, to, entityRenameDesc).entrySet()) {
+            //Renames of entities that do not exist are reported by RenameCycleRule
+            if (entityEntry.getKey() != null && entityEntry.getValue() != null) {
+                entityEntries.add(entityEntry);
+            }
+        }
+        Collections.sort(entityEntries, new Comparator<Map.Entry<Entity, Entity>>() {
+            @Override
+            public int compare(Map.Entry<Entity, Entity> lhs, Map.Entry<Entity, Entity> rhs) {
+                return lhs.getValue().getClassName().compareTo(rhs.getValue().getClassName());
+            }
+        });
+        return entityEntries;
+    }
+
+    private static final class RuleTask implements Callable<List<VerificationFinding>> {
+
+        private final VerificationRule mRule;
+
+        private final Schema mFrom;
+
+        private final Schema mTo;
+
+        private final EntityRenameDesc mEntityRenameDesc;
+
+        private RuleTask(VerificationRule rule, Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+            mRule = rule;
+            mFrom = from;
+            mTo = to;
+            mEntityRenameDesc = entityRenameDesc;
+        }
+
+        @Override
+        public List<VerificationFinding> call() throws Exception {
+            return mRule.verify(mFrom, mTo, mEntityRenameDesc);
+        }
+    }
+
+    private static final class EntityRuleTask implements Callable<List<VerificationFinding>> {
+
+        private final EntityVerificationRule mRule;
+
+        private final Schema mFrom;
+
+        private final Schema mTo;
+
+        private final Entity mPrev;
+
+        private final Entity mCur;
+
+        private EntityRuleTask(EntityVerificationRule rule, Schema from, Schema to, Entity prev, Entity cur) {
+            mRule = rule;
+            mFrom = from;
+            mTo = to;
+            mPrev = prev;
+            mCur = cur;
+        }
 
+        @Override
+        public List<VerificationFinding> call() throws Exception {
+            return mRule.verify(mFrom, mTo, mPrev, mCur);
         }
     }
 
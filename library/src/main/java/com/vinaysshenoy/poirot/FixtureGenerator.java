@@ -0,0 +1,190 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Writes a database file for every version of the schema history, for tests that start from a database at an older
+ * version. They copy the file instead of creating the tables, and open it with the generated helper to migrate it.
+ * <p/>
+ * The databases are created through JDBC, which requires an SQLite JDBC driver (such as {@code org.xerial:sqlite-jdbc})
+ * on the classpath of the generator. The tables and indexes are created as greenDAO and the generated helper create
+ * them, and {@code user_version} is set to the version of the schema. Android adds its {@code android_metadata} table
+ * when the file is first opened.
+ * <p/>
+ * The template that the generated helper copies new databases from is written the same way for the current schema,
+ * with a hash of its tables and settings as {@code application_id}, which the helper checks before using it.
+ */
+class FixtureGenerator {
+
+    /**
+     * The page size of the databases that Android creates, so that fixtures are laid out as databases on devices are
+     */
+    private static final int PAGE_SIZE = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Schema> mSchemas;
+
+    private final List<FixtureSeed> mSeeds;
+
+    private final boolean mIncrementalVacuum;
+
+    private final List<IndexDesc> mIndexDescs;
+
+    /**
+     * @param schemas           The initialized schemas to write fixtures for
+     * @param seeds             The seeded fixtures to write, along with the empty ones of the schemas they are declared for
+     * @param incrementalVacuum Whether the generated helper creates databases with {@code PRAGMA auto_vacuum = INCREMENTAL}
+     * @param indexDescs        The partial and expression indexes of the schemas, which are created along with their tables
+     */
+    public FixtureGenerator(List<Schema> schemas, List<FixtureSeed> seeds, boolean incrementalVacuum, List<IndexDesc> indexDescs) {
+        mSchemas = schemas;
+        mSeeds = seeds;
+        mIncrementalVacuum = incrementalVacuum;
+        mIndexDescs = indexDescs;
+    }
+
+    /**
+     * Write the fixtures. A fixture is only replaced if its contents changed, so that the files are not rewritten by
+     * every build
+     *
+     * @param directory The directory to write the fixtures to
+     * @return The number of fixtures that were written
+     * @throws IllegalStateException If a database could not be created or a seed could not be run
+     */
+    public int generate(File directory) throws IOException {
+
+        Utils.ensureDirectory(directory.getPath());
+
+        int written = 0;
+        for (Schema schema : mSchemas) {
+            if (writeFixture(schema, null, 0, new File(directory, fixtureName(schema.getVersion(), null)))) {
+                written++;
+            }
+            for (FixtureSeed seed : mSeeds) {
+                if (seed.getVersion() == schema.getVersion()
+                        && writeFixture(schema, seed, 0, new File(directory, fixtureName(schema.getVersion(), seed.getName())))) {
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Write the template of new databases, with {@link #templateHash(Schema)} as its {@code application_id}. It is only
+     * replaced if its contents changed
+     *
+     * @param schema The initialized current schema
+     * @param file   The file to write the template to
+     * @return Whether the template was written
+     * @throws IllegalStateException If the database could not be created
+     */
+    public boolean generateTemplate(Schema schema, File file) throws IOException {
+
+        Utils.ensureDirectory(file.getParent());
+        return writeFixture(schema, null, templateHash(schema), file);
+    }
+
+    /**
+     * @param schema The initialized current schema
+     * @return The hash that identifies a template with the tables and indexes of the schema, and the settings it is
+     * created with
+     */
+    public int templateHash(Schema schema) {
+
+        final StringBuilder dump = new StringBuilder();
+        dump.append(PAGE_SIZE).append(';').append(mIncrementalVacuum).append(';').append(schema.getVersion()).append(';');
+        for (String sql : SchemaHistoryGenerator.createStatements(schema, Utils.resolveIndexDescription(schema, mIndexDescs))) {
+            dump.append(sql).append(';');
+        }
+
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(dump.toString().getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        //application_id is a 32 bit integer
+        return ByteBuffer.wrap(digest).getInt();
+    }
+
+    /**
+     * @return The name of the fixture of a version, seeded with the seed of the given name or empty if it is {@code null}
+     */
+    public static String fixtureName(int version, String seedName) {
+        return seedName == null ? String.format(Locale.US, "v%d.db", version) : String.format(Locale.US, "v%d-%s.db", version, seedName);
+    }
+
+    private boolean writeFixture(Schema schema, FixtureSeed seed, int applicationId, File file) throws IOException {
+
+        final File temporaryFile = File.createTempFile("poirot", ".db", file.getParentFile());
+        try {
+            createDatabase(schema, seed, applicationId, temporaryFile);
+
+            if (file.isFile() && Arrays.equals(Files.readAllBytes(temporaryFile.toPath()), Files.readAllBytes(file.toPath()))) {
+                return false;
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+    }
+
+    private void createDatabase(Schema schema, FixtureSeed seed, int applicationId, File file) {
+
+        final String fixture = applicationId != 0 ? file.getName() : fixtureName(schema.getVersion(), seed == null ? null : seed.getName());
+        try (Connection connection = openDatabase(file); Statement statement = connection.createStatement()) {
+            //The page size and auto_vacuum can only be changed before the first table is created
+            statement.execute("PRAGMA page_size = " + PAGE_SIZE);
+            if (mIncrementalVacuum) {
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            }
+
+            connection.setAutoCommit(false);
+            for (String sql : SchemaHistoryGenerator.createStatements(schema, Utils.resolveIndexDescription(schema, mIndexDescs))) {
+                statement.execute(sql);
+            }
+            if (seed != null) {
+                for (String sql : seed.getStatements()) {
+                    try {
+                        statement.execute(sql);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(String.format(Locale.US, "Could not seed fixture %s with %s", fixture, sql), e);
+                    }
+                }
+            }
+            statement.execute("PRAGMA user_version = " + schema.getVersion());
+            if (applicationId != 0) {
+                statement.execute("PRAGMA application_id = " + applicationId);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create fixture " + fixture, e);
+        }
+    }
+
+    private static Connection openDatabase(File file) {
+
+        try {
+            return DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Database fixtures require an SQLite JDBC driver, such as org.xerial:sqlite-jdbc, on the classpath", e);
+        }
+    }
+}
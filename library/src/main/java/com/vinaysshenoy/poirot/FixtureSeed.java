@@ -0,0 +1,112 @@
+package com.vinaysshenoy.poirot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Class that is used to describe the rows of a seeded database fixture
+ * <p/>
+ * Every seed is a list of SQL statements, usually {@code INSERT}s, that are run against the tables of the schema it is
+ * declared for. The seeded fixture is written next to the empty one as {@code v<version>-<name>.db}.
+ */
+public class FixtureSeed {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+    private int mVersion;
+
+    private final String mName;
+
+    private final List<String> mStatements;
+
+    private FixtureSeed(Builder builder) {
+        mName = builder.name;
+        mStatements = Collections.unmodifiableList(new ArrayList<>(builder.statements));
+    }
+
+    /*package*/ void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @return The version of the schema the rows are inserted into
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<String> getStatements() {
+        return mStatements;
+    }
+
+    public static final class Builder {
+
+        private String name;
+
+        private final List<String> statements;
+
+        public Builder() {
+            statements = new ArrayList<>();
+        }
+
+        /**
+         * @param name The name of the seed, which is part of the name of the fixture. Must only contain letters,
+         *             digits and underscores
+         */
+        public Builder name(String name) {
+            if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+                throw new IllegalArgumentException("Seed name must only contain letters, digits and underscores: " + name);
+            }
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Add SQL statements to run, in order
+         */
+        public Builder sql(String... statements) {
+            for (String statement : statements) {
+                if (statement == null || statement.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Statements cannot be null or empty");
+                }
+                this.statements.add(statement.trim());
+            }
+            return this;
+        }
+
+        /**
+         * Add the SQL statements of a file, separated by {@code ;}. Lines starting with {@code --} are skipped
+         *
+         * @param file A UTF-8 encoded file of SQL statements
+         */
+        public Builder file(File file) throws IOException {
+            statements.addAll(Utils.readSqlStatements(file));
+            return this;
+        }
+
+        public FixtureSeed build() {
+
+            if (name == null) {
+                throw new IllegalStateException("A name must be set");
+            }
+            if (statements.isEmpty()) {
+                throw new IllegalStateException("At least one statement must be added");
+            }
+            return new FixtureSeed(this);
+        }
+
+        public Builder reset() {
+            name = null;
+            statements.clear();
+            return this;
+        }
+    }
+}
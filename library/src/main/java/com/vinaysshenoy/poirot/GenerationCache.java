@@ -0,0 +1,140 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.DaoGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * State that is kept between successive generations of the same schemas, so that only what changed is generated again.
+ * <p/>
+ * A generation {@link #begin(Map, Map) begins} with the fingerprints of the schemas and of the migrations between
+ * them, and is {@link #commit() committed} once all files have been written. If a generation fails, it is
+ * {@link #abort() aborted} and the next one generates the schemas and migrations it changed again.
+ */
+class GenerationCache {
+
+    private final DaoGenerator mDaoGenerator;
+
+    private final Map<Integer, String> mSchemaFingerprints;
+
+    private final Map<Integer, String> mMigrationFingerprints;
+
+    private final Map<String, Set<File>> mGeneratedFiles;
+
+    private Map<Integer, String> mPendingSchemaFingerprints;
+
+    private Map<Integer, String> mPendingMigrationFingerprints;
+
+    public GenerationCache() throws IOException {
+        mDaoGenerator = new DaoGenerator();
+        mSchemaFingerprints = new HashMap<>();
+        mMigrationFingerprints = new HashMap<>();
+        mGeneratedFiles = new HashMap<>();
+    }
+
+    /**
+     * @return A {@link DaoGenerator} whose templates have already been loaded
+     */
+    public DaoGenerator getDaoGenerator() {
+        return mDaoGenerator;
+    }
+
+    /**
+     * @param schemaFingerprints    The fingerprints of the schemas, by version
+     * @param migrationFingerprints The fingerprints of the migrations, by the version they migrate from
+     */
+    public void begin(Map<Integer, String> schemaFingerprints, Map<Integer, String> migrationFingerprints) {
+        mPendingSchemaFingerprints = new HashMap<>(schemaFingerprints);
+        mPendingMigrationFingerprints = new HashMap<>(migrationFingerprints);
+    }
+
+    public boolean isSchemaChanged(int version) {
+        return !mPendingSchemaFingerprints.get(version).equals(mSchemaFingerprints.get(version));
+    }
+
+    public boolean isMigrationChanged(int fromVersion) {
+        return !mPendingMigrationFingerprints.get(fromVersion).equals(mMigrationFingerprints.get(fromVersion));
+    }
+
+    /**
+     * Record the files that a unit of generation (the DAO objects of a schema, or the helper) has produced, and delete
+     * the ones it produced the last time that it no longer does
+     *
+     * @param unit  The name of the unit
+     * @param files The files that the unit produces now
+     */
+    public void replaceFiles(String unit, Set<File> files) {
+
+        final Set<File> previousFiles = mGeneratedFiles.put(unit, new HashSet<>(files));
+        if (previousFiles != null) {
+            previousFiles.removeAll(files);
+            deleteUnownedFiles(previousFiles);
+        }
+    }
+
+    /**
+     * Delete the files of the units that are no longer generated
+     *
+     * @param units The names of the units that are generated now
+     */
+    public void retainUnits(Set<String> units) {
+
+        final Set<File> staleFiles = new HashSet<>();
+        final Iterator<Map.Entry<String, Set<File>>> iterator = mGeneratedFiles.entrySet().iterator();
+        Map.Entry<String, Set<File>> next;
+        while (iterator.hasNext()) {
+            next = iterator.next();
+            if (!units.contains(next.getKey())) {
+                staleFiles.addAll(next.getValue());
+                iterator.remove();
+            }
+        }
+        deleteUnownedFiles(staleFiles);
+    }
+
+    public void commit() {
+        mSchemaFingerprints.clear();
+        mSchemaFingerprints.putAll(mPendingSchemaFingerprints);
+        mMigrationFingerprints.clear();
+        mMigrationFingerprints.putAll(mPendingMigrationFingerprints);
+    }
+
+    /**
+     * Forget the schemas and migrations that the failed generation changed, since their files may already have been
+     * written. Going back to the definitions of the last successful generation then writes them again.
+     */
+    public void abort() {
+        forgetChanged(mSchemaFingerprints, mPendingSchemaFingerprints);
+        forgetChanged(mMigrationFingerprints, mPendingMigrationFingerprints);
+    }
+
+    private static void forgetChanged(Map<Integer, String> fingerprints, Map<Integer, String> pendingFingerprints) {
+
+        if (pendingFingerprints == null) {
+            return;
+        }
+        for (Map.Entry<Integer, String> pending : pendingFingerprints.entrySet()) {
+            if (!pending.getValue().equals(fingerprints.get(pending.getKey()))) {
+                fingerprints.remove(pending.getKey());
+            }
+        }
+    }
+
+    /**
+     * Delete files, except the ones that another unit generates now. A schema that stops being the current one, for
+     * example, leaves a {@code DaoMaster} behind that the new current schema has generated in its place.
+     */
+    private void deleteUnownedFiles(Set<File> files) {
+
+        for (Set<File> ownedFiles : mGeneratedFiles.values()) {
+            files.removeAll(ownedFiles);
+        }
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                System.out.println("Could not delete stale file " + file.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Index;
+import de.greenrobot.daogenerator.Property;
+import de.greenrobot.daogenerator.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.vinaysshenoy.poirot.VerificationFinding.Severity.ERROR;
+import static com.vinaysshenoy.poirot.VerificationFinding.Severity.WARNING;
+
+/**
+ * Checks the indexes of a schema against a workload of representative queries.
+ * <p/>
+ * The tables and indexes of the schema, including its partial and expression indexes, are created in an in-memory SQLite database through JDBC, which requires an
+ * SQLite JDBC driver (such as {@code org.xerial:sqlite-jdbc}) on the classpath, and the plan of every query is read with
+ * {@code EXPLAIN QUERY PLAN}. {@link #advise(Schema)} reports the queries that scan a whole table or sort in a
+ * temporary B-tree, suggests indexes that SQLite would use for them, and reports declared indexes that no query uses.
+ * <p/>
+ * As a {@link VerificationRule}, it fails the verification when a schema drops an index that a query of the workload
+ * uses in the schema before it.
+ */
+public class IndexAdvisor implements VerificationRule {
+
+    /**
+     * A step of a query plan that reads a table, in the format of SQLite before and after 3.36
+     */
+    private static final Pattern PLAN_TABLE = Pattern.compile("^(SCAN|SEARCH) (?:TABLE )?(\\S+)(?: AS \\S+)?(.*)$");
+
+    private static final Pattern PLAN_INDEX = Pattern.compile("USING (?:COVERING )?INDEX (\\S+)");
+
+    private static final Pattern ORDER_BY = Pattern.compile("\\bORDER\\s+BY\\s+(.+?)(?:\\bLIMIT\\b|\\bOFFSET\\b|$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final String SUGGESTED_INDEX = "_POIROT_SUGGESTED";
+
+    private final List<String> mQueries;
+
+    private final List<IndexDesc> mIndexDescList;
+
+    /**
+     * @param queries The queries of the workload, written against the tables of the current schema
+     */
+    public IndexAdvisor(List<String> queries) {
+        this(queries, Collections.<IndexDesc>emptyList());
+    }
+
+    /**
+     * @param queries    The queries of the workload, written against the tables of the current schema
+     * @param indexDescs The partial and expression indexes of the schemas, as declared with
+     *                   {@link Poirot#addIndexes(int, IndexDesc)}
+     */
+    public IndexAdvisor(List<String> queries, List<IndexDesc> indexDescs) {
+
+        if (queries == null || queries.isEmpty()) {
+            throw new IllegalArgumentException("Queries cannot be null or empty");
+        }
+        if (indexDescs == null) {
+            throw new IllegalArgumentException("Index descriptions cannot be null");
+        }
+        mQueries = new ArrayList<>(queries);
+        mIndexDescList = new ArrayList<>(indexDescs);
+    }
+
+    /**
+     * Read the workload from a file of SQL queries separated by {@code ;}. Lines starting with {@code --} are ignored.
+     *
+     * @param file The file to read
+     */
+    public static IndexAdvisor fromFile(File file) throws IOException {
+        return fromFile(file, Collections.<IndexDesc>emptyList());
+    }
+
+    /**
+     * Read the workload from a file of SQL queries separated by {@code ;}. Lines starting with {@code --} are ignored.
+     *
+     * @param file       The file to read
+     * @param indexDescs The partial and expression indexes of the schemas, as declared with
+     *                   {@link Poirot#addIndexes(int, IndexDesc)}
+     */
+    public static IndexAdvisor fromFile(File file, List<IndexDesc> indexDescs) throws IOException {
+
+        return new IndexAdvisor(Utils.readSqlStatements(file), indexDescs);
+    }
+
+    @Override
+    public String getName() {
+        return "index-advisor";
+    }
+
+    /**
+     * Report the problems of the workload on a schema
+     *
+     * @param schema An initialized schema, usually the current one after it has been generated
+     * @return The findings, in the order of the queries, followed by the unused indexes
+     */
+    public List<VerificationFinding> advise(Schema schema) {
+
+        final List<VerificationFinding> findings = new ArrayList<>();
+        final Set<String> usedIndexes = new HashSet<>();
+        try (Connection connection = createDatabase(schema, Utils.resolveIndexDescription(schema, mIndexDescList))) {
+            for (String query : mQueries) {
+
+                final List<String> plan;
+                try {
+                    plan = explain(connection, query);
+                } catch (SQLException e) {
+                    findings.add(new VerificationFinding(WARNING, "invalid-query", null, schema,
+                            String.format(Locale.US, "Query could not be planned on schema %d (%s): %s", schema.getVersion(), e.getMessage(), query)));
+                    continue;
+                }
+                usedIndexes.addAll(usedIndexes(plan));
+
+                for (String step : plan) {
+                    final Matcher matcher = PLAN_TABLE.matcher(step);
+                    final Entity entity = matcher.matches() ? entityForTable(schema, matcher.group(2)) : null;
+                    if (entity != null && matcher.group(1).equals("SCAN") && !matcher.group(3).contains("USING")) {
+                        findings.add(new VerificationFinding(WARNING, "full-scan", null, schema,
+                                String.format(Locale.US, "Query scans every row of %s: %s", entity.getTableName(), query)));
+                        suggest(connection, schema, entity, query, filteredColumns(entity, query), findings);
+                    } else if (step.contains("USE TEMP B-TREE")) {
+                        findings.add(new VerificationFinding(WARNING, "temp-b-tree", null, schema,
+                                String.format(Locale.US, "Query sorts its rows in a temporary B-tree (%s): %s", step, query)));
+                        final Entity sortedEntity = sortedEntity(schema, plan);
+                        if (sortedEntity != null) {
+                            final List<Property> orderColumns = orderColumns(sortedEntity, query);
+                            if (!orderColumns.isEmpty()) {
+                                suggest(connection, schema, sortedEntity, query, Collections.singletonList(orderColumns), findings);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create schema " + schema.getVersion() + " in SQLite", e);
+        }
+
+        final IndexDesc indexDesc = Utils.resolveIndexDescription(schema, mIndexDescList);
+        for (Entity entity : schema.getEntities()) {
+            final List<String> indexNames = new ArrayList<>();
+            for (Index index : entity.getIndexes()) {
+                if (index.getName() != null) {
+                    indexNames.add(index.getName());
+                }
+            }
+            for (IndexDesc.Definition definition : Utils.getIndexDefinitions(entity, indexDesc)) {
+                indexNames.add(definition.getName());
+            }
+            for (String indexName : indexNames) {
+                if (!usedIndexes.contains(indexName.toUpperCase(Locale.US))) {
+                    findings.add(new VerificationFinding(WARNING, "unused-index", null, schema,
+                            String.format(Locale.US, "Index %s on Entity '%s' is not used by any of the %d queries, and only slows down writes",
+                                    indexName, entity.getClassName(), mQueries.size())));
+                }
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * Fail when an index that is removed when going from {@code from} to {@code to} is used by a query of the workload
+     * on {@code from}. Queries that cannot be planned on {@code from}, because they use tables or columns that were
+     * added later, are skipped. A partial or expression index that is dropped and created again with different terms or
+     * a different condition only fails if the query no longer uses it on {@code to}.
+     */
+    @Override
+    public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+        if (from == null) {
+            return Collections.emptyList();
+        }
+
+        final IndexDesc fromIndexDesc = Utils.resolveIndexDescription(from, mIndexDescList);
+        final IndexDesc toIndexDesc = Utils.resolveIndexDescription(to, mIndexDescList);
+        final Map<String, Entity> removedIndexes = new HashMap<>();
+        final Set<String> changedIndexes = new HashSet<>();
+        for (Map.Entry<Entity, Entity> entityEntry : Utils.getCommonEntitiesAsMap(from, to, entityRenameDesc).entrySet()) {
+            if (entityEntry.getKey() == null || entityEntry.getValue() == null) {
+                continue;
+            }
+            for (Index index : Utils.getRemovedIndexes(entityEntry.getKey(), entityEntry.getValue())) {
+                removedIndexes.put(index.getName().toUpperCase(Locale.US), entityEntry.getKey());
+            }
+
+            final Set<String> keptNames = new HashSet<>();
+            for (IndexDesc.Definition definition : Utils.getIndexDefinitions(entityEntry.getValue(), toIndexDesc)) {
+                keptNames.add(definition.getName().toUpperCase(Locale.US));
+            }
+            for (IndexDesc.Definition definition : Utils.getRemovedIndexDefinitions(entityEntry.getKey(), fromIndexDesc, entityEntry.getValue(), toIndexDesc)) {
+                final String name = definition.getName().toUpperCase(Locale.US);
+                removedIndexes.put(name, entityEntry.getKey());
+                if (keptNames.contains(name)) {
+                    changedIndexes.add(name);
+                }
+            }
+        }
+        if (removedIndexes.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<VerificationFinding> findings = new ArrayList<>();
+        Connection toConnection = null;
+        try (Connection connection = createDatabase(from, fromIndexDesc)) {
+            for (String query : mQueries) {
+                final Set<String> usedIndexes;
+                try {
+                    usedIndexes = usedIndexes(explain(connection, query));
+                } catch (SQLException e) {
+                    continue;
+                }
+                for (String usedIndex : usedIndexes) {
+                    if (!removedIndexes.containsKey(usedIndex)) {
+                        continue;
+                    }
+                    if (changedIndexes.contains(usedIndex)) {
+                        if (toConnection == null) {
+                            toConnection = createDatabase(to, toIndexDesc);
+                        }
+                        if (usesIndex(toConnection, query, usedIndex)) {
+                            continue;
+                        }
+                    }
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US, "Index %s on Entity '%s' is %s when going from schema %d to schema %d, but is used by query: %s",
+                                    usedIndex, removedIndexes.get(usedIndex).getClassName(), changedIndexes.contains(usedIndex) ? "changed" : "removed",
+                                    from.getVersion(), to.getVersion(), query)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create schema " + from.getVersion() + " or " + to.getVersion() + " in SQLite", e);
+        } finally {
+            if (toConnection != null) {
+                try {
+                    toConnection.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * @return {@code true} if the plan of the query on the database uses the index
+     */
+    private static boolean usesIndex(Connection connection, String query, String indexName) {
+        try {
+            return usedIndexes(explain(connection, query)).contains(indexName);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Try each set of columns as an index, and suggest the first one that SQLite would use for the query
+     */
+    private void suggest(Connection connection, Schema schema, Entity entity, String query, List<List<Property>> candidates, List<VerificationFinding> findings) {
+
+        for (List<Property> columns : candidates) {
+            final StringBuilder columnList = new StringBuilder();
+            for (Property column : columns) {
+                if (columnList.length() > 0) {
+                    columnList.append(", ");
+                }
+                columnList.append('"').append(column.getColumnName()).append('"');
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(String.format(Locale.US, "CREATE INDEX %s ON \"%s\" (%s)", SUGGESTED_INDEX, entity.getTableName(), columnList));
+                try {
+                    if (usedIndexes(explain(connection, query)).contains(SUGGESTED_INDEX)) {
+                        findings.add(new VerificationFinding(WARNING, "suggested-index", null, schema,
+                                String.format(Locale.US, "An index on %s (%s) would be used by query: %s", entity.getTableName(), columnList, query)));
+                        return;
+                    }
+                } finally {
+                    statement.execute("DROP INDEX " + SUGGESTED_INDEX);
+                }
+            } catch (SQLException e) {
+                return;
+            }
+        }
+    }
+
+    private static Connection createDatabase(Schema schema, IndexDesc indexDesc) throws SQLException {
+
+        final Connection connection;
+        try {
+            connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        } catch (SQLException e) {
+            throw new IllegalStateException("The index advisor requires an SQLite JDBC driver, such as org.xerial:sqlite-jdbc, on the classpath", e);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : SchemaHistoryGenerator.createStatements(schema, indexDesc)) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * @return The details of the steps of the query plan
+     */
+    private static List<String> explain(Connection connection, String query) throws SQLException {
+
+        final List<String> plan = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + query)) {
+            final int detailColumn = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                plan.add(resultSet.getString(detailColumn));
+            }
+        }
+        return plan;
+    }
+
+    private static Set<String> usedIndexes(List<String> plan) {
+
+        final Set<String> usedIndexes = new HashSet<>();
+        for (String step : plan) {
+            final Matcher matcher = PLAN_INDEX.matcher(step);
+            if (matcher.find()) {
+                usedIndexes.add(matcher.group(1).toUpperCase(Locale.US));
+            }
+        }
+        return usedIndexes;
+    }
+
+    private static Entity entityForTable(Schema schema, String tableName) {
+
+        for (Entity entity : schema.getEntities()) {
+            if (entity.getTableName().equalsIgnoreCase(tableName.replace("\"", ""))) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The entity of the first table that the plan reads, which is the one whose rows are sorted
+     */
+    private static Entity sortedEntity(Schema schema, List<String> plan) {
+
+        for (String step : plan) {
+            final Matcher matcher = PLAN_TABLE.matcher(step);
+            if (matcher.matches()) {
+                return entityForTable(schema, matcher.group(2));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The columns of the entity that the query compares with a value, each as a candidate for an index
+     */
+    private static List<List<Property>> filteredColumns(Entity entity, String query) {
+
+        final List<List<Property>> candidates = new ArrayList<>();
+        for (Property property : entity.getProperties()) {
+            final Pattern comparison = Pattern.compile("\"?\\b" + Pattern.quote(property.getColumnName()) + "\\b\"?\\s*(=|<|>|IN\\b|IS\\b|BETWEEN\\b|LIKE\\b)", Pattern.CASE_INSENSITIVE);
+            if (comparison.matcher(query).find()) {
+                candidates.add(Collections.singletonList(property));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return The columns of the entity in the {@code ORDER BY} clause of the query, in order
+     */
+    private static List<Property> orderColumns(Entity entity, String query) {
+
+        final Matcher orderBy = ORDER_BY.matcher(query);
+        if (!orderBy.find()) {
+            return Collections.emptyList();
+        }
+
+        final List<Property> columns = new ArrayList<>();
+        for (String term : orderBy.group(1).split(",")) {
+            final String column = term.trim().split("\\s+")[0].replace("\"", "");
+            final String columnName = column.contains(".") ? column.substring(column.indexOf('.') + 1) : column;
+            for (Property property : entity.getProperties()) {
+                if (property.getColumnName().equalsIgnoreCase(columnName)) {
+                    columns.add(property);
+                }
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,196 @@
+package com.vinaysshenoy.poirot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Class that is used to describe the indexes of a schema that greenDAO cannot express: partial indexes, which only
+ * cover the rows that match a {@code WHERE} clause, and indexes on expressions
+ * <p/>
+ * Every index is a list of SQL terms, either column names or expressions such as {@code "LOWER(EMAIL)"}, that are
+ * evaluated against the rows of the table of its entity. The indexes of a schema are compared with those of the
+ * previous one by the statements that create them, so an index that is added or changed is created when upgrading,
+ * and one that is removed or changed is dropped.
+ * <p/>
+ * Partial indexes need SQLite 3.8.0 (Android 5.0), and indexes on expressions need SQLite 3.9.0 (Android 7.0).
+ */
+public class IndexDesc {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private int mVersion;
+
+    private final List<Definition> mDefinitions;
+
+    private IndexDesc(Builder builder) {
+        mDefinitions = Collections.unmodifiableList(new ArrayList<>(builder.definitions));
+    }
+
+    /*package*/ void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @return The version of the schema that has the indexes
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public List<Definition> getDefinitions() {
+        return mDefinitions;
+    }
+
+    /**
+     * Get the indexes declared on the table of an entity
+     *
+     * @param entityName The name of the entity
+     * @return The indexes, in the order they were declared
+     */
+    public List<Definition> getDefinitions(String entityName) {
+
+        final List<Definition> definitions = new ArrayList<>();
+        for (Definition definition : mDefinitions) {
+            if (definition.getEntityName().equals(entityName)) {
+                definitions.add(definition);
+            }
+        }
+        return definitions;
+    }
+
+    public static final class Definition {
+
+        private final String mEntityName;
+
+        private final String mName;
+
+        private final boolean mUnique;
+
+        private final List<String> mTerms;
+
+        private final String mWhere;
+
+        private Definition(String entityName, String name, boolean unique, List<String> terms, String where) {
+            mEntityName = entityName;
+            mName = name;
+            mUnique = unique;
+            mTerms = Collections.unmodifiableList(new ArrayList<>(terms));
+            mWhere = where;
+        }
+
+        public String getEntityName() {
+            return mEntityName;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isUnique() {
+            return mUnique;
+        }
+
+        public List<String> getTerms() {
+            return mTerms;
+        }
+
+        /**
+         * @return The condition of the rows that a partial index covers, or {@code null} if it covers every row
+         */
+        public String getWhere() {
+            return mWhere;
+        }
+
+        private Definition where(String where) {
+            return new Definition(mEntityName, mName, mUnique, mTerms, where);
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Definition> definitions;
+
+        public Builder() {
+            definitions = new ArrayList<>();
+        }
+
+        /**
+         * Declare an index in the schema this descriptor is attached to
+         *
+         * @param entityName The name of the entity on whose table the index is created
+         * @param indexName  The name of the index, which must be a plain SQL identifier
+         * @param sqlTerms   The column names or SQL expressions that are indexed, in order
+         */
+        public Builder index(String entityName, String indexName, String... sqlTerms) {
+            return add(entityName, indexName, false, sqlTerms);
+        }
+
+        /**
+         * Declare an index whose terms must be unique among the rows it covers
+         *
+         * @see #index(String, String, String...)
+         */
+        public Builder uniqueIndex(String entityName, String indexName, String... sqlTerms) {
+            return add(entityName, indexName, true, sqlTerms);
+        }
+
+        /**
+         * Make the index that was declared last a partial index
+         *
+         * @param sqlCondition The condition of the rows the index covers, for example {@code "DELETED = 0"}
+         */
+        public Builder where(String sqlCondition) {
+            if (definitions.isEmpty()) {
+                throw new IllegalStateException("An index must be declared before its condition");
+            }
+            if (sqlCondition == null || sqlCondition.trim().isEmpty()) {
+                throw new IllegalArgumentException("Condition cannot be null or empty");
+            }
+            final int last = definitions.size() - 1;
+            definitions.set(last, definitions.get(last).where(sqlCondition.trim()));
+            return this;
+        }
+
+        private Builder add(String entityName, String indexName, boolean unique, String... sqlTerms) {
+            if (entityName == null || indexName == null) {
+                throw new IllegalArgumentException("Entity name and index name cannot be null");
+            }
+            if (!NAME_PATTERN.matcher(indexName).matches()) {
+                throw new IllegalArgumentException("Index name must be a plain SQL identifier: " + indexName);
+            }
+            if (sqlTerms.length == 0) {
+                throw new IllegalArgumentException("Index " + indexName + " must have at least one term");
+            }
+            for (String sqlTerm : sqlTerms) {
+                if (sqlTerm == null || sqlTerm.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Terms of index " + indexName + " cannot be null or empty");
+                }
+            }
+            for (Definition definition : definitions) {
+                if (definition.getName().equalsIgnoreCase(indexName)) {
+                    throw new IllegalArgumentException("Index " + indexName + " has already been declared");
+                }
+            }
+            final List<String> terms = new ArrayList<>(sqlTerms.length);
+            for (String sqlTerm : Arrays.asList(sqlTerms)) {
+                terms.add(sqlTerm.trim());
+            }
+            definitions.add(new Definition(entityName, indexName, unique, terms, null));
+            return this;
+        }
+
+        public IndexDesc build() {
+
+            return new IndexDesc(this);
+        }
+
+        public Builder reset() {
+            definitions.clear();
+            return this;
+        }
+    }
+
+}
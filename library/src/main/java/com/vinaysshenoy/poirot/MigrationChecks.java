@@ -0,0 +1,87 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * Class that is used to describe the checks that the generated helper runs on the tables an upgrade touched, once
+ * the upgrade has completed.
+ * <p/>
+ * Unlike {@code PRAGMA integrity_check}, which reads the whole database, the checks are limited to the tables that the
+ * migrations from the version the database was at created, altered, renamed or rebuilt. Every check of every table is
+ * timed and reported through {@code onMigrationChecked()}.
+ */
+public class MigrationChecks {
+
+    private final boolean mQuickCheck;
+
+    private final boolean mForeignKeyCheck;
+
+    private final boolean mSchemaCheck;
+
+    private MigrationChecks(Builder builder) {
+        mQuickCheck = builder.quickCheck;
+        mForeignKeyCheck = builder.foreignKeyCheck;
+        mSchemaCheck = builder.schemaCheck;
+    }
+
+    public boolean isQuickCheck() {
+        return mQuickCheck;
+    }
+
+    public boolean isForeignKeyCheck() {
+        return mForeignKeyCheck;
+    }
+
+    public boolean isSchemaCheck() {
+        return mSchemaCheck;
+    }
+
+    public static final class Builder {
+
+        private boolean quickCheck;
+
+        private boolean foreignKeyCheck;
+
+        private boolean schemaCheck;
+
+        /**
+         * Run {@code PRAGMA quick_check} on every touched table. SQLite can only limit it to a table from 3.33, so it
+         * is skipped on databases opened with older versions, instead of checking the whole database
+         */
+        public Builder quickCheck() {
+            quickCheck = true;
+            return this;
+        }
+
+        /**
+         * Run {@code PRAGMA foreign_key_check} on every table that was rebuilt
+         */
+        public Builder foreignKeyCheck() {
+            foreignKeyCheck = true;
+            return this;
+        }
+
+        /**
+         * Check that every touched table has the columns and indexes of the current schema, with
+         * {@code PRAGMA table_info} and {@code PRAGMA index_list}. Columns of removed properties are left in the
+         * tables, so only missing columns and indexes are reported
+         */
+        public Builder schemaCheck() {
+            schemaCheck = true;
+            return this;
+        }
+
+        public MigrationChecks build() {
+
+            if (!quickCheck && !foreignKeyCheck && !schemaCheck) {
+                throw new IllegalStateException("At least one check must be enabled");
+            }
+            return new MigrationChecks(this);
+        }
+
+        public Builder reset() {
+            quickCheck = false;
+            foreignKeyCheck = false;
+            schemaCheck = false;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.vinaysshenoy.poirot;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class that is used to describe the expected size of the tables on devices, so that an upgrade plan can estimate how
+ * long each {@link MigrationStatement.Cost#LINEAR} statement will take
+ */
+public class MigrationCostHints {
+
+    /**
+     * Hints with no row counts. Plans created with these only classify statements, and do not estimate times.
+     */
+    public static final MigrationCostHints NONE = new Builder().build();
+
+    private final Map<String, Long> mRowCounts;
+
+    private final Map<MigrationStatement.Kind, Double> mMicrosPerRow;
+
+    private MigrationCostHints(Builder builder) {
+        mRowCounts = new HashMap<>(builder.rowCounts);
+        mMicrosPerRow = new EnumMap<>(builder.microsPerRow);
+    }
+
+    /**
+     * @param tableName The name of the table
+     * @return The expected number of rows in the table, or {@code -1} if there is no hint for it
+     */
+    public long getRowCount(String tableName) {
+        final Long rowCount = mRowCounts.get(tableName);
+        return rowCount == null ? -1L : rowCount;
+    }
+
+    /**
+     * @param kind The kind of statement
+     * @return The expected time taken to process a single row for the kind of statement, in microseconds
+     */
+    public double getMicrosPerRow(MigrationStatement.Kind kind) {
+        final Double microsPerRow = mMicrosPerRow.get(kind);
+        return microsPerRow == null ? kind.getDefaultMicrosPerRow() : microsPerRow;
+    }
+
+    /**
+     * Estimate the time taken to execute a statement
+     *
+     * @param statement The statement to estimate
+     * @return The estimated time in milliseconds, or {@code -1} if the statement has to visit every row and there is
+     * no row count hint for its table
+     */
+    public double estimateMillis(MigrationStatement statement) {
+        return estimateMillis(statement.getKind(), statement.getCost(), statement.getTableName());
+    }
+
+    /*package*/ double estimateMillis(MigrationStatement.Kind kind, MigrationStatement.Cost cost, String tableName) {
+
+        if (cost == MigrationStatement.Cost.CONSTANT) {
+            return 0D;
+        }
+
+        final long rowCount = getRowCount(tableName);
+        if (rowCount < 0) {
+            return -1D;
+        }
+        return rowCount * getMicrosPerRow(kind) / 1000D;
+    }
+
+    public static final class Builder {
+
+        private final Map<String, Long> rowCounts;
+
+        private final Map<MigrationStatement.Kind, Double> microsPerRow;
+
+        public Builder() {
+            rowCounts = new HashMap<>();
+            microsPerRow = new EnumMap<>(MigrationStatement.Kind.class);
+        }
+
+        /**
+         * @param tableName The name of the table. Since statements refer to a table by the name it has when they are
+         *                  executed, add a hint for every name of a table that is renamed
+         * @param rowCount  The expected number of rows in the table
+         */
+        public Builder rows(String tableName, long rowCount) {
+            if (rowCount < 0) {
+                throw new IllegalArgumentException("Row count cannot be < 0");
+            }
+            rowCounts.put(tableName, rowCount);
+            return this;
+        }
+
+        /**
+         * Override the default time taken to process a single row, for example after measuring it on a device
+         *
+         * @param kind   The kind of statement
+         * @param micros The time taken to process a single row, in microseconds
+         */
+        public Builder microsPerRow(MigrationStatement.Kind kind, double micros) {
+            if (micros < 0D) {
+                throw new IllegalArgumentException("Time per row cannot be < 0");
+            }
+            microsPerRow.put(kind, micros);
+            return this;
+        }
+
+        public MigrationCostHints build() {
+
+            return new MigrationCostHints(this);
+        }
+
+        public Builder reset() {
+            rowCounts.clear();
+            microsPerRow.clear();
+            return this;
+        }
+    }
+}
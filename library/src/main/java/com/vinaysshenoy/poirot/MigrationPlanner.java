@@ -0,0 +1,216 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates an "explain plan" of the statements that upgrading from each older schema version to the current one will
+ * execute, and classifies them by how their cost grows with the size of the database
+ */
+class MigrationPlanner {
+
+    private final List<Schema> mSchemas;
+
+    private final List<BackfillDesc> mBackfillDescList;
+
+    private final Migrations mMigrations;
+
+    /**
+     * Create a {@link MigrationPlanner} instance with a list of initialized schemas
+     *
+     * @param schemas           A non-{@code null} and non-empty list of schemas for which to plan the upgrades
+     * @param entityRenameDescs A list of how entities have been renamed when moving from one schema to the next
+     * @param backfillDescs     A list of how added properties are populated from the existing data
+     */
+    public MigrationPlanner(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<BackfillDesc> backfillDescs) {
+        this(schemas, entityRenameDescs, Collections.<PropertyRenameDesc>emptyList(), backfillDescs, 0);
+    }
+
+    /**
+     * Create a {@link MigrationPlanner} instance with a list of initialized schemas
+     *
+     * @param schemas             A non-{@code null} and non-empty list of schemas for which to plan the upgrades
+     * @param entityRenameDescs   A list of how entities have been renamed when moving from one schema to the next
+     * @param propertyRenameDescs A list of how properties have been renamed when moving from one schema to the next
+     * @param backfillDescs       A list of how added properties are populated from the existing data
+     * @param minSqliteVersion    The oldest version of SQLite the databases are migrated with, as returned by
+     *                            {@code sqlite3_libversion_number()}, or 0 if it is not known
+     */
+    public MigrationPlanner(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<PropertyRenameDesc> propertyRenameDescs, List<BackfillDesc> backfillDescs, int minSqliteVersion) {
+        this(schemas, entityRenameDescs, propertyRenameDescs, backfillDescs, minSqliteVersion, Collections.<IndexDesc>emptyList());
+    }
+
+    /**
+     * Create a {@link MigrationPlanner} instance with a list of initialized schemas, and their partial and expression
+     * indexes
+     *
+     * @param schemas             A non-{@code null} and non-empty list of schemas for which to plan the upgrades
+     * @param entityRenameDescs   A list of how entities have been renamed when moving from one schema to the next
+     * @param propertyRenameDescs A list of how properties have been renamed when moving from one schema to the next
+     * @param backfillDescs       A list of how added properties are populated from the existing data
+     * @param minSqliteVersion    The oldest version of SQLite the databases are migrated with, as returned by
+     *                            {@code sqlite3_libversion_number()}, or 0 if it is not known
+     * @param indexDescs          A list of the partial and expression indexes of every schema
+     */
+    public MigrationPlanner(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs, List<PropertyRenameDesc> propertyRenameDescs, List<BackfillDesc> backfillDescs, int minSqliteVersion, List<IndexDesc> indexDescs) {
+
+        if (schemas == null || schemas.isEmpty()) {
+            throw new IllegalArgumentException("Schemas cannot be null or empty");
+        }
+        mSchemas = new ArrayList<>(schemas);
+        mBackfillDescList = backfillDescs;
+        mMigrations = new Migrations.Builder()
+                .schemas(mSchemas)
+                .entityRenames(entityRenameDescs)
+                .propertyRenames(propertyRenameDescs)
+                .backfills(backfillDescs)
+                .minSqliteVersion(minSqliteVersion)
+                .indexes(indexDescs)
+                .build();
+    }
+
+    public String explain(MigrationCostHints hints) {
+
+        //Plan every step once, the upgrade from each version reuses the steps after it
+        final List<Step> steps = new ArrayList<>(mSchemas.size());
+        for (int i = 1; i < mSchemas.size(); i++) {
+            steps.add(planStep(mSchemas.get(i - 1), mSchemas.get(i), hints));
+        }
+
+        final StringBuilder plan = new StringBuilder();
+        final int currentVersion = mSchemas.get(mSchemas.size() - 1).getVersion();
+        for (int i = 0; i < steps.size(); i++) {
+
+            plan.append(String.format(Locale.US, "Upgrade plan from v%d to v%d%n", mSchemas.get(i).getVersion(), currentVersion));
+
+            final Totals totals = new Totals();
+            for (Step step : steps.subList(i, steps.size())) {
+                plan.append(step.description);
+                totals.add(step.totals);
+            }
+            plan.append("  ").append(totals.describe()).append(String.format(Locale.US, "%n%n"));
+        }
+
+        Step slowest = null;
+        for (Step step : steps) {
+            if (slowest == null || step.totals.estimatedMillis > slowest.totals.estimatedMillis) {
+                slowest = step;
+            }
+        }
+        if (slowest != null && slowest.totals.estimatedMillis > 0D) {
+            plan.append(String.format(Locale.US, "Slowest step: v%d -> v%d, %s%n", slowest.fromVersion, slowest.toVersion, formatMillis(slowest.totals.estimatedMillis)));
+        }
+
+        return plan.toString();
+    }
+
+    private Step planStep(Schema from, Schema to, MigrationCostHints hints) {
+
+        final Step step = new Step(from.getVersion(), to.getVersion());
+        final StringBuilder description = new StringBuilder(String.format(Locale.US, "  v%d -> v%d%n", from.getVersion(), to.getVersion()));
+
+        for (MigrationStatement statement : mMigrations.createStatements(from, to)) {
+            final double millis = hints.estimateMillis(statement);
+            step.totals.add(statement.getCost(), millis);
+            description.append(formatLine(statement.getCost().getNotation(), statement.getSql(), statement.getCost(), statement.getTableName(), millis, hints));
+        }
+
+        //Backfills are executed by PoirotBackfill after the upgrade, so they are listed but not counted
+        final BackfillDesc backfillDesc = Utils.resolveBackfillDescription(to, mBackfillDescList);
+        if (backfillDesc != null) {
+            for (BackfillDesc.Backfill backfill : backfillDesc.getBackfills()) {
+                final Entity entity = Utils.entityMapFromSchema(to).get(backfill.getEntityName());
+                final String tableName = entity == null ? backfill.getEntityName() : entity.getTableName();
+                final double millis = hints.estimateMillis(MigrationStatement.Kind.BACKFILL, MigrationStatement.Cost.LINEAR, tableName);
+                description.append(formatLine(
+                        "deferred " + MigrationStatement.Cost.LINEAR.getNotation(),
+                        String.format(Locale.US, "BACKFILL %s", BackfillGenerator.backfillName(to.getVersion(), backfill)),
+                        MigrationStatement.Cost.LINEAR, tableName, millis, hints
+                ));
+            }
+        }
+
+        step.description = description.toString();
+        return step;
+    }
+
+    private static String formatLine(String notation, String sql, MigrationStatement.Cost cost, String tableName, double millis, MigrationCostHints hints) {
+
+        String estimate = "";
+        if (cost == MigrationStatement.Cost.LINEAR) {
+            estimate = millis < 0D
+                    ? String.format(Locale.US, "  (rows in %s unknown)", tableName)
+                    : String.format(Locale.US, "  ~%s for %d rows", formatMillis(millis), hints.getRowCount(tableName));
+        }
+        return String.format(Locale.US, "    %-16s %s%s%n", notation, sql, estimate);
+    }
+
+    private static String formatMillis(double millis) {
+        return millis >= 1000D
+                ? String.format(Locale.US, "%.1f s", millis / 1000D)
+                : String.format(Locale.US, "%.0f ms", millis);
+    }
+
+    private static final class Step {
+
+        private final int fromVersion;
+
+        private final int toVersion;
+
+        private final Totals totals;
+
+        private String description;
+
+        private Step(int fromVersion, int toVersion) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.totals = new Totals();
+        }
+    }
+
+    private static final class Totals {
+
+        private int constantStatements;
+
+        private int linearStatements;
+
+        private int unknownStatements;
+
+        private double estimatedMillis;
+
+        private void add(MigrationStatement.Cost cost, double millis) {
+            if (cost == MigrationStatement.Cost.CONSTANT) {
+                constantStatements++;
+            } else {
+                linearStatements++;
+                if (millis < 0D) {
+                    unknownStatements++;
+                } else {
+                    estimatedMillis += millis;
+                }
+            }
+        }
+
+        private void add(Totals totals) {
+            constantStatements += totals.constantStatements;
+            linearStatements += totals.linearStatements;
+            unknownStatements += totals.unknownStatements;
+            estimatedMillis += totals.estimatedMillis;
+        }
+
+        private String describe() {
+            final StringBuilder description = new StringBuilder(String.format(Locale.US,
+                    "%d statements: %d O(1), %d O(rows), estimated %s on the upgrade path",
+                    constantStatements + linearStatements, constantStatements, linearStatements, formatMillis(estimatedMillis)));
+            if (unknownStatements > 0) {
+                description.append(String.format(Locale.US, " (%d O(rows) statements without row count hints not included)", unknownStatements));
+            }
+            return description.toString();
+        }
+    }
+}
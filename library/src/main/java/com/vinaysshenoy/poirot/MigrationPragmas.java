@@ -0,0 +1,128 @@
+package com.vinaysshenoy.poirot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class that is used to describe the SQLite settings that the generated helper uses while it migrates a database.
+ * <p/>
+ * The pragmas are only changed when there are migrations to run, before the first migration begins its transaction,
+ * and the previous values are restored once the last one has completed. Write-ahead logging is enabled before migrating
+ * and foreign key constraints after migrating, and both are left enabled.
+ */
+public class MigrationPragmas {
+
+    /**
+     * How often SQLite waits for data to reach the disk, see {@code PRAGMA synchronous}
+     */
+    public enum Synchronous {
+        OFF,
+        NORMAL,
+        FULL
+    }
+
+    private final Map<String, String> mPragmas;
+
+    private final boolean mWriteAheadLogging;
+
+    private final boolean mForeignKeys;
+
+    private MigrationPragmas(Builder builder) {
+        mPragmas = Collections.unmodifiableMap(new LinkedHashMap<>(builder.pragmas));
+        mWriteAheadLogging = builder.writeAheadLogging;
+        mForeignKeys = builder.foreignKeys;
+    }
+
+    /**
+     * @return The values of the pragmas that are set while migrating, by the name of the pragma
+     */
+    public Map<String, String> getPragmas() {
+        return mPragmas;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    public boolean isForeignKeys() {
+        return mForeignKeys;
+    }
+
+    public static final class Builder {
+
+        private final Map<String, String> pragmas;
+
+        private boolean writeAheadLogging;
+
+        private boolean foreignKeys;
+
+        public Builder() {
+            pragmas = new LinkedHashMap<>();
+        }
+
+        /**
+         * Raise the size of the page cache, which keeps more of the table in memory while indexes are built and tables are copied
+         *
+         * @param kibibytes The size of the cache, in KiB
+         */
+        public Builder cacheSize(int kibibytes) {
+            if (kibibytes < 1) {
+                throw new IllegalArgumentException("Cache size cannot be < 1");
+            }
+            //A negative value is a size in KiB rather than a number of pages
+            pragmas.put("cache_size", String.format(Locale.US, "%d", -kibibytes));
+            return this;
+        }
+
+        /**
+         * Keep temporary tables and indexes, such as those used to sort rows while building an index, in memory
+         */
+        public Builder tempStoreMemory() {
+            pragmas.put("temp_store", "MEMORY");
+            return this;
+        }
+
+        /**
+         * @param synchronous How often SQLite waits for data to reach the disk while migrating. Since every migration
+         *                    runs in its own transaction, {@link Synchronous#NORMAL} is usually enough
+         */
+        public Builder synchronous(Synchronous synchronous) {
+            if (synchronous == null) {
+                throw new IllegalArgumentException("Synchronous cannot be null");
+            }
+            pragmas.put("synchronous", synchronous.name());
+            return this;
+        }
+
+        /**
+         * Enable write-ahead logging before migrating. It cannot be enabled inside a transaction, and stays enabled
+         */
+        public Builder writeAheadLogging() {
+            writeAheadLogging = true;
+            return this;
+        }
+
+        /**
+         * Enable foreign key constraints once the migrations have completed, since rebuilding and renaming tables while
+         * they are enforced could fail or cascade. They stay enabled
+         */
+        public Builder foreignKeys() {
+            foreignKeys = true;
+            return this;
+        }
+
+        public MigrationPragmas build() {
+
+            return new MigrationPragmas(this);
+        }
+
+        public Builder reset() {
+            pragmas.clear();
+            writeAheadLogging = false;
+            foreignKeys = false;
+            return this;
+        }
+    }
+}
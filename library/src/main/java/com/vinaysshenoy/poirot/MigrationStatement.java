@@ -0,0 +1,114 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * A single SQL statement that a migration executes, classified by how its cost grows with the size of the database
+ */
+public final class MigrationStatement {
+
+    /**
+     * How the cost of a statement grows with the amount of data in the table it touches
+     */
+    public enum Cost {
+
+        /**
+         * A change to the schema catalog only, which takes the same time regardless of the number of rows
+         */
+        CONSTANT("O(1)"),
+
+        /**
+         * Work that has to visit every row (or page) of the table
+         */
+        LINEAR("O(rows)");
+
+        private final String mNotation;
+
+        Cost(String notation) {
+            mNotation = notation;
+        }
+
+        public String getNotation() {
+            return mNotation;
+        }
+    }
+
+    /**
+     * The kind of change a statement makes. The default cost per row is a rough figure for a mid-range device and
+     * is only used to turn row count hints into estimated times, see {@link MigrationCostHints}
+     */
+    public enum Kind {
+
+        CREATE_TABLE(Cost.CONSTANT, 0D),
+        COPY_ROWS(Cost.LINEAR, 3D),
+        RENAME_TABLE(Cost.CONSTANT, 0D),
+        RENAME_COLUMN(Cost.CONSTANT, 0D),
+        DROP_TABLE(Cost.LINEAR, 0.5D),
+        ADD_COLUMN(Cost.CONSTANT, 0D),
+        CREATE_INDEX(Cost.LINEAR, 4D),
+        DROP_INDEX(Cost.LINEAR, 0.3D),
+        REGISTER_BACKFILL(Cost.CONSTANT, 0D),
+        BACKFILL(Cost.LINEAR, 5D),
+        CHECK_REFERENCES(Cost.LINEAR, 1D),
+        ANALYSIS_LIMIT(Cost.CONSTANT, 0D),
+        ANALYZE(Cost.LINEAR, 1D);
+
+        private final Cost mDefaultCost;
+
+        private final double mDefaultMicrosPerRow;
+
+        Kind(Cost defaultCost, double defaultMicrosPerRow) {
+            mDefaultCost = defaultCost;
+            mDefaultMicrosPerRow = defaultMicrosPerRow;
+        }
+
+        public Cost getDefaultCost() {
+            return mDefaultCost;
+        }
+
+        public double getDefaultMicrosPerRow() {
+            return mDefaultMicrosPerRow;
+        }
+    }
+
+    private final Kind mKind;
+
+    private final Cost mCost;
+
+    private final String mTableName;
+
+    private final String mSql;
+
+    /*package*/ MigrationStatement(Kind kind, String tableName, String sql) {
+        this(kind, kind.getDefaultCost(), tableName, sql);
+    }
+
+    /*package*/ MigrationStatement(Kind kind, Cost cost, String tableName, String sql) {
+        mKind = kind;
+        mCost = cost;
+        mTableName = tableName;
+        mSql = sql;
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    public Cost getCost() {
+        return mCost;
+    }
+
+    /**
+     * @return The name of the table the statement touches, as it is named when the statement is executed
+     */
+    public String getTableName() {
+        return mTableName;
+    }
+
+    public String getSql() {
+        return mSql;
+    }
+
+    @Override
+    public String toString() {
+        return mSql;
+    }
+}
@@ -0,0 +1,20 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * How the migrations between schema versions are generated
+ *
+ * @see Poirot#setMigrationStyle(MigrationStyle)
+ */
+public enum MigrationStyle {
+
+    /**
+     * A {@code MigrateVxToVy} class for every step, each of which executes its own statements
+     */
+    CLASSES,
+
+    /**
+     * A table of the statements of every step inside {@code PoirotDbHelper}, which are executed by a small interpreter.
+     * However long the history is, only the helper has to be loaded to migrate
+     */
+    TABLE
+}
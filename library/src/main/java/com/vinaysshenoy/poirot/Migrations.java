@@ -17,6 +17,23 @@ import static com.vinaysshenoy.poirot.Utils.resolveEntityRenameDescription;
  */
 public class Migrations {
 
+    /**
+     * The name of the table that a table is rebuilt into when a migration is reversed
+     */
+    private static final String REBUILD_TABLE = "_POIROT_REBUILD";
+
+    /**
+     * The approximate number of rows of each index that {@code ANALYZE} examines after a migration has built indexes,
+     * the value that SQLite recommends for {@code PRAGMA optimize}
+     */
+    private static final int ANALYSIS_LIMIT = 400;
+
+    /**
+     * The first version of SQLite that supports {@code ALTER TABLE ... RENAME COLUMN}, as returned by
+     * {@code sqlite3_libversion_number()}
+     */
+    public static final int RENAME_COLUMN_SQLITE_VERSION = 3025000;
+
     private final ClassName mAbstractMigrationClassName;
 
     private final ClassName mDbClassName;
@@ -25,6 +42,8 @@ public class Migrations {
 
     private final List<Schema> mSchemas;
 
+    private final List<Schema> mRolledBackSchemas;
+
     private final Schema mCurrentSchema;
 
     private final ParameterSpec mDbParameterSpec;
@@ -33,10 +52,31 @@ public class Migrations {
 
     private List<EntityRenameDesc> mEntityRenameDescList;
 
+    private List<PropertyRenameDesc> mPropertyRenameDescList;
+
+    private List<BackfillDesc> mBackfillDescList;
+
+    private List<IndexDesc> mIndexDescList;
+
+    private final boolean mRenameColumnSupported;
+
     public Migrations(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescList) {
-        this.mSchemas = schemas;
-        this.mEntityRenameDescList = entityRenameDescList;
-        mCurrentSchema = schemas.get(schemas.size() - 1);
+        this(schemas, entityRenameDescList, Collections.<BackfillDesc>emptyList());
+    }
+
+    public Migrations(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescList, List<BackfillDesc> backfillDescList) {
+        this(new Builder().schemas(schemas).entityRenames(entityRenameDescList).backfills(backfillDescList));
+    }
+
+    private Migrations(Builder builder) {
+        this.mSchemas = builder.schemas;
+        this.mRolledBackSchemas = builder.rolledBackSchemas;
+        this.mEntityRenameDescList = builder.entityRenameDescs;
+        this.mPropertyRenameDescList = builder.propertyRenameDescs;
+        this.mBackfillDescList = builder.backfillDescs;
+        this.mIndexDescList = builder.indexDescs;
+        this.mRenameColumnSupported = builder.minSqliteVersion >= RENAME_COLUMN_SQLITE_VERSION;
+        mCurrentSchema = mSchemas.get(mSchemas.size() - 1);
         mPackageName = mCurrentSchema.getDefaultJavaPackage() + ".helper.migrations";
         mAbstractMigrationClassName = ClassName.get(mPackageName, "AbstractMigration");
         mDbClassName = ClassName.get("android.database.sqlite", "SQLiteDatabase");
@@ -44,7 +84,30 @@ public class Migrations {
         mCurrentVersionParameterSpec = ParameterSpec.builder(int.class, "currentVersion").build();
     }
 
+    /**
+     * @return The package in which the migration classes are generated
+     */
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /**
+     * @return The {@link ClassName} of the base class that all generated migrations extend
+     */
+    public ClassName getAbstractMigrationClassName() {
+        return mAbstractMigrationClassName;
+    }
+
     public List<JavaFile> createMigrations() {
+        return createMigrations(null);
+    }
+
+    /**
+     * Create the migrations
+     *
+     * @param generationCache If not {@code null}, only the migrations that changed since the last generation are created
+     */
+    /*package*/ List<JavaFile> createMigrations(GenerationCache generationCache) {
 
         final List<JavaFile> migrationFiles = new ArrayList<>(mSchemas.size());
         migrationFiles.add(createAbstractMigrationFile(mCurrentSchema));
@@ -55,24 +118,47 @@ public class Migrations {
                 continue;
             }
 
-            migrationFiles.add(createMigrationFile(
-                    mSchemas.get(i - 1),
-                    mSchemas.get(i),
-                    i == 1 ? null : mSchemas.get(i - 2)
-            ));
+            if (generationCache != null && !generationCache.isMigrationChanged(mSchemas.get(i - 1).getVersion())) {
+                continue;
+            }
+
+            migrationFiles.add(createMigrationFile(mSchemas.get(i - 1), mSchemas.get(i)));
+        }
+
+        final List<Schema> downgradeSchemas = getDowngradeSchemas();
+        for (int i = 1; i < downgradeSchemas.size(); i++) {
+            migrationFiles.add(createReverseMigrationFile(downgradeSchemas.get(i - 1), downgradeSchemas.get(i)));
         }
 
         return migrationFiles;
     }
 
+    /**
+     * @return The schemas up to and including the current one, which are upgraded from
+     */
+    /*package*/ List<Schema> getSchemas() {
+        return mSchemas;
+    }
+
+    /**
+     * @return The current schema followed by the schemas that are downgraded from, or only the current schema if
+     * there are none
+     */
+    public List<Schema> getDowngradeSchemas() {
+
+        final List<Schema> downgradeSchemas = new ArrayList<>(mRolledBackSchemas.size() + 1);
+        downgradeSchemas.add(mCurrentSchema);
+        downgradeSchemas.addAll(mRolledBackSchemas);
+        return downgradeSchemas;
+    }
+
     /**
      * Create a migration from an older schema version to a newer schema version
      *
-     * @param from       The {@link Schema} to migrate from
-     * @param to         The {@link Schema} to migrate to
-     * @param beforeFrom The {@link Schema} that comes before {@code from}
+     * @param from The {@link Schema} to migrate from
+     * @param to   The {@link Schema} to migrate to
      */
-    private JavaFile createMigrationFile(Schema from, Schema to, Schema beforeFrom) {
+    private JavaFile createMigrationFile(Schema from, Schema to) {
 
         final int fromVersion = from.getVersion();
         final int toVersion = to.getVersion();
@@ -81,42 +167,49 @@ public class Migrations {
             throw new IllegalArgumentException("Cannot generate a migration from " + fromVersion + " to " + toVersion);
         }
 
-        final ClassName migrationClassName = Utils.generateMigrationName(mPackageName, from, to);
+        return createMigrationFile(Utils.generateMigrationName(mPackageName, from, to), fromVersion, toVersion, createStatements(from, to));
+    }
+
+    /**
+     * Create a migration that reverses the migration from an older schema version to a newer schema version
+     *
+     * @param from The {@link Schema} to migrate back to
+     * @param to   The {@link Schema} to migrate back from
+     */
+    private JavaFile createReverseMigrationFile(Schema from, Schema to) {
+
+        final int fromVersion = from.getVersion();
+        final int toVersion = to.getVersion();
+
+        if (fromVersion >= toVersion) {
+            throw new IllegalArgumentException("Cannot generate a migration from " + toVersion + " back to " + fromVersion);
+        }
+
+        return createMigrationFile(Utils.generateMigrationName(mPackageName, to, from), toVersion, fromVersion, createReverseStatements(from, to));
+    }
+
+    private JavaFile createMigrationFile(ClassName migrationClassName, int targetVersion, int migratedVersion, List<MigrationStatement> statements) {
 
         final MethodSpec getTargetVersionSpec = MethodSpec.methodBuilder("getTargetVersion")
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PROTECTED)
                 .returns(int.class)
-                .addStatement("return $L", fromVersion)
+                .addStatement("return $L", targetVersion)
                 .build();
 
         final MethodSpec getMigratedVersionSpec = MethodSpec.methodBuilder("getMigratedVersion")
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PROTECTED)
                 .returns(int.class)
-                .addStatement("return $L", toVersion)
+                .addStatement("return $L", migratedVersion)
                 .build();
 
-        final MethodSpec.Builder getPreviousMigrationBuilder = MethodSpec.methodBuilder("getPreviousMigration")
-                .addAnnotation(Override.class)
-                .addModifiers(Modifier.PROTECTED)
-                .returns(mAbstractMigrationClassName);
-
-        MethodSpec getPreviousMigrationSpec;
-        if (beforeFrom == null) {
-            getPreviousMigrationBuilder.addStatement("return null");
-        } else {
-            getPreviousMigrationBuilder.addStatement("return new $T()", Utils.generateMigrationName(mPackageName, beforeFrom, from));
-        }
-
-        getPreviousMigrationSpec = getPreviousMigrationBuilder.build();
-
-        final MethodSpec applyMigrationSpec = createApplyMethodSpec(from, to);
+        final MethodSpec applyMigrationSpec = createApplyMethodSpec(statements);
 
         final TypeSpec migrationSpec = TypeSpec.classBuilder(migrationClassName.simpleName())
                 .superclass(mAbstractMigrationClassName)
                 .addModifiers(Modifier.PUBLIC)
-                .addMethods(Arrays.asList(getTargetVersionSpec, getMigratedVersionSpec, getPreviousMigrationSpec, applyMigrationSpec))
+                .addMethods(Arrays.asList(getTargetVersionSpec, getMigratedVersionSpec, applyMigrationSpec))
                 .build();
 
         return JavaFile.builder(mPackageName, migrationSpec)
@@ -124,7 +217,7 @@ public class Migrations {
                 .build();
     }
 
-    private MethodSpec createApplyMethodSpec(Schema from, Schema to) {
+    private MethodSpec createApplyMethodSpec(List<MigrationStatement> statements) {
 
         final MethodSpec.Builder applyMigrationSpecBuilder = MethodSpec.methodBuilder("applyMigration")
                 .addAnnotation(Override.class)
@@ -133,14 +226,15 @@ public class Migrations {
                 .addParameters(Arrays.asList(mDbParameterSpec, mCurrentVersionParameterSpec))
                 .addStatement("prepareMigration($L,$L)", mDbParameterSpec.name, mCurrentVersionParameterSpec.name);
 
-
-        //Order of these statements is important
-        handleAddedEntities(from, to, applyMigrationSpecBuilder);
-        handleRenamedEntities(from, to, applyMigrationSpecBuilder);
-        handleRemovedEntities(from, to, applyMigrationSpecBuilder);
-        handleAddedColumns(from, to, applyMigrationSpecBuilder);
-        handleAddedIndexes(from, to, applyMigrationSpecBuilder);
-        handleRemovedIndexes(from, to, applyMigrationSpecBuilder);
+        for (MigrationStatement statement : statements) {
+            if (statement.getKind() == MigrationStatement.Kind.CHECK_REFERENCES) {
+                applyMigrationSpecBuilder.addStatement("checkReferences($L, $S)", mDbParameterSpec.name, statement.getSql());
+            } else if (statement.getSql().startsWith("PRAGMA ")) {
+                applyMigrationSpecBuilder.addStatement("executePragma($L, $S)", mDbParameterSpec.name, statement.getSql());
+            } else {
+                applyMigrationSpecBuilder.addStatement("$L.execSQL($S)", mDbParameterSpec.name, statement.getSql());
+            }
+        }
 
         applyMigrationSpecBuilder.addStatement("return $L()", "getMigratedVersion");
 
@@ -148,124 +242,604 @@ public class Migrations {
                 .build();
     }
 
-    private void handleRenamedEntities(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    /**
+     * Create the list of SQL statements that migrate a database from one schema version to the next
+     *
+     * @param from The {@link Schema} to migrate from
+     * @param to   The {@link Schema} to migrate to
+     * @return The statements, in the order in which they have to be executed
+     */
+    public List<MigrationStatement> createStatements(Schema from, Schema to) {
+
+        final List<MigrationStatement> statements = new ArrayList<>();
+
+        //Order of these statements is important. Within each kind, entities are ordered by the references between them
+        handleAddedEntities(from, to, statements);
+        handleRenamedEntities(from, to, statements);
+        handleRemovedEntities(from, to, statements);
+        final Set<String> rebuiltEntities = handleRenamedColumns(from, to, statements);
+        rebuiltEntities.addAll(handleAddedColumns(from, to, statements));
+        handleRemovedBackfills(from, to, statements);
+        handleAddedIndexes(from, to, statements);
+        handleRemovedIndexes(from, to, statements);
+        handleChangedIndexDefinitions(from, to, statements);
+        analyzeIndexedTables(statements);
+        checkRebuiltReferences(from, to, rebuiltEntities, statements);
+
+        return statements;
+    }
 
+    /**
+     * Create the list of SQL statements that migrate a database back from a schema version to the one before it,
+     * reversing {@link #createStatements(Schema, Schema)}
+     * <p/>
+     * SQLite cannot drop columns, so the table of an entity whose columns changed is rebuilt with the columns it had
+     * in {@code from}. Columns that {@code to} removed are only present in databases that were upgraded to it, so they
+     * are recreated empty. Tables that {@code to} removed are recreated empty as well.
+     *
+     * @param from The {@link Schema} to migrate back to
+     * @param to   The {@link Schema} to migrate back from
+     * @return The statements, in the order in which they have to be executed
+     */
+    public List<MigrationStatement> createReverseStatements(Schema from, Schema to) {
+
+        final List<MigrationStatement> statements = new ArrayList<>();
         final EntityRenameDesc entityRenameDesc = resolveEntityRenameDescription(from, to, mEntityRenameDescList);
-        if (entityRenameDesc != null) {
 
-            final Map<Entity, Entity> renamedEntities = Utils.getRenamed(from, to, entityRenameDesc);
-            if (!renamedEntities.isEmpty()) {
-                System.out.println(String.format(Locale.US, "Rename %d entities when going from v%d to v%d", renamedEntities.size(), from.getVersion(), to.getVersion()));
+        final EntityRelations fromRelations = new EntityRelations(from);
+        final List<Entity> addedEntities = new EntityRelations(to).order(Utils.getAdded(from, to, entityRenameDesc));
+        Collections.reverse(addedEntities);
+
+        //Order of these statements is important, tables keep the names they have in the newer schema until the renames are reversed
+        for (Entity addedEntity : addedEntities) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.DROP_TABLE,
+                    addedEntity.getTableName(),
+                    String.format(Locale.US, "DROP TABLE IF EXISTS \"%s\"", addedEntity.getTableName())
+            ));
+        }
+
+        final Set<String> rebuiltEntities = new HashSet<>();
+        final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList);
+        final IndexDesc fromIndexDesc = Utils.resolveIndexDescription(from, mIndexDescList);
+        final IndexDesc toIndexDesc = Utils.resolveIndexDescription(to, mIndexDescList);
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
+            if (reverseEntityChanges(entityEntry.getKey(), fromIndexDesc, entityEntry.getValue(), toIndexDesc, propertyRenameDesc, statements)) {
+                rebuiltEntities.add(entityEntry.getKey().getClassName());
             }
-            for (Entity entity : renamedEntities.keySet()) {
-                applyMigrationBuilder.addStatement(
-                        "$L.execSQL($S)",
-                        mDbParameterSpec.name,
-                        String.format(Locale.US, "ALTER TABLE %s RENAME TO %s", entity.getTableName(), renamedEntities.get(entity).getTableName())
-                );
+        }
+
+        final Map<Entity, Entity> renamedEntities = entityRenameDesc == null ? Collections.<Entity, Entity>emptyMap() : Utils.getRenamed(from, to, entityRenameDesc);
+        for (Map.Entry<Entity, Entity> renamedEntity : renamedEntities.entrySet()) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.RENAME_TABLE,
+                    renamedEntity.getValue().getTableName(),
+                    String.format(Locale.US, "ALTER TABLE \"%s\" RENAME TO \"%s\"", renamedEntity.getValue().getTableName(), renamedEntity.getKey().getTableName())
+            ));
+        }
+
+        final Set<String> recreatedEntities = new HashSet<>();
+        for (Entity removedEntity : fromRelations.order(Utils.getRemoved(from, to, entityRenameDesc))) {
+            recreatedEntities.add(removedEntity.getClassName());
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.CREATE_TABLE,
+                    removedEntity.getTableName(),
+                    Utils.getCreateTableSql(removedEntity, removedEntity.getTableName())
+            ));
+            addIndexes(removedEntity, removedEntity.getIndexes(), MigrationStatement.Cost.CONSTANT, statements);
+            addIndexDefinitions(removedEntity, Utils.getIndexDefinitions(removedEntity, fromIndexDesc), MigrationStatement.Cost.CONSTANT, statements);
+        }
+
+        if (Utils.resolveBackfillDescription(to, mBackfillDescList) != null) {
+            for (String sql : BackfillGenerator.unregistrationSql(to.getVersion())) {
+                statements.add(new MigrationStatement(MigrationStatement.Kind.REGISTER_BACKFILL, BackfillGenerator.BACKFILL_TABLE, sql));
             }
+        }
 
+        analyzeIndexedTables(statements);
+
+        if (!rebuiltEntities.isEmpty()) {
+            //References are only checked once every table has its older name again, and only where a table was rebuilt
+            for (EntityRelations.Reference reference : fromRelations.getReferences()) {
+                if ((rebuiltEntities.contains(reference.getChild().getClassName()) || rebuiltEntities.contains(reference.getParent().getClassName()))
+                        && !recreatedEntities.contains(reference.getParent().getClassName())) {
+                    statements.add(new MigrationStatement(MigrationStatement.Kind.CHECK_REFERENCES, reference.getChild().getTableName(), reference.getOrphanQuery()));
+                }
+            }
         }
+
+        return statements;
     }
 
-    private void handleRemovedIndexes(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    /**
+     * Refresh the planner statistics of the tables that had indexes built over their existing rows, right after the
+     * last of those indexes, while the tables still have the names the indexes were built under. Tables that were just
+     * created are empty, and are left without statistics instead of being recorded as empty. The number of rows that
+     * are examined is bounded with {@code PRAGMA analysis_limit}, which versions of SQLite before 3.32 ignore.
+     */
+    private static void analyzeIndexedTables(List<MigrationStatement> statements) {
+
+        final Set<String> indexedTables = new LinkedHashSet<>();
+        int lastIndex = -1;
+        for (int i = 0; i < statements.size(); i++) {
+            final MigrationStatement statement = statements.get(i);
+            if (statement.getKind() == MigrationStatement.Kind.CREATE_INDEX && statement.getCost() == MigrationStatement.Cost.LINEAR) {
+                indexedTables.add(statement.getTableName());
+                lastIndex = i;
+            }
+        }
+        if (indexedTables.isEmpty()) {
+            return;
+        }
+
+        final List<MigrationStatement> analysis = new ArrayList<>(indexedTables.size() + 2);
+        analysis.add(new MigrationStatement(MigrationStatement.Kind.ANALYSIS_LIMIT, null, String.format(Locale.US, "PRAGMA analysis_limit = %d", ANALYSIS_LIMIT)));
+        for (String tableName : indexedTables) {
+            analysis.add(new MigrationStatement(MigrationStatement.Kind.ANALYZE, tableName, String.format(Locale.US, "ANALYZE \"%s\"", tableName)));
+        }
+        analysis.add(new MigrationStatement(MigrationStatement.Kind.ANALYSIS_LIMIT, null, "PRAGMA analysis_limit = 0"));
+        statements.addAll(lastIndex + 1, analysis);
+    }
+
+    /**
+     * @return The entities that are in both schemas, as pairs of the older and the newer entity, with the entities
+     * that are referred to first
+     */
+    private List<Map.Entry<Entity, Entity>> commonEntities(Schema from, Schema to) {
 
         final Map<Entity, Entity> entityMap = Utils.getCommonEntitiesAsMap(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
+        final Map<String, Map.Entry<Entity, Entity>> entriesByClassName = new HashMap<>();
         for (Map.Entry<Entity, Entity> entityEntry : entityMap.entrySet()) {
-            final List<Index> removedIndexes = Utils.getRemovedIndexes(entityEntry.getKey(), entityEntry.getValue());
-            if (!removedIndexes.isEmpty()) {
-                System.out.println(String.format(Locale.US, "Removed %d indexes when going from v%d to v%d for entity %s", removedIndexes.size(), from.getVersion(), to.getVersion(), entityEntry.getKey().getClassName()));
+            entriesByClassName.put(entityEntry.getValue().getClassName(), entityEntry);
+        }
+
+        final List<Map.Entry<Entity, Entity>> commonEntities = new ArrayList<>(entityMap.size());
+        for (Entity entity : new EntityRelations(to).order(entityMap.values())) {
+            commonEntities.add(entriesByClassName.get(entity.getClassName()));
+        }
+        return commonEntities;
+    }
+
+    /**
+     * @return Whether the table had to be rebuilt
+     */
+    private boolean reverseEntityChanges(Entity prev, IndexDesc prevIndexDesc, Entity cur, IndexDesc curIndexDesc, PropertyRenameDesc propertyRenameDesc, List<MigrationStatement> statements) {
+
+        removeIndexes(cur, Utils.getAddedIndexes(prev, cur), statements);
+        removeIndexDefinitions(cur, Utils.getAddedIndexDefinitions(prev, prevIndexDesc, cur, curIndexDesc), statements);
+
+        final Map<Property, Property> renamedColumns = Utils.getRenamedColumns(prev, cur, propertyRenameDesc);
+        if (Utils.getAddedProperties(prev, cur, propertyRenameDesc).isEmpty() && Utils.getRemovedProperties(prev, cur, propertyRenameDesc).isEmpty()
+                && (renamedColumns.isEmpty() || mRenameColumnSupported)) {
+            final Map<Property, Property> reversedColumns = new LinkedHashMap<>();
+            for (Map.Entry<Property, Property> renamedColumn : renamedColumns.entrySet()) {
+                reversedColumns.put(renamedColumn.getValue(), renamedColumn.getKey());
             }
-            removeIndexes(entityEntry.getValue(), removedIndexes, applyMigrationBuilder);
+            renameColumns(cur.getTableName(), reversedColumns, statements);
+            addIndexes(cur, Utils.getRemovedIndexes(prev, cur), MigrationStatement.Cost.LINEAR, statements);
+            addIndexDefinitions(cur, Utils.getRemovedIndexDefinitions(prev, prevIndexDesc, cur, curIndexDesc), MigrationStatement.Cost.LINEAR, statements);
+            return false;
+        }
+
+        //Rebuild the table with the columns of the older entity, under the name it has in the newer schema
+        final Map<Property, Property> commonProperties = Utils.getCommonPropertiesAsMap(prev, cur, propertyRenameDesc);
+        final List<String> values = new ArrayList<>(prev.getProperties().size());
+        for (Property property : prev.getProperties()) {
+            if (commonProperties.containsKey(property)) {
+                values.add('"' + commonProperties.get(property).getColumnName() + '"');
+            } else {
+                values.add(property.isNotNull() ? emptyValue(property) : "NULL");
+            }
+        }
+        rebuildTable(cur.getTableName(), prev.getProperties(), values, statements);
+        //Dropping the table dropped all its indexes
+        addIndexes(cur, prev.getIndexes(), MigrationStatement.Cost.LINEAR, statements);
+        addIndexDefinitions(cur, Utils.getIndexDefinitions(prev, prevIndexDesc), MigrationStatement.Cost.LINEAR, statements);
+        return true;
+    }
+
+    /**
+     * @return An SQL literal for a {@code NOT NULL} column that has no value to copy
+     */
+    private static String emptyValue(Property property) {
+        switch (property.getColumnType()) {
+            case "TEXT":
+                return "''";
+            case "BLOB":
+                return "X''";
+            default:
+                return "0";
         }
     }
 
-    private void removeIndexes(Entity entity, List<Index> removedIndexes, MethodSpec.Builder applyMigrationBuilder) {
+    private void handleRenamedEntities(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        final EntityRenameDesc entityRenameDesc = resolveEntityRenameDescription(from, to, mEntityRenameDescList);
+        if (entityRenameDesc != null) {
+
+            final Map<Entity, Entity> renamedEntities = Utils.getRenamed(from, to, entityRenameDesc);
+            for (Entity entity : new EntityRelations(from).order(renamedEntities.keySet())) {
+                statements.add(new MigrationStatement(
+                        MigrationStatement.Kind.RENAME_TABLE,
+                        entity.getTableName(),
+                        String.format(Locale.US, "ALTER TABLE \"%s\" RENAME TO \"%s\"", entity.getTableName(), renamedEntities.get(entity).getTableName())
+                ));
+            }
+
+        }
+    }
+
+    /**
+     * @return The class names of the entities whose tables had to be rebuilt
+     */
+    private Set<String> handleRenamedColumns(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        final Set<String> rebuiltEntities = new HashSet<>();
+        final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList);
+        if (propertyRenameDesc == null) {
+            return rebuiltEntities;
+        }
+
+        final IndexDesc prevIndexDesc = Utils.resolveIndexDescription(from, mIndexDescList);
+        final IndexDesc curIndexDesc = Utils.resolveIndexDescription(to, mIndexDescList);
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
+            final Entity prev = entityEntry.getKey();
+            final Entity cur = entityEntry.getValue();
+            final Map<Property, Property> renamedColumns = Utils.getRenamedColumns(prev, cur, propertyRenameDesc);
+            if (renamedColumns.isEmpty()) {
+                continue;
+            }
+
+            if (mRenameColumnSupported) {
+                renameColumns(cur.getTableName(), renamedColumns, statements);
+                continue;
+            }
+
+            //Rebuild the table with the columns it has, under their new names. Columns are added after this
+            final List<Property> properties = new ArrayList<>(prev.getProperties().size());
+            final List<String> values = new ArrayList<>(prev.getProperties().size());
+            for (Property property : prev.getProperties()) {
+                properties.add(renamedColumns.containsKey(property) ? renamedColumns.get(property) : property);
+                values.add('"' + property.getColumnName() + '"');
+            }
+            rebuildTable(cur.getTableName(), properties, values, statements);
+            addKeptIndexes(prev, prevIndexDesc, cur, curIndexDesc, statements);
+            rebuiltEntities.add(cur.getClassName());
+        }
+        return rebuiltEntities;
+    }
+
+    /**
+     * Create the indexes of a rebuilt table again. Indexes that were added are left to {@link #handleAddedIndexes}
+     */
+    private void addKeptIndexes(Entity prev, IndexDesc prevIndexDesc, Entity cur, IndexDesc curIndexDesc, List<MigrationStatement> statements) {
+
+        final Map<String, Index> prevIndexes = Utils.indexMapFromEntity(prev);
+        final List<Index> keptIndexes = new ArrayList<>();
+        for (Index index : cur.getIndexes()) {
+            if (prevIndexes.containsKey(index.getName())) {
+                keptIndexes.add(index);
+            }
+        }
+        addIndexes(cur, keptIndexes, MigrationStatement.Cost.LINEAR, statements);
+        final List<IndexDesc.Definition> keptDefinitions = new ArrayList<>(Utils.getIndexDefinitions(cur, curIndexDesc));
+        keptDefinitions.removeAll(Utils.getAddedIndexDefinitions(prev, prevIndexDesc, cur, curIndexDesc));
+        addIndexDefinitions(cur, keptDefinitions, MigrationStatement.Cost.LINEAR, statements);
+    }
+
+    /**
+     * Check the references of the tables that were rebuilt, once every table has its newer name and columns.
+     * References to tables that were just created, and references held by columns that were just added, are not
+     * checked, since they could not have been kept by the rebuild
+     */
+    private void checkRebuiltReferences(Schema from, Schema to, Set<String> rebuiltEntities, List<MigrationStatement> statements) {
+
+        if (rebuiltEntities.isEmpty()) {
+            return;
+        }
+
+        final Set<String> addedEntities = new HashSet<>();
+        for (Entity addedEntity : Utils.getAdded(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList))) {
+            addedEntities.add(addedEntity.getClassName());
+        }
+        final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList);
+        final Set<Property> addedColumns = new HashSet<>();
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
+            addedColumns.addAll(Utils.getAddedProperties(entityEntry.getKey(), entityEntry.getValue(), propertyRenameDesc));
+        }
+
+        for (EntityRelations.Reference reference : new EntityRelations(to).getReferences()) {
+            if ((rebuiltEntities.contains(reference.getChild().getClassName()) || rebuiltEntities.contains(reference.getParent().getClassName()))
+                    && !addedEntities.contains(reference.getParent().getClassName()) && !addedColumns.contains(reference.getColumn())) {
+                statements.add(new MigrationStatement(MigrationStatement.Kind.CHECK_REFERENCES, reference.getChild().getTableName(), reference.getOrphanQuery()));
+            }
+        }
+    }
+
+    private static void renameColumns(String tableName, Map<Property, Property> renamedColumns, List<MigrationStatement> statements) {
+
+        for (Map.Entry<Property, Property> renamedColumn : renamedColumns.entrySet()) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.RENAME_COLUMN,
+                    tableName,
+                    String.format(Locale.US, "ALTER TABLE \"%s\" RENAME COLUMN \"%s\" TO \"%s\"", tableName, renamedColumn.getKey().getColumnName(), renamedColumn.getValue().getColumnName())
+            ));
+        }
+    }
+
+    /**
+     * Rebuild a table with a new list of columns, copying its rows. The indexes of the table are dropped with it
+     *
+     * @param tableName  The name of the table to rebuild
+     * @param properties The properties of the columns the table is rebuilt with
+     * @param values     The SQL expression for every column, in the same order, evaluated against the rows of the table
+     */
+    private static void rebuildTable(String tableName, List<Property> properties, List<String> values, List<MigrationStatement> statements) {
+
+        final StringBuilder columnList = new StringBuilder();
+        final StringBuilder valueList = new StringBuilder();
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) {
+                columnList.append(", ");
+                valueList.append(", ");
+            }
+            columnList.append('"').append(properties.get(i).getColumnName()).append('"');
+            valueList.append(values.get(i));
+        }
+
+        statements.add(new MigrationStatement(MigrationStatement.Kind.CREATE_TABLE, REBUILD_TABLE, Utils.getCreateTableSql(properties, REBUILD_TABLE)));
+        statements.add(new MigrationStatement(
+                MigrationStatement.Kind.COPY_ROWS,
+                tableName,
+                String.format(Locale.US, "INSERT INTO \"%s\" (%s) SELECT %s FROM \"%s\"", REBUILD_TABLE, columnList, valueList, tableName)
+        ));
+        statements.add(new MigrationStatement(MigrationStatement.Kind.DROP_TABLE, tableName, String.format(Locale.US, "DROP TABLE \"%s\"", tableName)));
+        statements.add(new MigrationStatement(
+                MigrationStatement.Kind.RENAME_TABLE,
+                REBUILD_TABLE,
+                String.format(Locale.US, "ALTER TABLE \"%s\" RENAME TO \"%s\"", REBUILD_TABLE, tableName)
+        ));
+    }
+
+    private void handleRemovedIndexes(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
+            final List<Index> removedIndexes = Utils.getRemovedIndexes(entityEntry.getKey(), entityEntry.getValue());
+            removeIndexes(entityEntry.getValue(), removedIndexes, statements);
+        }
+    }
+
+    private void removeIndexes(Entity entity, List<Index> removedIndexes, List<MigrationStatement> statements) {
 
         for (Index removedIndex : removedIndexes) {
-            applyMigrationBuilder.addStatement(
-                    "$L.execSQL($S)",
-                    mDbParameterSpec.name,
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.DROP_INDEX,
+                    entity.getTableName(),
                     String.format(Locale.US, "DROP INDEX IF EXISTS %s", removedIndex.getName())
-            );
+            ));
         }
 
     }
 
-    private void handleAddedIndexes(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    private void handleAddedIndexes(Schema from, Schema to, List<MigrationStatement> statements) {
 
-        final Map<Entity, Entity> entityMap = Utils.getCommonEntitiesAsMap(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
-        for (Map.Entry<Entity, Entity> entityEntry : entityMap.entrySet()) {
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
             final List<Index> addedIndexes = Utils.getAddedIndexes(entityEntry.getKey(), entityEntry.getValue());
-            if (!addedIndexes.isEmpty()) {
-                System.out.println(String.format(Locale.US, "Added %d indexes when going from v%d to v%d for entity %s", addedIndexes.size(), from.getVersion(), to.getVersion(), entityEntry.getKey().getClassName()));
-            }
-            addIndexes(entityEntry.getValue(), addedIndexes, applyMigrationBuilder);
+            addIndexes(entityEntry.getValue(), addedIndexes, MigrationStatement.Cost.LINEAR, statements);
         }
 
     }
 
-    private void addIndexes(Entity entity, List<Index> addedIndexes, MethodSpec.Builder applyMigrationBuilder) {
+    private void addIndexes(Entity entity, List<Index> addedIndexes, MigrationStatement.Cost cost, List<MigrationStatement> statements) {
 
         for (Index addedIndex : addedIndexes) {
-            applyMigrationBuilder.addStatement(
-                    "$L.execSQL($S)",
-                    mDbParameterSpec.name,
-                    String.format(Locale.US, "CREATE INDEX IF NOT EXISTS %s ON %s (\"%s\")", addedIndex.getName(), entity.getTableName(), addedIndex.getProperties().get(0).getColumnName())
-            );
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.CREATE_INDEX,
+                    cost,
+                    entity.getTableName(),
+                    String.format(Locale.US, "CREATE INDEX IF NOT EXISTS %s ON \"%s\" (\"%s\")", addedIndex.getName(), entity.getTableName(), addedIndex.getProperties().get(0).getColumnName())
+            ));
         }
 
     }
 
-    private void handleAddedColumns(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    /**
+     * Drop the partial and expression indexes that were removed or changed, and then create the ones that were added
+     * or changed, so that an index that changed is built again under the same name
+     */
+    private void handleChangedIndexDefinitions(Schema from, Schema to, List<MigrationStatement> statements) {
 
-        final Map<Entity, Entity> entityMap = Utils.getCommonEntitiesAsMap(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
-        for (Map.Entry<Entity, Entity> entityEntry : entityMap.entrySet()) {
-            final List<Property> addedProperties = Utils.getAddedProperties(entityEntry.getKey(), entityEntry.getValue());
-            if (!addedProperties.isEmpty()) {
-                System.out.println(String.format(Locale.US, "Added %d properties when going from v%d to v%d for entity %s", addedProperties.size(), from.getVersion(), to.getVersion(), entityEntry.getKey().getClassName()));
+        final IndexDesc fromIndexDesc = Utils.resolveIndexDescription(from, mIndexDescList);
+        final IndexDesc toIndexDesc = Utils.resolveIndexDescription(to, mIndexDescList);
+        if (fromIndexDesc == null && toIndexDesc == null) {
+            return;
+        }
+
+        final List<Map.Entry<Entity, Entity>> commonEntities = commonEntities(from, to);
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities) {
+            final List<IndexDesc.Definition> removedDefinitions = Utils.getRemovedIndexDefinitions(entityEntry.getKey(), fromIndexDesc, entityEntry.getValue(), toIndexDesc);
+            removeIndexDefinitions(entityEntry.getValue(), removedDefinitions, statements);
+        }
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities) {
+            final List<IndexDesc.Definition> addedDefinitions = Utils.getAddedIndexDefinitions(entityEntry.getKey(), fromIndexDesc, entityEntry.getValue(), toIndexDesc);
+            addIndexDefinitions(entityEntry.getValue(), addedDefinitions, MigrationStatement.Cost.LINEAR, statements);
+        }
+    }
+
+    private static void removeIndexDefinitions(Entity entity, List<IndexDesc.Definition> definitions, List<MigrationStatement> statements) {
+
+        for (IndexDesc.Definition definition : definitions) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.DROP_INDEX,
+                    entity.getTableName(),
+                    String.format(Locale.US, "DROP INDEX IF EXISTS %s", definition.getName())
+            ));
+        }
+    }
+
+    private static void addIndexDefinitions(Entity entity, List<IndexDesc.Definition> definitions, MigrationStatement.Cost cost, List<MigrationStatement> statements) {
+
+        for (IndexDesc.Definition definition : definitions) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.CREATE_INDEX,
+                    cost,
+                    entity.getTableName(),
+                    Utils.getCreateIndexSql(definition, entity.getTableName())
+            ));
+        }
+    }
+
+    /**
+     * SQLite cannot add a column with a {@code UNIQUE} constraint, so the table of an entity that gains one is rebuilt
+     * with the columns of the newer entity instead. Columns of removed properties are dropped by the rebuild, and the
+     * added columns are filled as {@code ALTER TABLE ... ADD COLUMN} would fill them, so a {@code NOT NULL UNIQUE}
+     * column can only be added to a table with at most one row
+     *
+     * @return The class names of the entities whose tables had to be rebuilt
+     */
+    private Set<String> handleAddedColumns(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        final Set<String> rebuiltEntities = new HashSet<>();
+        final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList);
+        final IndexDesc prevIndexDesc = Utils.resolveIndexDescription(from, mIndexDescList);
+        final IndexDesc curIndexDesc = Utils.resolveIndexDescription(to, mIndexDescList);
+        final BackfillDesc backfillDesc = Utils.resolveBackfillDescription(to, mBackfillDescList);
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities(from, to)) {
+            final Entity prev = entityEntry.getKey();
+            final Entity cur = entityEntry.getValue();
+            final List<Property> addedProperties = Utils.getAddedProperties(prev, cur, propertyRenameDesc);
+            if (!hasUniqueProperty(addedProperties)) {
+                addColumns(cur, addedProperties, statements);
+                registerBackfills(to, cur, addedProperties, statements);
+            } else {
+                //Renamed columns already have the names of the newer entity. Backfilled columns are filled while the rows are
+                //copied, since every row getting the same value would fail a unique column
+                final List<Property> backfilledProperties = new ArrayList<>();
+                final List<String> values = new ArrayList<>(cur.getProperties().size());
+                BackfillDesc.Backfill backfill;
+                for (Property property : cur.getProperties()) {
+                    backfill = backfillDesc == null ? null : backfillDesc.getBackfill(cur.getClassName(), property.getPropertyName());
+                    if (addedProperties.contains(property) && backfill != null) {
+                        values.add('(' + backfill.getExpression() + ')');
+                        backfilledProperties.add(property);
+                    } else if (addedProperties.contains(property)) {
+                        values.add(property.isNotNull() ? emptyValue(property) : "NULL");
+                    } else {
+                        values.add('"' + property.getColumnName() + '"');
+                    }
+                }
+                rebuildTable(cur.getTableName(), cur.getProperties(), values, statements);
+                addKeptIndexes(prev, prevIndexDesc, cur, curIndexDesc, statements);
+                rebuiltEntities.add(cur.getClassName());
+
+                final List<Property> unfilledProperties = new ArrayList<>(addedProperties);
+                unfilledProperties.removeAll(backfilledProperties);
+                registerBackfills(to, cur, unfilledProperties, statements);
             }
-            addColumns(entityEntry.getValue(), addedProperties, applyMigrationBuilder);
         }
+        return rebuiltEntities;
     }
 
-    private void addColumns(Entity entity, List<Property> properties, MethodSpec.Builder applyMigrationBuilder) {
+    private static boolean hasUniqueProperty(List<Property> properties) {
+
         for (Property property : properties) {
-            applyMigrationBuilder.addStatement(
-                    "$L.execSQL($S)",
-                    mDbParameterSpec.name,
-                    String.format(Locale.US, "ALTER TABLE \"%s\" ADD COLUMN %s", entity.getTableName(), Utils.getPropertySqlDef(property)));
+            //greenDAO only keeps unique() in the constraints of the column
+            if (property.isPrimaryKey() || (property.getConstraints() != null && property.getConstraints().contains("UNIQUE"))) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private void handleAddedEntities(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    private void registerBackfills(Schema to, Entity entity, List<Property> addedProperties, List<MigrationStatement> statements) {
 
-        final List<Entity> addedEntities = Utils.getAdded(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
-        if (!addedEntities.isEmpty()) {
-            System.out.println(String.format(Locale.US, "Added %d entities when going from v%d to v%d", addedEntities.size(), from.getVersion(), to.getVersion()));
+        final BackfillDesc backfillDesc = Utils.resolveBackfillDescription(to, mBackfillDescList);
+        if (backfillDesc == null) {
+            return;
+        }
+
+        BackfillDesc.Backfill backfill;
+        for (Property property : addedProperties) {
+            backfill = backfillDesc.getBackfill(entity.getClassName(), property.getPropertyName());
+            if (backfill != null) {
+                for (String sql : BackfillGenerator.registrationSql(to.getVersion(), entity, backfill)) {
+                    statements.add(new MigrationStatement(MigrationStatement.Kind.REGISTER_BACKFILL, BackfillGenerator.BACKFILL_TABLE, sql));
+                }
+            }
         }
+    }
+
+    /**
+     * Remove the registrations of the earlier backfills whose property does not exist after this migration, since
+     * nothing would ever run them
+     */
+    private void handleRemovedBackfills(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        final int fromIndex = mSchemas.indexOf(from);
+        final int toIndex = mSchemas.indexOf(to);
+        if (fromIndex < 0 || toIndex < 0) {
+            return;
+        }
+
+        for (BackfillDesc backfillDesc : mBackfillDescList) {
+            if (backfillDesc.getVersion() > from.getVersion()) {
+                continue;
+            }
+            for (BackfillDesc.Backfill backfill : backfillDesc.getBackfills()) {
+                if (BackfillGenerator.resolve(mSchemas, mEntityRenameDescList, mPropertyRenameDescList, backfillDesc.getVersion(), backfill, fromIndex) != null
+                        && BackfillGenerator.resolve(mSchemas, mEntityRenameDescList, mPropertyRenameDescList, backfillDesc.getVersion(), backfill, toIndex) == null) {
+                    for (String sql : BackfillGenerator.removalSql(backfillDesc.getVersion(), backfill)) {
+                        statements.add(new MigrationStatement(MigrationStatement.Kind.REGISTER_BACKFILL, BackfillGenerator.BACKFILL_TABLE, sql));
+                    }
+                }
+            }
+        }
+    }
+
+    private void addColumns(Entity entity, List<Property> properties, List<MigrationStatement> statements) {
+        for (Property property : properties) {
+            statements.add(new MigrationStatement(
+                    MigrationStatement.Kind.ADD_COLUMN,
+                    entity.getTableName(),
+                    //SQLite cannot add a NOT NULL column without a default value
+                    String.format(Locale.US, "ALTER TABLE \"%s\" ADD COLUMN %s%s", entity.getTableName(), Utils.getPropertySqlDef(property),
+                            property.isNotNull() ? " DEFAULT " + emptyValue(property) : "")
+            ));
+        }
+    }
+
+    private void handleAddedEntities(Schema from, Schema to, List<MigrationStatement> statements) {
+
+        final List<Entity> addedEntities = Utils.getAdded(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
         if (addedEntities.size() > 0) {
-            for (Entity addedEntity : addedEntities) {
-
-                applyMigrationBuilder.addStatement("$L.execSQL($S)",
-                        mDbParameterSpec.name,
-                        String.format(Locale.US, "CREATE TABLE IF NOT EXISTS \"%s\" (%s)", addedEntity.getTableName(), Utils.getPropertySqlDef(addedEntity.getPkProperty()))
-                );
-                addColumns(addedEntity, Utils.entityPropertiesWithoutPrimaryKey(addedEntity), applyMigrationBuilder);
-                addIndexes(addedEntity, addedEntity.getIndexes(), applyMigrationBuilder);
+            for (Entity addedEntity : new EntityRelations(to).order(addedEntities)) {
+
+                statements.add(new MigrationStatement(
+                        MigrationStatement.Kind.CREATE_TABLE,
+                        addedEntity.getTableName(),
+                        //Created with all its columns, since SQLite cannot add UNIQUE columns, or NOT NULL ones without a default
+                        Utils.getCreateTableSql(addedEntity, addedEntity.getTableName())
+                ));
+                //Indexes on a table that has just been created are built over an empty table
+                addIndexes(addedEntity, addedEntity.getIndexes(), MigrationStatement.Cost.CONSTANT, statements);
+                addIndexDefinitions(addedEntity, Utils.getIndexDefinitions(addedEntity, Utils.resolveIndexDescription(to, mIndexDescList)), MigrationStatement.Cost.CONSTANT, statements);
             }
         }
     }
 
-    private void handleRemovedEntities(Schema from, Schema to, MethodSpec.Builder applyMigrationBuilder) {
+    private void handleRemovedEntities(Schema from, Schema to, List<MigrationStatement> statements) {
 
         final List<Entity> removedEntities = Utils.getRemoved(from, to, resolveEntityRenameDescription(from, to, mEntityRenameDescList));
-        if (!removedEntities.isEmpty()) {
-            System.out.println(String.format(Locale.US, "Removed %d entities when going from v%d to v%d", removedEntities.size(), from.getVersion(), to.getVersion()));
-        }
         if (removedEntities.size() > 0) {
-            for (Entity removedEntity : removedEntities) {
-                applyMigrationBuilder.addStatement("$L.execSQL($S)", mDbParameterSpec.name, String.format(Locale.US, "DROP TABLE IF EXISTS \"%s\"", removedEntity.getTableName()));
+            //Entities that refer to others are dropped before the entities they refer to
+            final List<Entity> dropOrder = new EntityRelations(from).order(removedEntities);
+            Collections.reverse(dropOrder);
+            for (Entity removedEntity : dropOrder) {
+                statements.add(new MigrationStatement(
+                        MigrationStatement.Kind.DROP_TABLE,
+                        removedEntity.getTableName(),
+                        String.format(Locale.US, "DROP TABLE IF EXISTS \"%s\"", removedEntity.getTableName())
+                ));
             }
         }
     }
@@ -287,12 +861,6 @@ public class Migrations {
                 .addJavadoc("@return the new version which will result from the migration being\n")
                 .build();
 
-        final MethodSpec getPreviousMigrationSpec = MethodSpec.methodBuilder("getPreviousMigration")
-                .addModifiers(Modifier.ABSTRACT, Modifier.PROTECTED)
-                .returns(mAbstractMigrationClassName)
-                .addJavadoc("@return instance of the previous Migration required if the current version is to old for this migration. \nNB: This will only be null if this is the tip of the chain and there are no other earlier migrations.\n")
-                .build();
-
         final MethodSpec applyMigrationSpec = MethodSpec.methodBuilder("applyMigration")
                 .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
                 .returns(int.class)
@@ -306,27 +874,152 @@ public class Migrations {
         final MethodSpec prepareMigrationSpec = MethodSpec.methodBuilder("prepareMigration")
                 .addModifiers(Modifier.PROTECTED)
                 .addParameters(Arrays.asList(dbParamSpec, versionParamSpec))
-                .beginControlFlow("if($L < $L())", versionParamSpec.name, getTargetVersionSpec.name)
-                .addStatement("$L previousMigration = $L()", mAbstractMigrationClassName.simpleName(), getPreviousMigrationSpec.name)
-                .beginControlFlow("if(previousMigration == null)")
                 .beginControlFlow("if($L != $L())", versionParamSpec.name, getTargetVersionSpec.name)
-                .addStatement("throw new $T($S)", IllegalStateException.class, "DB old version != target version")
+                .addStatement("throw new $T($S + $L + $S + $L())", IllegalStateException.class, "DB old version ", versionParamSpec.name, " != target version ", getTargetVersionSpec.name)
                 .endControlFlow()
+                .build();
+
+        final ParameterSpec sqlParamSpec = ParameterSpec.builder(String.class, "sql").build();
+        final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        final MethodSpec checkReferencesSpec = MethodSpec.methodBuilder("checkReferences")
+                .addJavadoc("Check that a migration has not broken the references of a relation\n" +
+                        "@param $L The database being migrated\n" +
+                        "@param $L A query that returns the rows whose references do not match a row of the referred table\n", dbParamSpec.name, sqlParamSpec.name)
+                .addModifiers(Modifier.PROTECTED, Modifier.STATIC)
+                .addParameters(Arrays.asList(dbParamSpec, sqlParamSpec))
+                .addStatement("final $T cursor = $L.rawQuery($L, null)", cursorClassName, dbParamSpec.name, sqlParamSpec.name)
+                .beginControlFlow("try")
+                .beginControlFlow("if(cursor.moveToFirst())")
+                .addStatement("throw new $T($S + $L)", IllegalStateException.class, "Migration broke references, found by ", sqlParamSpec.name)
                 .endControlFlow()
-                .beginControlFlow("if(previousMigration.$L($L,$L) != $L())", applyMigrationSpec.name, dbParamSpec.name, versionParamSpec.name, getTargetVersionSpec.name)
-                .addStatement("throw new $T($S)", IllegalStateException.class, "Error, expected migration parent to update database to appropriate version")
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
                 .endControlFlow()
+                .build();
+
+        final MethodSpec executePragmaSpec = MethodSpec.methodBuilder("executePragma")
+                .addJavadoc("Execute a pragma that may return a row, which {@link $T#execSQL(String)} does not allow\n", mDbClassName)
+                .addModifiers(Modifier.PROTECTED, Modifier.STATIC)
+                .addParameters(Arrays.asList(dbParamSpec, sqlParamSpec))
+                .addStatement("final $T cursor = $L.rawQuery($L, null)", cursorClassName, dbParamSpec.name, sqlParamSpec.name)
+                .beginControlFlow("try")
+                .addStatement("cursor.moveToFirst()")
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
                 .endControlFlow()
                 .build();
 
         final TypeSpec abstractMigrationHelperSpec = TypeSpec.classBuilder(mAbstractMigrationClassName.simpleName())
-                .addModifiers(Modifier.ABSTRACT)
-                .addMethods(Arrays.asList(prepareMigrationSpec, applyMigrationSpec, getPreviousMigrationSpec, getMigratedVersionSpec, getTargetVersionSpec))
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                .addMethods(Arrays.asList(prepareMigrationSpec, applyMigrationSpec, getMigratedVersionSpec, getTargetVersionSpec, checkReferencesSpec, executePragmaSpec))
                 .build();
 
-        return JavaFile.builder(currentSchema.getDefaultJavaPackage() + ".helper.migrations", abstractMigrationHelperSpec)
+        return JavaFile.builder(mPackageName, abstractMigrationHelperSpec)
                 .addFileComment(Poirot.GENERATED_FILE)
                 .build();
     }
 
+    public static final class Builder {
+
+        private List<Schema> schemas;
+
+        private List<Schema> rolledBackSchemas;
+
+        private List<EntityRenameDesc> entityRenameDescs;
+
+        private List<PropertyRenameDesc> propertyRenameDescs;
+
+        private List<BackfillDesc> backfillDescs;
+
+        private int minSqliteVersion;
+
+        private List<IndexDesc> indexDescs;
+
+        public Builder() {
+            reset();
+        }
+
+        /**
+         * @param schemas The schemas up to and including the current one, which are upgraded from. Must not be
+         *                {@code null} or empty
+         */
+        public Builder schemas(List<Schema> schemas) {
+            if (schemas == null || schemas.isEmpty()) {
+                throw new IllegalArgumentException("Schemas cannot be null or empty");
+            }
+            this.schemas = schemas;
+            return this;
+        }
+
+        /**
+         * @param rolledBackSchemas The schemas after the current one, which are downgraded from
+         */
+        public Builder rolledBackSchemas(List<Schema> rolledBackSchemas) {
+            this.rolledBackSchemas = rolledBackSchemas;
+            return this;
+        }
+
+        /**
+         * @param entityRenameDescs A list of how entities have been renamed when moving from one schema to the next
+         */
+        public Builder entityRenames(List<EntityRenameDesc> entityRenameDescs) {
+            this.entityRenameDescs = entityRenameDescs;
+            return this;
+        }
+
+        /**
+         * @param propertyRenameDescs A list of how properties have been renamed when moving from one schema to the next
+         */
+        public Builder propertyRenames(List<PropertyRenameDesc> propertyRenameDescs) {
+            this.propertyRenameDescs = propertyRenameDescs;
+            return this;
+        }
+
+        /**
+         * @param backfillDescs A list of how added properties are populated from the existing data
+         */
+        public Builder backfills(List<BackfillDesc> backfillDescs) {
+            this.backfillDescs = backfillDescs;
+            return this;
+        }
+
+        /**
+         * @param minSqliteVersion The oldest version of SQLite the databases are migrated with, as returned by
+         *                         {@code sqlite3_libversion_number()}, or 0 if it is not known. Columns are only
+         *                         renamed in place from {@link #RENAME_COLUMN_SQLITE_VERSION}, and their tables are
+         *                         rebuilt otherwise
+         */
+        public Builder minSqliteVersion(int minSqliteVersion) {
+            this.minSqliteVersion = minSqliteVersion;
+            return this;
+        }
+
+        /**
+         * @param indexDescs A list of the partial and expression indexes of every schema
+         */
+        public Builder indexes(List<IndexDesc> indexDescs) {
+            this.indexDescs = indexDescs;
+            return this;
+        }
+
+        public Migrations build() {
+
+            if (schemas == null) {
+                throw new IllegalStateException("Schemas must be set");
+            }
+            return new Migrations(this);
+        }
+
+        public Builder reset() {
+            schemas = null;
+            rolledBackSchemas = Collections.emptyList();
+            entityRenameDescs = Collections.emptyList();
+            propertyRenameDescs = Collections.emptyList();
+            backfillDescs = Collections.emptyList();
+            minSqliteVersion = 0;
+            indexDescs = Collections.emptyList();
+            return this;
+        }
+    }
+
 }
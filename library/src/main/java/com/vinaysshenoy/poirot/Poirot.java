@@ -1,21 +1,29 @@
 package com.vinaysshenoy.poirot;
 
+import com.squareup.javapoet.JavaFile;
 import de.greenrobot.daogenerator.DaoGenerator;
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Index;
 import de.greenrobot.daogenerator.Schema;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by vinaysshenoy on 16/01/16.
+ * <p/>
+ * Definitions can be split across threads, since every method that reads or changes the definition is synchronized on
+ * the instance.
  */
 public class Poirot {
 
     public static final String GENERATED_FILE = "GENERATED FILE! DO NOT MODIFY!";
 
-    private static final EntityRenameDesc.Builder DEFAULT_ENTITY_RENAME_DESC_BUILDER = new EntityRenameDesc.Builder();
-
     private final List<Schema> mSchemas;
 
     private final String mPackageName;
@@ -28,6 +36,46 @@ public class Poirot {
 
     private final List<EntityRenameDesc> mEntityRenameDescList;
 
+    private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+    private final List<BackfillDesc> mBackfillDescList;
+
+    private final List<IndexDesc> mIndexDescList;
+
+    private final List<FixtureSeed> mFixtureSeedList;
+
+    private final Map<Integer, SortedMap<String, SchemaContribution>> mContributions;
+
+    private boolean mContributionsMerged;
+
+    private final List<VerificationRule> mVerificationRuleList;
+
+    private int mBaselineVersion;
+
+    private BaselineFallback mBaselineFallback;
+
+    private boolean mMetadataOnly;
+
+    private final Set<Integer> mDaoVersions;
+
+    private MigrationStyle mMigrationStyle;
+
+    private MigrationPragmas mMigrationPragmas;
+
+    private SpaceReclamation mSpaceReclamation;
+
+    private int mMinSqliteVersion;
+
+    private String mTemplateAssetsDirectory;
+
+    private String mTemplateAssetName;
+
+    private MigrationChecks mMigrationChecks;
+
+    private boolean mResolved;
+
+    private boolean mGenerated;
+
     /**
      * Create an instance of {@link Poirot} with the package name for the schemas.
      *
@@ -43,13 +91,28 @@ public class Poirot {
         mCurrentSet = false;
         mCurrentVersion = 0;
         mEntityRenameDescList = new ArrayList<>();
+        mPropertyRenameDescList = new ArrayList<>();
+        mBackfillDescList = new ArrayList<>();
+        mIndexDescList = new ArrayList<>();
+        mFixtureSeedList = new ArrayList<>();
+        mContributions = new HashMap<>();
+        mContributionsMerged = false;
+        mVerificationRuleList = new ArrayList<>();
+        mBaselineVersion = 0;
+        mBaselineFallback = null;
+        mMetadataOnly = false;
+        mDaoVersions = new HashSet<>();
+        mMigrationStyle = MigrationStyle.CLASSES;
+        mResolved = false;
+        mGenerated = false;
     }
 
     /**
      * Add a {@link Schema} to the list of schemas to be generated
      *
      * @param version   The schema version. Versions should always be increasing, with the current schema having the highest version
-     * @param isCurrent Whether the schema is the current one or not
+     * @param isCurrent Whether the schema is the current one or not. Schemas created after the current one belong to
+     *                  releases that have been rolled back, and databases are migrated back from them
      * @return The created Schema
      */
     public Schema create(int version, boolean isCurrent) {
@@ -60,11 +123,12 @@ public class Poirot {
      * Add a {@link Schema} to the list of schemas to be generated
      *
      * @param version          The schema version. Versions should always be increasing, with the current schema having the highest version
-     * @param isCurrent        Whether the schema is the current one or not
+     * @param isCurrent        Whether the schema is the current one or not. Schemas created after the current one belong to
+     *                         releases that have been rolled back, and databases are migrated back from them
      * @param entityRenameDesc A description of which entities have been renamed from the previous schema
      * @return The created Schema
      */
-    public Schema create(int version, boolean isCurrent, EntityRenameDesc entityRenameDesc) {
+    public synchronized Schema create(int version, boolean isCurrent, EntityRenameDesc entityRenameDesc) {
 
         if (version < 1) {
             throw new IllegalArgumentException("Cannot generate schemas with version < 1");
@@ -85,7 +149,7 @@ public class Poirot {
         final String schemaPackage = isCurrent ? mPackageName : String.format(Locale.US, "%s.v%d", mPackageName, version);
         final Schema schema = new Schema(version, schemaPackage);
         mSchemas.add(schema);
-        entityRenameDesc = (entityRenameDesc == null) ? DEFAULT_ENTITY_RENAME_DESC_BUILDER.reset().build() : entityRenameDesc;
+        entityRenameDesc = (entityRenameDesc == null) ? new EntityRenameDesc.Builder().build() : entityRenameDesc;
         entityRenameDesc.setFromVersion(mLastVersion);
         entityRenameDesc.setToVersion(version);
         mEntityRenameDescList.add(entityRenameDesc);
@@ -94,8 +158,352 @@ public class Poirot {
     }
 
     /**
-     * Generate the schemas. This will sort the schemas in ascending order. The schema with the highest version
-     * number will always be selected as the current schema.
+     * Contribute the entities of a module to a previously created schema. Modules can contribute independently of each
+     * other, and from different threads. The contributions are built concurrently into partitions of the schema when it
+     * is generated or explained, and merged into it after the entities that were added to it directly, in the order of
+     * the names of the modules.
+     *
+     * @param version      The version of a previously created schema
+     * @param module       The name of the contributing module, which must be unique for the version. Must not be
+     *                     {@code null} or empty
+     * @param contribution Adds the entities of the module. Its entities can only have relations to each other
+     */
+    public synchronized void contribute(int version, String module, SchemaContribution contribution) {
+
+        if (isEmpty(module)) {
+            throw new IllegalArgumentException("Module name cannot be null or empty");
+        }
+
+        if (contribution == null) {
+            throw new IllegalArgumentException("Contribution cannot be null");
+        }
+
+        if (mContributionsMerged) {
+            throw new IllegalStateException("Contributions have already been merged into the schemas");
+        }
+
+        requireVersion(version);
+
+        SortedMap<String, SchemaContribution> contributions = mContributions.get(version);
+        if (contributions == null) {
+            contributions = new TreeMap<>();
+            mContributions.put(version, contributions);
+        }
+        if (contributions.containsKey(module)) {
+            throw new IllegalArgumentException(String.format(Locale.US, "Module %s has already contributed to version %d", module, version));
+        }
+        contributions.put(module, contribution);
+    }
+
+    /**
+     * Add a rule that the schemas are verified against before generating, in addition to the
+     * {@link VerificationRules#defaults(List, List) default rules}
+     *
+     * @param rule The rule to add
+     */
+    public synchronized void addVerificationRule(VerificationRule rule) {
+
+        if (rule == null) {
+            throw new IllegalArgumentException("Verification rule cannot be null");
+        }
+        mVerificationRuleList.add(rule);
+    }
+
+    /**
+     * Declare which properties were renamed in a schema, so that their columns are renamed along with them when
+     * upgrading to it, instead of being left behind
+     *
+     * @param version            The version of a previously created schema in which the properties were renamed
+     * @param propertyRenameDesc A description of the previous and new names of the renamed properties
+     */
+    public synchronized void renameProperties(int version, PropertyRenameDesc propertyRenameDesc) {
+
+        if (propertyRenameDesc == null) {
+            throw new IllegalArgumentException("Property rename description cannot be null");
+        }
+
+        requireVersion(version);
+
+        for (PropertyRenameDesc existing : mPropertyRenameDescList) {
+            if (existing.getVersion() == version) {
+                throw new IllegalArgumentException("Property renames have already been declared for version " + version);
+            }
+        }
+
+        propertyRenameDesc.setVersion(version);
+        mPropertyRenameDescList.add(propertyRenameDesc);
+    }
+
+    /**
+     * Declare how properties added in a schema should be populated from the existing data when upgrading to it
+     *
+     * @param version      The version of a previously created schema in which the properties were added
+     * @param backfillDesc A description of the SQL expressions used to populate the added properties
+     */
+    public synchronized void backfill(int version, BackfillDesc backfillDesc) {
+
+        if (backfillDesc == null) {
+            throw new IllegalArgumentException("Backfill description cannot be null");
+        }
+
+        requireVersion(version);
+
+        for (BackfillDesc existing : mBackfillDescList) {
+            if (existing.getVersion() == version) {
+                throw new IllegalArgumentException("Backfills have already been declared for version " + version);
+            }
+        }
+
+        backfillDesc.setVersion(version);
+        mBackfillDescList.add(backfillDesc);
+    }
+
+    /**
+     * Declare the partial and expression indexes of a schema, which greenDAO cannot express. They are created along
+     * with the tables of new databases, and created or dropped when upgrading to the schema, so that upgraded databases
+     * have the same indexes as new ones. Every schema declares all of its indexes, as it declares all of its entities
+     *
+     * @param version   The version of a previously created schema that has the indexes
+     * @param indexDesc A description of the indexes
+     */
+    public synchronized void addIndexes(int version, IndexDesc indexDesc) {
+
+        if (indexDesc == null) {
+            throw new IllegalArgumentException("Index description cannot be null");
+        }
+
+        requireVersion(version);
+
+        for (IndexDesc existing : mIndexDescList) {
+            if (existing.getVersion() == version) {
+                throw new IllegalArgumentException("Indexes have already been declared for version " + version);
+            }
+        }
+
+        indexDesc.setVersion(version);
+        mIndexDescList.add(indexDesc);
+    }
+
+    /**
+     * Declare a seeded database fixture of a schema, which {@link #generateFixtures(String)} writes along with the
+     * empty one
+     *
+     * @param version The version of a previously created schema whose tables are seeded
+     * @param seed    The statements that insert the rows of the fixture. Its name must be unique for the version
+     */
+    public synchronized void seedFixture(int version, FixtureSeed seed) {
+
+        if (seed == null) {
+            throw new IllegalArgumentException("Fixture seed cannot be null");
+        }
+
+        requireVersion(version);
+
+        for (FixtureSeed existing : mFixtureSeedList) {
+            if (existing.getVersion() == version && existing.getName().equals(seed.getName())) {
+                throw new IllegalArgumentException(String.format(Locale.US, "A fixture seed named %s has already been declared for version %d", seed.getName(), version));
+            }
+        }
+
+        seed.setVersion(version);
+        mFixtureSeedList.add(seed);
+    }
+
+    /**
+     * Declare the oldest version that databases are still migrated from. The schemas created before it are pruned:
+     * their DAO objects and the migrations between them are no longer generated, and they are not verified, so that
+     * generation stays as fast and the generated code as small as the history grows. The schema of the baseline version
+     * is the snapshot that every database which is still supported has been upgraded to, and the older schemas can be
+     * removed from the definition altogether.
+     * <p/>
+     * Backfills and property renames declared on the baseline version or before it are pruned along with the schemas,
+     * and so are fixture seeds declared before it.
+     *
+     * @param version  The version of a previously created schema, which must not be after the current one
+     * @param fallback What the generated helper does with databases that are older than the baseline version
+     */
+    public synchronized void baseline(int version, BaselineFallback fallback) {
+
+        if (fallback == null) {
+            throw new IllegalArgumentException("Baseline fallback cannot be null");
+        }
+
+        if (mBaselineFallback != null) {
+            throw new IllegalArgumentException("Baseline has already been set to version " + mBaselineVersion);
+        }
+
+        requireVersion(version);
+
+        mBaselineVersion = version;
+        mBaselineFallback = fallback;
+    }
+
+    /**
+     * Keep the schemas other than the current one as metadata only. Instead of generating their DAO objects into the
+     * older schema output directory, a single {@code SchemaHistory} class is generated there, which holds the statements
+     * that create the tables and indexes of every version. Tests can use it to create a database of an older version
+     * and upgrade it, with far fewer classes to compile than the DAO objects of every version.
+     *
+     * @param daoVersions The versions of previously created schemas whose DAO objects should still be generated
+     */
+    public synchronized void metadataOnly(int... daoVersions) {
+
+        final Set<Integer> versions = new HashSet<>();
+        for (Schema schema : mSchemas) {
+            versions.add(schema.getVersion());
+        }
+
+        for (int version : daoVersions) {
+            if (!versions.contains(version)) {
+                throw new IllegalArgumentException("No schema has been created for version " + version);
+            }
+            mDaoVersions.add(version);
+        }
+        mMetadataOnly = true;
+    }
+
+    /**
+     * Set how the migrations are generated. By default, a class is generated for every migration, see {@link MigrationStyle#CLASSES}.
+     *
+     * @param migrationStyle The style in which to generate the migrations
+     */
+    public synchronized void setMigrationStyle(MigrationStyle migrationStyle) {
+
+        if (migrationStyle == null) {
+            throw new IllegalArgumentException("Migration style cannot be null");
+        }
+        mMigrationStyle = migrationStyle;
+    }
+
+    /**
+     * Set the SQLite settings that the generated helper migrates with. By default, migrations run with the settings of
+     * the connection.
+     *
+     * @param migrationPragmas The settings to migrate with, or {@code null} to migrate with the settings of the connection
+     */
+    public synchronized void setMigrationPragmas(MigrationPragmas migrationPragmas) {
+        mMigrationPragmas = migrationPragmas;
+    }
+
+    /**
+     * Set how the generated helper gives back the pages that migrations free when they drop or rebuild tables. By
+     * default, they stay in the database file, to be reused by later inserts.
+     *
+     * @param spaceReclamation How the freed pages are given back, or {@code null} to keep them in the database file
+     */
+    public synchronized void setSpaceReclamation(SpaceReclamation spaceReclamation) {
+        mSpaceReclamation = spaceReclamation;
+    }
+
+    /**
+     * Set the oldest version of SQLite that the generated helper migrates databases with, for example the version that
+     * ships with the oldest version of Android the app supports. By default it is not known, and the migrations only
+     * use statements that every version supports.
+     * <p/>
+     * From 3.25, renamed properties are renamed with {@code ALTER TABLE ... RENAME COLUMN}, which only changes the
+     * schema. Before that, the table of the property is rebuilt, which copies every row.
+     *
+     * @param major The major version, which must be 3
+     * @param minor The minor version, which must not be negative
+     */
+    public synchronized void setMinSqliteVersion(int major, int minor) {
+
+        if (major != 3) {
+            throw new IllegalArgumentException("Only SQLite 3 is supported");
+        }
+        if (minor < 0) {
+            throw new IllegalArgumentException("Minor version cannot be < 0");
+        }
+        mMinSqliteVersion = major * 1000000 + minor * 1000;
+    }
+
+    /**
+     * Build an empty database of the current schema as an asset of the app when generating, and copy new databases from
+     * it in the generated helper instead of creating their tables on the device. The template stores a hash of the
+     * tables and indexes of the current schema as its {@code application_id}, and the helper creates the tables as usual
+     * if the template it finds does not match the schema it was generated for.
+     * <p/>
+     * The template is built through JDBC, which requires an SQLite JDBC driver, such as {@code org.xerial:sqlite-jdbc},
+     * on the classpath of the generator.
+     *
+     * @param assetsDirectory The assets directory of the app, for example {@code "{Project Folder}/src/main/assets"}.
+     *                        Must not be {@code null} or empty.
+     * @param assetName       The path of the template in the assets, for example {@code "databases/template.db"}.
+     *                        Must not be {@code null} or empty.
+     */
+    public synchronized void setDatabaseTemplate(String assetsDirectory, String assetName) {
+
+        if (isEmpty(assetsDirectory) || isEmpty(assetName)) {
+            throw new IllegalArgumentException("Assets directory and asset name cannot be null or empty");
+        }
+        mTemplateAssetsDirectory = assetsDirectory;
+        mTemplateAssetName = assetName;
+    }
+
+    /**
+     * @return The path of the template in the assets, or {@code null} if no template has been set
+     * @see #setDatabaseTemplate(String, String)
+     */
+    public synchronized String getDatabaseTemplateAssetName() {
+        return mTemplateAssetName;
+    }
+
+    /**
+     * Set the checks that the generated helper runs once an upgrade has completed. They are limited to the tables that
+     * the upgrade touched, and every check of every table is reported, along with the time it took, to
+     * {@code onMigrationChecked()}, which logs the problems unless it is overridden. By default, nothing is checked.
+     *
+     * @param migrationChecks The checks to run, or {@code null} to not check upgrades
+     */
+    public synchronized void setMigrationChecks(MigrationChecks migrationChecks) {
+        mMigrationChecks = migrationChecks;
+    }
+
+    /**
+     * Create an upgrade plan without generating anything. The plan lists the statements that upgrading from every older
+     * schema to the current one will execute, classified as O(1) catalog changes or O(rows) work.
+     *
+     * @return The upgrade plan
+     * @see #explain(MigrationCostHints)
+     */
+    public String explain() {
+        return explain(MigrationCostHints.NONE);
+    }
+
+    /**
+     * Create an upgrade plan without generating anything, and estimate the time taken by each upgrade using the
+     * expected number of rows in each table.
+     *
+     * @param hints The expected number of rows in the tables. Must not be {@code null}
+     * @return The upgrade plan
+     * @throws IllegalStateException If there are problems creating the schema. Examine the exception for further details.
+     */
+    public synchronized String explain(MigrationCostHints hints) {
+
+        if (hints == null) {
+            throw new IllegalArgumentException("Cost hints cannot be null");
+        }
+
+        if (mSchemas.isEmpty()) {
+            throw new IllegalStateException("At least one schema must be added!");
+        }
+
+        resolve();
+
+        final EntityVerifier entityVerifier = createEntityVerifier();
+        try {
+            entityVerifier.verify();
+        } catch (EntityVerifier.VerificationFailedException e) {
+            throw new RuntimeException("Failed to verify entities!", e);
+        }
+
+        return new MigrationPlanner(upgradeSchemas(), mEntityRenameDescList, propertyRenames(), backfills(), mMinSqliteVersion, indexes()).explain(hints);
+    }
+
+    /**
+     * Generate the schemas. This will sort the schemas in ascending order. The schema that was created as the current
+     * one is selected as the current schema, or the schema with the highest version number if there is none. If
+     * schemas were created after the current one, the generated helper migrates databases back from them.
      *
      * @param currentSchemaOutputDirectory The directory to generate the DAO objects for the current schema. A good place to put them would be {@code "{Project Folder}/src/main/java-gen"}. Must not be {@code null} or empty.
      * @param olderSchemaOutputDirectory   The directory to generate the DAO objects for the older schemas. A good place to put them would be {@code "{Project Folder}/src/test/java-gen"}. Must not be {@code null} or empty.
@@ -109,6 +517,224 @@ public class Poirot {
                 "Copyright 2016 Vinay Shenoy, vinaysshenoy.com. Licensed under GPL V3.\n" +
                 "This program comes with ABSOLUTELY NO WARRANTY");
 
+        generate(currentSchemaOutputDirectory, olderSchemaOutputDirectory, null);
+    }
+
+    /**
+     * Generate the schemas, reusing the results of an earlier generation
+     *
+     * @param generationCache If not {@code null}, only the schemas and migrations that changed since the last
+     *                        generation with the same cache are generated, and files that are no longer generated are
+     *                        deleted
+     * @see #generate(String, String)
+     */
+    /*package*/ void generate(String currentSchemaOutputDirectory, String olderSchemaOutputDirectory, GenerationCache generationCache) throws Exception {
+
+        generate(currentSchemaOutputDirectory, olderSchemaOutputDirectory, generationCache, generationCache == null ? new DaoGenerator() : generationCache.getDaoGenerator());
+    }
+
+    /**
+     * Generate the schemas with a {@link DaoGenerator} that may be shared with other instances
+     *
+     * @param daoGenerator The generator to generate the DAO objects with. Since its templates are only read, it can be
+     *                     used by several instances at the same time
+     * @see #generate(String, String, GenerationCache)
+     */
+    /*package*/ synchronized void generate(String currentSchemaOutputDirectory, String olderSchemaOutputDirectory, GenerationCache generationCache, DaoGenerator daoGenerator) throws Exception {
+
+        final Set<String> generatedUnits;
+        try {
+            generatedUnits = generateEntities(currentSchemaOutputDirectory, olderSchemaOutputDirectory, generationCache, daoGenerator);
+
+            final PoirotDbHelperGenerator helperGenerator = createHelperGenerator();
+            helperGenerator.generateHelper(currentSchemaOutputDirectory, generationCache);
+            generateTemplate();
+        } catch (Exception e) {
+            if (generationCache != null) {
+                generationCache.abort();
+            }
+            throw e;
+        }
+
+        if (generationCache != null) {
+            generatedUnits.add("helper");
+            generationCache.retainUnits(generatedUnits);
+            generationCache.commit();
+        }
+    }
+
+    /**
+     * Generate the schemas into source jars instead of directories. The helper and the migrations are written into
+     * the jar directly, while the DAO objects are generated into a temporary directory first, since greenDAO can only
+     * write to files. The entries of the jars are sorted and have a fixed timestamp, so generating the same schemas
+     * always produces the same jars.
+     *
+     * @param currentSchemaSrcJar The source jar for the current schema, for example {@code "{Project Folder}/build/poirot/current.srcjar"}. Must not be {@code null} or empty.
+     * @param olderSchemaSrcJar   The source jar for the older schemas, for example {@code "{Project Folder}/build/poirot/older.srcjar"}. Must not be {@code null} or empty.
+     * @throws IllegalArgumentException If either {@code currentSchemaSrcJar} or {@code olderSchemaSrcJar} is {@code null}
+     * @throws IllegalStateException    If there are problems creating the schema. Examine the exception for further details.
+     * @throws Exception                If there are problems generating the entities. Examine the exception for further details
+     * @see #generate(String, String)
+     */
+    public synchronized void generateSrcJars(String currentSchemaSrcJar, String olderSchemaSrcJar) throws Exception {
+
+        System.out.println("Poirot\n" +
+                "Copyright 2016 Vinay Shenoy, vinaysshenoy.com. Licensed under GPL V3.\n" +
+                "This program comes with ABSOLUTELY NO WARRANTY");
+
+        if (isEmpty(currentSchemaSrcJar) || isEmpty(olderSchemaSrcJar)) {
+            throw new IllegalArgumentException("Either current or older source jars cannot be null or empty");
+        }
+
+        final Path temporaryDirectory = Files.createTempDirectory("poirot");
+        try {
+            final Path currentSchemaDirectory = temporaryDirectory.resolve("cur");
+            final Path olderSchemaDirectory = temporaryDirectory.resolve("old");
+            generateEntities(currentSchemaDirectory.toString(), olderSchemaDirectory.toString(), null, new DaoGenerator());
+
+            final SrcJarWriter currentSrcJar = new SrcJarWriter().addDirectory(currentSchemaDirectory);
+            for (JavaFile javaFile : createHelperGenerator().createFiles()) {
+                currentSrcJar.add(javaFile);
+            }
+            generateTemplate();
+            currentSrcJar.writeTo(new File(currentSchemaSrcJar));
+            new SrcJarWriter().addDirectory(olderSchemaDirectory).writeTo(new File(olderSchemaSrcJar));
+        } finally {
+            Utils.deleteRecursively(temporaryDirectory);
+        }
+    }
+
+    /**
+     * Write an empty SQLite database file for every schema from the baseline version onwards, named
+     * {@code v<version>.db}, and a seeded one for every {@link #seedFixture(int, FixtureSeed)}, named
+     * {@code v<version>-<name>.db}. Tests copy a fixture to start from a database at an older version and upgrade it
+     * with the generated helper, instead of creating its tables. Fixtures are only rewritten when their contents change.
+     * <p/>
+     * The databases are created through JDBC, which requires an SQLite JDBC driver, such as
+     * {@code org.xerial:sqlite-jdbc}, on the classpath of the generator.
+     *
+     * @param outputDirectory The directory to write the fixtures to, for example {@code "{Project Folder}/src/test/resources/poirot"}. Must not be {@code null} or empty.
+     * @throws IllegalStateException If there are problems creating the schema or the fixtures. Examine the exception for further details.
+     * @throws IOException           If the fixtures could not be written
+     */
+    public synchronized void generateFixtures(String outputDirectory) throws IOException {
+
+        if (isEmpty(outputDirectory)) {
+            throw new IllegalArgumentException("Output directory cannot be null or empty");
+        }
+
+        if (mSchemas.isEmpty()) {
+            throw new IllegalStateException("At least one schema must be added!");
+        }
+
+        if (!mResolved) {
+            resolve();
+
+            final EntityVerifier entityVerifier = createEntityVerifier();
+            try {
+                entityVerifier.verify();
+            } catch (EntityVerifier.VerificationFailedException e) {
+                throw new RuntimeException("Failed to verify entities!", e);
+            }
+        }
+
+        final boolean incrementalVacuum = mSpaceReclamation != null && mSpaceReclamation.isIncremental();
+        final int written = new FixtureGenerator(schemas(), fixtureSeeds(), incrementalVacuum, indexes()).generate(new File(outputDirectory));
+        System.out.println(String.format(Locale.US, "Wrote %d database fixtures to %s", written, outputDirectory));
+    }
+
+    /**
+     * @throws IllegalArgumentException If no schema has been created for the version
+     */
+    private void requireVersion(int version) {
+
+        for (Schema schema : mSchemas) {
+            if (schema.getVersion() == version) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No schema has been created for version " + version);
+    }
+
+    /**
+     * Build the contributions of the modules concurrently, and merge them into their schemas. Contributions to the
+     * schemas before the baseline version are not built, since those schemas are not generated.
+     *
+     * @throws IllegalStateException If an entity has the class name or table name of an entity of its schema or of
+     *                               another module
+     */
+    private synchronized void mergeContributions() {
+
+        if (mContributionsMerged) {
+            return;
+        }
+        mContributionsMerged = true;
+
+        final List<SchemaPartitions> schemaPartitions = new ArrayList<>();
+        int partitions = 0;
+        for (Schema schema : schemas()) {
+            final SortedMap<String, SchemaContribution> contributions = mContributions.get(schema.getVersion());
+            if (contributions != null) {
+                schemaPartitions.add(new SchemaPartitions(schema, contributions));
+                partitions += contributions.size();
+            }
+        }
+        if (schemaPartitions.isEmpty()) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(Runtime.getRuntime().availableProcessors(), partitions));
+        try {
+            for (SchemaPartitions partition : schemaPartitions) {
+                partition.build(executor);
+            }
+            for (SchemaPartitions partition : schemaPartitions) {
+                partition.merge();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Merge the contributions and initialize the schemas, unless they have already been resolved. Schemas that have
+     * been resolved are generated without being initialized again
+     */
+    private void resolve() {
+
+        if (mResolved) {
+            return;
+        }
+        mergeContributions();
+        for (Schema schema : schemas()) {
+            Utils.initialize(schema);
+        }
+        mResolved = true;
+    }
+
+    /**
+     * Write the template of new databases, if one has been set
+     */
+    private void generateTemplate() throws IOException {
+
+        if (mTemplateAssetName == null) {
+            return;
+        }
+
+        final File template = new File(mTemplateAssetsDirectory, mTemplateAssetName);
+        final boolean incrementalVacuum = mSpaceReclamation != null && mSpaceReclamation.isIncremental();
+        if (new FixtureGenerator(schemas(), Collections.<FixtureSeed>emptyList(), incrementalVacuum, indexes()).generateTemplate(schemas().get(currentSchemaIndex()), template)) {
+            System.out.println("Wrote database template " + template.getPath());
+        }
+    }
+
+    /**
+     * Generate the DAO objects of the schemas and verify them
+     *
+     * @return The units of generation that were generated, for {@link GenerationCache#retainUnits(Set)}
+     */
+    private Set<String> generateEntities(String currentSchemaOutputDirectory, String olderSchemaOutputDirectory, GenerationCache generationCache, DaoGenerator generator) throws Exception {
+
         if (isEmpty(currentSchemaOutputDirectory) || isEmpty(olderSchemaOutputDirectory)) {
             throw new IllegalArgumentException("Either current or older output directories cannot be null or empty");
         }
@@ -117,24 +743,327 @@ public class Poirot {
             throw new IllegalStateException("At least one schema must be added!");
         }
 
+        if (mGenerated) {
+            throw new IllegalStateException("Schemas have already been generated, use a new Poirot instance to generate again");
+        }
+
+        //Schemas resolved by explain() or generateFixtures() are generated as they are, instead of being initialized again
+        final boolean resolved = mResolved;
+        if (resolved && generationCache != null) {
+            throw new IllegalStateException("Schemas have already been resolved, so they can no longer be fingerprinted for the generation cache");
+        }
+        mGenerated = true;
+        mResolved = true;
+        mergeContributions();
+
         Utils.ensureDirectory(currentSchemaOutputDirectory, olderSchemaOutputDirectory);
 
-        final DaoGenerator generator = new DaoGenerator();
-        for (int i = 0; i < mSchemas.size(); i++) {
-            generator.generateAll(
-                    mSchemas.get(i),
-                    i == mSchemas.size() - 1 ? currentSchemaOutputDirectory : olderSchemaOutputDirectory
-            );
+        if (generationCache != null) {
+            //Fingerprints have to be taken before the schemas are initialized
+            generationCache.begin(fingerprintSchemas(), fingerprintMigrations());
         }
 
-        final EntityVerifier entityVerifier = new EntityVerifier(mSchemas, mEntityRenameDescList);
+        final List<Schema> schemas = schemas();
+        if (schemas.size() < mSchemas.size()) {
+            System.out.println(String.format(Locale.US, "Pruned %d schemas before the baseline version %d", mSchemas.size() - schemas.size(), mBaselineVersion));
+        }
+
+        final Set<String> generatedUnits = new HashSet<>();
+        Schema schema;
+        String outputDirectory;
+        //The current schema is generated first, so that files which move to it from the schema that used to be current are not deleted as stale
+        final int currentIndex = currentSchemaIndex();
+        final List<Schema> generationOrder = new ArrayList<>(schemas);
+        Collections.reverse(generationOrder);
+        generationOrder.remove(schemas.get(currentIndex));
+        generationOrder.add(0, schemas.get(currentIndex));
+        for (int i = 0; i < generationOrder.size(); i++) {
+
+            schema = generationOrder.get(i);
+            outputDirectory = i == 0 ? currentSchemaOutputDirectory : olderSchemaOutputDirectory;
+            if (!generatesDaos(schema)) {
+                //Kept in the schema history only, so the unit is not retained and any DAO objects generated for it earlier are deleted
+                if (!resolved) {
+                    Utils.initialize(schema);
+                }
+                continue;
+            }
+            if (generationCache == null || generationCache.isSchemaChanged(schema.getVersion())) {
+                if (resolved) {
+                    Utils.generateInitialized(generator, schema, outputDirectory);
+                } else {
+                    generator.generateAll(schema, outputDirectory);
+                }
+                if (generationCache != null) {
+                    generationCache.replaceFiles(schemaUnit(schema), Utils.generatedDaoFiles(schema, new File(outputDirectory)));
+                }
+            } else {
+                Utils.initialize(schema);
+                System.out.println(String.format(Locale.US, "Schema %d is unchanged", schema.getVersion()));
+            }
+            generatedUnits.add(schemaUnit(schema));
+        }
+
+        if (mMetadataOnly) {
+            final JavaFile historyFile = new SchemaHistoryGenerator(schemas, indexes()).createHistoryFile(mPackageName + ".history");
+            final File olderSchemaDirectory = new File(olderSchemaOutputDirectory);
+            if (generationCache == null) {
+                historyFile.writeTo(olderSchemaDirectory);
+            } else {
+                Utils.writeIfChanged(historyFile, olderSchemaDirectory);
+                generationCache.replaceFiles("history", Collections.singleton(Utils.javaFilePath(olderSchemaDirectory, historyFile.packageName, historyFile.typeSpec.name)));
+                generatedUnits.add("history");
+            }
+        }
+
+        final EntityVerifier entityVerifier = createEntityVerifier();
         try {
             entityVerifier.verify();
-            final PoirotDbHelperGenerator helperGenerator = new PoirotDbHelperGenerator(mSchemas, mEntityRenameDescList);
-            helperGenerator.generateHelper(currentSchemaOutputDirectory);
         } catch (EntityVerifier.VerificationFailedException e) {
             throw new RuntimeException("Failed to verify entities!", e);
         }
+        return generatedUnits;
+    }
+
+    private Map<Integer, String> fingerprintSchemas() {
+
+        final Map<Integer, String> fingerprints = new HashMap<>();
+        for (Schema schema : schemas()) {
+            //Whether the DAO objects are generated is part of the fingerprint, so that they are generated again when a version is opted back in
+            fingerprints.put(schema.getVersion(), SchemaFingerprint.of(schema, generatesDaos(schema)));
+        }
+        return fingerprints;
+    }
+
+    private Map<Integer, String> fingerprintMigrations() {
+
+        final Map<Integer, String> schemaFingerprints = fingerprintSchemas();
+        final List<Schema> schemas = schemas();
+        final String currentPackage = schemas.get(currentSchemaIndex()).getDefaultJavaPackage();
+        final Map<Integer, String> fingerprints = new HashMap<>();
+        Schema from, to;
+        for (int i = 1; i < schemas.size(); i++) {
+            from = schemas.get(i - 1);
+            to = schemas.get(i);
+            fingerprints.put(from.getVersion(), SchemaFingerprint.of(
+                    currentPackage,
+                    schemaFingerprints.get(from.getVersion()),
+                    schemaFingerprints.get(to.getVersion()),
+                    Utils.resolveEntityRenameDescription(from, to, mEntityRenameDescList),
+                    Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList),
+                    Utils.resolveBackfillDescription(to, mBackfillDescList),
+                    mMinSqliteVersion,
+                    Utils.resolveIndexDescription(from, mIndexDescList),
+                    Utils.resolveIndexDescription(to, mIndexDescList)
+            ));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * @return The schemas from the baseline version onwards, or all of them if no baseline has been declared
+     */
+    private List<Schema> schemas() {
+
+        if (mBaselineFallback == null) {
+            return mSchemas;
+        }
+
+        if (mCurrentSet && mBaselineVersion > mCurrentVersion) {
+            throw new IllegalStateException(String.format(Locale.US, "Baseline version %d cannot be after the current version %d", mBaselineVersion, mCurrentVersion));
+        }
+
+        for (int i = 0; i < mSchemas.size(); i++) {
+            if (mSchemas.get(i).getVersion() == mBaselineVersion) {
+                return mSchemas.subList(i, mSchemas.size());
+            }
+        }
+        throw new IllegalStateException("No schema has been created for the baseline version " + mBaselineVersion);
+    }
+
+    /**
+     * @return The backfills declared after the baseline version, since nothing is migrated to the versions before it
+     */
+    private List<BackfillDesc> backfills() {
+
+        if (mBaselineFallback == null) {
+            return mBackfillDescList;
+        }
+
+        final List<BackfillDesc> backfills = new ArrayList<>();
+        for (BackfillDesc backfillDesc : mBackfillDescList) {
+            if (backfillDesc.getVersion() > mBaselineVersion) {
+                backfills.add(backfillDesc);
+            }
+        }
+        return backfills;
+    }
+
+    /**
+     * @return The indexes of the schemas from the baseline version onwards, or all of them if no baseline has been
+     * declared
+     * @throws IllegalStateException If an index is declared on an entity that its schema does not have, or has the
+     *                               name of another index of the schema
+     */
+    private List<IndexDesc> indexes() {
+
+        final List<IndexDesc> indexes = new ArrayList<>();
+        for (IndexDesc indexDesc : mIndexDescList) {
+            if (mBaselineFallback != null && indexDesc.getVersion() < mBaselineVersion) {
+                continue;
+            }
+
+            Schema indexSchema = null;
+            for (Schema schema : mSchemas) {
+                if (schema.getVersion() == indexDesc.getVersion()) {
+                    indexSchema = schema;
+                    break;
+                }
+            }
+            final Set<String> indexNames = new HashSet<>();
+            for (Entity entity : indexSchema.getEntities()) {
+                for (Index index : entity.getIndexes()) {
+                    if (index.getName() != null) {
+                        indexNames.add(index.getName().toUpperCase(Locale.US));
+                    }
+                }
+            }
+            for (IndexDesc.Definition definition : indexDesc.getDefinitions()) {
+                boolean entityExists = false;
+                for (Entity entity : indexSchema.getEntities()) {
+                    if (entity.getClassName().equals(definition.getEntityName())) {
+                        entityExists = true;
+                        break;
+                    }
+                }
+                if (!entityExists) {
+                    throw new IllegalStateException(String.format(Locale.US, "Index %s is declared on entity %s, which schema %d does not have",
+                            definition.getName(), definition.getEntityName(), indexDesc.getVersion()));
+                }
+                if (!indexNames.add(definition.getName().toUpperCase(Locale.US))) {
+                    throw new IllegalStateException(String.format(Locale.US, "Index %s of schema %d has the name of another index", definition.getName(), indexDesc.getVersion()));
+                }
+            }
+            indexes.add(indexDesc);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return The fixture seeds declared from the baseline version onwards, since no fixtures are written before it
+     */
+    private List<FixtureSeed> fixtureSeeds() {
+
+        if (mBaselineFallback == null) {
+            return mFixtureSeedList;
+        }
+
+        final List<FixtureSeed> fixtureSeeds = new ArrayList<>();
+        for (FixtureSeed fixtureSeed : mFixtureSeedList) {
+            if (fixtureSeed.getVersion() >= mBaselineVersion) {
+                fixtureSeeds.add(fixtureSeed);
+            }
+        }
+        return fixtureSeeds;
+    }
+
+    /**
+     * @return The property renames declared after the baseline version, since nothing is migrated to the versions before it
+     */
+    private List<PropertyRenameDesc> propertyRenames() {
+
+        if (mBaselineFallback == null) {
+            return mPropertyRenameDescList;
+        }
+
+        final List<PropertyRenameDesc> propertyRenames = new ArrayList<>();
+        for (PropertyRenameDesc propertyRenameDesc : mPropertyRenameDescList) {
+            if (propertyRenameDesc.getVersion() > mBaselineVersion) {
+                propertyRenames.add(propertyRenameDesc);
+            }
+        }
+        return propertyRenames;
+    }
+
+    /**
+     * @return The index in {@link #schemas()} of the schema that was created as the current one, or of the last schema
+     * if there is none
+     */
+    private int currentSchemaIndex() {
+
+        final List<Schema> schemas = schemas();
+        if (mCurrentSet) {
+            for (int i = 0; i < schemas.size(); i++) {
+                if (schemas.get(i).getVersion() == mCurrentVersion) {
+                    return i;
+                }
+            }
+        }
+        return schemas.size() - 1;
+    }
+
+    /**
+     * @return The schemas from the baseline version up to and including the current one, which databases are upgraded through
+     */
+    private List<Schema> upgradeSchemas() {
+        return schemas().subList(0, currentSchemaIndex() + 1);
+    }
+
+    /**
+     * @return The schemas after the current one, which belong to releases that have been rolled back
+     */
+    private List<Schema> rolledBackSchemas() {
+        final List<Schema> schemas = schemas();
+        return schemas.subList(currentSchemaIndex() + 1, schemas.size());
+    }
+
+    /**
+     * @return Whether the DAO objects of a schema are generated, which they always are for the current schema
+     */
+    private boolean generatesDaos(Schema schema) {
+        return !mMetadataOnly || schema == schemas().get(currentSchemaIndex()) || mDaoVersions.contains(schema.getVersion());
+    }
+
+    private static String schemaUnit(Schema schema) {
+        return String.format(Locale.US, "v%d", schema.getVersion());
+    }
+
+    private PoirotDbHelperGenerator createHelperGenerator() {
+
+        return new PoirotDbHelperGenerator.Builder()
+                .schemas(upgradeSchemas())
+                .rolledBackSchemas(rolledBackSchemas())
+                .entityRenames(mEntityRenameDescList)
+                .propertyRenames(propertyRenames())
+                .backfills(backfills())
+                .baselineFallback(mBaselineFallback)
+                .migrationStyle(mMigrationStyle)
+                .migrationPragmas(mMigrationPragmas)
+                .spaceReclamation(mSpaceReclamation)
+                .minSqliteVersion(mMinSqliteVersion)
+                .templateAssetName(mTemplateAssetName)
+                .migrationChecks(mMigrationChecks)
+                .indexes(indexes())
+                .build();
+    }
+
+    /**
+     * Create the migrations that the generated helper runs, without generating anything, so that their statements can
+     * be run against database fixtures
+     */
+    /*package*/ synchronized Migrations createMigrations() {
+
+        resolve();
+        return createHelperGenerator().createMigrations();
+    }
+
+    private EntityVerifier createEntityVerifier() {
+
+        final EntityVerifier entityVerifier = new EntityVerifier(schemas(), mEntityRenameDescList, propertyRenames(), backfills());
+        for (VerificationRule rule : mVerificationRuleList) {
+            entityVerifier.addRule(rule);
+        }
+        return entityVerifier;
     }
 
     private static boolean isEmpty(String string) {
@@ -0,0 +1,123 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.DaoGenerator;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Container for the schema histories of several independent databases, which are generated together in one run.
+ * <p/>
+ * Every database is defined by its own {@link Poirot}, and gets its own {@code PoirotDbHelper} and migrations in its
+ * own package. The databases are generated concurrently into the same output directories, and share a single
+ * {@link DaoGenerator}, so its templates are only loaded once.
+ */
+public class PoirotDatabases {
+
+    private final Map<String, Poirot> mDatabases;
+
+    private final Set<String> mPackageNames;
+
+    private int mThreads;
+
+    public PoirotDatabases() {
+        mDatabases = new LinkedHashMap<>();
+        mPackageNames = new HashSet<>();
+        mThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Add a database to generate
+     *
+     * @param name        The name of the database, used when reporting problems. Must not be {@code null} or empty, and
+     *                    must be unique
+     * @param packageName The root package for the generated source of the database. Must not be {@code null} or empty,
+     *                    and must not be used by another database
+     * @return The {@link Poirot} to create the schemas of the database with
+     */
+    public Poirot create(String name, String packageName) {
+
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Database name cannot be null or empty");
+        }
+        if (mDatabases.containsKey(name)) {
+            throw new IllegalArgumentException("Database " + name + " has already been added");
+        }
+
+        final Poirot poirot = new Poirot(packageName);
+        if (mPackageNames.contains(packageName)) {
+            throw new IllegalArgumentException("Package " + packageName + " is already used by another database");
+        }
+        mDatabases.put(name, poirot);
+        mPackageNames.add(packageName);
+        return poirot;
+    }
+
+    /**
+     * Set the number of databases that are generated at the same time. By default, it is the number of available
+     * processors.
+     *
+     * @param threads The number of databases to generate at the same time. Must be at least 1
+     */
+    public void setThreads(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads cannot be < 1");
+        }
+        mThreads = threads;
+    }
+
+    /**
+     * Generate the schemas of every database. The DAO objects, helpers and migrations of all the databases are
+     * generated into the same directories, in the packages of the databases.
+     *
+     * @param currentSchemaOutputDirectory The directory to generate the DAO objects for the current schemas. Must not be {@code null} or empty.
+     * @param olderSchemaOutputDirectory   The directory to generate the DAO objects for the older schemas. Must not be {@code null} or empty.
+     * @throws IllegalArgumentException If either {@code currentSchemaOutputDirectory} or {@code olderSchemaOutputDirectory} is {@code null}
+     * @throws IllegalStateException    If no database has been added
+     * @throws Exception                If there are problems generating any of the databases. Examine the exception for further details
+     * @see Poirot#generate(String, String)
+     */
+    public void generate(final String currentSchemaOutputDirectory, final String olderSchemaOutputDirectory) throws Exception {
+
+        System.out.println("Poirot\n" +
+                "Copyright 2016 Vinay Shenoy, vinaysshenoy.com. Licensed under GPL V3.\n" +
+                "This program comes with ABSOLUTELY NO WARRANTY");
+
+        if (currentSchemaOutputDirectory == null || currentSchemaOutputDirectory.isEmpty() || olderSchemaOutputDirectory == null || olderSchemaOutputDirectory.isEmpty()) {
+            throw new IllegalArgumentException("Either current or older output directories cannot be null or empty");
+        }
+        if (mDatabases.isEmpty()) {
+            throw new IllegalStateException("At least one database must be added!");
+        }
+
+        //Created up front, so that the generators do not race to create them
+        Utils.ensureDirectory(currentSchemaOutputDirectory, olderSchemaOutputDirectory);
+        final DaoGenerator daoGenerator = new DaoGenerator();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, mDatabases.size()));
+        try {
+            final Map<String, Future<Void>> results = new LinkedHashMap<>();
+            for (final Map.Entry<String, Poirot> database : mDatabases.entrySet()) {
+                results.put(database.getKey(), executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        database.getValue().generate(currentSchemaOutputDirectory, olderSchemaOutputDirectory, null, daoGenerator);
+                        System.out.println(String.format(Locale.US, "Generated database %s", database.getKey()));
+                        return null;
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(String.format(Locale.US, "Failed to generate database %s!", result.getKey()), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,60 +1,157 @@
 package com.vinaysshenoy.poirot;
 
 import com.squareup.javapoet.*;
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Index;
+import de.greenrobot.daogenerator.Property;
 import de.greenrobot.daogenerator.Schema;
 
 import javax.lang.model.element.Modifier;
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by vinaysshenoy on 17/01/16.
  */
 class PoirotDbHelperGenerator {
 
+    /**
+     * The first version of SQLite that limits {@code PRAGMA quick_check} to the table it is given
+     */
+    private static final int TABLE_QUICK_CHECK_SQLITE_VERSION = 3033000;
+
     private final List<Schema> mSchemas;
 
+    private final List<Schema> mRolledBackSchemas;
+
     private final List<EntityRenameDesc> mEntityRenameDescList;
 
+    private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+    private final List<BackfillDesc> mBackfillDescList;
+
+    private final BaselineFallback mBaselineFallback;
+
+    private final MigrationStyle mMigrationStyle;
+
+    private final MigrationPragmas mMigrationPragmas;
+
+    private final SpaceReclamation mSpaceReclamation;
+
+    private final int mMinSqliteVersion;
+
+    private final String mTemplateAssetName;
+
+    private final MigrationChecks mMigrationChecks;
+
+    private final List<IndexDesc> mIndexDescList;
+
+    private PoirotDbHelperGenerator(Builder builder) {
+        this.mSchemas = new ArrayList<>(builder.schemas);
+        this.mRolledBackSchemas = new ArrayList<>(builder.rolledBackSchemas);
+        this.mEntityRenameDescList = builder.entityRenameDescs;
+        this.mPropertyRenameDescList = builder.propertyRenameDescs;
+        this.mBackfillDescList = builder.backfillDescs;
+        this.mBaselineFallback = builder.baselineFallback;
+        this.mMigrationStyle = builder.migrationStyle;
+        this.mMigrationPragmas = builder.migrationPragmas;
+        this.mSpaceReclamation = builder.spaceReclamation;
+        this.mMinSqliteVersion = builder.minSqliteVersion;
+        this.mTemplateAssetName = builder.templateAssetName;
+        this.mMigrationChecks = builder.migrationChecks;
+        this.mIndexDescList = builder.indexDescs;
+    }
+
+    public void generateHelper(String outputDirectory) throws IOException {
+        generateHelper(outputDirectory, null);
+    }
+
     /**
-     * Create a {@link PoirotDbHelperGenerator} instance with a list of schemas
+     * Generate the helper and the migrations
      *
-     * @param schemas           A non-{@code null} and non-empty list of schemas for which to generate the helper
-     * @param entityRenameDescs A list of how entities have been renamed when moving from one schema to the next
+     * @param outputDirectory The directory to generate the files into
+     * @param generationCache If not {@code null}, only the migrations that changed since the last generation are
+     *                        generated, and files are only written if their contents changed
      */
-    public PoirotDbHelperGenerator(List<Schema> schemas, List<EntityRenameDesc> entityRenameDescs) {
+    /*package*/ void generateHelper(String outputDirectory, GenerationCache generationCache) throws IOException {
+
+        final Migrations migrations = createMigrations();
+        final List<JavaFile> filesToCreate = createFiles(migrations, generationCache);
+
+        Utils.ensureDirectory(outputDirectory);
+        final File outputDir = new File(outputDirectory);
+        if (generationCache == null) {
+            for (JavaFile javaFile : filesToCreate) {
+                javaFile.writeTo(outputDir);
+            }
+            return;
+        }
 
-        if (schemas == null || schemas.isEmpty()) {
-            throw new IllegalArgumentException("Schemas cannot be null or empty");
+        final Set<File> helperFiles = new HashSet<>();
+        for (JavaFile javaFile : filesToCreate) {
+            Utils.writeIfChanged(javaFile, outputDir);
+            helperFiles.add(Utils.javaFilePath(outputDir, javaFile.packageName, javaFile.typeSpec.name));
+        }
+        //Migrations that have not changed are not created, but their files are still part of the output
+        for (int i = 1; i < mSchemas.size() && mMigrationStyle == MigrationStyle.CLASSES; i++) {
+            final ClassName migrationName = Utils.generateMigrationName(migrations.getPackageName(), mSchemas.get(i - 1), mSchemas.get(i));
+            helperFiles.add(Utils.javaFilePath(outputDir, migrationName.packageName(), migrationName.simpleName()));
         }
-        this.mSchemas = new ArrayList<>(schemas);
-        this.mEntityRenameDescList = entityRenameDescs;
+        final List<Schema> downgradeSchemas = migrations.getDowngradeSchemas();
+        for (int i = 1; i < downgradeSchemas.size() && mMigrationStyle == MigrationStyle.CLASSES; i++) {
+            final ClassName migrationName = Utils.generateMigrationName(migrations.getPackageName(), downgradeSchemas.get(i), downgradeSchemas.get(i - 1));
+            helperFiles.add(Utils.javaFilePath(outputDir, migrationName.packageName(), migrationName.simpleName()));
+        }
+        generationCache.replaceFiles("helper", helperFiles);
+
     }
 
-    public void generateHelper(String outputDirectory) throws IOException {
+    /**
+     * Create the helper and the migrations without writing them
+     *
+     * @return The files to generate
+     */
+    /*package*/ List<JavaFile> createFiles() {
+        return createFiles(createMigrations(), null);
+    }
 
-        final Schema currentSchema = mSchemas.get(mSchemas.size() - 1);
+    /*package*/ Migrations createMigrations() {
 
-        final List<JavaFile> filesToCreate = new ArrayList<>();
+        return new Migrations.Builder()
+                .schemas(mSchemas)
+                .rolledBackSchemas(mRolledBackSchemas)
+                .entityRenames(mEntityRenameDescList)
+                .propertyRenames(mPropertyRenameDescList)
+                .backfills(mBackfillDescList)
+                .minSqliteVersion(mMinSqliteVersion)
+                .indexes(mIndexDescList)
+                .build();
+    }
 
-        final Migrations migrations = new Migrations(mSchemas, mEntityRenameDescList);
-        filesToCreate.addAll(migrations.createMigrations());
-        filesToCreate.add(createDbHelperFile(currentSchema));
+    private List<JavaFile> createFiles(Migrations migrations, GenerationCache generationCache) {
 
-        Utils.ensureDirectory(outputDirectory);
-        for (JavaFile javaFile : filesToCreate) {
-            javaFile.writeTo(new File(outputDirectory));
+        final Schema currentSchema = mSchemas.get(mSchemas.size() - 1);
+
+        final List<JavaFile> files = new ArrayList<>();
+        if (mMigrationStyle == MigrationStyle.CLASSES) {
+            files.addAll(migrations.createMigrations(generationCache));
         }
+        files.add(createDbHelperFile(currentSchema, migrations));
 
+        final BackfillGenerator backfillGenerator = new BackfillGenerator(mSchemas, mEntityRenameDescList, mPropertyRenameDescList, mBackfillDescList);
+        if (backfillGenerator.hasBackfills()) {
+            files.add(backfillGenerator.createBackfillFile(currentSchema));
+        }
+        return files;
     }
 
-    private JavaFile createDbHelperFile(Schema currentSchema) {
+    private JavaFile createDbHelperFile(Schema currentSchema, Migrations migrations) {
 
         final ClassName contextClassName = ClassName.get("android.content", "Context");
         final ClassName cursorFactoryClassName = ClassName.get("android.database.sqlite", "SQLiteDatabase", "CursorFactory");
+        final ClassName abstractMigrationClassName = migrations.getAbstractMigrationClassName();
+        final ClassName daoMasterClassName = ClassName.get(currentSchema.getDefaultJavaPackage(), "DaoMaster");
 
         final ParameterSpec contextParameterSpec = ParameterSpec.builder(contextClassName, "context").build();
         final ParameterSpec nameParameterSpec = ParameterSpec.builder(String.class, "name").build();
@@ -62,15 +159,27 @@ class PoirotDbHelperGenerator {
         final ParameterSpec dbParamSpec = ParameterSpec.builder(ClassName.get("android.database.sqlite", "SQLiteDatabase"), "db").build();
         final ParameterSpec oldVersionParameterSpec = ParameterSpec.builder(int.class, "oldVersion").build();
         final ParameterSpec newVersionParameterSpec = ParameterSpec.builder(int.class, "newVersion").build();
+        final ParameterSpec fromVersionParameterSpec = ParameterSpec.builder(int.class, "fromVersion").build();
 
-        final MethodSpec.Builder onUpgradeMigrationSpecBuilder = MethodSpec.methodBuilder("onUpgrade")
-                .addAnnotation(Override.class)
-                .addModifiers(Modifier.PUBLIC)
-                .addParameters(Arrays.asList(dbParamSpec, oldVersionParameterSpec, newVersionParameterSpec))
-                .beginControlFlow("switch($L) ", newVersionParameterSpec.name);
+        final int firstVersion = mSchemas.get(0).getVersion();
+        final int lastFromVersion = mSchemas.size() > 1 ? mSchemas.get(mSchemas.size() - 2).getVersion() : firstVersion - 1;
+
+        //The migration table is indexed by the version being migrated from, offset by the first version
+        final FieldSpec firstVersionFieldSpec = FieldSpec.builder(int.class, "FIRST_VERSION", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", firstVersion)
+                .build();
+
+        final FieldSpec migrationsFieldSpec = FieldSpec.builder(ArrayTypeName.of(abstractMigrationClassName), "MIGRATIONS", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T[$L]", abstractMigrationClassName, lastFromVersion - firstVersion + 1)
+                .build();
+
+        final MethodSpec.Builder createMigrationSpecBuilder = MethodSpec.methodBuilder("createMigration")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(abstractMigrationClassName)
+                .addParameter(fromVersionParameterSpec)
+                .beginControlFlow("switch($L)", fromVersionParameterSpec.name);
 
         Schema from, to;
-        final String packageName = currentSchema.getDefaultJavaPackage() + ".helper.migrations";
         for (int i = 0; i < mSchemas.size(); i++) {
             if (i == 0) {
                 //No need for a migration for the 1st schema version
@@ -80,34 +189,1443 @@ class PoirotDbHelperGenerator {
             from = mSchemas.get(i - 1);
             to = mSchemas.get(i);
 
-            onUpgradeMigrationSpecBuilder
-                    .beginControlFlow("case $L:", to.getVersion())
-                    .addStatement(
-                            "new $T().applyMigration($L, $L)",
-                            Utils.generateMigrationName(packageName, from, to),
-                            dbParamSpec.name, oldVersionParameterSpec.name)
-                    .addStatement("break")
+            createMigrationSpecBuilder
+                    .addStatement("case $L: return new $T()", from.getVersion(), Utils.generateMigrationName(migrations.getPackageName(), from, to));
+        }
+
+        final MethodSpec createMigrationSpec = createMigrationSpecBuilder
+                .addStatement("default: throw new $T($S + $L)", IllegalStateException.class, "No migration from version ", fromVersionParameterSpec.name)
+                .endControlFlow()
+                .build();
+
+        final MethodSpec getMigrationSpec = MethodSpec.methodBuilder("getMigration")
+                .addJavadoc("Get the migration from the given version to the one succeeding it, creating it the first time it is required\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(abstractMigrationClassName)
+                .addParameter(fromVersionParameterSpec)
+                .addStatement("final int index = $L - $N", fromVersionParameterSpec.name, firstVersionFieldSpec)
+                .beginControlFlow("if(index < 0 || index >= $N.length)", migrationsFieldSpec)
+                .addStatement("throw new $T($S + $L)", IllegalStateException.class, "No migration from version ", fromVersionParameterSpec.name)
+                .endControlFlow()
+                .beginControlFlow("synchronized($N)", migrationsFieldSpec)
+                .addStatement("$T migration = $N[index]", abstractMigrationClassName, migrationsFieldSpec)
+                .beginControlFlow("if(migration == null)")
+                .addStatement("migration = $N($L)", createMigrationSpec, fromVersionParameterSpec.name)
+                .addStatement("$N[index] = migration", migrationsFieldSpec)
+                .endControlFlow()
+                .addStatement("return migration")
+                .endControlFlow()
+                .build();
+
+        final List<FieldSpec> stepFieldSpecs = new ArrayList<>();
+        final List<MethodSpec> stepMethodSpecs = new ArrayList<>();
+        final List<MethodSpec> interpreterMethodSpecs = new ArrayList<>();
+        final CodeBlock upgradeStep;
+        MethodSpec executeSpec = null;
+        MethodSpec stepVersionSpec = null;
+        if (mMigrationStyle == MigrationStyle.TABLE) {
+
+            //The statements of every step are kept in the helper itself and run by a small interpreter, instead of a class per step
+            final List<Schema> allSchemas = new ArrayList<>(mSchemas);
+            allSchemas.addAll(mRolledBackSchemas);
+            final CodeBlock.Builder versions = CodeBlock.builder().add("{");
+            for (int i = 0; i < allSchemas.size(); i++) {
+                versions.add(i == 0 ? "$L" : ", $L", allSchemas.get(i).getVersion());
+            }
+            final FieldSpec versionsFieldSpec = FieldSpec.builder(int[].class, "VERSIONS", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(versions.add("}").build())
+                    .build();
+
+            final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+            final ParameterSpec statementsParameterSpec = ParameterSpec.builder(String[].class, "statements").build();
+            executeSpec = MethodSpec.methodBuilder("execute")
+                    .addJavadoc("Execute the statements of a step. Queries check the references of a relation, and fail the step if they return a row.\n" +
+                            "Pragmas may return a row, which {@code execSQL()} does not allow, so they are executed as queries as well\n")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .addParameters(Arrays.asList(dbParamSpec, statementsParameterSpec))
+                    .beginControlFlow("for(String statement : $L)", statementsParameterSpec.name)
+                    .beginControlFlow("if(!statement.startsWith($S) && !statement.startsWith($S))", "SELECT ", "PRAGMA ")
+                    .addStatement("$L.execSQL(statement)", dbParamSpec.name)
+                    .addStatement("continue")
+                    .endControlFlow()
+                    .addStatement("final $T cursor = $L.rawQuery(statement, null)", cursorClassName, dbParamSpec.name)
+                    .beginControlFlow("try")
+                    .beginControlFlow("if(cursor.moveToFirst() && statement.startsWith($S))", "SELECT ")
+                    .addStatement("throw new $T($S + statement)", IllegalStateException.class, "Migration broke references, found by ")
+                    .endControlFlow()
+                    .nextControlFlow("finally")
+                    .addStatement("cursor.close()")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .build();
+
+            final ParameterSpec directionParameterSpec = ParameterSpec.builder(int.class, "direction").build();
+            stepVersionSpec = MethodSpec.methodBuilder("stepVersion")
+                    .addJavadoc("Get the version that a single step from the given version leads to, {@code 1} step forward or {@code -1} back\n")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(int.class)
+                    .addParameters(Arrays.asList(fromVersionParameterSpec, directionParameterSpec))
+                    .addStatement("final int index = $T.binarySearch($N, $L)", Arrays.class, versionsFieldSpec, fromVersionParameterSpec.name)
+                    .beginControlFlow("if(index < 0 || index + $L < 0 || index + $L >= $N.length)", directionParameterSpec.name, directionParameterSpec.name, versionsFieldSpec)
+                    .addStatement("throw new $T($S + $L)", IllegalStateException.class, "No migration from version ", fromVersionParameterSpec.name)
+                    .endControlFlow()
+                    .addStatement("return $N[index + $L]", versionsFieldSpec, directionParameterSpec.name)
+                    .build();
+
+            final List<Integer> fromVersions = new ArrayList<>();
+            final List<List<MigrationStatement>> statements = new ArrayList<>();
+            for (int i = 1; i < mSchemas.size(); i++) {
+                fromVersions.add(mSchemas.get(i - 1).getVersion());
+                statements.add(migrations.createStatements(mSchemas.get(i - 1), mSchemas.get(i)));
+            }
+            final MethodSpec getUpgradeStatementsSpec = createStatementsMethodSpec("getUpgradeStatements",
+                    "Get the statements that migrate from the given version to the one succeeding it\n", "No migration from version ", fromVersions, statements);
+
+            upgradeStep = CodeBlock.builder()
+                    .addStatement("$N($L, $N(version))", executeSpec, dbParamSpec.name, getUpgradeStatementsSpec)
+                    .addStatement("version = $N(version, 1)", stepVersionSpec)
+                    .build();
+            stepFieldSpecs.add(versionsFieldSpec);
+            stepMethodSpecs.add(getUpgradeStatementsSpec);
+            interpreterMethodSpecs.addAll(Arrays.asList(stepVersionSpec, executeSpec));
+        } else {
+            upgradeStep = CodeBlock.builder()
+                    .addStatement("version = $N(version).applyMigration($L, version)", getMigrationSpec, dbParamSpec.name)
+                    .build();
+            stepFieldSpecs.add(migrationsFieldSpec);
+            stepMethodSpecs.addAll(Arrays.asList(getMigrationSpec, createMigrationSpec));
+        }
+
+        final ClassName helperClassName = ClassName.get(currentSchema.getDefaultJavaPackage() + ".helper", "PoirotDbHelper");
+        final TypeSpec progressListenerSpec = createProgressListenerSpec(oldVersionParameterSpec, newVersionParameterSpec);
+        final ClassName progressListenerClassName = helperClassName.nestedClass(progressListenerSpec.name);
+        final FieldSpec progressListenerFieldSpec = FieldSpec.builder(progressListenerClassName, "mProgressListener", Modifier.PRIVATE, Modifier.VOLATILE)
+                .build();
+
+        final MethodSpec onMigrationStepSpec = MethodSpec.methodBuilder("onMigrationStep")
+                .addJavadoc("Called after every migration step has been committed, on the thread that opens the database\n")
+                .addModifiers(Modifier.PROTECTED)
+                .addParameters(Arrays.asList(oldVersionParameterSpec, ParameterSpec.builder(int.class, "version").build(), newVersionParameterSpec))
+                .addStatement("final $T listener = $N", progressListenerClassName, progressListenerFieldSpec)
+                .beginControlFlow("if(listener != null)")
+                .addStatement("listener.onProgress($L, version, $L)", oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                .endControlFlow()
+                .build();
+
+        final MethodSpec migrateSpec = MethodSpec.methodBuilder("migrate")
+                .addJavadoc("Walk forward from $L to $L one migration at a time. Every step runs in its own transaction\n" +
+                        "and advances {@code PRAGMA user_version} before committing, so an upgrade that is interrupted\n" +
+                        "resumes from the last completed step the next time the database is opened\n", oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameters(Arrays.asList(dbParamSpec, oldVersionParameterSpec, newVersionParameterSpec))
+                .addStatement("int version = $L", oldVersionParameterSpec.name)
+                .beginControlFlow("while(version < $L)", newVersionParameterSpec.name)
+                .addStatement("$L.beginTransaction()", dbParamSpec.name)
+                .beginControlFlow("try")
+                .addCode(upgradeStep)
+                .addStatement("$L.setVersion(version)", dbParamSpec.name)
+                .addStatement("$L.setTransactionSuccessful()", dbParamSpec.name)
+                .nextControlFlow("finally")
+                .addStatement("$L.endTransaction()", dbParamSpec.name)
+                .endControlFlow()
+                .addStatement("$N($L, version, $L)", onMigrationStepSpec, oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                .endControlFlow()
+                .build();
+
+        final List<MethodSpec> pragmaMethodSpecs = new ArrayList<>();
+        MethodSpec applyPragmasSpec = null;
+        MethodSpec restorePragmasSpec = null;
+        MethodSpec onMigratedSpec = null;
+        MethodSpec reclaimSpaceSpec = null;
+        final MethodSpec queryPragmaSpec = createQueryPragmaMethodSpec(dbParamSpec);
+        if (mMigrationPragmas != null) {
+            if (!mMigrationPragmas.getPragmas().isEmpty()) {
+                applyPragmasSpec = createApplyPragmasMethodSpec(dbParamSpec, queryPragmaSpec);
+                restorePragmasSpec = createRestorePragmasMethodSpec(dbParamSpec);
+                pragmaMethodSpecs.addAll(Arrays.asList(applyPragmasSpec, restorePragmasSpec));
+            }
+            onMigratedSpec = MethodSpec.methodBuilder("onMigrated")
+                    .addJavadoc("Called once the database has been migrated from $L to $L, with the time it took.\n" +
+                            "Override to measure the migrations with the migration pragmas\n", oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                    .addModifiers(Modifier.PROTECTED)
+                    .addParameters(Arrays.asList(oldVersionParameterSpec, newVersionParameterSpec, ParameterSpec.builder(long.class, "elapsedMillis").build()))
+                    .build();
+            pragmaMethodSpecs.add(0, onMigratedSpec);
+        }
+        if (mSpaceReclamation != null) {
+            final MethodSpec onSpaceReclaimedSpec = MethodSpec.methodBuilder("onSpaceReclaimed")
+                    .addJavadoc("Called once the pages that the migrations freed have been given back, with the size of the free pages\n" +
+                            "and how much the database file shrank. Override to report the reclaimed space\n")
+                    .addModifiers(Modifier.PROTECTED)
+                    .addParameters(Arrays.asList(ParameterSpec.builder(long.class, "freeBytes").build(), ParameterSpec.builder(long.class, "reclaimedBytes").build()))
+                    .build();
+            pragmaMethodSpecs.add(onSpaceReclaimedSpec);
+            MethodSpec onSpaceReclaimFailedSpec = null;
+            if (mSpaceReclamation.getVacuumThreshold() > 0F) {
+                final ParameterSpec exceptionParameterSpec = ParameterSpec.builder(ClassName.get("android.database", "SQLException"), "e").build();
+                onSpaceReclaimFailedSpec = MethodSpec.methodBuilder("onSpaceReclaimFailed")
+                        .addJavadoc("Called when the database could not be vacuumed, usually for lack of storage for the copy. The free pages\n" +
+                                "are given back after the next migration instead. Logs the failure unless it is overridden\n")
+                        .addModifiers(Modifier.PROTECTED)
+                        .addParameter(exceptionParameterSpec)
+                        .addStatement("$T.w($S, $S, $N)", ClassName.get("android.util", "Log"), "Poirot", "Could not vacuum the database, keeping the free pages until the next migration", exceptionParameterSpec)
+                        .build();
+                pragmaMethodSpecs.add(onSpaceReclaimFailedSpec);
+            }
+            reclaimSpaceSpec = createReclaimSpaceMethodSpec(dbParamSpec, queryPragmaSpec, onSpaceReclaimedSpec, onSpaceReclaimFailedSpec);
+            pragmaMethodSpecs.add(reclaimSpaceSpec);
+        }
+        if (applyPragmasSpec != null || reclaimSpaceSpec != null) {
+            pragmaMethodSpecs.add(queryPragmaSpec);
+        }
+
+        final List<MethodSpec> checkMethodSpecs = new ArrayList<>();
+        MethodSpec checkMigrationSpec = null;
+        if (mMigrationChecks != null) {
+            checkMigrationSpec = createCheckSpecs(currentSchema, migrations, dbParamSpec, checkMethodSpecs);
+        }
+
+        final List<MethodSpec> configureMethodSpecs = new ArrayList<>();
+        if (mSpaceReclamation != null && mSpaceReclamation.isIncremental()) {
+            //Set before the first table is created. Once write-ahead logging has written the header of the new database, it
+            //only takes effect with a VACUUM, which costs nothing while the database is empty
+            configureMethodSpecs.add(MethodSpec.methodBuilder("onConfigure")
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(dbParamSpec)
+                    .addStatement("super.onConfigure($L)", dbParamSpec.name)
+                    .beginControlFlow("if(!$L.isReadOnly() && $L.getVersion() == 0)", dbParamSpec.name, dbParamSpec.name)
+                    .addStatement("$L.execSQL($S)", dbParamSpec.name, "PRAGMA auto_vacuum = INCREMENTAL")
+                    .addStatement("$L.execSQL($S)", dbParamSpec.name, "VACUUM")
+                    .endControlFlow()
+                    .build());
+        }
+        if (mMigrationPragmas != null && mMigrationPragmas.isForeignKeys()) {
+            //Enforced only once the tables have been migrated, and outside of the transaction that SQLiteOpenHelper migrates in
+            configureMethodSpecs.add(MethodSpec.methodBuilder("onOpen")
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(dbParamSpec)
+                    .addStatement("super.onOpen($L)", dbParamSpec.name)
+                    .addStatement("$L.setForeignKeyConstraintsEnabled(true)", dbParamSpec.name)
+                    .build());
+        }
+
+        final List<MethodSpec> indexMethodSpecs = new ArrayList<>();
+        final MethodSpec createIndexesSpec = createIndexSpecs(currentSchema, dbParamSpec, indexMethodSpecs);
+
+        final CodeBlock.Builder upgradeBuilder = CodeBlock.builder();
+        MethodSpec beforeBaselineSpec = null;
+        if (mBaselineFallback != null) {
+
+            //Nothing is migrated from the versions before the baseline, so those databases take the fallback path first
+            beforeBaselineSpec = createBeforeBaselineMethodSpec(dbParamSpec, daoMasterClassName, firstVersionFieldSpec, createIndexesSpec);
+            upgradeBuilder
+                    .beginControlFlow("if($L < $N)", oldVersionParameterSpec.name, firstVersionFieldSpec)
+                    .addStatement("$N($L, $L)", beforeBaselineSpec, dbParamSpec.name, oldVersionParameterSpec.name)
                     .endControlFlow();
         }
+        upgradeBuilder
+                .addStatement("final int version = $L.getVersion()", dbParamSpec.name)
+                .beginControlFlow("if(version < $T.SCHEMA_VERSION)", daoMasterClassName)
+                .add(createMigrationCall(migrateSpec, dbParamSpec, daoMasterClassName, applyPragmasSpec, restorePragmasSpec, onMigratedSpec, checkMigrationSpec, reclaimSpaceSpec))
+                .endControlFlow();
+
+        final MethodSpec onUpgradeMigrationSpec = MethodSpec.methodBuilder("onUpgrade")
+                .addJavadoc("Migrates outside of the transaction that {@code SQLiteOpenHelper} upgrades in, so that every step is\n" +
+                        "committed as soon as it completes\n")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameters(Arrays.asList(dbParamSpec, oldVersionParameterSpec, newVersionParameterSpec))
+                .addCode(createOutsideTransactionCall(dbParamSpec, upgradeBuilder.build()))
+                .build();
+
+        final List<FieldSpec> downgradeFieldSpecs = new ArrayList<>();
+        final List<MethodSpec> downgradeMethodSpecs = new ArrayList<>();
+        final List<Schema> downgradeSchemas = migrations.getDowngradeSchemas();
+        if (downgradeSchemas.size() > 1) {
+
+            //Versions after the current one belong to releases that have been rolled back, and are migrated back from
+            final FieldSpec lastVersionFieldSpec = FieldSpec.builder(int.class, "LAST_VERSION", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$L", downgradeSchemas.get(downgradeSchemas.size() - 1).getVersion())
+                    .build();
+
+            final FieldSpec downgradesFieldSpec = FieldSpec.builder(ArrayTypeName.of(abstractMigrationClassName), "DOWNGRADES", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T[$N - $T.SCHEMA_VERSION]", abstractMigrationClassName, lastVersionFieldSpec, daoMasterClassName)
+                    .build();
+
+            final MethodSpec.Builder createDowngradeSpecBuilder = MethodSpec.methodBuilder("createDowngrade")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(abstractMigrationClassName)
+                    .addParameter(fromVersionParameterSpec)
+                    .beginControlFlow("switch($L)", fromVersionParameterSpec.name);
+            for (int i = 1; i < downgradeSchemas.size(); i++) {
+                createDowngradeSpecBuilder.addStatement("case $L: return new $T()", downgradeSchemas.get(i).getVersion(),
+                        Utils.generateMigrationName(migrations.getPackageName(), downgradeSchemas.get(i), downgradeSchemas.get(i - 1)));
+            }
+            final MethodSpec createDowngradeSpec = createDowngradeSpecBuilder
+                    .addStatement("default: throw new $T($S + $L)", IllegalStateException.class, "No downgrade from version ", fromVersionParameterSpec.name)
+                    .endControlFlow()
+                    .build();
+
+            final MethodSpec getDowngradeSpec = MethodSpec.methodBuilder("getDowngrade")
+                    .addJavadoc("Get the migration from the given version back to the one preceding it, creating it the first time it is required\n")
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(abstractMigrationClassName)
+                    .addParameter(fromVersionParameterSpec)
+                    .addStatement("final int index = $L - $T.SCHEMA_VERSION - 1", fromVersionParameterSpec.name, daoMasterClassName)
+                    .beginControlFlow("if(index < 0 || index >= $N.length)", downgradesFieldSpec)
+                    .addStatement("throw new $T($S + $L)", IllegalStateException.class, "No downgrade from version ", fromVersionParameterSpec.name)
+                    .endControlFlow()
+                    .beginControlFlow("synchronized($N)", downgradesFieldSpec)
+                    .addStatement("$T migration = $N[index]", abstractMigrationClassName, downgradesFieldSpec)
+                    .beginControlFlow("if(migration == null)")
+                    .addStatement("migration = $N($L)", createDowngradeSpec, fromVersionParameterSpec.name)
+                    .addStatement("$N[index] = migration", downgradesFieldSpec)
+                    .endControlFlow()
+                    .addStatement("return migration")
+                    .endControlFlow()
+                    .build();
+
+            final CodeBlock downgradeStep;
+            final List<MethodSpec> downgradeStepMethodSpecs = new ArrayList<>();
+            if (mMigrationStyle == MigrationStyle.TABLE) {
+                final List<Integer> fromVersions = new ArrayList<>();
+                final List<List<MigrationStatement>> statements = new ArrayList<>();
+                for (int i = 1; i < downgradeSchemas.size(); i++) {
+                    fromVersions.add(downgradeSchemas.get(i).getVersion());
+                    statements.add(migrations.createReverseStatements(downgradeSchemas.get(i - 1), downgradeSchemas.get(i)));
+                }
+                final MethodSpec getDowngradeStatementsSpec = createStatementsMethodSpec("getDowngradeStatements",
+                        "Get the statements that migrate from the given version back to the one preceding it\n", "No downgrade from version ", fromVersions, statements);
+                downgradeStep = CodeBlock.builder()
+                        .addStatement("$N($L, $N(version))", executeSpec, dbParamSpec.name, getDowngradeStatementsSpec)
+                        .addStatement("version = $N(version, -1)", stepVersionSpec)
+                        .build();
+                downgradeStepMethodSpecs.add(getDowngradeStatementsSpec);
+            } else {
+                downgradeStep = CodeBlock.builder()
+                        .addStatement("version = $N(version).applyMigration($L, version)", getDowngradeSpec, dbParamSpec.name)
+                        .build();
+                downgradeFieldSpecs.add(downgradesFieldSpec);
+                downgradeStepMethodSpecs.addAll(Arrays.asList(getDowngradeSpec, createDowngradeSpec));
+            }
+
+            final MethodSpec downgradeSpec = MethodSpec.methodBuilder("downgrade")
+                    .addJavadoc("Walk back from $L to $L one migration at a time, committing every step like {@link #migrate}\n", oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                    .addModifiers(Modifier.PRIVATE)
+                    .addParameters(Arrays.asList(dbParamSpec, oldVersionParameterSpec, newVersionParameterSpec))
+                    .addStatement("int version = $L", oldVersionParameterSpec.name)
+                    .beginControlFlow("while(version > $L)", newVersionParameterSpec.name)
+                    .addStatement("$L.beginTransaction()", dbParamSpec.name)
+                    .beginControlFlow("try")
+                    .addCode(downgradeStep)
+                    .addStatement("$L.setVersion(version)", dbParamSpec.name)
+                    .addStatement("$L.setTransactionSuccessful()", dbParamSpec.name)
+                    .nextControlFlow("finally")
+                    .addStatement("$L.endTransaction()", dbParamSpec.name)
+                    .endControlFlow()
+                    .addStatement("$N($L, version, $L)", onMigrationStepSpec, oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                    .endControlFlow()
+                    .build();
+
+            final CodeBlock downgradeCall = CodeBlock.builder()
+                    .addStatement("final int version = $L", oldVersionParameterSpec.name)
+                    .add(createMigrationCall(downgradeSpec, dbParamSpec, daoMasterClassName, applyPragmasSpec, restorePragmasSpec, onMigratedSpec, null, reclaimSpaceSpec))
+                    .build();
+
+            final MethodSpec onDowngradeSpec = MethodSpec.methodBuilder("onDowngrade")
+                    .addJavadoc("Migrates back from the versions of rolled back releases, instead of failing to open the database.\n" +
+                            "Like {@link #onUpgrade}, every step is committed as soon as it completes\n")
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameters(Arrays.asList(dbParamSpec, oldVersionParameterSpec, newVersionParameterSpec))
+                    .beginControlFlow("if($L <= $N && $L == $T.SCHEMA_VERSION)", oldVersionParameterSpec.name, lastVersionFieldSpec, newVersionParameterSpec.name, daoMasterClassName)
+                    .addCode(createOutsideTransactionCall(dbParamSpec, downgradeCall))
+                    .nextControlFlow("else")
+                    .addStatement("super.onDowngrade($L, $L, $L)", dbParamSpec.name, oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                    .endControlFlow()
+                    .build();
+
+            downgradeFieldSpecs.add(0, lastVersionFieldSpec);
+            downgradeMethodSpecs.addAll(Arrays.asList(onDowngradeSpec, downgradeSpec));
+            downgradeMethodSpecs.addAll(downgradeStepMethodSpecs);
+        }
 
-        onUpgradeMigrationSpecBuilder.endControlFlow();
-        final MethodSpec onUpgradeMigrationSpec = onUpgradeMigrationSpecBuilder.build();
+        final MethodSpec.Builder constructorSpecBuilder = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameters(Arrays.asList(contextParameterSpec, nameParameterSpec, factoryParameterSpec))
+                .addStatement("super($L, $L, $L)", contextParameterSpec.name, nameParameterSpec.name, factoryParameterSpec.name);
+        if (mMigrationPragmas != null && mMigrationPragmas.isWriteAheadLogging()) {
+            //Applied when the database is opened, before onUpgrade() migrates it
+            constructorSpecBuilder.addStatement("setWriteAheadLoggingEnabled(true)");
+        }
+
+        final List<MethodSpec> constructorSpecs = new ArrayList<>();
+        final List<FieldSpec> templateFieldSpecs = new ArrayList<>();
+        final List<MethodSpec> templateMethodSpecs = new ArrayList<>();
+        MethodSpec installTemplateSpec = null;
+        if (mTemplateAssetName != null) {
+            final ParameterSpec useTemplateParameterSpec = ParameterSpec.builder(boolean.class, "useTemplate").build();
+            final FieldSpec contextFieldSpec = FieldSpec.builder(contextClassName, "mContext", Modifier.PRIVATE, Modifier.FINAL)
+                    .build();
+            final FieldSpec useTemplateFieldSpec = FieldSpec.builder(boolean.class, "mUseTemplate", Modifier.PRIVATE, Modifier.FINAL)
+                    .build();
+            installTemplateSpec = createTemplateSpecs(currentSchema, daoMasterClassName, contextFieldSpec, useTemplateFieldSpec, templateFieldSpecs, templateMethodSpecs);
+
+            constructorSpecs.add(MethodSpec.constructorBuilder()
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameters(Arrays.asList(contextParameterSpec, nameParameterSpec, factoryParameterSpec))
+                    .addStatement("this($L, $L, $L, true)", contextParameterSpec.name, nameParameterSpec.name, factoryParameterSpec.name)
+                    .build());
+            constructorSpecBuilder
+                    .addJavadoc("@param $L If {@code true}, a database that does not exist yet is copied from the template in\n" +
+                            "                   the assets of the app instead of creating its tables. The template is only used\n" +
+                            "                   if it was built for the current schema\n", useTemplateParameterSpec.name)
+                    .addParameter(useTemplateParameterSpec)
+                    .addStatement("$N = $L", contextFieldSpec, contextParameterSpec.name)
+                    .addStatement("$N = $L", useTemplateFieldSpec, useTemplateParameterSpec.name);
+        }
+        constructorSpecs.add(constructorSpecBuilder.build());
+
+        final List<FieldSpec> openFieldSpecs = new ArrayList<>();
+        final List<MethodSpec> openMethodSpecs = new ArrayList<>();
+        createOpenSpecs(helperClassName, dbParamSpec, progressListenerClassName, progressListenerFieldSpec, installTemplateSpec, openFieldSpecs, openMethodSpecs);
+
+        //Only the migration table of the CLASSES style and the baseline check read the first version
+        final List<FieldSpec> firstVersionFieldSpecs = mMigrationStyle == MigrationStyle.CLASSES || beforeBaselineSpec != null
+                ? Collections.singletonList(firstVersionFieldSpec)
+                : Collections.<FieldSpec>emptyList();
+
+        final TypeSpec.Builder poirotDbHelperSpecBuilder = TypeSpec.classBuilder(helperClassName.simpleName())
+                .superclass(daoMasterClassName.nestedClass("OpenHelper"))
+                .addModifiers(Modifier.PUBLIC)
+                .addType(progressListenerSpec)
+                .addMethods(constructorSpecs)
+                .addFields(firstVersionFieldSpecs)
+                .addFields(stepFieldSpecs)
+                .addFields(templateFieldSpecs)
+                .addFields(openFieldSpecs)
+                .addMethods(openMethodSpecs)
+                .addMethods(templateMethodSpecs)
+                .addMethods(indexMethodSpecs)
+                .addMethods(configureMethodSpecs)
+                .addMethod(onUpgradeMigrationSpec)
+                .addMethod(migrateSpec)
+                .addMethod(onMigrationStepSpec)
+                .addMethods(stepMethodSpecs)
+                .addFields(downgradeFieldSpecs)
+                .addMethods(downgradeMethodSpecs)
+                .addMethods(interpreterMethodSpecs)
+                .addMethods(pragmaMethodSpecs)
+                .addMethods(checkMethodSpecs);
+        if (beforeBaselineSpec != null) {
+            poirotDbHelperSpecBuilder.addMethod(beforeBaselineSpec);
+        }
+        final TypeSpec poirotDbHelperSpec = poirotDbHelperSpecBuilder.build();
+
+        return JavaFile.builder(helperClassName.packageName(), poirotDbHelperSpec)
+                .addFileComment(Poirot.GENERATED_FILE)
+                .build();
+    }
 
+    private static TypeSpec createProgressListenerSpec(ParameterSpec oldVersionParameterSpec, ParameterSpec newVersionParameterSpec) {
 
-        final TypeSpec poirotDbHelperSpec = TypeSpec.classBuilder("PoirotDbHelper")
-                .superclass(ClassName.get(currentSchema.getDefaultJavaPackage(), "DaoMaster", "OpenHelper"))
+        return TypeSpec.interfaceBuilder("ProgressListener")
+                .addJavadoc("Receives the progress of the migrations while the database is opened in the background\n")
                 .addModifiers(Modifier.PUBLIC)
-                .addMethod(MethodSpec.constructorBuilder()
+                .addMethod(MethodSpec.methodBuilder("onProgress")
+                        .addJavadoc("Called after every migration step has been committed, on the thread of the executor\n\n" +
+                                "@param $L     The version the database was opened with\n" +
+                                "@param version        The version that the completed step migrated to\n" +
+                                "@param $L     The version that is being migrated to\n", oldVersionParameterSpec.name, newVersionParameterSpec.name)
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addParameters(Arrays.asList(oldVersionParameterSpec, ParameterSpec.builder(int.class, "version").build(), newVersionParameterSpec))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Create the methods that open the database on an executor, and the ones that stop it from being opened again
+     * while that happens
+     */
+    private static void createOpenSpecs(ClassName helperClassName, ParameterSpec dbParamSpec, ClassName progressListenerClassName, FieldSpec progressListenerFieldSpec,
+                                        MethodSpec installTemplateSpec, List<FieldSpec> fieldSpecs, List<MethodSpec> methodSpecs) {
+
+        final TypeName dbTypeName = dbParamSpec.type;
+        final ParameterizedTypeName openTaskTypeName = ParameterizedTypeName.get(ClassName.get(FutureTask.class), dbTypeName);
+        final ParameterSpec executorParameterSpec = ParameterSpec.builder(Executor.class, "executor").build();
+        final ParameterSpec listenerParameterSpec = ParameterSpec.builder(progressListenerClassName, "listener").build();
+        final ParameterSpec queueEarlyAccessParameterSpec = ParameterSpec.builder(boolean.class, "queueEarlyAccess").build();
+
+        final FieldSpec openLockFieldSpec = FieldSpec.builder(Object.class, "mOpenLock", Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", Object.class)
+                .build();
+        final FieldSpec openTaskFieldSpec = FieldSpec.builder(openTaskTypeName, "mOpenTask", Modifier.PRIVATE, Modifier.VOLATILE)
+                .build();
+        final FieldSpec queueEarlyAccessFieldSpec = FieldSpec.builder(boolean.class, "mQueueEarlyAccess", Modifier.PRIVATE, Modifier.VOLATILE)
+                .build();
+
+        //SQLiteOpenHelper holds its own lock while it opens and migrates, so the task calls it directly
+        final TypeSpec openCallableSpec = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(Callable.class), dbTypeName))
+                .addMethod(MethodSpec.methodBuilder("call")
+                        .addAnnotation(Override.class)
                         .addModifiers(Modifier.PUBLIC)
-                        .addParameters(Arrays.asList(contextParameterSpec, nameParameterSpec, factoryParameterSpec))
-                        .addStatement("super($L, $L, $L)", contextParameterSpec.name, nameParameterSpec.name, factoryParameterSpec.name)
+                        .returns(dbTypeName)
+                        .addCode(installTemplateCall(installTemplateSpec))
+                        .addStatement("return $T.super.getWritableDatabase()", helperClassName)
                         .build())
-                .addMethod(onUpgradeMigrationSpec)
                 .build();
 
-        return JavaFile.builder(currentSchema.getDefaultJavaPackage() + ".helper", poirotDbHelperSpec)
-                .addFileComment(Poirot.GENERATED_FILE)
+        final MethodSpec openAsyncSpec = MethodSpec.methodBuilder("openAsync")
+                .addJavadoc("Open the database on the given executor, running any pending migrations there instead of in the\n" +
+                        "first call to {@link #getWritableDatabase()}. Calling it again while the database is being opened\n" +
+                        "returns the same future.\n\n" +
+                        "@param $L         The executor to open the database on\n" +
+                        "@param $L         Receives the progress of the migrations, may be {@code null}\n" +
+                        "@param $L If {@code true}, calls to get the database while it is being opened wait for it\n" +
+                        "                        to be opened. Otherwise, they fail fast with an {@link IllegalStateException}\n" +
+                        "@return A future that completes with the database once it has been opened\n",
+                        executorParameterSpec.name, listenerParameterSpec.name, queueEarlyAccessParameterSpec.name)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(Future.class), dbTypeName))
+                .addParameters(Arrays.asList(executorParameterSpec, listenerParameterSpec, queueEarlyAccessParameterSpec))
+                .beginControlFlow("synchronized($N)", openLockFieldSpec)
+                .beginControlFlow("if($N != null && !$N.isDone())", openTaskFieldSpec, openTaskFieldSpec)
+                .addStatement("return $N", openTaskFieldSpec)
+                .endControlFlow()
+                .addStatement("$N = $L", progressListenerFieldSpec, listenerParameterSpec.name)
+                .addStatement("$N = $L", queueEarlyAccessFieldSpec, queueEarlyAccessParameterSpec.name)
+                .addStatement("final $T openTask = new $T($L)", openTaskTypeName, openTaskTypeName, openCallableSpec)
+                .addStatement("$N = openTask", openTaskFieldSpec)
+                .addStatement("$L.execute(openTask)", executorParameterSpec.name)
+                .addStatement("return openTask")
+                .endControlFlow()
+                .build();
+
+        final MethodSpec awaitOpenSpec = MethodSpec.methodBuilder("awaitOpen")
+                .addJavadoc("Fail fast or wait while the database is being opened by {@link #openAsync}, depending on how it was called\n")
+                .addModifiers(Modifier.PRIVATE)
+                .addStatement("final $T openTask = $N", openTaskTypeName, openTaskFieldSpec)
+                .beginControlFlow("if(openTask == null)")
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if(!openTask.isDone() && !$N)", queueEarlyAccessFieldSpec)
+                .addStatement("throw new $T($S)", IllegalStateException.class, "The database is still being opened in the background, wait for openAsync() to complete or use getDatabaseIfReady()")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .addStatement("openTask.get()")
+                .nextControlFlow("catch($T e)", InterruptedException.class)
+                .addStatement("$T.currentThread().interrupt()", Thread.class)
+                .addStatement("throw new $T($S, e)", IllegalStateException.class, "Interrupted while waiting for the database to be opened")
+                .nextControlFlow("catch($T e)", ExecutionException.class)
+                .addStatement("throw new $T($S, e.getCause())", IllegalStateException.class, "Opening the database in the background failed")
+                .endControlFlow()
+                .build();
+
+        final MethodSpec getDatabaseIfReadySpec = MethodSpec.methodBuilder("getDatabaseIfReady")
+                .addJavadoc("@return The database if it has been opened by {@link #openAsync}, or {@code null} if it is still being opened\n")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dbTypeName)
+                .addStatement("final $T openTask = $N", openTaskTypeName, openTaskFieldSpec)
+                .beginControlFlow("if(openTask == null || !openTask.isDone())")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("return getWritableDatabase()")
+                .build();
+
+        final MethodSpec getWritableDatabaseSpec = MethodSpec.methodBuilder("getWritableDatabase")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dbTypeName)
+                .addStatement("$N()", awaitOpenSpec)
+                .addCode(installTemplateCall(installTemplateSpec))
+                .addStatement("return super.getWritableDatabase()")
+                .build();
+
+        final MethodSpec getReadableDatabaseSpec = MethodSpec.methodBuilder("getReadableDatabase")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(dbTypeName)
+                .addStatement("$N()", awaitOpenSpec)
+                .addCode(installTemplateCall(installTemplateSpec))
+                .addStatement("return super.getReadableDatabase()")
+                .build();
+
+        fieldSpecs.addAll(Arrays.asList(openLockFieldSpec, openTaskFieldSpec, progressListenerFieldSpec, queueEarlyAccessFieldSpec));
+        methodSpecs.addAll(Arrays.asList(openAsyncSpec, getDatabaseIfReadySpec, getWritableDatabaseSpec, getReadableDatabaseSpec, awaitOpenSpec));
+    }
+
+    private static CodeBlock installTemplateCall(MethodSpec installTemplateSpec) {
+
+        final CodeBlock.Builder call = CodeBlock.builder();
+        if (installTemplateSpec != null) {
+            call.addStatement("$N()", installTemplateSpec);
+        }
+        return call.build();
+    }
+
+    /**
+     * Create the methods that copy a new database from the template in the assets of the app before it is opened for
+     * the first time. The template is only used if {@code user_version} and {@code application_id} in the header of the
+     * copy match the current schema, otherwise the tables are created as usual
+     *
+     * @return The method to call before the database is opened
+     */
+    private MethodSpec createTemplateSpecs(Schema currentSchema, ClassName daoMasterClassName, FieldSpec contextFieldSpec, FieldSpec useTemplateFieldSpec,
+                                           List<FieldSpec> fieldSpecs, List<MethodSpec> methodSpecs) {
+
+        final ClassName logClassName = ClassName.get("android.util", "Log");
+        final ParameterSpec databaseParameterSpec = ParameterSpec.builder(File.class, "database").build();
+        final ParameterSpec templateParameterSpec = ParameterSpec.builder(File.class, "template").build();
+
+        final FixtureGenerator fixtureGenerator = new FixtureGenerator(mSchemas, Collections.<FixtureSeed>emptyList(), mSpaceReclamation != null && mSpaceReclamation.isIncremental(), mIndexDescList);
+        final FieldSpec templateAssetFieldSpec = FieldSpec.builder(String.class, "TEMPLATE_ASSET", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$S", mTemplateAssetName)
+                .build();
+        final FieldSpec templateHashFieldSpec = FieldSpec.builder(int.class, "TEMPLATE_HASH", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$L", fixtureGenerator.templateHash(currentSchema))
+                .build();
+        final FieldSpec templateCheckedFieldSpec = FieldSpec.builder(boolean.class, "mTemplateChecked", Modifier.PRIVATE, Modifier.VOLATILE)
+                .build();
+
+        final MethodSpec isTemplateValidSpec = MethodSpec.methodBuilder("isTemplateValid")
+                .addJavadoc("@return Whether the header of the template has the version and hash of the current schema\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(boolean.class)
+                .addParameter(templateParameterSpec)
+                .addException(IOException.class)
+                .addStatement("final $T file = new $T($L, $S)", RandomAccessFile.class, RandomAccessFile.class, templateParameterSpec.name, "r")
+                .beginControlFlow("try")
+                .beginControlFlow("if(file.length() < 100)")
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("file.seek(60)")
+                .addStatement("final int version = file.readInt()")
+                .addStatement("file.seek(68)")
+                .addStatement("return version == $T.SCHEMA_VERSION && file.readInt() == $N", daoMasterClassName, templateHashFieldSpec)
+                .nextControlFlow("finally")
+                .addStatement("file.close()")
+                .endControlFlow()
+                .build();
+
+        final MethodSpec copyTemplateSpec = MethodSpec.methodBuilder("copyTemplate")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(databaseParameterSpec)
+                .addStatement("final $T copy = new $T($L.getPath() + $S)", File.class, File.class, databaseParameterSpec.name, "-template")
+                .beginControlFlow("try")
+                .addStatement("$L.getParentFile().mkdirs()", databaseParameterSpec.name)
+                .addStatement("final $T input = $N.getAssets().open($N)", InputStream.class, contextFieldSpec, templateAssetFieldSpec)
+                .beginControlFlow("try")
+                .addStatement("final $T output = new $T(copy)", OutputStream.class, FileOutputStream.class)
+                .beginControlFlow("try")
+                .addStatement("final byte[] buffer = new byte[8192]")
+                .addStatement("int read")
+                .beginControlFlow("while((read = input.read(buffer)) != -1)")
+                .addStatement("output.write(buffer, 0, read)")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("output.close()")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("input.close()")
+                .endControlFlow()
+                .beginControlFlow("if(!$N(copy))", isTemplateValidSpec)
+                .addStatement("$T.w($S, $S + $T.SCHEMA_VERSION + $S)", logClassName, "Poirot", "The database template was not built for schema version ", daoMasterClassName, ", creating the tables instead")
+                .nextControlFlow("else if(!copy.renameTo($L))", databaseParameterSpec.name)
+                .addStatement("$T.w($S, $S)", logClassName, "Poirot", "Could not move the database template, creating the tables instead")
+                .endControlFlow()
+                .nextControlFlow("catch($T e)", IOException.class)
+                .addStatement("$T.w($S, $S, e)", logClassName, "Poirot", "Could not copy the database template, creating the tables instead")
+                .endControlFlow()
+                .addStatement("copy.delete()")
+                .build();
+
+        //SQLiteOpenHelper opens the database while holding the lock of the helper, so the template is copied under it too
+        final MethodSpec installTemplateSpec = MethodSpec.methodBuilder("installTemplate")
+                .addJavadoc("Copy the template before a database that does not exist yet is opened, so that its tables are\n" +
+                        "not created by {@link #onCreate}\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.SYNCHRONIZED)
+                .beginControlFlow("if(!$N || $N)", useTemplateFieldSpec, templateCheckedFieldSpec)
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("$N = true", templateCheckedFieldSpec)
+                .addStatement("final String name = getDatabaseName()")
+                .beginControlFlow("if(name == null)")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("final $T database = $N.getDatabasePath(name)", File.class, contextFieldSpec)
+                .beginControlFlow("if(!database.exists())")
+                .addStatement("$N(database)", copyTemplateSpec)
+                .endControlFlow()
+                .build();
+
+        fieldSpecs.addAll(Arrays.asList(templateAssetFieldSpec, templateHashFieldSpec, contextFieldSpec, useTemplateFieldSpec, templateCheckedFieldSpec));
+        methodSpecs.addAll(Arrays.asList(installTemplateSpec, copyTemplateSpec, isTemplateValidSpec));
+        return installTemplateSpec;
+    }
+
+    /**
+     * Create the call that migrates the database to the current version, surrounded by the migration pragmas and timed,
+     * if they have been configured, and followed by checking the tables it touched and reclaiming the space it freed
+     */
+    /**
+     * Wrap a call in {@code onUpgrade()} or {@code onDowngrade()} so that it runs outside of the transaction that
+     * {@code SQLiteOpenHelper} calls them in. The transaction is committed, with nothing in it, before the call, and
+     * another one is begun after it for {@code SQLiteOpenHelper} to set the version in and end. If the call throws, the
+     * steps that it has committed are kept
+     */
+    private static CodeBlock createOutsideTransactionCall(ParameterSpec dbParamSpec, CodeBlock call) {
+
+        return CodeBlock.builder()
+                .addStatement("$L.setTransactionSuccessful()", dbParamSpec.name)
+                .addStatement("$L.endTransaction()", dbParamSpec.name)
+                .beginControlFlow("try")
+                .add(call)
+                .nextControlFlow("finally")
+                .addStatement("$L.beginTransaction()", dbParamSpec.name)
+                .endControlFlow()
+                .build();
+    }
+
+    private static CodeBlock createMigrationCall(MethodSpec migrationSpec, ParameterSpec dbParamSpec, ClassName daoMasterClassName, MethodSpec applyPragmasSpec, MethodSpec restorePragmasSpec, MethodSpec onMigratedSpec, MethodSpec checkMigrationSpec, MethodSpec reclaimSpaceSpec) {
+
+        final CodeBlock.Builder call = CodeBlock.builder();
+        if (onMigratedSpec == null) {
+            call.addStatement("$N($L, version, $T.SCHEMA_VERSION)", migrationSpec, dbParamSpec.name, daoMasterClassName);
+        } else {
+            call.addStatement("final long start = $T.nanoTime()", System.class);
+            if (applyPragmasSpec != null) {
+                call.addStatement("final String[] pragmas = $N($L)", applyPragmasSpec, dbParamSpec.name)
+                        .beginControlFlow("try")
+                        .addStatement("$N($L, version, $T.SCHEMA_VERSION)", migrationSpec, dbParamSpec.name, daoMasterClassName)
+                        .nextControlFlow("finally")
+                        .addStatement("$N($L, pragmas)", restorePragmasSpec, dbParamSpec.name)
+                        .endControlFlow();
+            } else {
+                call.addStatement("$N($L, version, $T.SCHEMA_VERSION)", migrationSpec, dbParamSpec.name, daoMasterClassName);
+            }
+            call.addStatement("$N(version, $T.SCHEMA_VERSION, ($T.nanoTime() - start) / 1000000L)", onMigratedSpec, daoMasterClassName, System.class);
+        }
+        if (checkMigrationSpec != null) {
+            //Checked before reclaiming space, since a VACUUM rewrites every table
+            call.addStatement("$N($L, version)", checkMigrationSpec, dbParamSpec.name);
+        }
+        if (reclaimSpaceSpec != null) {
+            //Not timed, since it depends on what previous migrations left behind as much as on these
+            call.addStatement("$N($L)", reclaimSpaceSpec, dbParamSpec.name);
+        }
+        return call.build();
+    }
+
+    /**
+     * Create the methods that create the partial and expression indexes of the current schema, along with its tables
+     *
+     * @return The method that creates the indexes, or {@code null} if the current schema has none
+     */
+    private MethodSpec createIndexSpecs(Schema currentSchema, ParameterSpec dbParamSpec, List<MethodSpec> methodSpecs) {
+
+        final IndexDesc indexDesc = Utils.resolveIndexDescription(currentSchema, mIndexDescList);
+        final MethodSpec.Builder createIndexesSpecBuilder = MethodSpec.methodBuilder("createIndexes")
+                .addJavadoc("Create the partial and expression indexes of the current schema, which {@code DaoMaster} does not create\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(dbParamSpec);
+        boolean hasIndexes = false;
+        for (Entity entity : currentSchema.getEntities()) {
+            if (entity.isSkipTableCreation()) {
+                continue;
+            }
+            for (IndexDesc.Definition definition : Utils.getIndexDefinitions(entity, indexDesc)) {
+                createIndexesSpecBuilder.addStatement("$L.execSQL($S)", dbParamSpec.name, Utils.getCreateIndexSql(definition, entity.getTableName()));
+                hasIndexes = true;
+            }
+        }
+        if (!hasIndexes) {
+            return null;
+        }
+        final MethodSpec createIndexesSpec = createIndexesSpecBuilder.build();
+
+        final MethodSpec onCreateSpec = MethodSpec.methodBuilder("onCreate")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(dbParamSpec)
+                .addStatement("super.onCreate($L)", dbParamSpec.name)
+                .addStatement("$N($L)", createIndexesSpec, dbParamSpec.name)
+                .build();
+
+        methodSpecs.addAll(Arrays.asList(onCreateSpec, createIndexesSpec));
+        return createIndexesSpec;
+    }
+
+    /**
+     * Create the methods that check the tables that an upgrade touched, once it has completed
+     *
+     * @return The method that runs the checks, given the version the database was upgraded from
+     */
+    private MethodSpec createCheckSpecs(Schema currentSchema, Migrations migrations, ParameterSpec dbParamSpec, List<MethodSpec> methodSpecs) {
+
+        final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        final ClassName logClassName = ClassName.get("android.util", "Log");
+        final ParameterSpec fromVersionParameterSpec = ParameterSpec.builder(int.class, "fromVersion").build();
+        final ParameterSpec tableParameterSpec = ParameterSpec.builder(String.class, "table").build();
+        final ParameterSpec checkParameterSpec = ParameterSpec.builder(String.class, "check").build();
+        final ParameterSpec problemParameterSpec = ParameterSpec.builder(String.class, "problem").build();
+        final ParameterSpec elapsedMicrosParameterSpec = ParameterSpec.builder(long.class, "elapsedMicros").build();
+        final TypeName stringListTypeName = ParameterizedTypeName.get(List.class, String.class);
+
+        final Map<Integer, Map<String, Boolean>> touchedTables = collectTouchedTables(migrations);
+
+        final MethodSpec.Builder getCheckedTablesSpecBuilder = MethodSpec.methodBuilder("getCheckedTables")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(fromVersionParameterSpec)
+                .beginControlFlow("switch($L)", fromVersionParameterSpec.name);
+        final MethodSpec.Builder getRebuiltTablesSpecBuilder = MethodSpec.methodBuilder("getRebuiltTables")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(fromVersionParameterSpec)
+                .beginControlFlow("switch($L)", fromVersionParameterSpec.name);
+        for (Map.Entry<Integer, Map<String, Boolean>> entry : touchedTables.entrySet()) {
+            final List<String> rebuiltTables = new ArrayList<>();
+            for (Map.Entry<String, Boolean> table : entry.getValue().entrySet()) {
+                if (table.getValue()) {
+                    rebuiltTables.add(table.getKey());
+                }
+            }
+            if (!entry.getValue().isEmpty()) {
+                getCheckedTablesSpecBuilder.addStatement("case $L: return $L", entry.getKey(), stringArray(entry.getValue().keySet()));
+            }
+            if (!rebuiltTables.isEmpty()) {
+                getRebuiltTablesSpecBuilder.addStatement("case $L: return $L", entry.getKey(), stringArray(rebuiltTables));
+            }
+        }
+        final MethodSpec getCheckedTablesSpec = getCheckedTablesSpecBuilder
+                .addStatement("default: return new String[0]")
+                .endControlFlow()
+                .build();
+        final MethodSpec getRebuiltTablesSpec = getRebuiltTablesSpecBuilder
+                .addStatement("default: return new String[0]")
+                .endControlFlow()
+                .build();
+
+        final MethodSpec.Builder getExpectedColumnsSpecBuilder = MethodSpec.methodBuilder("getExpectedColumns")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(tableParameterSpec)
+                .beginControlFlow("switch($L)", tableParameterSpec.name);
+        final MethodSpec.Builder getExpectedIndexesSpecBuilder = MethodSpec.methodBuilder("getExpectedIndexes")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(tableParameterSpec)
+                .beginControlFlow("switch($L)", tableParameterSpec.name);
+        for (Entity entity : currentSchema.getEntities()) {
+            if (entity.isSkipTableCreation()) {
+                continue;
+            }
+            final List<String> columns = new ArrayList<>();
+            for (Property property : entity.getProperties()) {
+                columns.add(property.getColumnName());
+            }
+            final List<String> indexes = new ArrayList<>();
+            for (Index index : entity.getIndexes()) {
+                indexes.add(index.getName());
+            }
+            for (IndexDesc.Definition definition : Utils.getIndexDefinitions(entity, Utils.resolveIndexDescription(currentSchema, mIndexDescList))) {
+                indexes.add(definition.getName());
+            }
+            getExpectedColumnsSpecBuilder.addStatement("case $S: return $L", entity.getTableName(), stringArray(columns));
+            if (!indexes.isEmpty()) {
+                getExpectedIndexesSpecBuilder.addStatement("case $S: return $L", entity.getTableName(), stringArray(indexes));
+            }
+        }
+        final MethodSpec getExpectedColumnsSpec = getExpectedColumnsSpecBuilder
+                .addStatement("default: return new String[0]")
+                .endControlFlow()
+                .build();
+        final MethodSpec getExpectedIndexesSpec = getExpectedIndexesSpecBuilder
+                .addStatement("default: return new String[0]")
+                .endControlFlow()
+                .build();
+
+        final MethodSpec queryColumnSpec = MethodSpec.methodBuilder("queryColumn")
+                .addJavadoc("@return The values of a column of the rows that a pragma returns\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(stringListTypeName)
+                .addParameters(Arrays.asList(dbParamSpec, ParameterSpec.builder(String.class, "sql").build(), ParameterSpec.builder(int.class, "column").build()))
+                .addStatement("final $T values = new $T<String>()", stringListTypeName, ArrayList.class)
+                .addStatement("final $T cursor = $L.rawQuery(sql, null)", cursorClassName, dbParamSpec.name)
+                .beginControlFlow("try")
+                .beginControlFlow("while(cursor.moveToNext())")
+                .addStatement("values.add(cursor.getString(column))")
+                .endControlFlow()
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .addStatement("return values")
+                .build();
+
+        final MethodSpec onMigrationCheckedSpec = MethodSpec.methodBuilder("onMigrationChecked")
+                .addJavadoc("Called with the result of every check of a table that the upgrade touched, and the time it took.\n" +
+                        "Logs the problems by default, override to report them\n\n" +
+                        "@param $L The version the database was upgraded from\n" +
+                        "@param $L One of $S, $S, $S or $S\n" +
+                        "@param $L The problem the check found, or {@code null} if it passed\n",
+                        fromVersionParameterSpec.name, checkParameterSpec.name, "columns", "indexes", "quick_check", "foreign_key_check", problemParameterSpec.name)
+                .addModifiers(Modifier.PROTECTED)
+                .addParameters(Arrays.asList(fromVersionParameterSpec, checkParameterSpec, tableParameterSpec, problemParameterSpec, elapsedMicrosParameterSpec))
+                .beginControlFlow("if($L != null)", problemParameterSpec.name)
+                .addStatement("$T.w($S, $S + $L + $S + $L + $S + $L + $S + $L)", logClassName, "Poirot", "Check ", checkParameterSpec.name, " of table ", tableParameterSpec.name,
+                        " failed after upgrading from version ", fromVersionParameterSpec.name, ": ", problemParameterSpec.name)
+                .endControlFlow()
+                .build();
+
+        final MethodSpec.Builder checkMigrationSpecBuilder = MethodSpec.methodBuilder("checkMigration")
+                .addJavadoc("Check the tables that the upgrade touched, instead of the whole database\n")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameters(Arrays.asList(dbParamSpec, fromVersionParameterSpec))
+                .addStatement("final String[] tables = $N($L)", getCheckedTablesSpec, fromVersionParameterSpec.name);
+        MethodSpec isTableQuickCheckSupportedSpec = null;
+        if (mMigrationChecks.isQuickCheck()) {
+            if (mMinSqliteVersion >= TABLE_QUICK_CHECK_SQLITE_VERSION) {
+                checkMigrationSpecBuilder.addStatement("final boolean quickCheck = true");
+            } else {
+                //Older versions read the argument as the maximum number of errors, and check the whole database
+                isTableQuickCheckSupportedSpec = MethodSpec.methodBuilder("isTableQuickCheckSupported")
+                        .addJavadoc("@return Whether SQLite can limit {@code PRAGMA quick_check} to a table, from 3.33\n")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .returns(boolean.class)
+                        .addParameter(dbParamSpec)
+                        .addStatement("final String[] version = $T.stringForQuery($L, $S, null).split($S)", ClassName.get("android.database", "DatabaseUtils"), dbParamSpec.name, "SELECT sqlite_version()", "\\.")
+                        .addStatement("final int major = Integer.parseInt(version[0])")
+                        .addStatement("return major > 3 || (major == 3 && Integer.parseInt(version[1]) >= 33)")
+                        .build();
+                checkMigrationSpecBuilder.addStatement("final boolean quickCheck = tables.length > 0 && $N($L)", isTableQuickCheckSupportedSpec, dbParamSpec.name);
+            }
+        }
+        if (mMigrationChecks.isForeignKeyCheck()) {
+            checkMigrationSpecBuilder.addStatement("final $T rebuiltTables = $T.asList($N($L))", stringListTypeName, Arrays.class, getRebuiltTablesSpec, fromVersionParameterSpec.name);
+        }
+        checkMigrationSpecBuilder
+                .beginControlFlow("for(String table : tables)")
+                .addStatement("long start");
+        if (mMigrationChecks.isSchemaCheck()) {
+            checkMigrationSpecBuilder
+                    .addStatement("start = $T.nanoTime()", System.class)
+                    .addStatement("final $T columns = $N($L, $S + table + $S, 1)", stringListTypeName, queryColumnSpec, dbParamSpec.name, "PRAGMA table_info(\"", "\")")
+                    .addStatement("final $T missingColumns = new $T<String>()", stringListTypeName, ArrayList.class)
+                    .beginControlFlow("for(String column : $N(table))", getExpectedColumnsSpec)
+                    .beginControlFlow("if(!columns.contains(column))")
+                    .addStatement("missingColumns.add(column)")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("$N($L, $S, table, missingColumns.isEmpty() ? null : $S + missingColumns, ($T.nanoTime() - start) / 1000L)",
+                            onMigrationCheckedSpec, fromVersionParameterSpec.name, "columns", "Missing columns ", System.class)
+                    .addStatement("start = $T.nanoTime()", System.class)
+                    .addStatement("final $T indexes = $N($L, $S + table + $S, 1)", stringListTypeName, queryColumnSpec, dbParamSpec.name, "PRAGMA index_list(\"", "\")")
+                    .addStatement("final $T missingIndexes = new $T<String>()", stringListTypeName, ArrayList.class)
+                    .beginControlFlow("for(String index : $N(table))", getExpectedIndexesSpec)
+                    .beginControlFlow("if(!indexes.contains(index))")
+                    .addStatement("missingIndexes.add(index)")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("$N($L, $S, table, missingIndexes.isEmpty() ? null : $S + missingIndexes, ($T.nanoTime() - start) / 1000L)",
+                            onMigrationCheckedSpec, fromVersionParameterSpec.name, "indexes", "Missing indexes ", System.class);
+        }
+        if (mMigrationChecks.isQuickCheck()) {
+            checkMigrationSpecBuilder
+                    .beginControlFlow("if(quickCheck)")
+                    .addStatement("start = $T.nanoTime()", System.class)
+                    .addStatement("final $T messages = $N($L, $S + table + $S, 0)", stringListTypeName, queryColumnSpec, dbParamSpec.name, "PRAGMA quick_check(\"", "\")")
+                    .addStatement("$N($L, $S, table, messages.size() == 1 && $S.equals(messages.get(0)) ? null : messages.toString(), ($T.nanoTime() - start) / 1000L)",
+                            onMigrationCheckedSpec, fromVersionParameterSpec.name, "quick_check", "ok", System.class)
+                    .endControlFlow();
+        }
+        if (mMigrationChecks.isForeignKeyCheck()) {
+            checkMigrationSpecBuilder
+                    .beginControlFlow("if(rebuiltTables.contains(table))")
+                    .addStatement("start = $T.nanoTime()", System.class)
+                    .addStatement("final $T parents = $N($L, $S + table + $S, 2)", stringListTypeName, queryColumnSpec, dbParamSpec.name, "PRAGMA foreign_key_check(\"", "\")")
+                    .addStatement("$N($L, $S, table, parents.isEmpty() ? null : parents.size() + $S + new $T<String>(parents), ($T.nanoTime() - start) / 1000L)",
+                            onMigrationCheckedSpec, fromVersionParameterSpec.name, "foreign_key_check", " rows refer to missing rows of ", TreeSet.class, System.class)
+                    .endControlFlow();
+        }
+        final MethodSpec checkMigrationSpec = checkMigrationSpecBuilder
+                .endControlFlow()
+                .build();
+
+        methodSpecs.addAll(Arrays.asList(onMigrationCheckedSpec, checkMigrationSpec, getCheckedTablesSpec));
+        if (mMigrationChecks.isForeignKeyCheck()) {
+            methodSpecs.add(getRebuiltTablesSpec);
+        }
+        if (mMigrationChecks.isSchemaCheck()) {
+            methodSpecs.addAll(Arrays.asList(getExpectedColumnsSpec, getExpectedIndexesSpec));
+        }
+        if (isTableQuickCheckSupportedSpec != null) {
+            methodSpecs.add(isTableQuickCheckSupportedSpec);
+        }
+        methodSpecs.add(queryColumnSpec);
+        return checkMigrationSpec;
+    }
+
+    /**
+     * Collect the tables that the upgrade from every version but the current one touches, by following the tables that
+     * every step creates, alters, renames or rebuilds through the steps after it
+     *
+     * @return The touched tables of the current schema and whether they are rebuilt on the way, by the version the
+     * upgrade starts from
+     */
+    private Map<Integer, Map<String, Boolean>> collectTouchedTables(Migrations migrations) {
+
+        final List<Map<Entity, Boolean>> stepEntities = new ArrayList<>();
+        for (int i = 1; i < mSchemas.size(); i++) {
+            final Schema from = mSchemas.get(i - 1);
+            final Schema to = mSchemas.get(i);
+            final EntityRenameDesc entityRenameDesc = Utils.resolveEntityRenameDescription(from, to, mEntityRenameDescList);
+            final Map<Entity, Boolean> touched = new LinkedHashMap<>();
+            for (MigrationStatement statement : migrations.createStatements(from, to)) {
+                //Neither reads the rows or changes the table itself
+                if (statement.getKind() == MigrationStatement.Kind.CHECK_REFERENCES || statement.getKind() == MigrationStatement.Kind.ANALYZE) {
+                    continue;
+                }
+                final Entity entity = touchedEntity(statement.getTableName(), from, to, entityRenameDesc);
+                if (entity != null) {
+                    touched.put(entity, statement.getKind() == MigrationStatement.Kind.COPY_ROWS || Boolean.TRUE.equals(touched.get(entity)));
+                }
+            }
+            stepEntities.add(touched);
+        }
+
+        final Map<Integer, Map<String, Boolean>> touchedTables = new LinkedHashMap<>();
+        for (int i = 0; i < stepEntities.size(); i++) {
+            Map<Entity, Boolean> touched = stepEntities.get(i);
+            for (int j = i + 1; j < stepEntities.size(); j++) {
+                final EntityRenameDesc entityRenameDesc = Utils.resolveEntityRenameDescription(mSchemas.get(j), mSchemas.get(j + 1), mEntityRenameDescList);
+                final Map<Entity, Boolean> succeeding = new LinkedHashMap<>();
+                for (Map.Entry<Entity, Boolean> entry : touched.entrySet()) {
+                    final Entity entity = Utils.succeeding(entry.getKey(), mSchemas.get(j + 1), entityRenameDesc);
+                    if (entity != null) {
+                        succeeding.put(entity, entry.getValue());
+                    }
+                }
+                for (Map.Entry<Entity, Boolean> entry : stepEntities.get(j).entrySet()) {
+                    succeeding.put(entry.getKey(), entry.getValue() || Boolean.TRUE.equals(succeeding.get(entry.getKey())));
+                }
+                touched = succeeding;
+            }
+
+            final Map<String, Boolean> tables = new TreeMap<>();
+            for (Map.Entry<Entity, Boolean> entry : touched.entrySet()) {
+                if (!entry.getKey().isSkipTableCreation()) {
+                    tables.put(entry.getKey().getTableName(), entry.getValue());
+                }
+            }
+            touchedTables.put(mSchemas.get(i).getVersion(), tables);
+        }
+        return touchedTables;
+    }
+
+    /**
+     * @return The entity of {@code to} whose table a statement touches, or {@code null} if the table does not exist in
+     * {@code to}
+     */
+    private static Entity touchedEntity(String tableName, Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+        if (tableName == null) {
+            return null;
+        }
+        for (Entity entity : to.getEntities()) {
+            if (tableName.equals(entity.getTableName())) {
+                return entity;
+            }
+        }
+        //Tables are renamed by their name in the previous schema
+        for (Entity entity : from.getEntities()) {
+            if (tableName.equals(entity.getTableName())) {
+                return Utils.succeeding(entity, to, entityRenameDesc);
+            }
+        }
+        return null;
+    }
+
+    private static CodeBlock stringArray(Collection<String> strings) {
+
+        final CodeBlock.Builder array = CodeBlock.builder().add("new String[]{");
+        int i = 0;
+        for (String string : strings) {
+            array.add(i++ == 0 ? "$S" : ", $S", string);
+        }
+        return array.add("}").build();
+    }
+
+    private static MethodSpec createQueryPragmaMethodSpec(ParameterSpec dbParamSpec) {
+
+        final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        final ParameterSpec pragmaParameterSpec = ParameterSpec.builder(String.class, "pragma").build();
+        return MethodSpec.methodBuilder("queryPragma")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String.class)
+                .addParameters(Arrays.asList(dbParamSpec, pragmaParameterSpec))
+                .addStatement("final $T cursor = $L.rawQuery($S + $L, null)", cursorClassName, dbParamSpec.name, "PRAGMA ", pragmaParameterSpec.name)
+                .beginControlFlow("try")
+                .addStatement("return cursor.moveToFirst() ? cursor.getString(0) : null")
+                .nextControlFlow("finally")
+                .addStatement("cursor.close()")
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Create the method that gives back the pages freed by the migrations, with a full {@code VACUUM} if enough of the
+     * database is free, and in chunks of {@code PRAGMA incremental_vacuum} otherwise
+     *
+     * @param onSpaceReclaimFailedSpec The method that reports a failed {@code VACUUM}, or {@code null} if it is never run
+     */
+    private MethodSpec createReclaimSpaceMethodSpec(ParameterSpec dbParamSpec, MethodSpec queryPragmaSpec, MethodSpec onSpaceReclaimedSpec, MethodSpec onSpaceReclaimFailedSpec) {
+
+        final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+        final ClassName sqlExceptionClassName = ClassName.get("android.database", "SQLException");
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder("reclaimSpace")
+                .addJavadoc("Give back the pages that the migrations freed, once they have completed and outside of any transaction\n")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(dbParamSpec)
+                .addStatement("final long pageSize = $T.parseLong($N($L, $S))", Long.class, queryPragmaSpec, dbParamSpec.name, "page_size")
+                .addStatement("final long pageCount = $T.parseLong($N($L, $S))", Long.class, queryPragmaSpec, dbParamSpec.name, "page_count")
+                .addStatement("final long freePages = $T.parseLong($N($L, $S))", Long.class, queryPragmaSpec, dbParamSpec.name, "freelist_count")
+                .beginControlFlow("if(freePages == 0)")
+                .addStatement("return")
+                .endControlFlow();
+
+        final boolean vacuum = mSpaceReclamation.getVacuumThreshold() > 0F;
+        if (vacuum) {
+            builder.beginControlFlow("if(freePages >= pageCount * $LF)", mSpaceReclamation.getVacuumThreshold())
+                    .beginControlFlow("try");
+            if (mSpaceReclamation.isIncremental()) {
+                //Converts databases that were created before incremental vacuuming was used
+                builder.addStatement("$L.execSQL($S)", dbParamSpec.name, "PRAGMA auto_vacuum = INCREMENTAL");
+            }
+            //Failing to rebuild, usually for lack of storage for the copy, must not fail opening the database. The pages are
+            //given back after the next migration instead
+            builder.addStatement("$L.execSQL($S)", dbParamSpec.name, "VACUUM")
+                    .nextControlFlow("catch($T e)", sqlExceptionClassName)
+                    .addStatement("$N(e)", onSpaceReclaimFailedSpec)
+                    .endControlFlow();
+        }
+        if (mSpaceReclamation.isIncremental()) {
+            if (vacuum) {
+                builder.nextControlFlow("else if($S.equals($N($L, $S)))", "2", queryPragmaSpec, dbParamSpec.name, "auto_vacuum");
+            } else {
+                builder.beginControlFlow("if($S.equals($N($L, $S)))", "2", queryPragmaSpec, dbParamSpec.name, "auto_vacuum");
+            }
+            //Every page that is given back is a row of the pragma, so the cursor has to be read to the end
+            builder.beginControlFlow("for(int chunk = 0; chunk < $L && !$S.equals($N($L, $S)); chunk++)",
+                    mSpaceReclamation.getIncrementalChunks(), "0", queryPragmaSpec, dbParamSpec.name, "freelist_count")
+                    .addStatement("final $T cursor = $L.rawQuery($S, null)", cursorClassName, dbParamSpec.name,
+                            String.format(Locale.US, "PRAGMA incremental_vacuum(%d)", mSpaceReclamation.getIncrementalPages()))
+                    .beginControlFlow("try")
+                    .addStatement("cursor.getCount()")
+                    .nextControlFlow("finally")
+                    .addStatement("cursor.close()")
+                    .endControlFlow()
+                    .endControlFlow();
+        }
+        return builder.endControlFlow()
+                .addStatement("$N(freePages * pageSize, (pageCount - $T.parseLong($N($L, $S))) * pageSize)", onSpaceReclaimedSpec, Long.class, queryPragmaSpec, dbParamSpec.name, "page_count")
+                .build();
+    }
+
+    private MethodSpec createApplyPragmasMethodSpec(ParameterSpec dbParamSpec, MethodSpec queryPragmaSpec) {
+
+        final CodeBlock.Builder previous = CodeBlock.builder();
+        for (String pragma : mMigrationPragmas.getPragmas().keySet()) {
+            previous.add(previous.build().isEmpty() ? "$N($L, $S)" : ", $N($L, $S)", queryPragmaSpec, dbParamSpec.name, pragma);
+        }
+
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder("applyMigrationPragmas")
+                .addJavadoc("Set the pragmas to migrate with, before the first migration begins its transaction\n\n" +
+                        "@return The previous values of the pragmas, to restore once migrating has completed\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(dbParamSpec)
+                .addStatement("final String[] previous = {$L}", previous.build());
+        for (Map.Entry<String, String> pragma : mMigrationPragmas.getPragmas().entrySet()) {
+            builder.addStatement("$L.execSQL($S)", dbParamSpec.name, String.format(Locale.US, "PRAGMA %s = %s", pragma.getKey(), pragma.getValue()));
+        }
+        return builder.addStatement("return previous")
+                .build();
+    }
+
+    private MethodSpec createRestorePragmasMethodSpec(ParameterSpec dbParamSpec) {
+
+        final ParameterSpec previousParameterSpec = ParameterSpec.builder(String[].class, "previous").build();
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder("restoreMigrationPragmas")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameters(Arrays.asList(dbParamSpec, previousParameterSpec));
+        int index = 0;
+        for (String pragma : mMigrationPragmas.getPragmas().keySet()) {
+            builder.beginControlFlow("if($L[$L] != null)", previousParameterSpec.name, index)
+                    .addStatement("$L.execSQL($S + $L[$L])", dbParamSpec.name, String.format(Locale.US, "PRAGMA %s = ", pragma), previousParameterSpec.name, index)
+                    .endControlFlow();
+            index++;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create a method that returns the statements of a migration step, by the version it migrates from
+     */
+    private static MethodSpec createStatementsMethodSpec(String name, String javadoc, String missingMessage, List<Integer> fromVersions, List<List<MigrationStatement>> statements) {
+
+        final ParameterSpec fromVersionParameterSpec = ParameterSpec.builder(int.class, "fromVersion").build();
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addJavadoc(javadoc)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(fromVersionParameterSpec)
+                .beginControlFlow("switch($L)", fromVersionParameterSpec.name);
+
+        for (int i = 0; i < fromVersions.size(); i++) {
+            final CodeBlock.Builder step = CodeBlock.builder().add("case $L: return new String[]{", fromVersions.get(i));
+            final List<MigrationStatement> stepStatements = statements.get(i);
+            for (int j = 0; j < stepStatements.size(); j++) {
+                step.add(j == 0 ? "\n$S" : ",\n$S", stepStatements.get(j).getSql());
+            }
+            builder.addStatement("$L", step.add("}").build());
+        }
+
+        return builder
+                .addStatement("default: throw new $T($S + $L)", IllegalStateException.class, missingMessage, fromVersionParameterSpec.name)
+                .endControlFlow()
                 .build();
     }
 
+    /**
+     * Create the method that handles databases older than the baseline version, using the declared fallback
+     */
+    private MethodSpec createBeforeBaselineMethodSpec(ParameterSpec dbParamSpec, ClassName daoMasterClassName, FieldSpec firstVersionFieldSpec, MethodSpec createIndexesSpec) {
+
+        final ParameterSpec versionParameterSpec = ParameterSpec.builder(int.class, "version").build();
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder("onVersionBeforeBaseline")
+                .addJavadoc("Called when a database is older than the baseline version $L, which is the oldest version that is\n" +
+                        "still migrated from. Override to handle these databases differently, for example by exporting\n" +
+                        "their data first. The database must be left at a version that can be migrated from\n", mSchemas.get(0).getVersion())
+                .addModifiers(Modifier.PROTECTED)
+                .addParameters(Arrays.asList(dbParamSpec, versionParameterSpec));
+
+        switch (mBaselineFallback) {
+            case RECREATE: {
+                final ClassName cursorClassName = ClassName.get("android.database", "Cursor");
+                final ParameterizedTypeName tablesTypeName = ParameterizedTypeName.get(List.class, String.class);
+                builder.addStatement("final $T tables = new $T<>()", tablesTypeName, ArrayList.class)
+                        .addStatement("final $T cursor = $L.rawQuery($S, null)", cursorClassName, dbParamSpec.name,
+                                "SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' AND name <> 'android_metadata'")
+                        .beginControlFlow("try")
+                        .beginControlFlow("while(cursor.moveToNext())")
+                        .addStatement("tables.add(cursor.getString(0))")
+                        .endControlFlow()
+                        .nextControlFlow("finally")
+                        .addStatement("cursor.close()")
+                        .endControlFlow()
+                        .addStatement("$L.beginTransaction()", dbParamSpec.name)
+                        .beginControlFlow("try")
+                        .beginControlFlow("for(String table : tables)")
+                        .addStatement("$L.execSQL(\"DROP TABLE IF EXISTS \\\"\" + table.replace(\"\\\"\", \"\\\"\\\"\") + \"\\\"\")", dbParamSpec.name)
+                        .endControlFlow()
+                        .addStatement("$T.createAllTables($L, false)", daoMasterClassName, dbParamSpec.name);
+                if (createIndexesSpec != null) {
+                    builder.addStatement("$N($L)", createIndexesSpec, dbParamSpec.name);
+                }
+                builder.addStatement("$L.setVersion($T.SCHEMA_VERSION)", dbParamSpec.name, daoMasterClassName)
+                        .addStatement("$L.setTransactionSuccessful()", dbParamSpec.name)
+                        .nextControlFlow("finally")
+                        .addStatement("$L.endTransaction()", dbParamSpec.name)
+                        .endControlFlow();
+                break;
+            }
+            case FAIL: {
+                builder.addStatement("throw new $T($S + $L + $S + $N)", IllegalStateException.class, "Database version ",
+                        versionParameterSpec.name, " is older than the baseline version ", firstVersionFieldSpec);
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown baseline fallback " + mBaselineFallback);
+            }
+        }
+        return builder.build();
+    }
+
+    static final class Builder {
+
+        private List<Schema> schemas;
+
+        private List<Schema> rolledBackSchemas;
+
+        private List<EntityRenameDesc> entityRenameDescs;
+
+        private List<PropertyRenameDesc> propertyRenameDescs;
+
+        private List<BackfillDesc> backfillDescs;
+
+        private BaselineFallback baselineFallback;
+
+        private MigrationStyle migrationStyle;
+
+        private MigrationPragmas migrationPragmas;
+
+        private SpaceReclamation spaceReclamation;
+
+        private int minSqliteVersion;
+
+        private String templateAssetName;
+
+        private MigrationChecks migrationChecks;
+
+        private List<IndexDesc> indexDescs;
+
+        Builder() {
+            reset();
+        }
+
+        /**
+         * @param schemas A non-{@code null} and non-empty list of schemas from the baseline version up to and including
+         *                the current one
+         */
+        Builder schemas(List<Schema> schemas) {
+            if (schemas == null || schemas.isEmpty()) {
+                throw new IllegalArgumentException("Schemas cannot be null or empty");
+            }
+            this.schemas = schemas;
+            return this;
+        }
+
+        /**
+         * @param rolledBackSchemas The schemas after the current one, that databases are downgraded from
+         */
+        Builder rolledBackSchemas(List<Schema> rolledBackSchemas) {
+            this.rolledBackSchemas = rolledBackSchemas;
+            return this;
+        }
+
+        /**
+         * @param entityRenameDescs A list of how entities have been renamed when moving from one schema to the next
+         */
+        Builder entityRenames(List<EntityRenameDesc> entityRenameDescs) {
+            this.entityRenameDescs = entityRenameDescs;
+            return this;
+        }
+
+        /**
+         * @param propertyRenameDescs A list of how properties have been renamed when moving from one schema to the next
+         */
+        Builder propertyRenames(List<PropertyRenameDesc> propertyRenameDescs) {
+            this.propertyRenameDescs = propertyRenameDescs;
+            return this;
+        }
+
+        /**
+         * @param backfillDescs A list of how added properties are populated from the existing data
+         */
+        Builder backfills(List<BackfillDesc> backfillDescs) {
+            this.backfillDescs = backfillDescs;
+            return this;
+        }
+
+        /**
+         * @param baselineFallback What to do with databases older than the first schema, or {@code null} if no
+         *                         baseline has been declared
+         */
+        Builder baselineFallback(BaselineFallback baselineFallback) {
+            this.baselineFallback = baselineFallback;
+            return this;
+        }
+
+        /**
+         * @param migrationStyle How the migrations are generated
+         */
+        Builder migrationStyle(MigrationStyle migrationStyle) {
+            if (migrationStyle == null) {
+                throw new IllegalArgumentException("Migration style cannot be null");
+            }
+            this.migrationStyle = migrationStyle;
+            return this;
+        }
+
+        /**
+         * @param migrationPragmas The SQLite settings to migrate with, or {@code null} to migrate with the settings of
+         *                         the connection
+         */
+        Builder migrationPragmas(MigrationPragmas migrationPragmas) {
+            this.migrationPragmas = migrationPragmas;
+            return this;
+        }
+
+        /**
+         * @param spaceReclamation How the pages freed by the migrations are given back, or {@code null} to keep them in
+         *                         the database file
+         */
+        Builder spaceReclamation(SpaceReclamation spaceReclamation) {
+            this.spaceReclamation = spaceReclamation;
+            return this;
+        }
+
+        /**
+         * @param minSqliteVersion The oldest version of SQLite the databases are migrated with, as returned by
+         *                         {@code sqlite3_libversion_number()}, or 0 if it is not known
+         */
+        Builder minSqliteVersion(int minSqliteVersion) {
+            this.minSqliteVersion = minSqliteVersion;
+            return this;
+        }
+
+        /**
+         * @param templateAssetName The path in the assets of the app of the template that new databases are copied
+         *                          from, or {@code null} to create their tables
+         */
+        Builder templateAssetName(String templateAssetName) {
+            this.templateAssetName = templateAssetName;
+            return this;
+        }
+
+        /**
+         * @param migrationChecks The checks to run on the tables that an upgrade touched, or {@code null} to run none
+         */
+        Builder migrationChecks(MigrationChecks migrationChecks) {
+            this.migrationChecks = migrationChecks;
+            return this;
+        }
+
+        /**
+         * @param indexDescs A list of the partial and expression indexes of every schema
+         */
+        Builder indexes(List<IndexDesc> indexDescs) {
+            this.indexDescs = indexDescs;
+            return this;
+        }
+
+        PoirotDbHelperGenerator build() {
+
+            if (schemas == null) {
+                throw new IllegalStateException("Schemas must be set");
+            }
+            return new PoirotDbHelperGenerator(this);
+        }
+
+        Builder reset() {
+            schemas = null;
+            rolledBackSchemas = Collections.emptyList();
+            entityRenameDescs = Collections.emptyList();
+            propertyRenameDescs = Collections.emptyList();
+            backfillDescs = Collections.emptyList();
+            baselineFallback = null;
+            migrationStyle = MigrationStyle.CLASSES;
+            migrationPragmas = null;
+            spaceReclamation = null;
+            minSqliteVersion = 0;
+            templateAssetName = null;
+            migrationChecks = null;
+            indexDescs = Collections.emptyList();
+            return this;
+        }
+    }
+
 }
@@ -0,0 +1,16 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * Describes the schemas of a database to a build tool, so that {@link Poirot#generate(String, String)} can be run as
+ * part of the build instead of from a {@code main} method. Implementations must be public and have a public no-arg
+ * constructor.
+ */
+public interface PoirotDefinition {
+
+    /**
+     * Create the schemas
+     *
+     * @return A {@link Poirot} instance with all the schemas created, that has not been generated yet
+     */
+    Poirot define();
+}
@@ -0,0 +1,184 @@
+package com.vinaysshenoy.poirot;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Long-lived generator for a {@link PoirotDefinition}. It watches the compiled classes of the definition and generates
+ * the schemas again whenever they change.
+ * <p/>
+ * The greenDAO templates stay loaded, and the fingerprints of the schemas and migrations from the previous generation
+ * are kept in memory, so only the DAO objects of the schemas that changed and the migrations next to them are
+ * generated again. Files whose contents did not change are not rewritten.
+ * <p/>
+ * The definition is loaded in a new classloader for every generation, so its classes must only be on the classpath
+ * given to the watcher and not on the classpath the watcher itself is started with. Poirot and greenDAO must be on the
+ * latter.
+ */
+public class PoirotWatcher {
+
+    private static final long QUIET_PERIOD_MILLIS = 300L;
+
+    private final String mDefinitionClassName;
+
+    private final List<File> mClasspath;
+
+    private final String mCurrentSchemaOutputDirectory;
+
+    private final String mOlderSchemaOutputDirectory;
+
+    private final GenerationCache mGenerationCache;
+
+    /**
+     * Create a {@link PoirotWatcher}
+     *
+     * @param definitionClassName          The fully qualified name of the {@link PoirotDefinition} implementation
+     * @param classpath                    The class directories and jars to load the definition from. Directories are watched for changes.
+     * @param currentSchemaOutputDirectory The directory to generate the DAO objects for the current schema
+     * @param olderSchemaOutputDirectory   The directory to generate the DAO objects for the older schemas
+     * @throws IOException If the greenDAO templates cannot be loaded
+     */
+    public PoirotWatcher(String definitionClassName, List<File> classpath, String currentSchemaOutputDirectory, String olderSchemaOutputDirectory) throws IOException {
+
+        if (definitionClassName == null || definitionClassName.length() == 0) {
+            throw new IllegalArgumentException("Definition class name cannot be null or empty");
+        }
+        if (classpath == null || classpath.isEmpty()) {
+            throw new IllegalArgumentException("Classpath cannot be null or empty");
+        }
+        mDefinitionClassName = definitionClassName;
+        mClasspath = new ArrayList<>(classpath);
+        mCurrentSchemaOutputDirectory = currentSchemaOutputDirectory;
+        mOlderSchemaOutputDirectory = olderSchemaOutputDirectory;
+        mGenerationCache = new GenerationCache();
+    }
+
+    /**
+     * Usage: {@code PoirotWatcher <definition class> <definition classpath> <current output dir> <older output dir>}
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 4) {
+            throw new IllegalArgumentException("Usage: PoirotWatcher <definition class> <definition classpath> <current output dir> <older output dir>");
+        }
+
+        final List<File> classpath = new ArrayList<>();
+        for (String entry : args[1].split(File.pathSeparator)) {
+            if (entry.length() > 0) {
+                classpath.add(new File(entry));
+            }
+        }
+        new PoirotWatcher(args[0], classpath, args[2], args[3]).watch();
+    }
+
+    /**
+     * Load the definition and generate what changed since the previous generation
+     *
+     * @return {@code true} if the schemas were generated, {@code false} if the definition could not be loaded or the
+     * schemas could not be generated. The error is printed, and the next generation starts from the last successful one.
+     */
+    public boolean generate() {
+
+        final long start = System.nanoTime();
+        try (URLClassLoader classLoader = new URLClassLoader(classpathUrls(), PoirotWatcher.class.getClassLoader())) {
+
+            final PoirotDefinition definition = Class.forName(mDefinitionClassName, true, classLoader)
+                    .asSubclass(PoirotDefinition.class)
+                    .getConstructor()
+                    .newInstance();
+            definition.define().generate(mCurrentSchemaOutputDirectory, mOlderSchemaOutputDirectory, mGenerationCache);
+            System.out.println(String.format(Locale.US, "Entities generated in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return true;
+        } catch (Exception e) {
+            System.out.println("Could not generate entities!");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Generate the schemas, and then generate them again every time the class directories on the classpath change.
+     * This method only returns if the thread is interrupted.
+     */
+    public void watch() throws IOException, InterruptedException {
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+            final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+            for (File entry : mClasspath) {
+                if (entry.isDirectory()) {
+                    registerAll(watchService, entry.toPath(), watchedDirectories);
+                } else if (entry.getParentFile() != null) {
+                    //Jars are replaced rather than modified, so watch the directory they are in
+                    register(watchService, entry.getAbsoluteFile().getParentFile().toPath(), watchedDirectories);
+                }
+            }
+
+            generate();
+            System.out.println("Watching for changes to " + mDefinitionClassName);
+
+            WatchKey key;
+            while (true) {
+                key = watchService.take();
+                //A compiler writes many class files for a single change, so wait until it is done
+                do {
+                    handleEvents(watchService, key, watchedDirectories);
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                generate();
+            }
+        }
+    }
+
+    private void handleEvents(WatchService watchService, WatchKey key, Map<WatchKey, Path> watchedDirectories) throws IOException {
+
+        final Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory != null && event.kind() == ENTRY_CREATE) {
+                final Path created = directory.resolve((Path) event.context());
+                if (Files.isDirectory(created)) {
+                    registerAll(watchService, created, watchedDirectories);
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private static void registerAll(final WatchService watchService, Path root, final Map<WatchKey, Path> watchedDirectories) throws IOException {
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(watchService, dir, watchedDirectories);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void register(WatchService watchService, Path directory, Map<WatchKey, Path> watchedDirectories) throws IOException {
+        watchedDirectories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+    }
+
+    private URL[] classpathUrls() throws IOException {
+
+        final URL[] urls = new URL[mClasspath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = mClasspath.get(i).toURI().toURL();
+        }
+        return urls;
+    }
+}
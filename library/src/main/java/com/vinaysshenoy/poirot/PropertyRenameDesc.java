@@ -0,0 +1,113 @@
+package com.vinaysshenoy.poirot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class that is used to describe the renaming of properties of entities from one schema to the next
+ * <p/>
+ * Without it, a renamed property is a property that is removed and another one that is added, and the data in its
+ * column is left behind. With it, the column is renamed with {@code ALTER TABLE ... RENAME COLUMN}, or by rebuilding the
+ * table when the databases may run a version of SQLite that does not support it.
+ */
+public class PropertyRenameDesc {
+
+    private int mVersion;
+
+    private final Map<String, Map<String, String>> mNameMaps;
+
+    private PropertyRenameDesc(Builder builder) {
+        mNameMaps = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : builder.nameMaps.entrySet()) {
+            mNameMaps.put(entry.getKey(), Collections.unmodifiableMap(new TreeMap<>(entry.getValue())));
+        }
+    }
+
+    /*package*/ void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @return The version of the schema in which the properties were renamed
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @param entityName The name of the entity in the schema the properties were renamed in
+     * @return The new names of the renamed properties of the entity, by their previous names
+     */
+    public Map<String, String> getRenames(String entityName) {
+        final Map<String, String> nameMap = mNameMaps.get(entityName);
+        return nameMap == null ? Collections.<String, String>emptyMap() : nameMap;
+    }
+
+    /**
+     * @return The renamed properties of every entity that has any, by the name of the entity
+     */
+    public Map<String, Map<String, String>> getNameMaps() {
+        return Collections.unmodifiableMap(new TreeMap<>(mNameMaps));
+    }
+
+    public String getChangedName(String entityName, String original) {
+        return getRenames(entityName).get(original);
+    }
+
+    public String getOriginalName(String entityName, String changed) {
+
+        for (Map.Entry<String, String> entry : getRenames(entityName).entrySet()) {
+            if (changed.equals(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    public boolean isChanged(String entityName, String propertyName) {
+        return getRenames(entityName).containsValue(propertyName);
+    }
+
+    public static final class Builder {
+
+        private final Map<String, Map<String, String>> nameMaps;
+
+        public Builder() {
+            nameMaps = new HashMap<>();
+        }
+
+        /**
+         * Declare a property that is renamed in the schema this descriptor is attached to
+         *
+         * @param entityName      The name of the entity in the schema the property is renamed in
+         * @param oldPropertyName The name of the property in the previous schema
+         * @param newPropertyName The name of the property in the schema it is renamed in
+         */
+        public Builder map(String entityName, String oldPropertyName, String newPropertyName) {
+            if (entityName == null || oldPropertyName == null || newPropertyName == null) {
+                throw new IllegalArgumentException("Entity name and property names cannot be null");
+            }
+            Map<String, String> nameMap = nameMaps.get(entityName);
+            if (nameMap == null) {
+                nameMap = new HashMap<>();
+                nameMaps.put(entityName, nameMap);
+            }
+            nameMap.put(oldPropertyName, newPropertyName);
+            return this;
+        }
+
+        public PropertyRenameDesc build() {
+
+            return new PropertyRenameDesc(this);
+        }
+
+        public Builder reset() {
+            nameMaps.clear();
+            return this;
+        }
+    }
+
+}
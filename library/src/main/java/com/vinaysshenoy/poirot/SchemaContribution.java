@@ -0,0 +1,22 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Schema;
+
+/**
+ * The entities that a module contributes to a version of the schema, registered with
+ * {@link Poirot#contribute(int, String, SchemaContribution)}.
+ * <p/>
+ * Every contribution is built into its own partition of the schema, concurrently with the contributions of the other
+ * modules, and the partitions are merged into the schema in the order of the names of the modules. Relations can only
+ * be declared between the entities of the same partition.
+ */
+public interface SchemaContribution {
+
+    /**
+     * Add the entities of the module
+     *
+     * @param partition A schema with the version and package of the schema it is merged into, which only holds the
+     *                  entities of this module
+     */
+    void contribute(Schema partition);
+}
@@ -0,0 +1,156 @@
+package com.vinaysshenoy.poirot;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Computes a digest of everything that generating a schema depends on, by walking the fields of the greenDAO model
+ * (and Poirot's descriptors) reflectively. Fingerprints must be taken before a schema is initialized, since
+ * initialization fills in derived values such as table names.
+ */
+final class SchemaFingerprint {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<Class<?>, List<Field>> FIELDS_CACHE = new HashMap<>();
+
+    private SchemaFingerprint() {
+
+    }
+
+    /**
+     * @param objects The objects to fingerprint, in order
+     * @return A hex encoded SHA-256 digest of the objects
+     */
+    public static String of(Object... objects) {
+
+        final StringBuilder dump = new StringBuilder();
+        final Map<Object, Integer> visited = new IdentityHashMap<>();
+        for (Object object : objects) {
+            append(dump, object, visited);
+            dump.append('\n');
+        }
+
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(dump.toString().getBytes(UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void append(StringBuilder dump, Object value, Map<Object, Integer> visited) {
+
+        if (value == null) {
+            dump.append("null");
+        } else if (value instanceof CharSequence) {
+            //Length prefixed, so that values cannot be confused with the structure around them
+            final String string = value.toString();
+            dump.append('s').append(string.length()).append(':').append(string);
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            dump.append(value);
+        } else if (value.getClass().isArray()) {
+            final int length = java.lang.reflect.Array.getLength(value);
+            final List<Object> elements = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                elements.add(java.lang.reflect.Array.get(value, i));
+            }
+            appendElements(dump, elements, false, visited);
+        } else if (value instanceof Collection) {
+            appendElements(dump, (Collection<?>) value, value instanceof Set, visited);
+        } else if (value instanceof Map) {
+            final List<String> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                final StringBuilder entryDump = new StringBuilder();
+                append(entryDump, entry.getKey(), visited);
+                entryDump.append('=');
+                append(entryDump, entry.getValue(), visited);
+                entries.add(entryDump.toString());
+            }
+            Collections.sort(entries);
+            dump.append(entries);
+        } else if (isModelClass(value.getClass())) {
+            appendModel(dump, value, visited);
+        } else {
+            //Anything else is not part of the model, and its toString() may not be stable across runs
+            dump.append(value.getClass().getName());
+        }
+    }
+
+    private static void appendElements(StringBuilder dump, Collection<?> elements, boolean unordered, Map<Object, Integer> visited) {
+
+        final List<String> elementDumps = new ArrayList<>(elements.size());
+        for (Object element : elements) {
+            final StringBuilder elementDump = new StringBuilder();
+            append(elementDump, element, visited);
+            elementDumps.add(elementDump.toString());
+        }
+        if (unordered) {
+            Collections.sort(elementDumps);
+        }
+        dump.append(elementDumps);
+    }
+
+    private static void appendModel(StringBuilder dump, Object value, Map<Object, Integer> visited) {
+
+        final Integer id = visited.get(value);
+        if (id != null) {
+            //Entities and properties refer back to each other
+            dump.append('#').append(id);
+            return;
+        }
+        visited.put(value, visited.size());
+
+        dump.append(value.getClass().getName()).append('{');
+        try {
+            for (Field field : fieldsOf(value.getClass())) {
+                dump.append(field.getName()).append('=');
+                append(dump, field.get(value), visited);
+                dump.append(';');
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read " + value.getClass().getName(), e);
+        }
+        dump.append('}');
+    }
+
+    private static boolean isModelClass(Class<?> type) {
+        return type.getName().startsWith("de.greenrobot.daogenerator.") || type.getName().startsWith("com.vinaysshenoy.poirot.");
+    }
+
+    private static List<Field> fieldsOf(Class<?> type) {
+
+        synchronized (FIELDS_CACHE) {
+            List<Field> fields = FIELDS_CACHE.get(type);
+            if (fields == null) {
+                fields = new ArrayList<>();
+                for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                            field.setAccessible(true);
+                            fields.add(field);
+                        }
+                    }
+                }
+                //The order of declared fields is not specified
+                Collections.sort(fields, new Comparator<Field>() {
+                    @Override
+                    public int compare(Field lhs, Field rhs) {
+                        final int result = lhs.getName().compareTo(rhs.getName());
+                        return result != 0 ? result : lhs.getDeclaringClass().getName().compareTo(rhs.getDeclaringClass().getName());
+                    }
+                });
+                FIELDS_CACHE.put(type, fields);
+            }
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.vinaysshenoy.poirot;
+
+import com.squareup.javapoet.*;
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Index;
+import de.greenrobot.daogenerator.Schema;
+
+import javax.lang.model.element.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates the {@code SchemaHistory} class, which keeps the tables and indexes of every schema version as SQL
+ * statements, so that older versions can be recreated in tests without generating their DAO objects
+ */
+class SchemaHistoryGenerator {
+
+    private final List<Schema> mSchemas;
+
+    private final List<IndexDesc> mIndexDescList;
+
+    /**
+     * @param schemas A non-{@code null} and non-empty list of initialized schemas, in ascending order of version
+     */
+    public SchemaHistoryGenerator(List<Schema> schemas) {
+        this(schemas, Collections.<IndexDesc>emptyList());
+    }
+
+    /**
+     * @param schemas    A non-{@code null} and non-empty list of initialized schemas, in ascending order of version
+     * @param indexDescs A list of the partial and expression indexes of every schema
+     */
+    public SchemaHistoryGenerator(List<Schema> schemas, List<IndexDesc> indexDescs) {
+
+        if (schemas == null || schemas.isEmpty()) {
+            throw new IllegalArgumentException("Schemas cannot be null or empty");
+        }
+        this.mSchemas = new ArrayList<>(schemas);
+        this.mIndexDescList = indexDescs;
+    }
+
+    /**
+     * Creates the statements that create the tables and indexes of a schema the way its {@code DaoMaster} would
+     *
+     * @param schema An initialized schema
+     * @return The list of SQL statements
+     */
+    public static List<String> createStatements(Schema schema) {
+        return createStatements(schema, null);
+    }
+
+    /**
+     * Creates the statements that create the tables and indexes of a schema the way its {@code DaoMaster} would,
+     * followed by the partial and expression indexes of the schema, the way the generated helper does
+     *
+     * @param schema    An initialized schema
+     * @param indexDesc The partial and expression indexes of the schema, or {@code null} if it has none
+     * @return The list of SQL statements
+     */
+    public static List<String> createStatements(Schema schema, IndexDesc indexDesc) {
+
+        final List<String> statements = new ArrayList<>();
+        for (Entity entity : schema.getEntities()) {
+            if (entity.isSkipTableCreation()) {
+                continue;
+            }
+            statements.add(Utils.getCreateTableSql(entity, entity.getTableName()));
+            for (Index index : entity.getIndexes()) {
+                statements.add(Utils.getCreateIndexSql(index, entity.getTableName()));
+            }
+        }
+        //The helper creates them once DaoMaster has created every table
+        for (Entity entity : schema.getEntities()) {
+            if (entity.isSkipTableCreation()) {
+                continue;
+            }
+            for (IndexDesc.Definition definition : Utils.getIndexDefinitions(entity, indexDesc)) {
+                statements.add(Utils.getCreateIndexSql(definition, entity.getTableName()));
+            }
+        }
+        return statements;
+    }
+
+    public JavaFile createHistoryFile(String packageName) {
+
+        final ClassName dbClassName = ClassName.get("android.database.sqlite", "SQLiteDatabase");
+        final ParameterSpec dbParamSpec = ParameterSpec.builder(dbClassName, "db").build();
+        final ParameterSpec versionParameterSpec = ParameterSpec.builder(int.class, "version").build();
+
+        final CodeBlock.Builder versions = CodeBlock.builder().add("{");
+        for (int i = 0; i < mSchemas.size(); i++) {
+            versions.add(i == 0 ? "$L" : ", $L", mSchemas.get(i).getVersion());
+        }
+        final FieldSpec versionsFieldSpec = FieldSpec.builder(int[].class, "VERSIONS", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .addJavadoc("The schema versions in the history, in ascending order\n")
+                .initializer(versions.add("}").build())
+                .build();
+
+        final MethodSpec.Builder getCreateStatementsSpecBuilder = MethodSpec.methodBuilder("getCreateStatements")
+                .addJavadoc("Get the statements that create the tables and indexes of a schema version\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(String[].class)
+                .addParameter(versionParameterSpec)
+                .beginControlFlow("switch($L)", versionParameterSpec.name);
+
+        for (Schema schema : mSchemas) {
+            final CodeBlock.Builder statements = CodeBlock.builder().add("case $L: return new String[]{", schema.getVersion()).indent();
+            final List<String> createStatements = createStatements(schema, Utils.resolveIndexDescription(schema, mIndexDescList));
+            for (int i = 0; i < createStatements.size(); i++) {
+                statements.add(i == 0 ? "\n$S" : ",\n$S", createStatements.get(i));
+            }
+            getCreateStatementsSpecBuilder.addStatement("$L", statements.unindent().add("}").build());
+        }
+
+        final MethodSpec getCreateStatementsSpec = getCreateStatementsSpecBuilder
+                .addStatement("default: throw new $T($S + $L)", IllegalArgumentException.class, "No schema in the history for version ", versionParameterSpec.name)
+                .endControlFlow()
+                .build();
+
+        final MethodSpec createAllTablesSpec = MethodSpec.methodBuilder("createAllTables")
+                .addJavadoc("Create the tables and indexes of a schema version in an empty database, and set its version,\n" +
+                        "for example to test upgrading from that version\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameters(Arrays.asList(dbParamSpec, versionParameterSpec))
+                .beginControlFlow("for(String statement : $N($L))", getCreateStatementsSpec, versionParameterSpec.name)
+                .addStatement("$L.execSQL(statement)", dbParamSpec.name)
+                .endControlFlow()
+                .addStatement("$L.setVersion($L)", dbParamSpec.name, versionParameterSpec.name)
+                .build();
+
+        final TypeSpec schemaHistorySpec = TypeSpec.classBuilder("SchemaHistory")
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addField(versionsFieldSpec)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .build())
+                .addMethod(getCreateStatementsSpec)
+                .addMethod(createAllTablesSpec)
+                .build();
+
+        return JavaFile.builder(packageName, schemaHistorySpec)
+                .addFileComment(Poirot.GENERATED_FILE)
+                .build();
+    }
+}
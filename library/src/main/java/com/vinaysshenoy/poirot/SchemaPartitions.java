@@ -0,0 +1,179 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.DaoUtil;
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The contributions of modules to a version of the schema. Every contribution is built into its own partition, a
+ * {@link Schema} with the same version and package that nothing else touches, so that the partitions can be built
+ * concurrently. They are then merged into the schema in the order of the names of the modules, which keeps the order of
+ * the entities, and so the generated code, the same whichever partition is built first.
+ * <p/>
+ * greenDAO ties entities, properties and relations to the schema they were created in, so merging moves them into the
+ * schema by pointing those references at it reflectively. This relies on the private fields of the greenDAO generator
+ * that Poirot is built against, so merging fails with an explanation if the entities are not moved.
+ */
+class SchemaPartitions {
+
+    /**
+     * The version of the greenDAO generator whose model objects merging knows how to move between schemas
+     */
+    private static final String GREENDAO_GENERATOR_VERSION = "2.1.0";
+
+    private final Schema mSchema;
+
+    private final SortedMap<String, SchemaContribution> mContributions;
+
+    private final Map<String, Future<Schema>> mPartitions;
+
+    /**
+     * @param schema        The schema to merge the partitions into, before it is initialized
+     * @param contributions The contributions to the schema, by the name of their module
+     */
+    public SchemaPartitions(Schema schema, SortedMap<String, SchemaContribution> contributions) {
+        mSchema = schema;
+        mContributions = contributions;
+        mPartitions = new LinkedHashMap<>();
+    }
+
+    /**
+     * Start building the partitions
+     *
+     * @param executor The executor to build the partitions on
+     */
+    public void build(ExecutorService executor) {
+
+        for (final Map.Entry<String, SchemaContribution> contribution : mContributions.entrySet()) {
+            mPartitions.put(contribution.getKey(), executor.submit(new Callable<Schema>() {
+                @Override
+                public Schema call() {
+                    final Schema partition = new Schema(mSchema.getVersion(), mSchema.getDefaultJavaPackage());
+                    contribution.getValue().contribute(partition);
+                    return partition;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Wait for the partitions to be built and merge them into the schema
+     *
+     * @throws IllegalStateException If an entity of a partition has the class name or table name of an entity of the
+     *                               schema or of another partition
+     */
+    public void merge() {
+
+        final Map<String, String> classOwners = new HashMap<>();
+        final Map<String, String> tableOwners = new HashMap<>();
+        for (Entity entity : mSchema.getEntities()) {
+            claim(entity, "the schema", classOwners, tableOwners);
+        }
+
+        for (Map.Entry<String, Future<Schema>> partitionEntry : mPartitions.entrySet()) {
+            final String module = partitionEntry.getKey();
+            final Schema partition;
+            try {
+                partition = partitionEntry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the partition of module " + module, e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(String.format(Locale.US, "Module %s failed to contribute to version %d!", module, mSchema.getVersion()), e.getCause());
+            }
+
+            for (Entity entity : partition.getEntities()) {
+                claim(entity, "module " + module, classOwners, tableOwners);
+            }
+            final Map<Object, Boolean> visited = new IdentityHashMap<>();
+            for (Entity entity : partition.getEntities()) {
+                rebind(entity, partition, module, visited);
+                if (entity.getSchema() != mSchema) {
+                    throw incompatible(entity, module, null);
+                }
+                mSchema.getEntities().add(entity);
+            }
+        }
+    }
+
+    /**
+     * Create the exception for when greenDAO no longer keeps its model objects the way merging expects
+     */
+    private IllegalStateException incompatible(Object model, String module, Throwable cause) {
+        return new IllegalStateException(String.format(Locale.US,
+                "Could not move %s of module %s into version %d. Merging contributions depends on the internals of greenDAO generator %s, which the greenDAO generator on the classpath does not match",
+                model.getClass().getSimpleName(), module, mSchema.getVersion(), GREENDAO_GENERATOR_VERSION), cause);
+    }
+
+    private void claim(Entity entity, String owner, Map<String, String> classOwners, Map<String, String> tableOwners) {
+
+        final String classOwner = classOwners.get(entity.getClassName());
+        if (classOwner != null) {
+            throw new IllegalStateException(String.format(Locale.US, "Entity %s of %s in version %d is already defined by %s",
+                    entity.getClassName(), owner, mSchema.getVersion(), classOwner));
+        }
+        classOwners.put(entity.getClassName(), owner);
+
+        //Tables are named when the schema is initialized, unless they are named explicitly
+        final String tableName = (entity.getTableName() != null ? entity.getTableName() : DaoUtil.dbName(entity.getClassName())).toUpperCase(Locale.US);
+        final String tableOwner = tableOwners.get(tableName);
+        if (tableOwner != null) {
+            throw new IllegalStateException(String.format(Locale.US, "Table %s of entity %s of %s in version %d is already used by %s",
+                    tableName, entity.getClassName(), owner, mSchema.getVersion(), tableOwner));
+        }
+        tableOwners.put(tableName, owner);
+    }
+
+    /**
+     * Point the references of a greenDAO model object, and of the model objects it refers to, from the partition to
+     * the schema
+     */
+    private void rebind(Object model, Schema partition, String module, Map<Object, Boolean> visited) {
+
+        if (visited.put(model, Boolean.TRUE) != null) {
+            return;
+        }
+
+        try {
+            for (Class<?> type = model.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    final Object value = field.get(model);
+                    if (value == partition) {
+                        field.set(model, mSchema);
+                    } else if (value instanceof Collection) {
+                        for (Object element : (Collection<?>) value) {
+                            rebindIfModel(element, partition, module, visited);
+                        }
+                    } else if (value instanceof Object[]) {
+                        for (Object element : (Object[]) value) {
+                            rebindIfModel(element, partition, module, visited);
+                        }
+                    } else {
+                        rebindIfModel(value, partition, module, visited);
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            //Already explained by the model object that refers to this one
+            throw e;
+        } catch (IllegalAccessException | RuntimeException e) {
+            //Fields that can no longer be made accessible fail with a RuntimeException instead
+            throw incompatible(model, module, e);
+        }
+    }
+
+    private void rebindIfModel(Object value, Schema partition, String module, Map<Object, Boolean> visited) {
+        if (value != null && !(value instanceof Schema) && !(value instanceof Enum) && value.getClass().getName().startsWith("de.greenrobot.daogenerator.")) {
+            rebind(value, partition, module, visited);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.vinaysshenoy.poirot;
+
+/**
+ * Class that is used to describe how the generated helper gives back the pages that migrations free, when they drop
+ * or rebuild tables, instead of keeping them in the database file.
+ * <p/>
+ * The free pages are only reclaimed after migrations have run, once the last one has completed. The helper reports how
+ * many bytes were free and how many were given back through {@code onSpaceReclaimed()}.
+ */
+public class SpaceReclamation {
+
+    private final int mIncrementalPages;
+
+    private final int mIncrementalChunks;
+
+    private final float mVacuumThreshold;
+
+    private SpaceReclamation(Builder builder) {
+        mIncrementalPages = builder.incrementalPages;
+        mIncrementalChunks = builder.incrementalChunks;
+        mVacuumThreshold = builder.vacuumThreshold;
+    }
+
+    public boolean isIncremental() {
+        return mIncrementalPages > 0;
+    }
+
+    /**
+     * @return The number of pages to give back with every {@code PRAGMA incremental_vacuum}, or 0 if incremental
+     * vacuuming is not used
+     */
+    public int getIncrementalPages() {
+        return mIncrementalPages;
+    }
+
+    /**
+     * @return The maximum number of {@code PRAGMA incremental_vacuum} to run after migrating
+     */
+    public int getIncrementalChunks() {
+        return mIncrementalChunks;
+    }
+
+    /**
+     * @return The fraction of the pages that have to be free to run a full {@code VACUUM}, or 0 if it is never run
+     */
+    public float getVacuumThreshold() {
+        return mVacuumThreshold;
+    }
+
+    public static final class Builder {
+
+        private int incrementalPages;
+
+        private int incrementalChunks;
+
+        private float vacuumThreshold;
+
+        /**
+         * Create databases with {@code PRAGMA auto_vacuum = INCREMENTAL}, and give back their free pages in bounded
+         * chunks after migrating, so that no single statement holds the database for long. Databases that were created
+         * without it can only be converted by a full {@code VACUUM}, see {@link #vacuumThreshold(float)}
+         *
+         * @param pages  The number of pages to give back in every chunk. Must be at least 1
+         * @param chunks The maximum number of chunks to run after migrating, so the remaining pages are given back
+         *               after the next migration. Must be at least 1
+         */
+        public Builder incrementalVacuum(int pages, int chunks) {
+            if (pages < 1) {
+                throw new IllegalArgumentException("Pages cannot be < 1");
+            }
+            if (chunks < 1) {
+                throw new IllegalArgumentException("Chunks cannot be < 1");
+            }
+            incrementalPages = pages;
+            incrementalChunks = chunks;
+            return this;
+        }
+
+        /**
+         * Rebuild the database with a full {@code VACUUM} after migrating, when enough of its pages are free. It
+         * rewrites the whole file, and needs as much free storage as the database takes. If incremental vacuuming is
+         * used, it also converts databases that were created without it
+         *
+         * @param freelistRatio The fraction of the pages of the database that have to be free, greater than 0 and at
+         *                      most 1
+         */
+        public Builder vacuumThreshold(float freelistRatio) {
+            if (freelistRatio <= 0F || freelistRatio > 1F) {
+                throw new IllegalArgumentException("Freelist ratio must be > 0 and <= 1");
+            }
+            vacuumThreshold = freelistRatio;
+            return this;
+        }
+
+        public SpaceReclamation build() {
+
+            if (incrementalPages == 0 && vacuumThreshold == 0F) {
+                throw new IllegalStateException("Either an incremental vacuum or a vacuum threshold must be set");
+            }
+            return new SpaceReclamation(this);
+        }
+
+        public Builder reset() {
+            incrementalPages = 0;
+            incrementalChunks = 0;
+            vacuumThreshold = 0F;
+            return this;
+        }
+    }
+}
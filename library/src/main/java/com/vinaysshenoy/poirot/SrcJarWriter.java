@@ -0,0 +1,103 @@
+package com.vinaysshenoy.poirot;
+
+import com.squareup.javapoet.JavaFile;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Collects generated sources and writes them into a single source jar. Entries are written in the order of their
+ * paths and with a fixed timestamp, so the same sources always produce the same bytes.
+ */
+class SrcJarWriter {
+
+    /**
+     * The timestamp of every entry. Zip timestamps are in local time, so a fixed local date is the same in every time
+     * zone. 1980-02-01 is used instead of the zip epoch, which some tools treat as an unset time.
+     */
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, byte[]> mEntries;
+
+    public SrcJarWriter() {
+        mEntries = new TreeMap<>();
+    }
+
+    /**
+     * Add a source file created with JavaPoet
+     *
+     * @param javaFile The file to add
+     */
+    public SrcJarWriter add(JavaFile javaFile) {
+
+        final String path = javaFile.packageName.isEmpty()
+                ? javaFile.typeSpec.name + ".java"
+                : javaFile.packageName.replace('.', '/') + '/' + javaFile.typeSpec.name + ".java";
+        return add(path, javaFile.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Add all the files in a source directory, with paths relative to it
+     *
+     * @param directory The source directory
+     */
+    public SrcJarWriter addDirectory(final Path directory) throws IOException {
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final StringBuilder path = new StringBuilder();
+                for (Path name : directory.relativize(file)) {
+                    if (path.length() > 0) {
+                        path.append('/');
+                    }
+                    path.append(name.toString());
+                }
+                add(path.toString(), Files.readAllBytes(file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return this;
+    }
+
+    private SrcJarWriter add(String path, byte[] contents) {
+
+        if (mEntries.put(path, contents) != null) {
+            throw new IllegalStateException("Source jar already contains " + path);
+        }
+        return this;
+    }
+
+    /**
+     * Write the source jar, replacing the file if it exists
+     *
+     * @param srcJar The file to write
+     */
+    public void writeTo(File srcJar) throws IOException {
+
+        final File parent = srcJar.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Utils.ensureDirectory(parent.getPath());
+        }
+
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(srcJar)))) {
+            for (Map.Entry<String, byte[]> entry : mEntries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(ENTRY_TIME);
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package com.vinaysshenoy.poirot;
 
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.JavaFile;
+import de.greenrobot.daogenerator.ContentProvider;
+import de.greenrobot.daogenerator.DaoGenerator;
 import de.greenrobot.daogenerator.Entity;
 import de.greenrobot.daogenerator.Index;
 import de.greenrobot.daogenerator.Property;
 import de.greenrobot.daogenerator.Schema;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.*;
 
 /**
@@ -16,6 +26,8 @@ import java.util.*;
  */
 final class Utils {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private Utils() {
 
     }
@@ -193,6 +205,58 @@ final class Utils {
         }
     }
 
+    /**
+     * Get the indexes of an {@link IndexDesc} on the table of an entity
+     *
+     * @param entity    The entity, of the schema the descriptor is attached to
+     * @param indexDesc The indexes of the schema, or {@code null} if it has none
+     * @return The indexes on the table of the entity
+     */
+    public static List<IndexDesc.Definition> getIndexDefinitions(Entity entity, IndexDesc indexDesc) {
+        return indexDesc == null ? Collections.<IndexDesc.Definition>emptyList() : indexDesc.getDefinitions(entity.getClassName());
+    }
+
+    /**
+     * Get the indexes of an {@link IndexDesc} that have to be created when going from one entity to the other. Indexes
+     * are compared by the statements that create them on the table of {@code cur}, so an index whose terms or
+     * condition changed is created again under the same name
+     *
+     * @param prev     The entity from which we are migrating
+     * @param prevDesc The indexes of the schema of {@code prev}, or {@code null} if it has none
+     * @param cur      The entity to which we are migrating
+     * @param curDesc  The indexes of the schema of {@code cur}, or {@code null} if it has none
+     * @return The indexes of {@code cur} that {@code prev} does not have
+     */
+    public static List<IndexDesc.Definition> getAddedIndexDefinitions(Entity prev, IndexDesc prevDesc, Entity cur, IndexDesc curDesc) {
+        return differentIndexDefinitions(getIndexDefinitions(cur, curDesc), getIndexDefinitions(prev, prevDesc), cur.getTableName());
+    }
+
+    /**
+     * Get the indexes of an {@link IndexDesc} that have to be dropped when going from one entity to the other
+     *
+     * @return The indexes of {@code prev} that {@code cur} does not have
+     * @see #getAddedIndexDefinitions(Entity, IndexDesc, Entity, IndexDesc)
+     */
+    public static List<IndexDesc.Definition> getRemovedIndexDefinitions(Entity prev, IndexDesc prevDesc, Entity cur, IndexDesc curDesc) {
+        return differentIndexDefinitions(getIndexDefinitions(prev, prevDesc), getIndexDefinitions(cur, curDesc), cur.getTableName());
+    }
+
+    private static List<IndexDesc.Definition> differentIndexDefinitions(List<IndexDesc.Definition> definitions, List<IndexDesc.Definition> others, String tableName) {
+
+        final Set<String> otherSqls = new HashSet<>();
+        for (IndexDesc.Definition other : others) {
+            otherSqls.add(getCreateIndexSql(other, tableName));
+        }
+
+        final List<IndexDesc.Definition> different = new ArrayList<>();
+        for (IndexDesc.Definition definition : definitions) {
+            if (!otherSqls.contains(getCreateIndexSql(definition, tableName))) {
+                different.add(definition);
+            }
+        }
+        return different;
+    }
+
     /**
      * Get a list of the entities that were added from going from one schema to the other
      *
@@ -237,10 +301,26 @@ final class Utils {
      * @return The list of added properties
      */
     public static List<Property> getAddedProperties(Entity prev, Entity cur) {
+        return getAddedProperties(prev, cur, null);
+    }
+
+    /**
+     * Get a list of the properties that were added when going from one entity to the other
+     *
+     * @param prev               The entity from which we are migrating
+     * @param cur                The entity to which we are migrating
+     * @param propertyRenameDesc The {@link PropertyRenameDesc} to denote if the name of any property has changed, or {@code null}
+     * @return The list of added properties, which does not include the renamed ones
+     */
+    public static List<Property> getAddedProperties(Entity prev, Entity cur, PropertyRenameDesc propertyRenameDesc) {
 
         final AbstractList<String> prevPropertyNameList = propertyNameList(prev);
         final AbstractList<String> curPropertyNameList = propertyNameList(cur);
 
+        if (propertyRenameDesc != null) {
+            mapOldPropertyNamesToNew(prevPropertyNameList, cur, propertyRenameDesc);
+        }
+
         //Remove all properties from the current list that are present in the older list
         curPropertyNameList.removeAll(prevPropertyNameList);
         if (curPropertyNameList.size() > 0) {
@@ -268,10 +348,26 @@ final class Utils {
      * @return The list of removed properties
      */
     public static List<Property> getRemovedProperties(Entity prev, Entity cur) {
+        return getRemovedProperties(prev, cur, null);
+    }
+
+    /**
+     * Get a list of the properties that were removed when going from one entity to the other
+     *
+     * @param prev               The entity from which we are migrating
+     * @param cur                The entity to which we are migrating
+     * @param propertyRenameDesc The {@link PropertyRenameDesc} to denote if the name of any property has changed, or {@code null}
+     * @return The list of removed properties, which does not include the renamed ones
+     */
+    public static List<Property> getRemovedProperties(Entity prev, Entity cur, PropertyRenameDesc propertyRenameDesc) {
 
         final AbstractList<String> prevPropertyNameList = propertyNameList(prev);
         final AbstractList<String> curPropertyNameList = propertyNameList(cur);
 
+        if (propertyRenameDesc != null) {
+            mapNewPropertyNamesToOld(curPropertyNameList, cur, propertyRenameDesc);
+        }
+
         //Remove all properties from the current list that are present in the older list
         prevPropertyNameList.removeAll(curPropertyNameList);
         if (prevPropertyNameList.size() > 0) {
@@ -480,6 +576,199 @@ final class Utils {
         }
     }
 
+    /**
+     * Delete a file, or a directory and everything in it
+     *
+     * @param path The file or directory to delete
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Get the path of the source file of a class
+     *
+     * @param directory   The source directory
+     * @param packageName The package of the class
+     * @param className   The simple name of the class
+     * @return The source file
+     */
+    public static File javaFilePath(File directory, String packageName, String className) {
+        return new File(new File(directory, packageName.replace('.', File.separatorChar)), className + ".java");
+    }
+
+    /**
+     * Read the SQL statements of a file, which are separated by {@code ;}. Lines starting with {@code --} are skipped
+     *
+     * @param file A UTF-8 encoded file of SQL statements
+     * @return The trimmed statements, in the order of the file
+     */
+    public static List<String> readSqlStatements(File file) throws IOException {
+
+        final StringBuilder sql = new StringBuilder();
+        for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+            if (!line.trim().startsWith("--")) {
+                sql.append(line).append('\n');
+            }
+        }
+
+        final List<String> statements = new ArrayList<>();
+        for (String statement : sql.toString().split(";")) {
+            if (!statement.trim().isEmpty()) {
+                statements.add(statement.trim());
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Write a generated file, unless a file with the same contents already exists. This keeps the modification time
+     * of unchanged files, so that they are not compiled again.
+     *
+     * @param javaFile  The file to write
+     * @param directory The source directory to write it into
+     * @return {@code true} if the file was written, {@code false} if it was unchanged
+     */
+    public static boolean writeIfChanged(JavaFile javaFile, File directory) throws IOException {
+
+        final File file = javaFilePath(directory, javaFile.packageName, javaFile.typeSpec.name);
+        final byte[] contents = javaFile.toString().getBytes(UTF_8);
+        if (file.isFile() && Arrays.equals(contents, Files.readAllBytes(file.toPath()))) {
+            return false;
+        }
+
+        ensureDirectory(file.getParent());
+        Files.write(file.toPath(), contents);
+        return true;
+    }
+
+    /**
+     * Get the files that {@link de.greenrobot.daogenerator.DaoGenerator} generates for an initialized schema
+     *
+     * @param schema    The schema
+     * @param directory The directory the schema is generated into
+     * @return The generated files
+     */
+    public static Set<File> generatedDaoFiles(Schema schema, File directory) {
+
+        final Set<File> files = new HashSet<>();
+        files.add(javaFilePath(directory, schema.getDefaultJavaPackageDao(), "DaoMaster"));
+        files.add(javaFilePath(directory, schema.getDefaultJavaPackageDao(), "DaoSession"));
+        for (Entity entity : schema.getEntities()) {
+            files.add(javaFilePath(directory, entity.getJavaPackageDao(), entity.getClassNameDao()));
+            if (!entity.isSkipGeneration()) {
+                files.add(javaFilePath(directory, entity.getJavaPackage(), entity.getClassName()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Initializes a schema the way {@link de.greenrobot.daogenerator.DaoGenerator} does before generating it, which
+     * resolves table, column and index names. This must only be called once per schema, and an initialized schema must
+     * be generated with {@link #generateInitialized(DaoGenerator, Schema, String)} instead of the
+     * {@link DaoGenerator}.
+     *
+     * @param schema The schema to initialize
+     */
+    public static void initialize(Schema schema) {
+
+        try {
+            final Method init2ndPass = Schema.class.getDeclaredMethod("init2ndPass");
+            final Method init3rdPass = Schema.class.getDeclaredMethod("init3rdPass");
+            init2ndPass.setAccessible(true);
+            init3rdPass.setAccessible(true);
+            init2ndPass.invoke(schema);
+            init3rdPass.invoke(schema);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not initialize schema " + schema.getVersion(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not initialize schema " + schema.getVersion(), e);
+        }
+    }
+
+    /**
+     * Generates the DAO objects of a schema that has already been {@link #initialize(Schema) initialized}, as
+     * {@link DaoGenerator#generateAll(Schema, String)} does, but without initializing the schema again, which would
+     * add its primary keys and relations a second time
+     *
+     * @param generator       The generator whose templates are used
+     * @param schema          The initialized schema to generate
+     * @param outputDirectory The existing directory to generate the DAO objects into
+     */
+    public static void generateInitialized(DaoGenerator generator, Schema schema, String outputDirectory) throws Exception {
+
+        final File directory = new File(outputDirectory);
+        try {
+            Method generate = null;
+            Method generateWithData = null;
+            for (Method method : DaoGenerator.class.getDeclaredMethods()) {
+                if (method.getName().equals("generate")) {
+                    if (method.getParameterTypes().length == 6) {
+                        generate = method;
+                    } else if (method.getParameterTypes().length == 7) {
+                        generateWithData = method;
+                    }
+                }
+            }
+            if (generate == null || generateWithData == null) {
+                throw new IllegalStateException("Unsupported version of greenDAO, could not find DaoGenerator.generate()");
+            }
+            generate.setAccessible(true);
+            generateWithData.setAccessible(true);
+
+            for (Entity entity : schema.getEntities()) {
+                generate.invoke(generator, template(generator, "templateDao"), directory, entity.getJavaPackageDao(), entity.getClassNameDao(), schema, entity);
+                if (!entity.isProtobuf() && !entity.isSkipGeneration()) {
+                    generate.invoke(generator, template(generator, "templateEntity"), directory, entity.getJavaPackage(), entity.getClassName(), schema, entity);
+                }
+                for (ContentProvider contentProvider : entity.getContentProviders()) {
+                    final Map<String, Object> additionalObjectsForTemplate = new HashMap<>();
+                    additionalObjectsForTemplate.put("contentProvider", contentProvider);
+                    generateWithData.invoke(generator, template(generator, "templateContentProvider"), directory, entity.getJavaPackage(), entity.getClassName() + "ContentProvider", schema, entity, additionalObjectsForTemplate);
+                }
+            }
+            generate.invoke(generator, template(generator, "templateDaoMaster"), directory, schema.getDefaultJavaPackageDao(), "DaoMaster", schema, null);
+            generate.invoke(generator, template(generator, "templateDaoSession"), directory, schema.getDefaultJavaPackageDao(), "DaoSession", schema, null);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new IllegalStateException("Could not generate schema " + schema.getVersion(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not generate schema " + schema.getVersion(), e);
+        }
+    }
+
+    private static Object template(DaoGenerator generator, String name) throws ReflectiveOperationException {
+
+        final Field field = DaoGenerator.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(generator);
+    }
+
     /**
      * Creates a formatted SQL string for a Property
      *
@@ -487,13 +776,93 @@ final class Utils {
      * @return The formatted SQL string
      */
     public static String getPropertySqlDef(Property property) {
+        return getPropertySqlDef(property, property.getColumnName());
+    }
+
+    /**
+     * Creates a formatted SQL string for a Property, with another column name
+     *
+     * @param property   The property for which to generate an SQL definition
+     * @param columnName The name of the column
+     * @return The formatted SQL string
+     */
+    public static String getPropertySqlDef(Property property, String columnName) {
         if (property.getConstraints() != null) {
-            return String.format(Locale.US, "\"%s\" %s %s", property.getColumnName(), property.getColumnType(), property.getConstraints());
+            return String.format(Locale.US, "\"%s\" %s %s", columnName, property.getColumnType(), property.getConstraints());
         } else {
-            return String.format(Locale.US, "\"%s\" %s", property.getColumnName(), property.getColumnType());
+            return String.format(Locale.US, "\"%s\" %s", columnName, property.getColumnType());
         }
     }
 
+    /**
+     * Creates the SQL statement that creates the table of an entity with all its columns
+     *
+     * @param entity    The entity for which to create the table
+     * @param tableName The name to create the table with, which may differ from the table name of the entity
+     * @return The formatted SQL string
+     */
+    public static String getCreateTableSql(Entity entity, String tableName) {
+        return getCreateTableSql(entity.getProperties(), tableName);
+    }
+
+    /**
+     * Creates the SQL statement that creates a table with the columns of a list of properties
+     *
+     * @param properties The properties to create the columns of, in order
+     * @param tableName  The name to create the table with
+     * @return The formatted SQL string
+     */
+    public static String getCreateTableSql(List<Property> properties, String tableName) {
+
+        final StringBuilder columns = new StringBuilder();
+        for (Property property : properties) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(getPropertySqlDef(property));
+        }
+        return String.format(Locale.US, "CREATE TABLE IF NOT EXISTS \"%s\" (%s)", tableName, columns);
+    }
+
+    /**
+     * Creates the SQL statement that creates an index the way the DAO objects generated by greenDAO do
+     *
+     * @param index     The index to create
+     * @param tableName The name of the table the index is created on
+     * @return The formatted SQL string
+     */
+    public static String getCreateIndexSql(Index index, String tableName) {
+
+        final StringBuilder columns = new StringBuilder();
+        for (Property property : index.getProperties()) {
+            if (columns.length() > 0) {
+                columns.append(",");
+            }
+            columns.append('"').append(property.getColumnName()).append('"');
+        }
+        return String.format(Locale.US, "CREATE %sINDEX IF NOT EXISTS %s ON \"%s\" (%s)", index.isUnique() ? "UNIQUE " : "", index.getName(), tableName, columns);
+    }
+
+    /**
+     * Creates the SQL statement that creates an index of an {@link IndexDesc}
+     *
+     * @param definition The index to create
+     * @param tableName  The name of the table the index is created on
+     * @return The formatted SQL string
+     */
+    public static String getCreateIndexSql(IndexDesc.Definition definition, String tableName) {
+
+        final StringBuilder terms = new StringBuilder();
+        for (String term : definition.getTerms()) {
+            if (terms.length() > 0) {
+                terms.append(", ");
+            }
+            terms.append(term);
+        }
+        return String.format(Locale.US, "CREATE %sINDEX IF NOT EXISTS %s ON \"%s\" (%s)%s", definition.isUnique() ? "UNIQUE " : "", definition.getName(), tableName, terms,
+                definition.getWhere() == null ? "" : " WHERE " + definition.getWhere());
+    }
+
     /**
      * Gets a list of properties from the entity, excluding the primary key property
      *
@@ -529,10 +898,26 @@ final class Utils {
     }
 
     public static Map<Property, Property> getCommonPropertiesAsMap(Entity prev, Entity cur) {
+        return getCommonPropertiesAsMap(prev, cur, null);
+    }
+
+    /**
+     * Get a Map of the common properties between two entities
+     *
+     * @param prev               The entity from which we are migrating
+     * @param cur                The entity to which we are migrating
+     * @param propertyRenameDesc The {@link PropertyRenameDesc} to denote if the name of any property has changed, or {@code null}
+     * @return The map of common properties, including the renamed ones
+     */
+    public static Map<Property, Property> getCommonPropertiesAsMap(Entity prev, Entity cur, PropertyRenameDesc propertyRenameDesc) {
 
         final AbstractList<String> prevPropertyNameList = propertyNameList(prev);
         final AbstractList<String> curPropertyNameList = propertyNameList(cur);
 
+        if (propertyRenameDesc != null) {
+            mapOldPropertyNamesToNew(prevPropertyNameList, cur, propertyRenameDesc);
+        }
+
         //Retain all properties from the current list that are present in the older list
         curPropertyNameList.retainAll(prevPropertyNameList);
         if (curPropertyNameList.size() > 0) {
@@ -542,7 +927,10 @@ final class Utils {
 
             final Map<Property, Property> commonPropertyMap = new HashMap<>((int) (curPropertyNameList.size() * 1.33F));
             for (String propertyName : curPropertyNameList) {
-                commonPropertyMap.put(prevPropertyMap.get(propertyName), curPropertyMap.get(propertyName));
+                commonPropertyMap.put(
+                        prevPropertyMap.get(propertyRenameDesc != null && propertyRenameDesc.isChanged(cur.getClassName(), propertyName) ? propertyRenameDesc.getOriginalName(cur.getClassName(), propertyName) : propertyName),
+                        curPropertyMap.get(propertyName)
+                );
             }
             return commonPropertyMap;
 
@@ -551,6 +939,68 @@ final class Utils {
         }
     }
 
+    /**
+     * Get a map of the properties whose column is renamed when going from one entity to the other
+     *
+     * @param prev               The entity from which we are migrating
+     * @param cur                The entity to which we are migrating
+     * @param propertyRenameDesc The {@link PropertyRenameDesc} to denote if the name of any property has changed, or {@code null}
+     * @return The renamed properties, in the order of the properties of {@code prev}
+     */
+    public static Map<Property, Property> getRenamedColumns(Entity prev, Entity cur, PropertyRenameDesc propertyRenameDesc) {
+
+        if (propertyRenameDesc == null || propertyRenameDesc.getRenames(cur.getClassName()).isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<Property, Property> commonProperties = getCommonPropertiesAsMap(prev, cur, propertyRenameDesc);
+        final Map<Property, Property> renamedColumns = new LinkedHashMap<>();
+        for (Property property : prev.getProperties()) {
+            final Property renamed = commonProperties.get(property);
+            //A property that keeps its column name, for example through Property.columnName(), only changes in the Java code
+            if (renamed != null && !renamed.getColumnName().equalsIgnoreCase(property.getColumnName())) {
+                renamedColumns.put(property, renamed);
+            }
+        }
+        return renamedColumns;
+    }
+
+    /**
+     * Maps the old property names to the new names in a given list
+     *
+     * @param namesList          The list of property names of the entity in the older schema
+     * @param cur                The entity in the newer schema
+     * @param propertyRenameDesc The property rename descriptor
+     */
+    public static void mapOldPropertyNamesToNew(AbstractList<String> namesList, Entity cur, PropertyRenameDesc propertyRenameDesc) {
+
+        String changedName;
+        for (int i = 0; i < namesList.size(); i++) {
+            changedName = propertyRenameDesc.getChangedName(cur.getClassName(), namesList.get(i));
+            if (changedName != null) {
+                namesList.set(i, changedName);
+            }
+        }
+    }
+
+    /**
+     * Maps the new property names to the old names in a given list
+     *
+     * @param namesList          The list of property names of the entity in the newer schema
+     * @param cur                The entity in the newer schema
+     * @param propertyRenameDesc The property rename descriptor
+     */
+    public static void mapNewPropertyNamesToOld(AbstractList<String> namesList, Entity cur, PropertyRenameDesc propertyRenameDesc) {
+
+        String originalName;
+        for (int i = 0; i < namesList.size(); i++) {
+            originalName = propertyRenameDesc.getOriginalName(cur.getClassName(), namesList.get(i));
+            if (originalName != null) {
+                namesList.set(i, originalName);
+            }
+        }
+    }
+
     /**
      * Fetches the right {@link EntityRenameDesc} for mapping entites when moving between schemas
      *
@@ -596,4 +1046,81 @@ final class Utils {
         }
         return succeeding;
     }
+
+    /**
+     * Finds the preceding entity for a given Entity from a map of common entities
+     *
+     * @param entity         The entity for which to find the preceding entity
+     * @param commonEntities The map of common entities, as returned by {@link #getCommonEntitiesAsMap(Schema, Schema, EntityRenameDesc)}
+     * @return The preceding entity, or {@code null} if none exist
+     */
+    public static Entity preceding(Entity entity, Map<Entity, Entity> commonEntities) {
+
+        for (Map.Entry<Entity, Entity> entityEntry : commonEntities.entrySet()) {
+            if (entityEntry.getValue() == entity) {
+                return entityEntry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the right {@link PropertyRenameDesc} for mapping properties when migrating to a schema
+     *
+     * @param to                  The Schema to which the DB is migrating
+     * @param propertyRenameDescs The list of property rename descriptors
+     * @return The right property rename descriptor, or {@code null} if no property has been renamed
+     */
+    public static PropertyRenameDesc resolvePropertyRenameDescription(Schema to, List<PropertyRenameDesc> propertyRenameDescs) {
+
+        final int toVersion = to.getVersion();
+
+        for (PropertyRenameDesc propertyRenameDesc : propertyRenameDescs) {
+            if (toVersion == propertyRenameDesc.getVersion()) {
+                return propertyRenameDesc;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetches the right {@link BackfillDesc} for the properties added when migrating to a schema
+     *
+     * @param to            The Schema to which the DB is migrating
+     * @param backfillDescs The list of backfill descriptors
+     * @return The right backfill descriptor, or {@code null} if no property is backfilled
+     */
+    public static BackfillDesc resolveBackfillDescription(Schema to, List<BackfillDesc> backfillDescs) {
+
+        final int toVersion = to.getVersion();
+
+        for (BackfillDesc backfillDesc : backfillDescs) {
+            if (toVersion == backfillDesc.getVersion()) {
+                return backfillDesc;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetches the {@link IndexDesc} of the indexes of a schema
+     *
+     * @param schema     The Schema that has the indexes
+     * @param indexDescs The list of index descriptors
+     * @return The right index descriptor, or {@code null} if the schema has no such indexes
+     */
+    public static IndexDesc resolveIndexDescription(Schema schema, List<IndexDesc> indexDescs) {
+
+        final int version = schema.getVersion();
+
+        for (IndexDesc indexDesc : indexDescs) {
+            if (version == indexDesc.getVersion()) {
+                return indexDesc;
+            }
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,70 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Schema;
+
+import java.util.Locale;
+
+/**
+ * A problem found by a {@link VerificationRule}
+ */
+public final class VerificationFinding {
+
+    public enum Severity {
+
+        /**
+         * The migration cannot be generated, or would fail or corrupt data on a device
+         */
+        ERROR,
+
+        /**
+         * The migration can be generated, but leaves something behind that should be reviewed
+         */
+        WARNING
+    }
+
+    private final Severity mSeverity;
+
+    private final String mRuleName;
+
+    private final int mFromVersion;
+
+    private final int mToVersion;
+
+    private final String mMessage;
+
+    public VerificationFinding(Severity severity, String ruleName, Schema from, Schema to, String message) {
+        mSeverity = severity;
+        mRuleName = ruleName;
+        mFromVersion = from == null ? 0 : from.getVersion();
+        mToVersion = to.getVersion();
+        mMessage = message;
+    }
+
+    public Severity getSeverity() {
+        return mSeverity;
+    }
+
+    public String getRuleName() {
+        return mRuleName;
+    }
+
+    /**
+     * @return The version of the schema being migrated from, or {@code 0} for a finding on the first schema
+     */
+    public int getFromVersion() {
+        return mFromVersion;
+    }
+
+    public int getToVersion() {
+        return mToVersion;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s [%s] %s", mSeverity, mRuleName, mMessage);
+    }
+}
@@ -0,0 +1,27 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Schema;
+
+import java.util.List;
+
+/**
+ * A check that {@link EntityVerifier} runs against every pair of successive schemas. Rules are evaluated concurrently,
+ * so implementations must not modify the schemas and must be safe to call from multiple threads.
+ */
+public interface VerificationRule {
+
+    /**
+     * @return A short name that identifies the rule in findings
+     */
+    String getName();
+
+    /**
+     * Verify the change from one schema to the next
+     *
+     * @param from             The schema being migrated from, or {@code null} when verifying the first schema
+     * @param to               The schema being migrated to
+     * @param entityRenameDesc The {@link EntityRenameDesc} to denote if the name of any entity has changed when going from {@code from} to {@code to}. May be {@code null}
+     * @return The problems found, or an empty list if there are none
+     */
+    List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc);
+}
@@ -0,0 +1,513 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Index;
+import de.greenrobot.daogenerator.Property;
+import de.greenrobot.daogenerator.Schema;
+
+import java.util.*;
+
+import static com.vinaysshenoy.poirot.VerificationFinding.Severity.ERROR;
+import static com.vinaysshenoy.poirot.VerificationFinding.Severity.WARNING;
+
+/**
+ * The {@link VerificationRule}s that {@link EntityVerifier} runs by default
+ */
+public final class VerificationRules {
+
+    private VerificationRules() {
+
+    }
+
+    /**
+     * Create the default rules
+     *
+     * @param backfillDescs The list of backfill descriptors to verify
+     * @return The list of rules
+     */
+    public static List<VerificationRule> defaults(List<BackfillDesc> backfillDescs) {
+        return defaults(backfillDescs, Collections.<PropertyRenameDesc>emptyList());
+    }
+
+    /**
+     * Create the default rules
+     *
+     * @param backfillDescs       The list of backfill descriptors to verify
+     * @param propertyRenameDescs The list of property rename descriptors to verify, and to match the renamed properties with
+     * @return The list of rules
+     */
+    public static List<VerificationRule> defaults(List<BackfillDesc> backfillDescs, List<PropertyRenameDesc> propertyRenameDescs) {
+        return Arrays.asList(
+                new ConstraintsChangedRule(propertyRenameDescs),
+                new ColumnTypeChangedRule(propertyRenameDescs),
+                new RemovedColumnsRule(propertyRenameDescs),
+                new MissingPrimaryKeyRule(),
+                new IndexNameCollisionRule(),
+                new RenameCycleRule(),
+                new PropertyRenameRule(propertyRenameDescs),
+                new BackfillOnAddedPropertyRule(backfillDescs),
+                new UniqueAddedPropertyRule(backfillDescs, propertyRenameDescs)
+        );
+    }
+
+    /**
+     * Since SQLite does not support changing column constraints, this rule verifies that a property's constraints are
+     * not changing in succeeding schemas
+     */
+    public static class ConstraintsChangedRule extends EntityVerificationRule {
+
+        private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+        public ConstraintsChangedRule() {
+            this(Collections.<PropertyRenameDesc>emptyList());
+        }
+
+        public ConstraintsChangedRule(List<PropertyRenameDesc> propertyRenameDescs) {
+            mPropertyRenameDescList = propertyRenameDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "constraints-changed";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, Entity prev, Entity cur) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            final Map<Property, Property> renamedColumns = Utils.getRenamedColumns(prev, cur, Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList));
+            for (Map.Entry<Property, Property> propertyEntry : Utils.getCommonPropertiesAsMap(prev, cur, Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList)).entrySet()) {
+                //Type changes are reported by ColumnTypeChangedRule, and renamed columns only change their name
+                final String columnName = renamedColumns.containsKey(propertyEntry.getKey()) ? propertyEntry.getValue().getColumnName() : propertyEntry.getKey().getColumnName();
+                if (propertyEntry.getKey().getColumnType().equals(propertyEntry.getValue().getColumnType())
+                        && !Utils.getPropertySqlDef(propertyEntry.getKey(), columnName).equals(Utils.getPropertySqlDef(propertyEntry.getValue()))) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US,
+                                    "Property '%s' on Entity '%s' constraints changed when going from schema %d to schema %d",
+                                    propertyEntry.getKey().getPropertyName(), cur.getClassName(), from.getVersion(), to.getVersion()
+                            )
+                    ));
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * Since SQLite does not support changing the type of a column, this rule verifies that a property's type is not
+     * changing in succeeding schemas
+     */
+    public static class ColumnTypeChangedRule extends EntityVerificationRule {
+
+        private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+        public ColumnTypeChangedRule() {
+            this(Collections.<PropertyRenameDesc>emptyList());
+        }
+
+        public ColumnTypeChangedRule(List<PropertyRenameDesc> propertyRenameDescs) {
+            mPropertyRenameDescList = propertyRenameDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "column-type-changed";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, Entity prev, Entity cur) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            for (Map.Entry<Property, Property> propertyEntry : Utils.getCommonPropertiesAsMap(prev, cur, Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList)).entrySet()) {
+                if (!propertyEntry.getKey().getColumnType().equals(propertyEntry.getValue().getColumnType())) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US,
+                                    "Property '%s' on Entity '%s' type changed from %s to %s when going from schema %d to schema %d",
+                                    propertyEntry.getKey().getPropertyName(), cur.getClassName(),
+                                    propertyEntry.getKey().getColumnType(), propertyEntry.getValue().getColumnType(),
+                                    from.getVersion(), to.getVersion()
+                            )
+                    ));
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * Since SQLite does not support dropping columns, a removed property leaves its column behind in the table. This
+     * rule reports every such column, since a {@code NOT NULL} column that is left behind makes inserts fail.
+     */
+    public static class RemovedColumnsRule extends EntityVerificationRule {
+
+        private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+        public RemovedColumnsRule() {
+            this(Collections.<PropertyRenameDesc>emptyList());
+        }
+
+        public RemovedColumnsRule(List<PropertyRenameDesc> propertyRenameDescs) {
+            mPropertyRenameDescList = propertyRenameDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "removed-column";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, Entity prev, Entity cur) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            for (Property property : Utils.getRemovedProperties(prev, cur, Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList))) {
+                findings.add(new VerificationFinding(WARNING, getName(), from, to,
+                        String.format(Locale.US,
+                                "Property '%s' on Entity '%s' is removed when going from schema %d to schema %d, but column %s is left in the table%s",
+                                property.getPropertyName(), cur.getClassName(), from.getVersion(), to.getVersion(), property.getColumnName(),
+                                property.isNotNull() ? ". Since it is NOT NULL, inserts into migrated databases will fail" : ""
+                        )
+                ));
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * The migration creates the table of an added entity from its primary key, so this rule verifies that every added
+     * entity has one
+     */
+    public static class MissingPrimaryKeyRule implements VerificationRule {
+
+        @Override
+        public String getName() {
+            return "missing-primary-key";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            if (from == null) {
+                //Tables for the first schema are created by greenDAO
+                return findings;
+            }
+
+            for (Entity entity : Utils.getAdded(from, to, entityRenameDesc)) {
+                if (entity.getPkProperty() == null) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US,
+                                    "Entity '%s' is added when going from schema %d to schema %d but does not have a single primary key property",
+                                    entity.getClassName(), from.getVersion(), to.getVersion()
+                            )
+                    ));
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * Tables and indexes share a namespace in SQLite, so this rule verifies that every index name in a schema is unique
+     * and does not collide with a table name
+     */
+    public static class IndexNameCollisionRule implements VerificationRule {
+
+        @Override
+        public String getName() {
+            return "index-name-collision";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            final Set<String> tableNames = new HashSet<>();
+            for (Entity entity : to.getEntities()) {
+                tableNames.add(entity.getTableName().toUpperCase(Locale.US));
+            }
+
+            final Map<String, Entity> indexOwners = new HashMap<>();
+            for (Entity entity : to.getEntities()) {
+                for (Index index : entity.getIndexes()) {
+
+                    final String indexName = index.getName().toUpperCase(Locale.US);
+                    final Entity owner = indexOwners.put(indexName, entity);
+                    if (owner != null) {
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US,
+                                        "Index '%s' is defined on both Entity '%s' and Entity '%s' in schema %d",
+                                        index.getName(), owner.getClassName(), entity.getClassName(), to.getVersion()
+                                )
+                        ));
+                    }
+                    if (tableNames.contains(indexName)) {
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US,
+                                        "Index '%s' on Entity '%s' has the same name as a table in schema %d",
+                                        index.getName(), entity.getClassName(), to.getVersion()
+                                )
+                        ));
+                    }
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * Verifies that an {@link EntityRenameDesc} only renames entities that exist, does not rename an entity onto
+     * another one that is kept, and does not contain cycles, all of which would make {@code ALTER TABLE ... RENAME TO}
+     * fail
+     */
+    public static class RenameCycleRule implements VerificationRule {
+
+        @Override
+        public String getName() {
+            return "rename-cycle";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            if (from == null || entityRenameDesc == null) {
+                return findings;
+            }
+
+            final Map<String, Entity> fromEntities = Utils.entityMapFromSchema(from);
+            final Map<String, Entity> toEntities = Utils.entityMapFromSchema(to);
+            final Map<String, String> nameMap = new TreeMap<>(entityRenameDesc.mNameMap);
+            final Set<String> reportedCycles = new HashSet<>();
+
+            for (Map.Entry<String, String> rename : nameMap.entrySet()) {
+
+                if (!fromEntities.containsKey(rename.getKey())) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US, "Entity '%s' is renamed to '%s' but does not exist in schema %d", rename.getKey(), rename.getValue(), from.getVersion())
+                    ));
+                }
+                if (!toEntities.containsKey(rename.getValue())) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US, "Entity '%s' is renamed to '%s' which does not exist in schema %d", rename.getKey(), rename.getValue(), to.getVersion())
+                    ));
+                }
+                if (fromEntities.containsKey(rename.getValue()) && !nameMap.containsKey(rename.getValue())) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US, "Entity '%s' is renamed to '%s', which is an entity that is kept from schema %d", rename.getKey(), rename.getValue(), from.getVersion())
+                    ));
+                }
+
+                //Follow the chain of renames and check whether it leads back to where it started
+                final List<String> chain = new ArrayList<>();
+                String name = rename.getKey();
+                while (name != null && !chain.contains(name)) {
+                    chain.add(name);
+                    name = nameMap.get(name);
+                }
+                if (rename.getKey().equals(name)) {
+                    final List<String> sortedCycle = new ArrayList<>(chain);
+                    Collections.sort(sortedCycle);
+                    if (reportedCycles.add(sortedCycle.toString())) {
+                        chain.add(name);
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US, "Entities are renamed in a cycle (%s) when going from schema %d to schema %d", join(chain, " -> "), from.getVersion(), to.getVersion())
+                        ));
+                    }
+                }
+            }
+            return findings;
+        }
+
+        private static String join(List<String> names, String separator) {
+            final StringBuilder joined = new StringBuilder();
+            for (String name : names) {
+                if (joined.length() > 0) {
+                    joined.append(separator);
+                }
+                joined.append(name);
+            }
+            return joined.toString();
+        }
+    }
+
+    /**
+     * Verifies that a {@link PropertyRenameDesc} only renames properties that exist, of entities that are kept, and
+     * does not rename a property onto another one that is kept, all of which would make
+     * {@code ALTER TABLE ... RENAME COLUMN} fail
+     */
+    public static class PropertyRenameRule implements VerificationRule {
+
+        private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+        public PropertyRenameRule(List<PropertyRenameDesc> propertyRenameDescs) {
+            mPropertyRenameDescList = propertyRenameDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "property-rename";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            final PropertyRenameDesc propertyRenameDesc = Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList);
+            if (propertyRenameDesc == null) {
+                return findings;
+            }
+
+            if (from == null) {
+                findings.add(new VerificationFinding(ERROR, getName(), null, to,
+                        String.format(Locale.US, "Cannot rename properties in schema %d since it is the first schema", to.getVersion())
+                ));
+                return findings;
+            }
+
+            final Map<String, Entity> entityMap = Utils.entityMapFromSchema(to);
+            final Map<Entity, Entity> commonEntities = Utils.getCommonEntitiesAsMap(from, to, entityRenameDesc);
+            for (Map.Entry<String, Map<String, String>> entityRenames : propertyRenameDesc.getNameMaps().entrySet()) {
+
+                final Entity cur = entityMap.get(entityRenames.getKey());
+                if (cur == null || !commonEntities.containsValue(cur)) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US, "Properties of Entity '%s' are renamed but it is not kept from schema %d in schema %d", entityRenames.getKey(), from.getVersion(), to.getVersion())
+                    ));
+                    continue;
+                }
+
+                final Map<String, Property> prevProperties = Utils.propertyMapFromEntity(Utils.preceding(cur, commonEntities));
+                final Map<String, Property> curProperties = Utils.propertyMapFromEntity(cur);
+                for (Map.Entry<String, String> rename : entityRenames.getValue().entrySet()) {
+
+                    if (!prevProperties.containsKey(rename.getKey())) {
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US, "Property '%s' on Entity '%s' is renamed to '%s' but does not exist in schema %d", rename.getKey(), cur.getClassName(), rename.getValue(), from.getVersion())
+                        ));
+                    }
+                    if (!curProperties.containsKey(rename.getValue())) {
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US, "Property '%s' on Entity '%s' is renamed to '%s' which does not exist in schema %d", rename.getKey(), cur.getClassName(), rename.getValue(), to.getVersion())
+                        ));
+                    }
+                    //The columns are renamed one at a time, so the new name cannot be taken by another column at that point
+                    if (prevProperties.containsKey(rename.getValue())) {
+                        findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                                String.format(Locale.US, "Property '%s' on Entity '%s' is renamed to '%s', which is a property %s from schema %d",
+                                        rename.getKey(), cur.getClassName(), rename.getValue(),
+                                        entityRenames.getValue().containsKey(rename.getValue()) ? "that is renamed as well" : "that is kept", from.getVersion())
+                        ));
+                    }
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * Backfills are only generated as part of the migration which adds a column, so this rule verifies that every
+     * declared backfill refers to a property that is added by the schema it is attached to
+     */
+    public static class BackfillOnAddedPropertyRule implements VerificationRule {
+
+        private final List<BackfillDesc> mBackfillDescList;
+
+        public BackfillOnAddedPropertyRule(List<BackfillDesc> backfillDescs) {
+            mBackfillDescList = backfillDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "backfill-on-added-property";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            final BackfillDesc backfillDesc = Utils.resolveBackfillDescription(to, mBackfillDescList);
+            if (backfillDesc == null) {
+                return findings;
+            }
+
+            if (from == null) {
+                findings.add(new VerificationFinding(ERROR, getName(), null, to,
+                        String.format(Locale.US, "Cannot backfill properties in schema %d since it is the first schema", to.getVersion())
+                ));
+                return findings;
+            }
+
+            final Map<String, Entity> entityMap = Utils.entityMapFromSchema(to);
+            final Map<Entity, Entity> commonEntities = Utils.getCommonEntitiesAsMap(from, to, entityRenameDesc);
+            for (BackfillDesc.Backfill backfill : backfillDesc.getBackfills()) {
+
+                final Entity entity = entityMap.get(backfill.getEntityName());
+                boolean added = false;
+                if (entity != null && commonEntities.containsValue(entity)) {
+                    for (Property property : Utils.getAddedProperties(Utils.preceding(entity, commonEntities), entity)) {
+                        if (property.getPropertyName().equals(backfill.getPropertyName())) {
+                            added = true;
+                            break;
+                        }
+                    }
+                }
+
+                if (!added) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US,
+                                    "Property '%s' on Entity '%s' is backfilled but is not added to an existing entity when going from schema %d to schema %d",
+                                    backfill.getPropertyName(), backfill.getEntityName(), from.getVersion(), to.getVersion()
+                            )
+                    ));
+                }
+            }
+            return findings;
+        }
+    }
+
+    /**
+     * A {@code NOT NULL UNIQUE} property that is added to an existing entity would get the same value in every existing
+     * row, which fails the migration as soon as the table has two rows. This rule verifies that such a property has a
+     * backfill, which is used to compute its value while the table is rebuilt.
+     */
+    public static class UniqueAddedPropertyRule extends EntityVerificationRule {
+
+        private final List<BackfillDesc> mBackfillDescList;
+
+        private final List<PropertyRenameDesc> mPropertyRenameDescList;
+
+        public UniqueAddedPropertyRule(List<BackfillDesc> backfillDescs) {
+            this(backfillDescs, Collections.<PropertyRenameDesc>emptyList());
+        }
+
+        public UniqueAddedPropertyRule(List<BackfillDesc> backfillDescs, List<PropertyRenameDesc> propertyRenameDescs) {
+            mBackfillDescList = backfillDescs;
+            mPropertyRenameDescList = propertyRenameDescs;
+        }
+
+        @Override
+        public String getName() {
+            return "unique-added-property";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, Entity prev, Entity cur) {
+
+            final List<VerificationFinding> findings = new ArrayList<>();
+            final BackfillDesc backfillDesc = Utils.resolveBackfillDescription(to, mBackfillDescList);
+            for (Property property : Utils.getAddedProperties(prev, cur, Utils.resolvePropertyRenameDescription(to, mPropertyRenameDescList))) {
+                //greenDAO only keeps unique() in the constraints of the column
+                if (property.isNotNull() && property.getConstraints() != null && property.getConstraints().contains("UNIQUE")
+                        && (backfillDesc == null || backfillDesc.getBackfill(cur.getClassName(), property.getPropertyName()) == null)) {
+                    findings.add(new VerificationFinding(ERROR, getName(), from, to,
+                            String.format(Locale.US,
+                                    "Property '%s' on Entity '%s' is added as NOT NULL UNIQUE when going from schema %d to schema %d, but has no backfill to give existing rows distinct values",
+                                    property.getPropertyName(), cur.getClassName(), from.getVersion(), to.getVersion()
+                            )
+                    ));
+                }
+            }
+            return findings;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackfillGeneratorTest {
+
+    private static final String SELECT_PROGRESS_SQL = "SELECT LAST_ROW_ID, MAX_ROW_ID FROM POIROT_BACKFILL WHERE NAME = ? AND DONE = 0";
+
+    private static final String UPDATE_PROGRESS_SQL = "UPDATE POIROT_BACKFILL SET LAST_ROW_ID = ? WHERE NAME = ?";
+
+    private static final String COMPLETE_SQL = "UPDATE POIROT_BACKFILL SET DONE = 1 WHERE NAME = ?";
+
+    @Test
+    public void followsBackfillsThroughLaterRenames() throws Exception {
+
+        final List<Schema> schemas = createSchemas("fullName", "mail");
+        final List<String[]> tasks = new BackfillGenerator(schemas, Collections.<EntityRenameDesc>emptyList(),
+                Collections.singletonList(renames()), Collections.singletonList(backfill("LOWER(name)"))).resolveTasks();
+
+        assertEquals(1, tasks.size());
+        assertEquals("v2.Contact.email", tasks.get(0)[0]);
+        assertEquals("UPDATE \"CONTACT\" SET \"MAIL\" = (LOWER(\"FULL_NAME\")) WHERE rowid > ? AND rowid <= ?", tasks.get(0)[1]);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+
+            for (String sql : SchemaHistoryGenerator.createStatements(schemas.get(2))) {
+                statement.execute(sql);
+            }
+            statement.execute("INSERT INTO CONTACT (_id, FULL_NAME) VALUES (1, 'Ada'), (2, 'Grace')");
+
+            try (PreparedStatement update = connection.prepareStatement(tasks.get(0)[1])) {
+                update.setLong(1, 0);
+                update.setLong(2, 2);
+                assertEquals(2, update.executeUpdate());
+            }
+            try (ResultSet contacts = statement.executeQuery("SELECT MAIL FROM CONTACT ORDER BY _id")) {
+                assertTrue(contacts.next());
+                assertEquals("ada", contacts.getString(1));
+                assertTrue(contacts.next());
+                assertEquals("grace", contacts.getString(1));
+                assertFalse(contacts.next());
+            }
+        }
+    }
+
+    @Test
+    public void leavesLiteralsAndFunctionsAlone() {
+
+        final Map<String, String> renamedColumns = new HashMap<>();
+        renamedColumns.put("NAME", "FULL_NAME");
+        renamedColumns.put("LOWER", "LOWERED");
+
+        assertEquals("LOWER(\"FULL_NAME\") || 'name' || \"FULL_NAME\" || 1name",
+                BackfillGenerator.renameColumns("LOWER(name) || 'name' || \"Name\" || 1name", renamedColumns));
+    }
+
+    @Test
+    public void failsOnExpressionsThatDoNotCompile() {
+
+        final BackfillGenerator generator = new BackfillGenerator(createSchemas("fullName", "mail"), Collections.<EntityRenameDesc>emptyList(),
+                Collections.singletonList(renames()), Collections.singletonList(backfill("LOWER(NICKNAME)")));
+        try {
+            generator.resolveTasks();
+            fail("Expected the backfill to fail to compile");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("v2.Contact.email"));
+        }
+    }
+
+    @Test
+    public void removesRegistrationOfRemovedProperties() {
+
+        final List<Schema> schemas = createSchemas("name", null);
+        final List<BackfillDesc> backfillDescs = Collections.singletonList(backfill("LOWER(NAME)"));
+
+        assertTrue(new BackfillGenerator(schemas, Collections.<EntityRenameDesc>emptyList(), Collections.<PropertyRenameDesc>emptyList(), backfillDescs)
+                .resolveTasks()
+                .isEmpty());
+
+        final Migrations migrations = new Migrations.Builder()
+                .schemas(schemas)
+                .backfills(backfillDescs)
+                .build();
+        assertFalse(containsSql(migrations.createStatements(schemas.get(0), schemas.get(1)), "DELETE FROM POIROT_BACKFILL WHERE NAME = 'v2.Contact.email'"));
+        assertTrue(containsSql(migrations.createStatements(schemas.get(1), schemas.get(2)), "DELETE FROM POIROT_BACKFILL WHERE NAME = 'v2.Contact.email'"));
+    }
+
+    @Test
+    public void generatesTheChunkedTask() {
+
+        final List<Schema> schemas = createSchemas("name", "email");
+        final String source = new BackfillGenerator(schemas, Collections.<EntityRenameDesc>emptyList(), Collections.<PropertyRenameDesc>emptyList(),
+                Collections.singletonList(backfill("LOWER(NAME)"))).createBackfillFile(schemas.get(2)).toString();
+
+        //The statements that runChunks() replays below
+        assertTrue(source.contains(SELECT_PROGRESS_SQL));
+        assertTrue(source.contains(UPDATE_PROGRESS_SQL));
+        assertTrue(source.contains(COMPLETE_SQL));
+        assertTrue(source.contains("{\"v2.Contact.email\", \"UPDATE \\\"CONTACT\\\" SET \\\"EMAIL\\\" = (LOWER(NAME)) WHERE rowid > ? AND rowid <= ?\"}"));
+    }
+
+    @Test
+    public void resumesFromTheLastCommittedChunk() throws Exception {
+
+        final List<Schema> schemas = createSchemas("name", "email");
+        final BackfillDesc backfillDesc = backfill("IFNULL(EMAIL, '') || LOWER(NAME)");
+        final String[] task = new BackfillGenerator(schemas, Collections.<EntityRenameDesc>emptyList(), Collections.<PropertyRenameDesc>emptyList(),
+                Collections.singletonList(backfillDesc)).resolveTasks().get(0);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+
+            for (String sql : SchemaHistoryGenerator.createStatements(schemas.get(1))) {
+                statement.execute(sql);
+            }
+            for (int i = 1; i <= 5; i++) {
+                statement.execute(String.format(Locale.US, "INSERT INTO CONTACT (_id, NAME) VALUES (%d, 'Contact%d')", i, i));
+            }
+            for (String sql : BackfillGenerator.registrationSql(2, Utils.entityMapFromSchema(schemas.get(1)).get("Contact"), backfillDesc.getBackfills().get(0))) {
+                statement.execute(sql);
+            }
+            //Rows inserted after the migration already have their value
+            statement.execute("INSERT INTO CONTACT (_id, NAME, EMAIL) VALUES (6, 'Contact6', 'new')");
+
+            //Interrupted after the first chunk
+            assertEquals(1, runChunks(connection, task, 2, 1));
+            assertEquals(2, progress(statement, "LAST_ROW_ID"));
+
+            assertEquals(2, runChunks(connection, task, 2, Integer.MAX_VALUE));
+            assertEquals(5, progress(statement, "LAST_ROW_ID"));
+            assertEquals(1, progress(statement, "DONE"));
+            assertEquals(0, runChunks(connection, task, 2, Integer.MAX_VALUE));
+
+            //Every row was updated exactly once, since the expression appends to the column
+            try (ResultSet contacts = statement.executeQuery("SELECT _id, EMAIL FROM CONTACT ORDER BY _id")) {
+                for (int i = 1; i <= 5; i++) {
+                    assertTrue(contacts.next());
+                    assertEquals("contact" + i, contacts.getString(2));
+                }
+                assertTrue(contacts.next());
+                assertEquals("new", contacts.getString(2));
+                assertFalse(contacts.next());
+            }
+        }
+    }
+
+    @Test
+    public void unregistersBackfillsOnDowngrade() throws Exception {
+
+        final List<Schema> schemas = createSchemas("name", "email");
+        final BackfillDesc backfillDesc = backfill("LOWER(NAME)");
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+
+            for (String sql : SchemaHistoryGenerator.createStatements(schemas.get(1))) {
+                statement.execute(sql);
+            }
+            for (String sql : BackfillGenerator.registrationSql(2, Utils.entityMapFromSchema(schemas.get(1)).get("Contact"), backfillDesc.getBackfills().get(0))) {
+                statement.execute(sql);
+            }
+            statement.execute("INSERT INTO POIROT_BACKFILL (NAME, LAST_ROW_ID, MAX_ROW_ID) VALUES ('v12.Contact.email', 0, 0)");
+
+            for (String sql : BackfillGenerator.unregistrationSql(2)) {
+                statement.execute(sql);
+            }
+            try (ResultSet names = statement.executeQuery("SELECT NAME FROM POIROT_BACKFILL")) {
+                assertTrue(names.next());
+                assertEquals("v12.Contact.email", names.getString(1));
+                assertFalse(names.next());
+            }
+        }
+    }
+
+    /**
+     * Run the chunks of a task the way the generated {@code PoirotBackfill} does
+     *
+     * @param maxChunks The number of chunks to run before stopping, as if the task was interrupted
+     * @return The number of chunks that were run
+     */
+    private static int runChunks(Connection connection, String[] task, int chunkSize, int maxChunks) throws Exception {
+
+        long lastRowId, maxRowId;
+        try (PreparedStatement select = connection.prepareStatement(SELECT_PROGRESS_SQL)) {
+            select.setString(1, task[0]);
+            try (ResultSet progress = select.executeQuery()) {
+                if (!progress.next()) {
+                    return 0;
+                }
+                lastRowId = progress.getLong(1);
+                maxRowId = progress.getLong(2);
+            }
+        }
+
+        int chunks = 0;
+        while (lastRowId < maxRowId) {
+            if (chunks == maxChunks) {
+                return chunks;
+            }
+            final long upTo = Math.min(lastRowId + chunkSize, maxRowId);
+            connection.setAutoCommit(false);
+            try (PreparedStatement update = connection.prepareStatement(task[1]);
+                 PreparedStatement progress = connection.prepareStatement(UPDATE_PROGRESS_SQL)) {
+                update.setLong(1, lastRowId);
+                update.setLong(2, upTo);
+                update.executeUpdate();
+                progress.setLong(1, upTo);
+                progress.setString(2, task[0]);
+                progress.executeUpdate();
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            lastRowId = upTo;
+            chunks++;
+        }
+        try (PreparedStatement complete = connection.prepareStatement(COMPLETE_SQL)) {
+            complete.setString(1, task[0]);
+            complete.executeUpdate();
+        }
+        return chunks;
+    }
+
+    private static long progress(Statement statement, String column) throws Exception {
+        try (ResultSet progress = statement.executeQuery("SELECT " + column + " FROM POIROT_BACKFILL WHERE NAME = 'v2.Contact.email'")) {
+            return progress.getLong(1);
+        }
+    }
+
+    /**
+     * Create three versions of a contact, the second of which adds {@code email} and the third of which names the
+     * properties as given, or drops {@code email} if its name is {@code null}
+     */
+    private static List<Schema> createSchemas(String nameProperty, String emailProperty) {
+
+        final Schema v1 = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        createContact(v1, "name", null);
+        final Schema v2 = new Schema(2, "com.vinaysshenoy.poirot.test.db");
+        createContact(v2, "name", "email");
+        final Schema v3 = new Schema(3, "com.vinaysshenoy.poirot.test.db");
+        createContact(v3, nameProperty, emailProperty);
+
+        final List<Schema> schemas = Arrays.asList(v1, v2, v3);
+        for (Schema schema : schemas) {
+            Utils.initialize(schema);
+        }
+        return schemas;
+    }
+
+    private static void createContact(Schema schema, String nameProperty, String emailProperty) {
+
+        final Entity contact = schema.addEntity("Contact");
+        contact.addIdProperty().autoincrement();
+        contact.addStringProperty(nameProperty).notNull();
+        if (emailProperty != null) {
+            contact.addStringProperty(emailProperty);
+        }
+    }
+
+    private static PropertyRenameDesc renames() {
+
+        final PropertyRenameDesc propertyRenameDesc = new PropertyRenameDesc.Builder()
+                .map("Contact", "name", "fullName")
+                .map("Contact", "email", "mail")
+                .build();
+        propertyRenameDesc.setVersion(3);
+        return propertyRenameDesc;
+    }
+
+    private static BackfillDesc backfill(String expression) {
+
+        final BackfillDesc backfillDesc = new BackfillDesc.Builder()
+                .backfill("Contact", "email", expression)
+                .build();
+        backfillDesc.setVersion(2);
+        return backfillDesc;
+    }
+
+    private static boolean containsSql(List<MigrationStatement> statements, String sql) {
+
+        for (MigrationStatement statement : statements) {
+            if (statement.getSql().equals(sql)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,152 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BaselineTest {
+
+    private static final String PACKAGE_PATH = "com/vinaysshenoy/poirot/test/db/";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mCurrentDirectory;
+
+    private File mOlderDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mCurrentDirectory = mTemporaryFolder.newFolder("current");
+        mOlderDirectory = mTemporaryFolder.newFolder("older");
+    }
+
+    @Test
+    public void prunesSchemasBeforeTheBaseline() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.baseline(2, BaselineFallback.RECREATE);
+        //Verified against v1, this backfill would fail since the property is not added in v2
+        poirot.backfill(2, new BackfillDesc.Builder()
+                .backfill("User", "name", "'unknown'")
+                .build());
+
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+
+        assertFalse(new File(mOlderDirectory, PACKAGE_PATH + "v1").exists());
+        assertTrue(new File(mOlderDirectory, PACKAGE_PATH + "v2/UserDao.java").exists());
+        assertFalse(new File(mCurrentDirectory, PACKAGE_PATH + "helper/migrations/MigrateV1ToV2.java").exists());
+        assertTrue(new File(mCurrentDirectory, PACKAGE_PATH + "helper/migrations/MigrateV2ToV3.java").exists());
+
+        final String helper = read(new File(mCurrentDirectory, PACKAGE_PATH + "helper/PoirotDbHelper.java"));
+        assertTrue(helper.contains("protected void onVersionBeforeBaseline("));
+        assertTrue(helper.contains("DROP TABLE IF EXISTS"));
+        assertFalse(helper.contains("POIROT_BACKFILL"));
+    }
+
+    @Test
+    public void failsOnDatabasesBeforeTheBaseline() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.baseline(2, BaselineFallback.FAIL);
+
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+
+        final String helper = read(new File(mCurrentDirectory, PACKAGE_PATH + "helper/PoirotDbHelper.java"));
+        assertTrue(helper.contains("throw new IllegalStateException(\"Database version \" + version + \" is older than the baseline version \" + FIRST_VERSION);"));
+        assertFalse(helper.contains("DROP TABLE IF EXISTS"));
+    }
+
+    @Test
+    public void failsToVerifyWithoutABaseline() throws Exception {
+
+        try {
+            createPoirot().generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+            fail("Expected the type change of v2 to fail the verification");
+        } catch (RuntimeException expected) {
+            assertEquals("Failed to verify entities!", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void writesFixturesFromTheBaseline() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.baseline(2, BaselineFallback.RECREATE);
+        poirot.seedFixture(1, new FixtureSeed.Builder()
+                .name("users")
+                .sql("INSERT INTO USER (NAME) VALUES (1)")
+                .build());
+
+        final File directory = mTemporaryFolder.newFolder("fixtures");
+        poirot.generateFixtures(directory.getPath());
+
+        final String[] fixtures = directory.list();
+        Arrays.sort(fixtures);
+        assertEquals(Arrays.asList("v2.db", "v3.db"), Arrays.asList(fixtures));
+    }
+
+    @Test
+    public void rejectsBaselinesAfterTheCurrentVersion() throws Exception {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        poirot.create(1, true).addEntity("User").addIdProperty();
+        poirot.create(2, false).addEntity("User").addIdProperty();
+        poirot.baseline(2, BaselineFallback.FAIL);
+
+        try {
+            poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+            fail("Expected the baseline to be rejected");
+        } catch (IllegalStateException expected) {
+            assertEquals("Baseline version 2 cannot be after the current version 1", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsBaselinesWithoutASchema() {
+
+        final Poirot poirot = createPoirot();
+        try {
+            poirot.baseline(4, BaselineFallback.FAIL);
+            fail("Expected the baseline to be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("No schema has been created for version 4", expected.getMessage());
+        }
+    }
+
+    /**
+     * v2 changes the type of a column, which is only allowed if v1 is pruned
+     */
+    private static Poirot createPoirot() {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Entity user1 = poirot.create(1, false).addEntity("User");
+        user1.addIdProperty();
+        user1.addIntProperty("name");
+        final Entity user2 = poirot.create(2, false).addEntity("User");
+        user2.addIdProperty();
+        user2.addStringProperty("name");
+        final Entity user3 = poirot.create(3, true).addEntity("User");
+        user3.addIdProperty();
+        user3.addStringProperty("name");
+        user3.addStringProperty("email");
+        return poirot;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,179 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntityVerifierTest {
+
+    private EntityVerifier mVerifier;
+
+    @Before
+    public void setUp() {
+
+        //v2 changes the types of Zebra and Apple, removes a column of Apple and adds Log without a primary key
+        final Schema v1 = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        final Entity zebra1 = v1.addEntity("Zebra");
+        zebra1.addIdProperty();
+        zebra1.addIntProperty("stripes");
+        final Entity apple1 = v1.addEntity("Apple");
+        apple1.addIdProperty();
+        apple1.addIntProperty("weight");
+        apple1.addStringProperty("color");
+
+        final Schema v2 = new Schema(2, "com.vinaysshenoy.poirot.test.db");
+        final Entity zebra2 = v2.addEntity("Zebra");
+        zebra2.addIdProperty();
+        zebra2.addStringProperty("stripes");
+        final Entity apple2 = v2.addEntity("Apple");
+        apple2.addIdProperty();
+        apple2.addStringProperty("weight");
+        v2.addEntity("Log").addStringProperty("message");
+
+        //v3 only makes the weight of Apple NOT NULL
+        final Schema v3 = new Schema(3, "com.vinaysshenoy.poirot.test.db");
+        final Entity zebra3 = v3.addEntity("Zebra");
+        zebra3.addIdProperty();
+        zebra3.addStringProperty("stripes");
+        final Entity apple3 = v3.addEntity("Apple");
+        apple3.addIdProperty();
+        apple3.addStringProperty("weight").notNull();
+        v3.addEntity("Log").addStringProperty("message");
+
+        final List<Schema> schemas = Arrays.asList(v1, v2, v3);
+        for (Schema schema : schemas) {
+            Utils.initialize(schema);
+        }
+        mVerifier = new EntityVerifier(schemas, Collections.<EntityRenameDesc>emptyList())
+                .addRule(new SlowRule());
+    }
+
+    @Test
+    public void ordersFindingsBySchemaRuleAndEntity() {
+
+        final List<String> findings = new ArrayList<>();
+        for (VerificationFinding finding : mVerifier.check()) {
+            findings.add(String.format(Locale.US, "v%d -> v%d %s", finding.getFromVersion(), finding.getToVersion(), finding.getRuleName()));
+        }
+
+        assertEquals(Arrays.asList(
+                "v0 -> v1 slow-rule",
+                "v1 -> v2 column-type-changed",
+                "v1 -> v2 column-type-changed",
+                "v1 -> v2 removed-column",
+                "v1 -> v2 missing-primary-key",
+                "v1 -> v2 slow-rule",
+                "v2 -> v3 constraints-changed",
+                "v2 -> v3 slow-rule"
+        ), findings);
+    }
+
+    @Test
+    public void ordersEntityFindingsByClassName() {
+
+        final List<VerificationFinding> findings = mVerifier.check();
+
+        assertTrue(findings.get(1).getMessage().startsWith("Property 'weight' on Entity 'Apple' type changed from INTEGER to TEXT"));
+        assertTrue(findings.get(2).getMessage().startsWith("Property 'stripes' on Entity 'Zebra'"));
+    }
+
+    @Test
+    public void findsTheSameFindingsOnEveryRun() {
+
+        final List<String> first = describe(mVerifier.check());
+        for (int run = 0; run < 10; run++) {
+            assertEquals(first, describe(mVerifier.check()));
+        }
+    }
+
+    @Test
+    public void reportsEveryErrorAtOnce() {
+
+        try {
+            mVerifier.verify();
+            fail("Expected the verification to fail");
+        } catch (EntityVerifier.VerificationFailedException expected) {
+            final String[] lines = expected.getMessage().split(String.format(Locale.US, "%n"));
+            assertEquals("Verification failed with 7 error(s):", lines[0]);
+            assertEquals(8, lines.length);
+            assertTrue(lines[1].startsWith("ERROR [slow-rule]"));
+            assertTrue(lines[2].startsWith("ERROR [column-type-changed] Property 'weight' on Entity 'Apple'"));
+            assertTrue(lines[4].startsWith("ERROR [missing-primary-key] Entity 'Log'"));
+            assertTrue(lines[6].startsWith("ERROR [constraints-changed] Property 'weight' on Entity 'Apple'"));
+            //Warnings are printed instead
+            assertFalse(expected.getMessage().contains("removed-column"));
+        }
+    }
+
+    @Test
+    public void reportsFailingRules() {
+
+        final Schema v1 = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        v1.addEntity("Apple").addIdProperty();
+        Utils.initialize(v1);
+        final EntityVerifier verifier = new EntityVerifier(Collections.singletonList(v1), Collections.<EntityRenameDesc>emptyList())
+                .addRule(new VerificationRule() {
+                    @Override
+                    public String getName() {
+                        return "broken";
+                    }
+
+                    @Override
+                    public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+                        throw new UnsupportedOperationException("Not yet");
+                    }
+                });
+
+        try {
+            verifier.check();
+            fail("Expected the verification to fail");
+        } catch (EntityVerifier.VerificationFailedException expected) {
+            assertEquals("A verification rule failed", expected.getMessage());
+            assertTrue(expected.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    private static List<String> describe(List<VerificationFinding> findings) {
+
+        final List<String> descriptions = new ArrayList<>();
+        for (VerificationFinding finding : findings) {
+            descriptions.add(finding.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Reports an error for every schema, finishing later for earlier schemas so that its tasks complete out of order
+     */
+    private static final class SlowRule implements VerificationRule {
+
+        @Override
+        public String getName() {
+            return "slow-rule";
+        }
+
+        @Override
+        public List<VerificationFinding> verify(Schema from, Schema to, EntityRenameDesc entityRenameDesc) {
+
+            try {
+                Thread.sleep((4 - to.getVersion()) * 20L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonList(new VerificationFinding(VerificationFinding.Severity.ERROR, getName(), from, to,
+                    String.format(Locale.US, "Checked schema %d", to.getVersion())));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FixtureGeneratorTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void createsPartialAndExpressionIndexes() throws Exception {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Entity account = poirot.create(1, true).addEntity("Account");
+        account.addIdProperty().autoincrement();
+        account.addStringProperty("email").notNull();
+        account.addBooleanProperty("deleted").notNull();
+        poirot.addIndexes(1, new IndexDesc.Builder()
+                .uniqueIndex("Account", "IDX_ACCOUNT_ACTIVE_EMAIL", "EMAIL")
+                .where("DELETED = 0")
+                .index("Account", "IDX_ACCOUNT_LOWER_EMAIL", "LOWER(EMAIL)")
+                .build());
+        poirot.seedFixture(1, new FixtureSeed.Builder()
+                .name("accounts")
+                .sql("INSERT INTO ACCOUNT (EMAIL, DELETED) VALUES ('a@example.com', 1)",
+                        "INSERT INTO ACCOUNT (EMAIL, DELETED) VALUES ('a@example.com', 0)")
+                .build());
+
+        final File directory = mTemporaryFolder.newFolder("fixtures");
+        poirot.generateFixtures(directory.getPath());
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + new File(directory, "v1-accounts.db").getPath());
+             Statement statement = connection.createStatement()) {
+
+            assertTrue(indexSql(statement, "IDX_ACCOUNT_ACTIVE_EMAIL").endsWith("WHERE DELETED = 0"));
+            assertTrue(indexSql(statement, "IDX_ACCOUNT_LOWER_EMAIL").contains("LOWER(EMAIL)"));
+
+            //Only the rows that are not deleted are unique
+            try {
+                statement.execute("INSERT INTO ACCOUNT (EMAIL, DELETED) VALUES ('a@example.com', 0)");
+                fail("Duplicate email was inserted");
+            } catch (SQLException expected) {
+            }
+            statement.execute("INSERT INTO ACCOUNT (EMAIL, DELETED) VALUES ('a@example.com', 1)");
+
+            try (ResultSet plan = statement.executeQuery("EXPLAIN QUERY PLAN SELECT _id FROM ACCOUNT WHERE LOWER(EMAIL) = 'a@example.com'")) {
+                assertTrue(plan.next());
+                assertTrue(plan.getString("detail"), plan.getString("detail").contains("IDX_ACCOUNT_LOWER_EMAIL"));
+            }
+        }
+    }
+
+    private static String indexSql(Statement statement, String indexName) throws SQLException {
+
+        try (ResultSet resultSet = statement.executeQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = '" + indexName + "'")) {
+            assertTrue("Missing index " + indexName, resultSet.next());
+            final String sql = resultSet.getString(1);
+            assertEquals(false, resultSet.next());
+            return sql;
+        }
+    }
+}
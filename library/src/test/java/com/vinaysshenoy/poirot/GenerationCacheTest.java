@@ -0,0 +1,180 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GenerationCacheTest {
+
+    private static final long STAMP = 1000000000000L;
+
+    private enum Variant {
+        BASE, ADDED_AGE, NO_POST, CHANGED_TYPE
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private GenerationCache mCache;
+
+    private File mCurrentDirectory;
+
+    private File mOlderDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new GenerationCache();
+        mCurrentDirectory = mTemporaryFolder.newFolder("current");
+        mOlderDirectory = mTemporaryFolder.newFolder("older");
+    }
+
+    @Test
+    public void skipsUnchangedGenerations() throws Exception {
+
+        generate(Variant.BASE);
+        stampFiles();
+
+        generate(Variant.BASE);
+
+        for (File file : files()) {
+            assertEquals(file.getPath(), STAMP, file.lastModified());
+        }
+    }
+
+    @Test
+    public void regeneratesOnlyChangedSchemasAndMigrations() throws Exception {
+
+        generate(Variant.BASE);
+        stampFiles();
+
+        generate(Variant.ADDED_AGE);
+
+        assertTrue(read(currentFile("User.java")).contains("private Integer age;"));
+        assertTrue(currentFile("UserDao.java").lastModified() != STAMP);
+        assertTrue(currentFile("helper/migrations/MigrateV1ToV2.java").lastModified() != STAMP);
+        //Helper files whose contents are the same are not written again
+        assertEquals(STAMP, currentFile("helper/migrations/AbstractMigration.java").lastModified());
+        for (File file : olderFiles()) {
+            assertEquals(file.getPath(), STAMP, file.lastModified());
+        }
+    }
+
+    @Test
+    public void deletesFilesThatAreNoLongerGenerated() throws Exception {
+
+        generate(Variant.BASE);
+        assertTrue(currentFile("Post.java").exists());
+
+        generate(Variant.NO_POST);
+
+        assertFalse(currentFile("Post.java").exists());
+        assertFalse(currentFile("PostDao.java").exists());
+        assertTrue(currentFile("User.java").exists());
+        assertTrue(currentFile("DaoMaster.java").exists());
+    }
+
+    @Test
+    public void regeneratesAfterAFailedGeneration() throws Exception {
+
+        generate(Variant.BASE);
+        try {
+            generate(Variant.CHANGED_TYPE);
+            fail("Expected the verification to fail");
+        } catch (RuntimeException expected) {
+            assertEquals("Failed to verify entities!", expected.getMessage());
+        }
+
+        //The failed generation already wrote the DAO objects of v2, so going back has to write them again
+        generate(Variant.BASE);
+
+        assertTrue(read(currentFile("User.java")).contains("private String name;"));
+    }
+
+    private void generate(Variant variant) throws Exception {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Entity user1 = poirot.create(1, false).addEntity("User");
+        user1.addIdProperty();
+        user1.addStringProperty("name");
+
+        final Schema v2 = poirot.create(2, true);
+        final Entity user2 = v2.addEntity("User");
+        user2.addIdProperty();
+        if (variant == Variant.CHANGED_TYPE) {
+            user2.addIntProperty("name");
+        } else {
+            user2.addStringProperty("name");
+        }
+        user2.addStringProperty("email");
+        if (variant == Variant.ADDED_AGE) {
+            user2.addIntProperty("age");
+        }
+        if (variant != Variant.NO_POST) {
+            final Entity post = v2.addEntity("Post");
+            post.addIdProperty();
+            post.addStringProperty("title");
+        }
+
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath(), mCache);
+    }
+
+    private File currentFile(String path) {
+        return new File(mCurrentDirectory, "com/vinaysshenoy/poirot/test/db/" + path);
+    }
+
+    private void stampFiles() {
+
+        for (File file : files()) {
+            assertTrue(file.setLastModified(STAMP));
+        }
+    }
+
+    private List<File> files() {
+
+        final List<File> files = new ArrayList<>();
+        collect(mCurrentDirectory, files);
+        collect(mOlderDirectory, files);
+        return files;
+    }
+
+    private List<File> olderFiles() {
+
+        final List<File> files = new ArrayList<>();
+        collect(mOlderDirectory, files);
+        return files;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void collect(File directory, List<File> files) {
+
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexAdvisorTest {
+
+    private static final String BY_NAME = "SELECT * FROM USER WHERE NAME = 'a'";
+
+    private static final String BY_LOWER_NAME = "SELECT * FROM USER WHERE LOWER(NAME) = 'a' AND DELETED = 0";
+
+    @Test
+    public void failsWhenARemovedIndexIsUsed() {
+
+        final Schema from = createSchema(1, true);
+        final Schema to = createSchema(2, false);
+
+        final List<VerificationFinding> findings = new IndexAdvisor(Arrays.asList(BY_NAME, "SELECT * FROM USER WHERE _id = 1"))
+                .verify(from, to, null);
+
+        assertEquals(1, findings.size());
+        assertEquals(VerificationFinding.Severity.ERROR, findings.get(0).getSeverity());
+        assertEquals("Index IDX_USER_NAME on Entity 'User' is removed when going from schema 1 to schema 2, but is used by query: " + BY_NAME,
+                findings.get(0).getMessage());
+    }
+
+    @Test
+    public void skipsQueriesThatCannotBePlanned() {
+
+        final Schema from = createSchema(1, true);
+        final Schema to = createSchema(2, false);
+
+        //EMAIL is not in schema 1, so the query cannot be planned on it
+        final List<VerificationFinding> findings = new IndexAdvisor(Collections.singletonList("SELECT * FROM USER WHERE NAME = 'a' AND EMAIL = 'b'"))
+                .verify(from, to, null);
+
+        assertEquals(Collections.<VerificationFinding>emptyList(), findings);
+    }
+
+    @Test
+    public void failsWhenARemovedDefinitionIsUsed() {
+
+        final Schema from = createSchema(1, false, true);
+        final Schema to = createSchema(2, false, true);
+        final List<IndexDesc> indexDescs = Collections.singletonList(
+                createIndexDesc(1, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)")));
+
+        final List<VerificationFinding> findings = new IndexAdvisor(Collections.singletonList(BY_LOWER_NAME), indexDescs)
+                .verify(from, to, null);
+
+        assertEquals(1, findings.size());
+        assertEquals("Index IDX_USER_LOWER_NAME on Entity 'User' is removed when going from schema 1 to schema 2, but is used by query: " + BY_LOWER_NAME,
+                findings.get(0).getMessage());
+    }
+
+    @Test
+    public void allowsChangedDefinitionsThatAreStillUsed() {
+
+        final Schema from = createSchema(1, false, true);
+        final Schema to = createSchema(2, false, true);
+        final List<IndexDesc> indexDescs = Arrays.asList(
+                createIndexDesc(1, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)")),
+                //Made partial, but the query only reads rows that are in the index
+                createIndexDesc(2, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)").where("DELETED = 0")));
+
+        final List<VerificationFinding> findings = new IndexAdvisor(Collections.singletonList(BY_LOWER_NAME), indexDescs)
+                .verify(from, to, null);
+
+        assertEquals(Collections.<VerificationFinding>emptyList(), findings);
+    }
+
+    @Test
+    public void failsWhenAChangedDefinitionIsNoLongerUsed() {
+
+        final Schema from = createSchema(1, false, true);
+        final Schema to = createSchema(2, false, true);
+        final List<IndexDesc> indexDescs = Arrays.asList(
+                createIndexDesc(1, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)")),
+                createIndexDesc(2, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)").where("DELETED = 1")));
+
+        final List<VerificationFinding> findings = new IndexAdvisor(Collections.singletonList(BY_LOWER_NAME), indexDescs)
+                .verify(from, to, null);
+
+        assertEquals(1, findings.size());
+        assertEquals("Index IDX_USER_LOWER_NAME on Entity 'User' is changed when going from schema 1 to schema 2, but is used by query: " + BY_LOWER_NAME,
+                findings.get(0).getMessage());
+    }
+
+    @Test
+    public void reportsUnusedDefinitions() {
+
+        final Schema schema = createSchema(1, true, true);
+        final List<IndexDesc> indexDescs = Collections.singletonList(
+                createIndexDesc(1, new IndexDesc.Builder().index("User", "IDX_USER_LOWER_NAME", "LOWER(NAME)")));
+
+        final List<String> unusedIndexes = new ArrayList<>();
+        for (VerificationFinding finding : new IndexAdvisor(Collections.singletonList(BY_NAME), indexDescs).advise(schema)) {
+            if (finding.getRuleName().equals("unused-index")) {
+                unusedIndexes.add(finding.getMessage());
+            }
+        }
+
+        assertEquals(Collections.singletonList("Index IDX_USER_LOWER_NAME on Entity 'User' is not used by any of the 1 queries, and only slows down writes"),
+                unusedIndexes);
+    }
+
+    @Test
+    public void runsAsAVerificationRule() {
+
+        final Schema from = createSchema(1, true);
+        final Schema to = createSchema(2, false);
+        final EntityVerifier verifier = new EntityVerifier(Arrays.asList(from, to), Collections.<EntityRenameDesc>emptyList())
+                .addRule(new IndexAdvisor(Collections.singletonList(BY_NAME)));
+
+        try {
+            verifier.verify();
+            fail("Expected the verification to fail");
+        } catch (EntityVerifier.VerificationFailedException expected) {
+            assertTrue(expected.getMessage().contains("ERROR [index-advisor] Index IDX_USER_NAME on Entity 'User' is removed"));
+        }
+    }
+
+    private static Schema createSchema(int version, boolean indexName) {
+        return createSchema(version, indexName, false);
+    }
+
+    private static Schema createSchema(int version, boolean indexName, boolean withDeleted) {
+
+        final Schema schema = new Schema(version, "com.vinaysshenoy.poirot.test.db");
+        final Entity user = schema.addEntity("User");
+        user.addIdProperty();
+        if (indexName) {
+            user.addStringProperty("name").index();
+        } else {
+            user.addStringProperty("name");
+        }
+        if (withDeleted) {
+            user.addIntProperty("deleted");
+        }
+        Utils.initialize(schema);
+        return schema;
+    }
+
+    private static IndexDesc createIndexDesc(int version, IndexDesc.Builder builder) {
+
+        final IndexDesc indexDesc = builder.build();
+        indexDesc.setVersion(version);
+        return indexDesc;
+    }
+}
@@ -0,0 +1,206 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetadataOnlyTest {
+
+    private static final String PACKAGE_PATH = "com/vinaysshenoy/poirot/test/db/";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mCurrentDirectory;
+
+    private File mOlderDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mCurrentDirectory = mTemporaryFolder.newFolder("current");
+        mOlderDirectory = mTemporaryFolder.newFolder("older");
+    }
+
+    @Test
+    public void generatesTheHistoryInsteadOfOlderDaos() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.metadataOnly();
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+
+        assertEquals(Arrays.asList(PACKAGE_PATH + "history/SchemaHistory.java"), olderFiles());
+        assertTrue(new File(mCurrentDirectory, PACKAGE_PATH + "UserDao.java").exists());
+        assertTrue(new File(mCurrentDirectory, PACKAGE_PATH + "helper/migrations/MigrateV1ToV2.java").exists());
+        assertTrue(new File(mCurrentDirectory, PACKAGE_PATH + "helper/migrations/MigrateV2ToV3.java").exists());
+
+        final String history = read(new File(mOlderDirectory, PACKAGE_PATH + "history/SchemaHistory.java"));
+        assertTrue(history.contains("public static final int[] VERSIONS = {1, 2, 3};"));
+        assertTrue(history.contains("case 1: return new String[]{"));
+        assertTrue(history.contains("case 3: return new String[]{"));
+        assertTrue(history.contains("public static void createAllTables(SQLiteDatabase db, int version)"));
+    }
+
+    @Test
+    public void keepsTheDaosOfSelectedVersions() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.metadataOnly(1);
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+
+        final List<String> files = olderFiles();
+        assertTrue(files.contains(PACKAGE_PATH + "history/SchemaHistory.java"));
+        assertTrue(files.contains(PACKAGE_PATH + "v1/UserDao.java"));
+        assertFalse(new File(mOlderDirectory, PACKAGE_PATH + "v2").exists());
+    }
+
+    @Test
+    public void createsTheTablesOfEveryVersion() throws Exception {
+
+        final List<Schema> schemas = new ArrayList<>();
+        createPoirot(schemas);
+        for (Schema schema : schemas) {
+            Utils.initialize(schema);
+        }
+
+        assertEquals(Arrays.asList("_id", "NAME"), columns(schemas.get(0), "USER"));
+        assertEquals(Arrays.asList("_id", "NAME", "EMAIL"), columns(schemas.get(1), "USER"));
+        assertEquals(Arrays.asList("_id", "NAME", "EMAIL"), columns(schemas.get(2), "USER"));
+        assertEquals(Arrays.asList("_id", "TITLE"), columns(schemas.get(2), "POST"));
+    }
+
+    @Test
+    public void togglesDaoVersionsWithACache() throws Exception {
+
+        final GenerationCache cache = new GenerationCache();
+        final File userDao = new File(mOlderDirectory, PACKAGE_PATH + "v1/UserDao.java");
+
+        Poirot poirot = createPoirot();
+        poirot.metadataOnly();
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath(), cache);
+        assertFalse(userDao.exists());
+
+        poirot = createPoirot();
+        poirot.metadataOnly(1);
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath(), cache);
+        assertTrue(userDao.exists());
+
+        poirot = createPoirot();
+        poirot.metadataOnly();
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath(), cache);
+        assertFalse(userDao.exists());
+        assertTrue(new File(mOlderDirectory, PACKAGE_PATH + "history/SchemaHistory.java").exists());
+
+        //Leaving the mode deletes the history
+        createPoirot().generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath(), cache);
+        assertTrue(userDao.exists());
+        assertFalse(new File(mOlderDirectory, PACKAGE_PATH + "history/SchemaHistory.java").exists());
+    }
+
+    @Test
+    public void rejectsVersionsWithoutASchema() {
+
+        try {
+            createPoirot().metadataOnly(1, 4);
+            fail("Expected the version to be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("No schema has been created for version 4", expected.getMessage());
+        }
+    }
+
+    private static Poirot createPoirot() {
+        return createPoirot(new ArrayList<Schema>());
+    }
+
+    /**
+     * @param schemas The list to add the created schemas to
+     */
+    private static Poirot createPoirot(List<Schema> schemas) {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Schema v1 = poirot.create(1, false);
+        final Entity user1 = v1.addEntity("User");
+        user1.addIdProperty();
+        user1.addStringProperty("name");
+        final Schema v2 = poirot.create(2, false);
+        final Entity user2 = v2.addEntity("User");
+        user2.addIdProperty();
+        user2.addStringProperty("name").index();
+        user2.addStringProperty("email");
+        final Schema v3 = poirot.create(3, true);
+        final Entity user3 = v3.addEntity("User");
+        user3.addIdProperty();
+        user3.addStringProperty("name").index();
+        user3.addStringProperty("email");
+        final Entity post = v3.addEntity("Post");
+        post.addIdProperty();
+        post.addStringProperty("title");
+        schemas.addAll(Arrays.asList(v1, v2, v3));
+        return poirot;
+    }
+
+    /**
+     * @return The columns of a table in a database created from the history statements of a schema
+     */
+    private static List<String> columns(Schema schema, String tableName) throws Exception {
+
+        final List<String> columns = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            for (String sql : SchemaHistoryGenerator.createStatements(schema)) {
+                statement.execute(sql);
+            }
+            try (ResultSet tableInfo = statement.executeQuery("PRAGMA table_info(\"" + tableName + "\")")) {
+                while (tableInfo.next()) {
+                    columns.add(tableInfo.getString("name"));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private List<String> olderFiles() {
+
+        final List<String> files = new ArrayList<>();
+        collect(mOlderDirectory, mOlderDirectory, files);
+        return files;
+    }
+
+    private static void collect(File root, File directory, List<String> files) {
+
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(root, child, files);
+            } else {
+                files.add(root.toURI().relativize(child.toURI()).getPath());
+            }
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,162 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MigrationChecksTest {
+
+    private static final String HELPER_PATH = "com/vinaysshenoy/poirot/test/db/helper/PoirotDbHelper.java";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mCurrentDirectory;
+
+    private File mOlderDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mCurrentDirectory = mTemporaryFolder.newFolder("current");
+        mOlderDirectory = mTemporaryFolder.newFolder("older");
+    }
+
+    @Test
+    public void checksTheTablesThatUpgradesTouch() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.setMigrationChecks(new MigrationChecks.Builder().schemaCheck().quickCheck().foreignKeyCheck().build());
+
+        final String helper = generateHelper(poirot);
+
+        //USER is altered by v2 and rebuilt by v3, COMMENT is added by v3 and POST is never touched
+        assertTrue(helper.contains("case 1: return new String[]{\"COMMENT\", \"USER\"};"));
+        assertTrue(helper.contains("case 2: return new String[]{\"COMMENT\", \"USER\"};"));
+        assertTrue(helper.contains("private static String[] getRebuiltTables(int fromVersion)"));
+        assertTrue(helper.contains("case 1: return new String[]{\"USER\"};"));
+        assertTrue(helper.contains("case 2: return new String[]{\"USER\"};"));
+        assertTrue(helper.contains("case \"USER\": return new String[]{\"_id\", \"FULL_NAME\", \"EMAIL\"};"));
+        assertTrue(helper.contains("case \"USER\": return new String[]{\"IDX_USER_FULL_NAME\"};"));
+        //Checked after upgrades only
+        assertEquals(helper.indexOf("checkMigration(db, version);"), helper.lastIndexOf("checkMigration(db, version);"));
+    }
+
+    @Test
+    public void checksTheSqliteVersionForQuickChecks() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.setMigrationChecks(new MigrationChecks.Builder().quickCheck().build());
+
+        final String helper = generateHelper(poirot);
+
+        assertTrue(helper.contains("final boolean quickCheck = tables.length > 0 && isTableQuickCheckSupported(db);"));
+        assertTrue(helper.contains("PRAGMA quick_check(\\\"\" + table + \"\\\")"));
+    }
+
+    @Test
+    public void skipsTheSqliteVersionCheckFromSqlite333() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.setMinSqliteVersion(3, 33);
+        poirot.setMigrationChecks(new MigrationChecks.Builder().quickCheck().build());
+
+        final String helper = generateHelper(poirot);
+
+        assertTrue(helper.contains("final boolean quickCheck = true;"));
+        assertFalse(helper.contains("isTableQuickCheckSupported"));
+    }
+
+    @Test
+    public void generatesOnlyTheEnabledChecks() throws Exception {
+
+        final Poirot poirot = createPoirot();
+        poirot.setMigrationChecks(new MigrationChecks.Builder().schemaCheck().build());
+
+        final String helper = generateHelper(poirot);
+
+        assertTrue(helper.contains("private static String[] getExpectedColumns(String table)"));
+        assertFalse(helper.contains("getRebuiltTables"));
+        assertFalse(helper.contains("quick_check("));
+        assertFalse(helper.contains("foreign_key_check("));
+    }
+
+    @Test
+    public void generatesNoChecksByDefault() throws Exception {
+
+        final String helper = generateHelper(createPoirot());
+
+        assertFalse(helper.contains("checkMigration"));
+        assertFalse(helper.contains("onMigrationChecked"));
+    }
+
+    @Test
+    public void requiresACheck() {
+
+        try {
+            new MigrationChecks.Builder().build();
+            fail("Expected the checks to be rejected");
+        } catch (IllegalStateException expected) {
+            assertEquals("At least one check must be enabled", expected.getMessage());
+        }
+    }
+
+    /**
+     * v2 adds a column to User, and v3 renames one, which rebuilds the table before SQLite 3.25, and adds Comment
+     */
+    private static Poirot createPoirot() {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Schema v1 = poirot.create(1, false);
+        final Entity user1 = v1.addEntity("User");
+        user1.addIdProperty();
+        user1.addStringProperty("name");
+        addPost(v1);
+
+        final Schema v2 = poirot.create(2, false);
+        final Entity user2 = v2.addEntity("User");
+        user2.addIdProperty();
+        user2.addStringProperty("name");
+        user2.addStringProperty("email");
+        addPost(v2);
+
+        final Schema v3 = poirot.create(3, true);
+        final Entity user3 = v3.addEntity("User");
+        user3.addIdProperty();
+        user3.addStringProperty("fullName").index();
+        user3.addStringProperty("email");
+        addPost(v3);
+        final Entity comment = v3.addEntity("Comment");
+        comment.addIdProperty();
+        comment.addStringProperty("text");
+        poirot.renameProperties(3, new PropertyRenameDesc.Builder()
+                .map("User", "name", "fullName")
+                .build());
+        return poirot;
+    }
+
+    private static void addPost(Schema schema) {
+
+        final Entity post = schema.addEntity("Post");
+        post.addIdProperty();
+        post.addStringProperty("title");
+    }
+
+    private String generateHelper(Poirot poirot) throws Exception {
+
+        poirot.generate(mCurrentDirectory.getPath(), mOlderDirectory.getPath());
+        return new String(Files.readAllBytes(new File(mCurrentDirectory, HELPER_PATH).toPath()), StandardCharsets.UTF_8);
+    }
+}
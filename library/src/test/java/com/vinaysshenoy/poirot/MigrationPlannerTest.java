@@ -0,0 +1,130 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationPlannerTest {
+
+    private MigrationPlanner mPlanner;
+
+    @Before
+    public void setUp() {
+
+        //v2 adds a table, a column and an index, and v3 renames a column, which rebuilds the table before SQLite 3.25
+        final Schema v1 = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        createUser(v1, "name", false, false);
+        final Schema v2 = new Schema(2, "com.vinaysshenoy.poirot.test.db");
+        createUser(v2, "name", true, true);
+        final Entity post = v2.addEntity("Post");
+        post.addIdProperty();
+        post.addStringProperty("title").index();
+        final Schema v3 = new Schema(3, "com.vinaysshenoy.poirot.test.db");
+        createUser(v3, "fullName", true, true);
+        final Entity renamedPost = v3.addEntity("Post");
+        renamedPost.addIdProperty();
+        renamedPost.addStringProperty("title").index();
+        final List<Schema> schemas = Arrays.asList(v1, v2, v3);
+        for (Schema schema : schemas) {
+            Utils.initialize(schema);
+        }
+
+        final PropertyRenameDesc propertyRenameDesc = new PropertyRenameDesc.Builder()
+                .map("User", "name", "fullName")
+                .build();
+        propertyRenameDesc.setVersion(3);
+        final BackfillDesc backfillDesc = new BackfillDesc.Builder()
+                .backfill("User", "email", "LOWER(NAME)")
+                .build();
+        backfillDesc.setVersion(2);
+
+        mPlanner = new MigrationPlanner(schemas, Collections.<EntityRenameDesc>emptyList(), Collections.singletonList(propertyRenameDesc),
+                Collections.singletonList(backfillDesc), 0);
+    }
+
+    @Test
+    public void classifiesCatalogChangesAsConstant() {
+
+        final String plan = mPlanner.explain(MigrationCostHints.NONE);
+
+        assertTrue(plan.contains("    O(1)             CREATE TABLE IF NOT EXISTS \"POST\""));
+        //The indexes of an added table are built while it is empty
+        assertTrue(plan.contains("    O(1)             CREATE INDEX IF NOT EXISTS IDX_POST_TITLE"));
+        assertTrue(plan.contains("    O(1)             ALTER TABLE \"USER\" ADD COLUMN \"EMAIL\" TEXT"));
+        assertTrue(plan.contains("    O(1)             INSERT OR REPLACE INTO POIROT_BACKFILL"));
+    }
+
+    @Test
+    public void classifiesRowWorkAsLinear() {
+
+        final String plan = mPlanner.explain(MigrationCostHints.NONE);
+
+        assertTrue(plan.contains("    O(rows)          CREATE INDEX IF NOT EXISTS IDX_USER_NAME ON \"USER\" (\"NAME\")  (rows in USER unknown)"));
+        assertTrue(plan.contains("    O(rows)          INSERT INTO \"_POIROT_REBUILD\""));
+        assertTrue(plan.contains("    O(rows)          DROP TABLE \"USER\""));
+        assertFalse(plan.contains("Slowest step"));
+    }
+
+    @Test
+    public void listsBackfillsWithoutCountingThem() {
+
+        final MigrationCostHints hints = new MigrationCostHints.Builder()
+                .rows("USER", 10000)
+                .build();
+        final String plan = mPlanner.explain(hints);
+
+        assertTrue(plan.contains("    deferred O(rows) BACKFILL v2.User.email  ~50 ms for 10000 rows"));
+        //Only the index build and the analysis of v1 -> v2 add to the 88 ms of v2 -> v3, the backfill runs after the upgrade
+        assertTrue(plan.contains("  18 statements: 11 O(1), 7 O(rows), estimated 138 ms on the upgrade path"));
+        assertTrue(plan.contains("  9 statements: 4 O(1), 5 O(rows), estimated 88 ms on the upgrade path"));
+        assertTrue(plan.contains("Slowest step: v2 -> v3, 88 ms"));
+    }
+
+    @Test
+    public void estimatesWithRowCountsAndTimesPerRow() {
+
+        final MigrationCostHints hints = new MigrationCostHints.Builder()
+                .rows("USER", 10000)
+                .microsPerRow(MigrationStatement.Kind.COPY_ROWS, 10D)
+                .build();
+        final String plan = mPlanner.explain(hints);
+
+        assertTrue(plan.contains("INSERT INTO \"_POIROT_REBUILD\" (\"_id\", \"FULL_NAME\", \"EMAIL\") SELECT \"_id\", \"NAME\", \"EMAIL\" FROM \"USER\"  ~100 ms for 10000 rows"));
+        assertTrue(plan.contains("Slowest step: v2 -> v3"));
+    }
+
+    @Test
+    public void estimatesNothingForConstantStatements() {
+
+        final MigrationCostHints hints = new MigrationCostHints.Builder()
+                .rows("POST", 1000000)
+                .build();
+
+        assertEquals(0D, hints.estimateMillis(new MigrationStatement(MigrationStatement.Kind.CREATE_TABLE, "POST", "CREATE TABLE POST (_id INTEGER)")), 0D);
+        assertEquals(-1D, hints.estimateMillis(new MigrationStatement(MigrationStatement.Kind.COPY_ROWS, "USER", "INSERT INTO USER SELECT * FROM OLD")), 0D);
+        assertEquals(4000D, hints.estimateMillis(new MigrationStatement(MigrationStatement.Kind.CREATE_INDEX, "POST", "CREATE INDEX IDX ON POST (TITLE)")), 0D);
+    }
+
+    private static void createUser(Schema schema, String nameProperty, boolean indexName, boolean withEmail) {
+
+        final Entity user = schema.addEntity("User");
+        user.addIdProperty();
+        if (indexName) {
+            user.addStringProperty(nameProperty).index();
+        } else {
+            user.addStringProperty(nameProperty);
+        }
+        if (withEmail) {
+            user.addStringProperty("email");
+        }
+    }
+}
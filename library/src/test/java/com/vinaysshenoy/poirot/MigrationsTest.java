@@ -0,0 +1,171 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Property;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationsTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private List<Schema> mSchemas;
+
+    private PropertyRenameDesc mPropertyRenameDesc;
+
+    private File mFixtureDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+
+        final Schema v1 = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        createSchema(v1, "name");
+        final Schema v2 = new Schema(2, "com.vinaysshenoy.poirot.test.db");
+        createSchema(v2, "fullName");
+        mSchemas = Arrays.asList(v1, v2);
+        for (Schema schema : mSchemas) {
+            Utils.initialize(schema);
+        }
+
+        mPropertyRenameDesc = new PropertyRenameDesc.Builder()
+                .map("Member", "name", "fullName")
+                .build();
+        mPropertyRenameDesc.setVersion(2);
+
+        final FixtureSeed seed = new FixtureSeed.Builder()
+                .name("members")
+                .sql("INSERT INTO TEAM (_id, CODE) VALUES (1, 'core')",
+                        "INSERT INTO MEMBER (_id, NAME, TEAM_ID) VALUES (1, 'Ada', 1)",
+                        "INSERT INTO MEMBER (_id, NAME, TEAM_ID) VALUES (2, 'Grace', 1)")
+                .build();
+        seed.setVersion(1);
+
+        mFixtureDirectory = mTemporaryFolder.newFolder("fixtures");
+        new FixtureGenerator(mSchemas, Collections.singletonList(seed), false, Collections.<IndexDesc>emptyList()).generate(mFixtureDirectory);
+    }
+
+    @Test
+    public void renamesColumnsInPlace() throws Exception {
+
+        final List<MigrationStatement> statements = createStatements(Migrations.RENAME_COLUMN_SQLITE_VERSION);
+        assertTrue(hasKind(statements, MigrationStatement.Kind.RENAME_COLUMN));
+        assertFalse(hasKind(statements, MigrationStatement.Kind.COPY_ROWS));
+
+        assertMigrated(statements);
+    }
+
+    @Test
+    public void rebuildsTablesToRenameColumns() throws Exception {
+
+        final List<MigrationStatement> statements = createStatements(Migrations.RENAME_COLUMN_SQLITE_VERSION - 1);
+        assertFalse(hasKind(statements, MigrationStatement.Kind.RENAME_COLUMN));
+        assertTrue(hasKind(statements, MigrationStatement.Kind.COPY_ROWS));
+        assertTrue(hasKind(statements, MigrationStatement.Kind.CHECK_REFERENCES));
+
+        assertMigrated(statements);
+    }
+
+    private static void createSchema(Schema schema, String memberNameProperty) {
+
+        final Entity team = schema.addEntity("Team");
+        team.addIdProperty().autoincrement();
+        team.addStringProperty("code").notNull().index();
+
+        final Entity member = schema.addEntity("Member");
+        member.addIdProperty().autoincrement();
+        member.addStringProperty(memberNameProperty).notNull();
+        final Property memberTeamId = member.addLongProperty("teamId").notNull().getProperty();
+        member.addToOne(team, memberTeamId);
+        team.addToMany(member, memberTeamId);
+    }
+
+    private List<MigrationStatement> createStatements(int minSqliteVersion) {
+
+        return new Migrations.Builder()
+                .schemas(mSchemas)
+                .propertyRenames(Collections.singletonList(mPropertyRenameDesc))
+                .minSqliteVersion(minSqliteVersion)
+                .build()
+                .createStatements(mSchemas.get(0), mSchemas.get(1));
+    }
+
+    private void assertMigrated(List<MigrationStatement> statements) throws SQLException {
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + new File(mFixtureDirectory, "v1-members.db").getPath());
+             Statement statement = connection.createStatement()) {
+
+            connection.setAutoCommit(false);
+            for (MigrationStatement migrationStatement : statements) {
+                if (migrationStatement.getKind() == MigrationStatement.Kind.CHECK_REFERENCES) {
+                    try (ResultSet orphans = statement.executeQuery(migrationStatement.getSql())) {
+                        assertFalse("Orphaned rows in " + migrationStatement.getTableName(), orphans.next());
+                    }
+                } else {
+                    statement.execute(migrationStatement.getSql());
+                }
+            }
+            connection.commit();
+
+            assertEquals(columns(new File(mFixtureDirectory, "v2.db"), "MEMBER"), columns(statement, "MEMBER"));
+            try (ResultSet members = statement.executeQuery("SELECT _id, FULL_NAME, TEAM_ID FROM MEMBER ORDER BY _id")) {
+                assertTrue(members.next());
+                assertEquals(1, members.getLong(1));
+                assertEquals("Ada", members.getString(2));
+                assertEquals(1, members.getLong(3));
+                assertTrue(members.next());
+                assertEquals(2, members.getLong(1));
+                assertEquals("Grace", members.getString(2));
+                assertEquals(1, members.getLong(3));
+                assertFalse(members.next());
+            }
+        }
+    }
+
+    private static List<String> columns(File database, String tableName) throws SQLException {
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getPath());
+             Statement statement = connection.createStatement()) {
+            return columns(statement, tableName);
+        }
+    }
+
+    private static List<String> columns(Statement statement, String tableName) throws SQLException {
+
+        final List<String> columns = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery("PRAGMA table_info(\"" + tableName + "\")")) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("name"));
+            }
+        }
+        return columns;
+    }
+
+    private static boolean hasKind(List<MigrationStatement> statements, MigrationStatement.Kind kind) {
+
+        for (MigrationStatement statement : statements) {
+            if (statement.getKind() == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PoirotTest {
+
+    private static final int VERSIONS = 4;
+
+    private static final int THREADS = 8;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void definesFromSeveralThreads() throws Exception {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        for (int version = 1; version <= VERSIONS; version++) {
+            final Entity item = poirot.create(version, version == VERSIONS).addEntity("Item");
+            item.addIdProperty();
+            item.addStringProperty("name");
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                futures.add(executor.submit(createDefinition(poirot, thread, start)));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //Every declaration was kept, so declaring it again is rejected
+        for (int version = 2; version <= VERSIONS; version++) {
+            try {
+                poirot.backfill(version, new BackfillDesc.Builder().build());
+                fail("Expected the backfills of version " + version + " to have been declared");
+            } catch (IllegalArgumentException expected) {
+                assertEquals("Backfills have already been declared for version " + version, expected.getMessage());
+            }
+        }
+
+        final File fixtureDirectory = mTemporaryFolder.newFolder("fixtures");
+        poirot.generateFixtures(fixtureDirectory.getPath());
+        assertEquals(VERSIONS * (THREADS + 1), fixtureDirectory.list().length);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + new File(fixtureDirectory, FixtureGenerator.fixtureName(VERSIONS, "thread_0")).getPath());
+             Statement statement = connection.createStatement();
+             ResultSet tables = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name LIKE 'TAG%'")) {
+            assertEquals(THREADS, tables.getInt(1));
+        }
+    }
+
+    /**
+     * Declare a module, a fixture seed and, on the first thread, the renames, backfills and indexes of every version
+     */
+    private static Callable<Void> createDefinition(final Poirot poirot, final int thread, final CountDownLatch start) {
+
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                for (int version = 1; version <= VERSIONS; version++) {
+                    poirot.contribute(version, "module" + thread, new SchemaContribution() {
+                        @Override
+                        public void contribute(Schema partition) {
+                            partition.addEntity("Tag" + thread).addIdProperty();
+                        }
+                    });
+                    poirot.seedFixture(version, new FixtureSeed.Builder()
+                            .name("thread_" + thread)
+                            .sql(String.format(Locale.US, "INSERT INTO ITEM (_id, NAME) VALUES (%d, 'thread %d')", thread + 1, thread))
+                            .build());
+                    if (thread == 0) {
+                        poirot.addIndexes(version, new IndexDesc.Builder().build());
+                        if (version > 1) {
+                            poirot.renameProperties(version, new PropertyRenameDesc.Builder().build());
+                            poirot.backfill(version, new BackfillDesc.Builder().build());
+                        }
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Entity;
+import de.greenrobot.daogenerator.Property;
+import de.greenrobot.daogenerator.Schema;
+import de.greenrobot.daogenerator.ToOne;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaPartitionsTest {
+
+    private ExecutorService mExecutor;
+
+    private Schema mSchema;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mSchema = new Schema(1, "com.vinaysshenoy.poirot.test.db");
+        mSchema.addEntity("Account").addIdProperty();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void mergesPartitionsInModuleOrder() {
+
+        final SortedMap<String, SchemaContribution> contributions = new TreeMap<>();
+        contributions.put("orders", new SchemaContribution() {
+            @Override
+            public void contribute(Schema partition) {
+                final Entity order = partition.addEntity("Order");
+                order.setTableName("ORDERS");
+                order.addIdProperty();
+                final Entity item = partition.addEntity("OrderItem");
+                item.addIdProperty();
+                final Property orderId = item.addLongProperty("orderId").notNull().getProperty();
+                item.addToOne(order, orderId);
+                order.addToMany(item, orderId);
+            }
+        });
+        contributions.put("catalog", createContribution("Product"));
+
+        merge(contributions);
+
+        final List<String> classNames = new ArrayList<>();
+        for (Entity entity : mSchema.getEntities()) {
+            classNames.add(entity.getClassName());
+            assertSame(mSchema, entity.getSchema());
+        }
+        assertEquals(4, classNames.size());
+        assertEquals("Account", classNames.get(0));
+        assertEquals("Product", classNames.get(1));
+        assertEquals("Order", classNames.get(2));
+        assertEquals("OrderItem", classNames.get(3));
+
+        //The merged schema initializes like one whose entities were added to it directly
+        Utils.initialize(mSchema);
+        final Entity item = Utils.entityMapFromSchema(mSchema).get("OrderItem");
+        final ToOne toOne = item.getToOneRelations().get(0);
+        assertSame(Utils.entityMapFromSchema(mSchema).get("Order"), toOne.getTargetEntity());
+        assertEquals("ORDER_ITEM", item.getTableName());
+    }
+
+    @Test
+    public void rejectsClassNamesOfAnotherModule() {
+
+        final SortedMap<String, SchemaContribution> contributions = new TreeMap<>();
+        contributions.put("billing", createContribution("Invoice"));
+        contributions.put("reports", createContribution("Invoice"));
+
+        assertMergeFails(contributions, "Entity Invoice of module reports in version 1 is already defined by module billing");
+    }
+
+    @Test
+    public void rejectsTableNamesOfTheSchema() {
+
+        final SortedMap<String, SchemaContribution> contributions = new TreeMap<>();
+        contributions.put("legacy", new SchemaContribution() {
+            @Override
+            public void contribute(Schema partition) {
+                final Entity entity = partition.addEntity("LegacyAccount");
+                entity.setTableName("account");
+                entity.addIdProperty();
+            }
+        });
+
+        assertMergeFails(contributions, "Table ACCOUNT of entity LegacyAccount of module legacy in version 1 is already used by the schema");
+    }
+
+    @Test
+    public void reportsModulesThatFailToContribute() {
+
+        final SortedMap<String, SchemaContribution> contributions = new TreeMap<>();
+        contributions.put("broken", new SchemaContribution() {
+            @Override
+            public void contribute(Schema partition) {
+                throw new UnsupportedOperationException("Not yet");
+            }
+        });
+
+        try {
+            merge(contributions);
+            fail("Expected the merge to fail");
+        } catch (RuntimeException expected) {
+            assertEquals("Module broken failed to contribute to version 1!", expected.getMessage());
+            assertTrue(expected.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    private void merge(SortedMap<String, SchemaContribution> contributions) {
+
+        final SchemaPartitions partitions = new SchemaPartitions(mSchema, contributions);
+        partitions.build(mExecutor);
+        partitions.merge();
+    }
+
+    private void assertMergeFails(SortedMap<String, SchemaContribution> contributions, String message) {
+
+        try {
+            merge(contributions);
+            fail("Expected the merge to fail");
+        } catch (IllegalStateException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+
+    private static SchemaContribution createContribution(final String className) {
+
+        return new SchemaContribution() {
+            @Override
+            public void contribute(Schema partition) {
+                partition.addEntity(className).addIdProperty();
+            }
+        };
+    }
+}
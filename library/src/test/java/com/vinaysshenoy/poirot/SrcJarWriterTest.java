@@ -0,0 +1,135 @@
+package com.vinaysshenoy.poirot;
+
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import de.greenrobot.daogenerator.Entity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SrcJarWriterTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void generatesIdenticalJars() throws Exception {
+
+        final File first = mTemporaryFolder.newFolder("first");
+        final File second = mTemporaryFolder.newFolder("second");
+        generateSrcJars(first);
+        //Written a while later, so that only a fixed timestamp keeps the jars the same
+        Thread.sleep(2000L);
+        generateSrcJars(second);
+
+        assertArrayEquals(read(new File(first, "current.srcjar")), read(new File(second, "current.srcjar")));
+        assertArrayEquals(read(new File(first, "older.srcjar")), read(new File(second, "older.srcjar")));
+    }
+
+    @Test
+    public void writesSortedEntriesWithAFixedTime() throws Exception {
+
+        final File directory = mTemporaryFolder.newFolder("jars");
+        generateSrcJars(directory);
+
+        final List<String> names = entryNames(new File(directory, "current.srcjar"));
+        final List<String> sortedNames = new ArrayList<>(names);
+        Collections.sort(sortedNames);
+        assertEquals(sortedNames, names);
+        assertTrue(names.contains("com/vinaysshenoy/poirot/test/db/UserDao.java"));
+        assertTrue(names.contains("com/vinaysshenoy/poirot/test/db/helper/PoirotDbHelper.java"));
+        assertTrue(names.contains("com/vinaysshenoy/poirot/test/db/helper/migrations/MigrateV1ToV2.java"));
+        assertEquals(Arrays.asList(
+                "com/vinaysshenoy/poirot/test/db/v1/DaoMaster.java",
+                "com/vinaysshenoy/poirot/test/db/v1/DaoSession.java",
+                "com/vinaysshenoy/poirot/test/db/v1/User.java",
+                "com/vinaysshenoy/poirot/test/db/v1/UserDao.java"
+        ), entryNames(new File(directory, "older.srcjar")));
+
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(new File(directory, "current.srcjar")))) {
+            final Calendar calendar = new GregorianCalendar();
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                calendar.setTimeInMillis(entry.getTime());
+                assertEquals(1980, calendar.get(Calendar.YEAR));
+                assertEquals(Calendar.FEBRUARY, calendar.get(Calendar.MONTH));
+                assertEquals(1, calendar.get(Calendar.DAY_OF_MONTH));
+                assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+            }
+        }
+    }
+
+    @Test
+    public void doesNotDependOnTheOrderOfFiles() throws Exception {
+
+        final File first = mTemporaryFolder.newFile("first.srcjar");
+        final File second = mTemporaryFolder.newFile("second.srcjar");
+        new SrcJarWriter().add(javaFile("Alpha")).add(javaFile("Beta")).writeTo(first);
+        new SrcJarWriter().add(javaFile("Beta")).add(javaFile("Alpha")).writeTo(second);
+
+        assertArrayEquals(read(first), read(second));
+    }
+
+    @Test
+    public void rejectsDuplicatePaths() {
+
+        final SrcJarWriter writer = new SrcJarWriter().add(javaFile("Alpha"));
+        try {
+            writer.add(javaFile("Alpha"));
+            fail("Expected the duplicate to be rejected");
+        } catch (IllegalStateException expected) {
+            assertEquals("Source jar already contains com/vinaysshenoy/poirot/test/Alpha.java", expected.getMessage());
+        }
+    }
+
+    private static void generateSrcJars(File directory) throws Exception {
+
+        final Poirot poirot = new Poirot("com.vinaysshenoy.poirot.test.db");
+        final Entity user1 = poirot.create(1, false).addEntity("User");
+        user1.addIdProperty();
+        user1.addStringProperty("name");
+        final Entity user2 = poirot.create(2, true).addEntity("User");
+        user2.addIdProperty();
+        user2.addStringProperty("name");
+        user2.addStringProperty("email");
+
+        poirot.generateSrcJars(new File(directory, "current.srcjar").getPath(), new File(directory, "older.srcjar").getPath());
+    }
+
+    private static JavaFile javaFile(String name) {
+        return JavaFile.builder("com.vinaysshenoy.poirot.test", TypeSpec.classBuilder(name).build()).build();
+    }
+
+    private static List<String> entryNames(File srcJar) throws Exception {
+
+        final List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(srcJar))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] read(File file) throws Exception {
+        return Files.readAllBytes(file.toPath());
+    }
+}
@@ -10,7 +10,7 @@ import java.nio.file.Paths;
 /**
  * Created by vinaysshenoy on 16/01/16.
  */
-public class Generator {
+public class Generator implements PoirotDefinition {
 
     private static final String PACKAGE_NAME = "com.vinaysshenoy.poirot.example.db";
     private static final Path OUT_DIR_ROOT = Paths.get("out", "java");
@@ -21,6 +21,19 @@ public class Generator {
 
         System.out.println("RUNNING!");
 
+        final Poirot poirot = new Generator().define();
+        try {
+            poirot.generate(CURRENT_SCHEMA_DIR.toString(), OLD_SCHEMA_DIR.toString());
+            System.out.println("Entities generated!");
+        } catch (Exception e) {
+            System.out.println("Could not generate entities!");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Poirot define() {
+
         final EntityRenameDesc.Builder entityRenameDescBuilder = new EntityRenameDesc.Builder();
         final Poirot poirot = new Poirot(PACKAGE_NAME);
         createV1Schema(poirot.create(1, false));
@@ -46,14 +59,14 @@ public class Generator {
                         .map("Company", "Organization")
                         .build()
         ));
-
-        try {
-            poirot.generate(CURRENT_SCHEMA_DIR.toString(), OLD_SCHEMA_DIR.toString());
-            System.out.println("Entities generated!");
-        } catch (Exception e) {
-            System.out.println("Could not generate entities!");
-            e.printStackTrace();
-        }
+        poirot.backfill(
+                5,
+                new BackfillDesc.Builder()
+                        //PAN numbers are unique, so existing organizations cannot all start with an empty one
+                        .backfill("Organization", "panNumber", "'PENDING-' || COMPANY_CODE")
+                        .build()
+        );
+        return poirot;
     }
 
     private static void createV5Schema(Schema v5) {
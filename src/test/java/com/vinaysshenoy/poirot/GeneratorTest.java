@@ -0,0 +1,201 @@
+package com.vinaysshenoy.poirot;
+
+import de.greenrobot.daogenerator.Schema;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the migrations of the sample schema history against the database fixtures of {@link Generator}, and checks that
+ * every migrated database has the tables, columns and indexes of a new database of the version it was migrated to
+ */
+public class GeneratorTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Migrations mMigrations;
+
+    private List<Schema> mSchemas;
+
+    private File mFixtureDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+
+        final Poirot poirot = new Generator().define();
+        mFixtureDirectory = mTemporaryFolder.newFolder("fixtures");
+        poirot.generateFixtures(mFixtureDirectory.getPath());
+        mMigrations = poirot.createMigrations();
+        mSchemas = mMigrations.getSchemas();
+    }
+
+    @Test
+    public void upgradesEveryVersionToTheCurrentOne() throws Exception {
+
+        final Schema current = mSchemas.get(mSchemas.size() - 1);
+        for (int i = 0; i < mSchemas.size() - 1; i++) {
+            final File database = copyFixture(mSchemas.get(i));
+            try (Connection connection = openDatabase(database)) {
+                for (int j = i + 1; j < mSchemas.size(); j++) {
+                    apply(connection, mMigrations.createStatements(mSchemas.get(j - 1), mSchemas.get(j)), mSchemas.get(j).getVersion());
+                }
+                assertSchema(connection, current);
+            }
+        }
+    }
+
+    @Test
+    public void downgradesTheCurrentVersionToEveryOlderOne() throws Exception {
+
+        final File database = copyFixture(mSchemas.get(mSchemas.size() - 1));
+        try (Connection connection = openDatabase(database)) {
+            for (int i = mSchemas.size() - 1; i > 0; i--) {
+                apply(connection, mMigrations.createReverseStatements(mSchemas.get(i - 1), mSchemas.get(i)), mSchemas.get(i - 1).getVersion());
+                assertSchema(connection, mSchemas.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void upgradesSeededRowsIntoUniqueAddedColumns() throws Exception {
+
+        final Poirot poirot = new Generator().define();
+        poirot.seedFixture(4, new FixtureSeed.Builder()
+                .name("companies")
+                .sql("INSERT INTO COMPANY (_id, COMPANY_CODE, NAME) VALUES (1, 'ACME', 'Acme')",
+                        "INSERT INTO COMPANY (_id, COMPANY_CODE, NAME) VALUES (2, 'INITECH', 'Initech')")
+                .build());
+        final File fixtureDirectory = mTemporaryFolder.newFolder("seeded");
+        poirot.generateFixtures(fixtureDirectory.getPath());
+
+        final Schema v4 = mSchemas.get(mSchemas.size() - 2);
+        final File database = copyFixture(fixtureDirectory, v4, "companies");
+        try (Connection connection = openDatabase(database)) {
+            apply(connection, mMigrations.createStatements(v4, mSchemas.get(mSchemas.size() - 1)), mSchemas.get(mSchemas.size() - 1).getVersion());
+            assertSchema(connection, mSchemas.get(mSchemas.size() - 1));
+
+            try (Statement statement = connection.createStatement();
+                 ResultSet organizations = statement.executeQuery("SELECT COMPANY_CODE, PAN_NUMBER FROM ORGANIZATION ORDER BY _id")) {
+                assertTrue(organizations.next());
+                assertEquals("ACME", organizations.getString(1));
+                assertEquals("PENDING-ACME", organizations.getString(2));
+                assertTrue(organizations.next());
+                assertEquals("INITECH", organizations.getString(1));
+                assertEquals("PENDING-INITECH", organizations.getString(2));
+                assertFalse(organizations.next());
+            }
+        }
+    }
+
+    private File copyFixture(Schema schema) throws Exception {
+        return copyFixture(mFixtureDirectory, schema, null);
+    }
+
+    private File copyFixture(File fixtureDirectory, Schema schema, String seedName) throws Exception {
+
+        final File database = new File(mTemporaryFolder.getRoot(), "migrated-" + schema.getVersion() + ".db");
+        Files.deleteIfExists(database.toPath());
+        Files.copy(new File(fixtureDirectory, FixtureGenerator.fixtureName(schema.getVersion(), seedName)).toPath(), database.toPath());
+        return database;
+    }
+
+    /**
+     * Run the statements of a migration step in a transaction, as the generated helper does
+     */
+    private static void apply(Connection connection, List<MigrationStatement> statements, int version) throws SQLException {
+
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (MigrationStatement migrationStatement : statements) {
+                if (migrationStatement.getKind() == MigrationStatement.Kind.CHECK_REFERENCES) {
+                    try (ResultSet orphans = statement.executeQuery(migrationStatement.getSql())) {
+                        assertFalse("Orphaned rows in " + migrationStatement.getTableName(), orphans.next());
+                    }
+                } else {
+                    statement.execute(migrationStatement.getSql());
+                }
+            }
+            statement.execute("PRAGMA user_version = " + version);
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    /**
+     * Check that a migrated database has every table, column and index of a new database of a schema. Upgrades leave
+     * the columns of removed properties in their tables, so extra columns are allowed
+     */
+    private void assertSchema(Connection connection, Schema schema) throws SQLException {
+
+        final Map<String, Set<String>> migrated = describe(connection);
+        final Map<String, Set<String>> expected;
+        try (Connection fixture = openDatabase(new File(mFixtureDirectory, FixtureGenerator.fixtureName(schema.getVersion(), null)))) {
+            expected = describe(fixture);
+        }
+
+        for (Map.Entry<String, Set<String>> entry : expected.entrySet()) {
+            assertTrue("Version " + schema.getVersion() + " is missing " + entry.getKey(), migrated.containsKey(entry.getKey()));
+            assertTrue("Version " + schema.getVersion() + " has " + migrated.get(entry.getKey()) + " instead of " + entry.getValue(),
+                    migrated.get(entry.getKey()).containsAll(entry.getValue()));
+        }
+        for (String name : migrated.keySet()) {
+            assertTrue("Version " + schema.getVersion() + " has the extra " + name, expected.containsKey(name));
+        }
+
+        try (Statement statement = connection.createStatement(); ResultSet version = statement.executeQuery("PRAGMA user_version")) {
+            assertEquals(schema.getVersion(), version.getInt(1));
+        }
+    }
+
+    /**
+     * @return The columns of every table, and the indexed columns of every index, by the name of the table or index
+     */
+    private static Map<String, Set<String>> describe(Connection connection) throws SQLException {
+
+        //The table that backfills are tracked in is only created by migrations
+        final Map<String, String> objects = new TreeMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT type, name FROM sqlite_master WHERE name NOT LIKE 'sqlite_%' AND name != '" + BackfillGenerator.BACKFILL_TABLE + "'")) {
+            while (resultSet.next()) {
+                objects.put(resultSet.getString("name"), resultSet.getString("type"));
+            }
+        }
+
+        final Map<String, Set<String>> description = new TreeMap<>();
+        for (Map.Entry<String, String> object : objects.entrySet()) {
+            final String pragma = "table".equals(object.getValue()) ? "table_info" : "index_info";
+            final Set<String> columns = new HashSet<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("PRAGMA " + pragma + "(\"" + object.getKey() + "\")")) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("name"));
+                }
+            }
+            description.put(object.getValue() + " " + object.getKey(), columns);
+        }
+        return description;
+    }
+
+    private static Connection openDatabase(File database) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + database.getPath());
+    }
+}